@@ -22,6 +22,7 @@ import static org.junit.Assert.fail;
 
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.PathNotFoundException;
 import javax.jcr.Property;
 import javax.jcr.PropertyType;
@@ -29,9 +30,25 @@ import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.nodetype.NodeType;
 import javax.jcr.nodetype.NodeTypeManager;
+import javax.jcr.query.Query;
+import javax.jcr.query.RowIterator;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
 
 /**
  * Assertion for writing unit tests against a JCR repository.
@@ -209,4 +226,213 @@ public final class JCRAssert {
         final NodeTypeManager ntm = session.getWorkspace().getNodeTypeManager();
         assertTrue("NodeType " + nodeTypeName + " does not exist", ntm.hasNodeType(nodeTypeName));
     }
+
+    /**
+     * Asserts that all nodes of the given absolute paths exist in the session. All paths are checked and all missing
+     * nodes are reported together. The paths are grouped by their parent node, so that the expected children of each
+     * parent are looked up together with a single request.
+     *
+     * @param session
+     *            the session to search for the nodes
+     * @param absPaths
+     *            the absolute paths of the nodes that are expected to exist
+     * @throws RepositoryException
+     *             if the repository access failed
+     */
+    public static void assertNodesExist(final Session session, final String... absPaths) throws RepositoryException {
+
+        final Map<String, Set<String>> namesByParent = new LinkedHashMap<>();
+        for (String path : absPaths) {
+            final String absPath = withoutFirstIndex(path);
+            final int separator = absPath.lastIndexOf('/');
+            if (separator < 0 || "/".equals(absPath)) {
+                continue;
+            }
+            final String parentPath = separator == 0 ? "/" : absPath.substring(0, separator);
+            Set<String> names = namesByParent.get(parentPath);
+            if (names == null) {
+                names = new LinkedHashSet<>();
+                namesByParent.put(parentPath, names);
+            }
+            //the index of same-name siblings is not part of the name to match
+            names.add(absPath.substring(separator + 1).replaceFirst("\\[\\d+\\]$", ""));
+        }
+        final Set<String> existing = new HashSet<>();
+        existing.add("/");
+        for (Map.Entry<String, Set<String>> parent : namesByParent.entrySet()) {
+            if (!session.nodeExists(parent.getKey())) {
+                continue;
+            }
+            final Set<String> names = parent.getValue();
+            final NodeIterator children = session.getNode(parent.getKey())
+                                                 .getNodes(names.toArray(new String[names.size()]));
+            while (children.hasNext()) {
+                existing.add(children.nextNode().getPath());
+            }
+        }
+        final List<String> missing = new ArrayList<>();
+        for (String absPath : absPaths) {
+            if (!existing.contains(withoutFirstIndex(absPath))) {
+                missing.add(absPath);
+            }
+        }
+        if (!missing.isEmpty()) {
+            fail(missing.size() + " of " + absPaths.length + " nodes do not exist: " + missing);
+        }
+    }
+
+    /**
+     * Removes the index of first same-name siblings from the path as {@link Node#getPath()} omits it, so that
+     * <code>/a[1]/b[1]</code> and <code>/a/b</code> denote the same node.
+     */
+    private static String withoutFirstIndex(final String absPath) {
+
+        return absPath.replaceAll("\\[1\\](?=/|$)", "");
+    }
+
+    /**
+     * Asserts that the subtree of the node matches the content definition in the inkstand import format. The subtree
+     * is read once and compared against the entire definition so that all differences are reported together. The
+     * root node of the definition corresponds to the given node. Child nodes that are not defined are reported as
+     * differences, properties that are not defined - such as auto-created properties - are ignored. Binary
+     * properties are only compared by type.
+     *
+     * @param expectedDefinition
+     *            the URL of the content definition describing the expected tree
+     * @param node
+     *            the root node of the actual tree
+     * @throws RepositoryException
+     *             if the repository access failed
+     */
+    public static void assertTreeEquals(final URL expectedDefinition, final Node node) throws RepositoryException {
+
+        final TreeComparator comparator = new TreeComparator(node);
+        final SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try (InputStream definition = expectedDefinition.openStream()) {
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.newSAXParser().parse(definition, comparator);
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new AssertionError("Could not compare tree with " + expectedDefinition, e);
+        }
+        final List<String> differences = comparator.getDifferences();
+        if (!differences.isEmpty()) {
+            final StringBuilder buf = new StringBuilder();
+            buf.append("Node ").append(node.getPath()).append(" differs in ").append(differences.size()).append(
+                    " places from ").append(expectedDefinition);
+            for (String difference : differences) {
+                buf.append("\n\t").append(difference);
+            }
+            fail(buf.toString());
+        }
+    }
+
+    /**
+     * Asserts the number of results of a query.
+     *
+     * @param session
+     *            the session to execute the query with
+     * @param language
+     *            the query language, i.e. {@link Query#JCR_SQL2} or {@link Query#XPATH}
+     * @param statement
+     *            the query statement
+     * @param expectedCount
+     *            the expected number of result rows
+     * @throws RepositoryException
+     *             if the query is invalid or could not be executed
+     */
+    public static void assertQueryResultCount(final Session session,
+                                              final String language,
+                                              final String statement,
+                                              final long expectedCount) throws RepositoryException {
+
+        final Query query = session.getWorkspace().getQueryManager().createQuery(statement, language);
+        assertEquals("Result count of query " + statement, expectedCount, executeQuery(query));
+    }
+
+    /**
+     * Asserts that none of repeated executions of a query takes longer than the maximum duration. Each execution
+     * includes iterating over all result rows, as repositories may fetch the results lazily.
+     *
+     * @param session
+     *            the session to execute the query with
+     * @param language
+     *            the query language, i.e. {@link Query#JCR_SQL2} or {@link Query#XPATH}
+     * @param statement
+     *            the query statement
+     * @param runs
+     *            the number of executions
+     * @param maxDuration
+     *            the maximum duration of a single execution
+     * @param unit
+     *            the unit of the maximum duration
+     * @throws RepositoryException
+     *             if the query is invalid or could not be executed
+     */
+    public static void assertQueryExecutionTime(final Session session,
+                                                final String language,
+                                                final String statement,
+                                                final int runs,
+                                                final long maxDuration,
+                                                final TimeUnit unit) throws RepositoryException {
+
+        final Query query = session.getWorkspace().getQueryManager().createQuery(statement, language);
+        final long maxNanos = unit.toNanos(maxDuration);
+        long slowest = 0;
+        int exceeded = 0;
+        for (int i = 0; i < runs; i++) {
+            final long start = System.nanoTime();
+            executeQuery(query);
+            final long duration = System.nanoTime() - start;
+            LOG.debug("Run {} of query {} took {} us", i, statement, TimeUnit.NANOSECONDS.toMicros(duration));
+            slowest = Math.max(slowest, duration);
+            if (duration > maxNanos) {
+                exceeded++;
+            }
+        }
+        if (exceeded > 0) {
+            fail("Query " + statement + " exceeded " + maxDuration + " " + unit + " in " + exceeded + " of " + runs
+                         + " runs, slowest run took " + unit.convert(slowest, TimeUnit.NANOSECONDS) + " " + unit);
+        }
+    }
+
+    /**
+     * Asserts that the query is backed by an index and does not traverse the content. The assertion relies on the
+     * {@link QueryPlan} reported by the repository. If the repository does not support explaining queries, such as
+     * Jackrabbit 2.x, the use of an index can not be verified and the assertion fails. Tests that should be skipped on
+     * such repositories may check {@link QueryPlan#isExplained()} of {@link QueryPlan#explain(Session, String,
+     * String)} before.
+     *
+     * @param session
+     *            the session to explain the query with
+     * @param language
+     *            the query language, i.e. {@link Query#JCR_SQL2} or {@link Query#XPATH}
+     * @param statement
+     *            the query statement
+     * @throws RepositoryException
+     *             if the query is invalid or could not be explained
+     */
+    public static void assertQueryUsesIndex(final Session session, final String language, final String statement)
+            throws RepositoryException {
+
+        final QueryPlan plan = QueryPlan.explain(session, language, statement);
+        LOG.debug("{}", plan);
+        if (!plan.isExplained()) {
+            fail("Index usage of query " + statement + " can not be verified, the repository does not explain queries");
+        }
+        if (!plan.isIndexUsed()) {
+            fail("Query " + statement + " does not use an index: " + plan.getPlan());
+        }
+    }
+
+    private static long executeQuery(final Query query) throws RepositoryException {
+
+        final RowIterator rows = query.execute().getRows();
+        long count = 0;
+        while (rows.hasNext()) {
+            rows.nextRow();
+            count++;
+        }
+        return count;
+    }
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.InvalidQueryException;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.RowIterator;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The execution plan of a JCR query as reported by the repository. Repositories supporting the <code>explain</code>
+ * prefix for queries, such as Jackrabbit Oak, report the indexes used for the query or whether the query traverses
+ * the content. Repositories without explain function, such as Jackrabbit 2.x, report no plan, so it can not be
+ * determined whether such a query is backed by an index.
+ *
+ * @author <a href="mailto:gerald.muecke@gmail.com">Gerald M&uuml;cke</a>
+ */
+public final class QueryPlan {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueryPlan.class);
+
+    /**
+     * Marker of the explain output of Oak for selectors that are not backed by an index
+     */
+    private static final String TRAVERSAL_MARKER = "/* traverse";
+
+    private static final String PLAN_COLUMN = "plan";
+
+    private final String language;
+    private final String statement;
+    private final String plan;
+    private final boolean explained;
+
+    private QueryPlan(final String language, final String statement, final String plan, final boolean explained) {
+
+        this.language = language;
+        this.statement = statement;
+        this.plan = plan;
+        this.explained = explained;
+    }
+
+    /**
+     * Determines the plan of the query. The query itself is not executed.
+     *
+     * @param session
+     *         the session to create the query with
+     * @param language
+     *         the query language, i.e. {@link Query#JCR_SQL2} or {@link Query#XPATH}
+     * @param statement
+     *         the query statement
+     *
+     * @return the plan of the query
+     *
+     * @throws RepositoryException
+     *         if the query is invalid or the plan could not be determined
+     */
+    public static QueryPlan explain(final Session session, final String language, final String statement)
+            throws RepositoryException {
+
+        final QueryManager queryManager = session.getWorkspace().getQueryManager();
+        final QueryResult result;
+        try {
+            result = queryManager.createQuery("explain " + statement, language).execute();
+        } catch (InvalidQueryException e) { //NOSONAR
+            return notExplained(queryManager, language, statement);
+        }
+        //a repository without explain function may accept the prefix as part of a valid XPath query
+        if (!Arrays.asList(result.getColumnNames()).contains(PLAN_COLUMN)) {
+            return notExplained(queryManager, language, statement);
+        }
+        final StringBuilder buf = new StringBuilder();
+        final RowIterator rows = result.getRows();
+        while (rows.hasNext()) {
+            final Value plan = rows.nextRow().getValue(PLAN_COLUMN);
+            if (plan != null) {
+                if (buf.length() > 0) {
+                    buf.append('\n');
+                }
+                buf.append(plan.getString());
+            }
+        }
+        return new QueryPlan(language, statement, buf.toString(), true);
+    }
+
+    private static QueryPlan notExplained(final QueryManager queryManager,
+                                          final String language,
+                                          final String statement) throws RepositoryException {
+
+        LOG.debug("Repository does not support explaining queries");
+        //the query is parsed nevertheless, so that invalid queries are reported
+        queryManager.createQuery(statement, language);
+        return new QueryPlan(language, statement, null, false);
+    }
+
+    /**
+     * @return the language of the query
+     */
+    public String getLanguage() {
+
+        return this.language;
+    }
+
+    /**
+     * @return the statement of the query
+     */
+    public String getStatement() {
+
+        return this.statement;
+    }
+
+    /**
+     * @return the plan as reported by the repository or <code>null</code> if the repository does not support
+     * explaining queries.
+     */
+    public String getPlan() {
+
+        return this.plan;
+    }
+
+    /**
+     * @return <code>true</code> if the plan was reported by the explain function of the repository
+     */
+    public boolean isExplained() {
+
+        return this.explained;
+    }
+
+    /**
+     * @return <code>true</code> if all selectors of the query are backed by an index, <code>false</code> if at least
+     * one selector traverses the content
+     *
+     * @throws IllegalStateException
+     *         if the plan was not reported by the repository, so the use of an index is not known
+     */
+    public boolean isIndexUsed() {
+
+        if (!this.explained) {
+            throw new IllegalStateException("Query " + this.statement + " was not explained by the repository");
+        }
+        return !this.plan.contains(TRAVERSAL_MARKER);
+    }
+
+    @Override
+    public String toString() {
+
+        return "QueryPlan{" + this.language + ": " + this.statement + " -> "
+                + (this.explained ? this.plan : "not explained") + '}';
+    }
+}
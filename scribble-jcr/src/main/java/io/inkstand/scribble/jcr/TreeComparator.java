@@ -0,0 +1,357 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+import javax.jcr.nodetype.NodeType;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import io.inkstand.scribble.jcr.rules.util.XMLContentHandler;
+
+/**
+ * Compares a node tree against a content definition in the inkstand import format. The actual subtree is read once
+ * into a map of relative paths, the content definition is streamed and each expected node, mixin and property is
+ * compared against the map. All differences are collected so they can be reported at once. Properties of the actual
+ * nodes that are not defined in the content definition, such as auto-created properties, are ignored, child nodes
+ * that are not defined are reported.
+ *
+ * @author <a href="mailto:gerald.muecke@gmail.com">Gerald M&uuml;cke</a>
+ */
+final class TreeComparator extends DefaultHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TreeComparator.class);
+
+    private final Node rootNode;
+    /**
+     * The nodes of the actual subtree by their path relative to the root node, the root node itself is mapped by the
+     * empty path.
+     */
+    private final Map<String, Node> actualNodes = new LinkedHashMap<>();
+    /**
+     * The relative paths of the actual nodes that are defined in the content definition.
+     */
+    private final Set<String> comparedPaths = new HashSet<>();
+    /**
+     * The paths of the declared ids of the content definition, relative to the root node.
+     */
+    private final Map<String, String> declaredIds = new HashMap<>();
+    /**
+     * The reference properties of the content definition, compared after all ids are declared.
+     */
+    private final List<String[]> references = new ArrayList<>();
+    private final List<String> differences = new ArrayList<>();
+    /**
+     * The relative paths of the expected node elements, <code>null</code> if the node does not exist.
+     */
+    private final Deque<String> pathStack = new LinkedList<>();
+
+    private String propertyName;
+    private String propertyType;
+    private boolean propertyRef;
+    private StringBuilder propertyText;
+
+    /**
+     * Creates a comparator for the subtree of the specified node and reads the subtree.
+     *
+     * @param rootNode
+     *         the node corresponding to the root node of the content definition
+     *
+     * @throws RepositoryException
+     *         if the subtree could not be read
+     */
+    TreeComparator(final Node rootNode) throws RepositoryException {
+
+        this.rootNode = rootNode;
+        this.actualNodes.put("", rootNode);
+        this.collectNodes(rootNode, "");
+        LOG.debug("Collected {} actual nodes", this.actualNodes.size());
+    }
+
+    private void collectNodes(final Node parent, final String parentPath) throws RepositoryException {
+
+        final NodeIterator it = parent.getNodes();
+        while (it.hasNext()) {
+            final Node child = it.nextNode();
+            final String path = toPath(parentPath, nameOf(child));
+            this.actualNodes.put(path, child);
+            this.collectNodes(child, path);
+        }
+    }
+
+    private static String nameOf(final Node node) throws RepositoryException {
+
+        return node.getIndex() > 1 ? node.getName() + '[' + node.getIndex() + ']' : node.getName();
+    }
+
+    private static String toPath(final String parentPath, final String name) {
+
+        return parentPath.isEmpty() ? name : parentPath + '/' + name;
+    }
+
+    private static String parentOf(final String path) {
+
+        final int separator = path.lastIndexOf('/');
+        return separator < 0 ? "" : path.substring(0, separator);
+    }
+
+    /**
+     * @return the differences between the content definition and the actual tree, after the definition was parsed.
+     */
+    List<String> getDifferences() {
+
+        return this.differences;
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes attributes)
+            throws SAXException {
+
+        if (!XMLContentHandler.NS_INK_IMPORT.equals(uri)) {
+            return;
+        }
+        try {
+            switch (localName) {
+                case "rootNode":
+                    this.startNode("", attributes);
+                    if (!attributes.getValue("name").equals(this.rootNode.getName())) {
+                        this.differences.add("Root node " + this.rootNode.getPath() + " expected to be named "
+                                                     + attributes.getValue("name"));
+                    }
+                    break;
+                case "node":
+                    final String parentPath = this.pathStack.peek();
+                    this.startNode(parentPath == null ? null : toPath(parentPath, attributes.getValue("name")),
+                                   attributes);
+                    break;
+                case "mixin":
+                    this.compareMixin(attributes.getValue("name"));
+                    break;
+                case "property":
+                    this.propertyName = attributes.getValue("name");
+                    this.propertyType = attributes.getValue("jcrType");
+                    this.propertyRef = attributes.getValue("ref") != null;
+                    this.propertyText = new StringBuilder();
+                    break;
+                default:
+                    break;
+            }
+        } catch (RepositoryException e) {
+            throw new SAXException("Could not compare " + localName, e);
+        }
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) throws SAXException {
+
+        if (this.propertyText != null) {
+            this.propertyText.append(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+
+        if (!XMLContentHandler.NS_INK_IMPORT.equals(uri)) {
+            return;
+        }
+        try {
+            if ("rootNode".equals(localName) || "node".equals(localName)) {
+                this.pathStack.pop();
+            } else if ("property".equals(localName)) {
+                this.compareProperty(this.propertyName,
+                                     this.propertyType,
+                                     this.propertyRef,
+                                     this.propertyText.toString().trim());
+                this.propertyText = null;
+            }
+        } catch (RepositoryException e) {
+            throw new SAXException("Could not compare " + localName, e);
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+
+        try {
+            for (String[] ref : this.references) {
+                this.compareReference(ref[0], ref[1], ref[2]);
+            }
+            for (Map.Entry<String, Node> actual : this.actualNodes.entrySet()) {
+                final String path = actual.getKey();
+                //only the topmost node of an unexpected subtree is reported
+                if (!this.comparedPaths.contains(path) && this.comparedPaths.contains(parentOf(path))) {
+                    this.differences.add("Unexpected node " + actual.getValue().getPath());
+                }
+            }
+        } catch (RepositoryException e) {
+            throw new SAXException("Could not compare references", e);
+        }
+    }
+
+    /**
+     * Pushes the path of the expected node if the node exists and compares the primary type.
+     */
+    private void startNode(final String path, final Attributes attributes) throws RepositoryException {
+
+        final Node actual = path == null ? null : this.actualNodes.get(path);
+        if (actual == null) {
+            if (path != null) {
+                this.differences.add("Missing node " + this.absPath(path));
+            }
+            //the children of a missing node are not reported separately
+            this.pathStack.push(null);
+            return;
+        }
+        this.pathStack.push(path);
+        this.comparedPaths.add(path);
+        final String primaryType = attributes.getValue("primaryType");
+        if (primaryType != null && !primaryType.equals(actual.getPrimaryNodeType().getName())) {
+            this.differences.add("Node " + actual.getPath() + " has primary type "
+                                         + actual.getPrimaryNodeType().getName() + " instead of " + primaryType);
+        }
+        final String id = attributes.getValue("id");
+        if (id != null) {
+            this.declaredIds.put(id, actual.getPath());
+        }
+    }
+
+    private Node currentNode() {
+
+        final String path = this.pathStack.peek();
+        return path == null ? null : this.actualNodes.get(path);
+    }
+
+    private void compareMixin(final String mixinName) throws RepositoryException {
+
+        final Node node = this.currentNode();
+        if (node == null) {
+            return;
+        }
+        for (NodeType mixin : node.getMixinNodeTypes()) {
+            if (mixin.getName().equals(mixinName)) {
+                return;
+            }
+        }
+        this.differences.add("Node " + node.getPath() + " has no mixin type " + mixinName);
+    }
+
+    private void compareProperty(final String name, final String type, final boolean ref, final String text)
+            throws RepositoryException {
+
+        final Node node = this.currentNode();
+        if (node == null) {
+            return;
+        }
+        if (!node.hasProperty(name)) {
+            this.differences.add("Node " + node.getPath() + " has no property " + name);
+            return;
+        }
+        final Property actual = node.getProperty(name);
+        final int expectedType = toPropertyType(type);
+        if (expectedType != PropertyType.UNDEFINED && actual.getType() != expectedType) {
+            this.differences.add("Property " + actual.getPath() + " has type "
+                                         + PropertyType.nameFromValue(actual.getType()) + " instead of "
+                                         + PropertyType.nameFromValue(expectedType));
+            return;
+        }
+        //a property of undefined type is compared using the type of the actual property
+        final int compareType = expectedType == PropertyType.UNDEFINED ? actual.getType() : expectedType;
+        switch (compareType) {
+            case PropertyType.BINARY:
+                //binary content is only compared by type
+                break;
+            case PropertyType.REFERENCE:
+            case PropertyType.WEAKREFERENCE:
+                this.references.add(new String[] { node.getPath(), name, text });
+                break;
+            default:
+                if (!ref) {
+                    final Value expected = node.getSession().getValueFactory().createValue(text, compareType);
+                    if (!expected.getString().equals(actual.getString())) {
+                        this.differences.add("Property " + actual.getPath() + " is '" + actual.getString()
+                                                     + "' instead of '" + expected.getString() + "'");
+                    }
+                }
+                break;
+        }
+    }
+
+    private void compareReference(final String nodePath, final String name, final String target)
+            throws RepositoryException {
+
+        final Property property = this.rootNode.getSession().getNode(nodePath).getProperty(name);
+        final Node targetNode;
+        try {
+            targetNode = property.getNode();
+        } catch (ItemNotFoundException e) { //NOSONAR
+            //the target of a weak reference may have been removed
+            this.differences.add("Property " + property.getPath() + " references missing node "
+                                         + property.getString() + " instead of " + target);
+            return;
+        }
+        final String declaredPath = this.declaredIds.get(target);
+        final boolean matches;
+        if (declaredPath != null) {
+            matches = declaredPath.equals(targetNode.getPath());
+        } else if (target.startsWith("/")) {
+            matches = target.equals(targetNode.getPath());
+        } else {
+            matches = target.equals(targetNode.getIdentifier());
+        }
+        if (!matches) {
+            this.differences.add("Property " + nodePath + '/' + name + " references " + targetNode.getPath()
+                                         + " instead of " + target);
+        }
+    }
+
+    private String absPath(final String relPath) throws RepositoryException {
+
+        return relPath.isEmpty() ? this.rootNode.getPath() : this.rootNode.getPath() + '/' + relPath;
+    }
+
+    /**
+     * Converts the type name of the import format (i.e. DOUBLE, WEAKREFERENCE, UNDEFINED) to the JCR property type.
+     */
+    private static int toPropertyType(final String jcrType) {
+
+        for (int type = PropertyType.UNDEFINED; type <= PropertyType.DECIMAL; type++) {
+            if (PropertyType.nameFromValue(type).equalsIgnoreCase(jcrType)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown property type " + jcrType);
+    }
+}
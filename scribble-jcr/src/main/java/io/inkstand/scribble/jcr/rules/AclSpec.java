@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules;
+
+import java.util.Arrays;
+
+/**
+ * Specification of an access control entry granting a principal one or more privileges on a node. The specification
+ * is used to grant many privileges at once using {@link ContentRepository#grantAll(java.util.List)}.
+ *
+ * @author <a href="mailto:gerald.muecke@gmail.com">Gerald M&uuml;cke</a>
+ */
+public class AclSpec {
+
+    private final String principalId;
+    private final String path;
+    private final String[] privileges;
+
+    /**
+     * Creates a new specification of an access control entry.
+     *
+     * @param principalId
+     *         the id of the principal (user or group) to grant the privileges
+     * @param path
+     *         the path of the node to which the privileges should be applied
+     * @param privileges
+     *         the privileges to grant
+     */
+    public AclSpec(final String principalId, final String path, final String... privileges) {
+
+        this.principalId = principalId;
+        this.path = path;
+        this.privileges = privileges.clone();
+    }
+
+    /**
+     * @return the id of the principal to grant the privileges
+     */
+    public String getPrincipalId() {
+
+        return principalId;
+    }
+
+    /**
+     * @return the path of the node to which the privileges should be applied
+     */
+    public String getPath() {
+
+        return path;
+    }
+
+    /**
+     * @return the privileges to grant
+     */
+    public String[] getPrivileges() {
+
+        return privileges.clone();
+    }
+
+    @Override
+    public String toString() {
+
+        return "AclSpec{" + principalId + " " + path + " " + Arrays.toString(privileges) + '}';
+    }
+}
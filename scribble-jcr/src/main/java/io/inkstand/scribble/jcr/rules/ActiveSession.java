@@ -27,10 +27,17 @@ import org.junit.rules.TestRule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.inkstand.scribble.jcr.rules.util.SessionPool;
 import io.inkstand.scribble.rules.ExternalResource;
+import io.inkstand.scribble.rules.RuleSetup;
+import io.inkstand.scribble.rules.RuleSetup.RequirementLevel;
 
 /**
- * A {@link TestRule} for creating an active JCR session for a test.
+ * A {@link TestRule} for creating an active JCR session for a test. If session pooling is enabled on the {@link
+ * ContentRepository}, the user and admin sessions are leased from the pool of the repository and returned to the pool
+ * after the test, so that they can be reused by subsequent tests. If a workspace is set, all sessions are logged into
+ * that workspace instead of the default workspace, i.e. the workspace of a {@link ContentLoader} with workspace
+ * isolation. Sessions of a workspace other than the default workspace are not pooled.
  *
  * @author <a href="mailto:gerald.muecke@gmail.com">Gerald M&uuml;cke</a>
  */
@@ -48,6 +55,7 @@ public class ActiveSession extends ExternalResource<ContentRepository> {
     private final ContentRepository repositoryRule;
     private final String password;
     private final String username;
+    private String workspace;
 
     public ActiveSession(final ContentRepository repository) {
         this(repository, null, null);
@@ -60,6 +68,25 @@ public class ActiveSession extends ExternalResource<ContentRepository> {
         this.password = password;
     }
 
+    /**
+     * Sets the workspace to log into. Default is <code>null</code> for the default workspace of the repository.
+     *
+     * @param workspace
+     *            the name of the workspace, i.e. {@link ContentLoader#getWorkspaceName()}
+     */
+    @RuleSetup(RequirementLevel.OPTIONAL)
+    public void setWorkspace(final String workspace) {
+        assertStateBefore(State.INITIALIZED);
+        this.workspace = workspace;
+    }
+
+    /**
+     * @return the name of the workspace to log into or <code>null</code> for the default workspace
+     */
+    public String getWorkspace() {
+        return workspace;
+    }
+
     /**
      * Closes all sessions
      */
@@ -68,7 +95,7 @@ public class ActiveSession extends ExternalResource<ContentRepository> {
         super.after();
         if (adminSession != null) {
             LOG.info("Logging off {}", adminSession.getUserID());
-            adminSession.logout();
+            logout(adminSession);
             adminSession = null;
         }
         if (anonSession != null) {
@@ -78,7 +105,7 @@ public class ActiveSession extends ExternalResource<ContentRepository> {
         }
         for (final Session session : userSessions.values()) {
             LOG.info("Logging off {}", session.getUserID());
-            session.logout();
+            logout(session);
         }
         userSessions.clear();
         LOG.info("Closed all sessions");
@@ -104,10 +131,10 @@ public class ActiveSession extends ExternalResource<ContentRepository> {
         assertStateAfterOrEqual(State.CREATED);
         final Session session;
         if (username != null && password != null) {
-            session = getRepository().login(new SimpleCredentials(username, password.toCharArray()));
+            session = login(new SimpleCredentials(username, password.toCharArray()));
             userSessions.put(username, session);
         } else if (anonSession == null) {
-            anonSession = getRepository().login();
+            anonSession = workspace == null ? getRepository().login() : getRepository().login(workspace);
             session = anonSession;
         } else {
             session = anonSession;
@@ -128,7 +155,7 @@ public class ActiveSession extends ExternalResource<ContentRepository> {
     public Session login(final String username, final String password) throws RepositoryException {
         assertStateAfterOrEqual(State.CREATED);
         if (!userSessions.containsKey(username)) {
-            userSessions.put(username, getRepository().login(new SimpleCredentials(username, password.toCharArray())));
+            userSessions.put(username, login(new SimpleCredentials(username, password.toCharArray())));
         }
         return userSessions.get(username);
     }
@@ -140,8 +167,42 @@ public class ActiveSession extends ExternalResource<ContentRepository> {
     public Session getAdminSession() throws RepositoryException {
         assertStateAfterOrEqual(State.CREATED);
         if (adminSession == null) {
-            adminSession = getRepository().login(new SimpleCredentials("admin", "admin".toCharArray()));
+            adminSession = login(new SimpleCredentials("admin", "admin".toCharArray()));
         }
         return adminSession;
     }
+
+    /**
+     * Logs into the repository, using the session pool of the repository if enabled.
+     *
+     * @param credentials
+     *            the credentials to log in
+     * @return the session for the credentials
+     * @throws RepositoryException
+     */
+    private Session login(final SimpleCredentials credentials) throws RepositoryException {
+        if (workspace != null) {
+            return getRepository().login(credentials, workspace);
+        }
+        final SessionPool pool = repositoryRule.getSessionPool();
+        if (pool != null) {
+            return pool.lease(credentials.getUserID(), String.valueOf(credentials.getPassword()));
+        }
+        return getRepository().login(credentials);
+    }
+
+    /**
+     * Logs out the session or returns it to the session pool of the repository if enabled.
+     *
+     * @param session
+     *            the session to log out
+     */
+    private void logout(final Session session) {
+        final SessionPool pool = repositoryRule.getSessionPool();
+        if (pool != null && workspace == null) {
+            pool.release(session);
+        } else {
+            session.logout();
+        }
+    }
 }
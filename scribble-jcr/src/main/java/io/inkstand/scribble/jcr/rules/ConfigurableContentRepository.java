@@ -27,11 +27,7 @@ import javax.jcr.nodetype.NodeType;
 import javax.jcr.nodetype.PropertyDefinition;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URL;
-import java.nio.charset.Charset;
-import org.apache.jackrabbit.commons.cnd.CndImporter;
 import org.apache.jackrabbit.commons.cnd.ParseException;
 import org.apache.jackrabbit.core.config.ConfigurationException;
 import org.apache.jackrabbit.core.config.RepositoryConfig;
@@ -39,6 +35,7 @@ import org.junit.rules.TemporaryFolder;
 import org.junit.rules.TestRule;
 import org.slf4j.Logger;
 
+import io.inkstand.scribble.jcr.rules.util.NodeTypeCache;
 import io.inkstand.scribble.rules.RuleSetup;
 
 /**
@@ -46,7 +43,9 @@ import io.inkstand.scribble.rules.RuleSetup;
  * directory. On top of the basic {@link ContentRepository} this configurable version allows to define a resource
  * that contains a configuration file for the repository. The configuration may define security, persistence or
  * cluster settings. Beyond that, the class allows to specify a resource containing node type definitions in the
- * compact node type definition (CND) format that are loaded into the repository on startup.
+ * compact node type definition (CND) format that are loaded into the repository on startup. The parsed node type
+ * definitions are cached so that each resource is only parsed once, node types that are already registered are
+ * skipped.
  *
  * @author <a href="mailto:gerald.muecke@gmail.com">Gerald M&uuml;cke</a>
  */
@@ -142,10 +141,9 @@ public abstract class ConfigurableContentRepository extends ContentRepository {
     protected void initialize() {
 
         if(this.cndUrl != null) {
-            try(InputStream cndStream = this.cndUrl.openStream();
-                final InputStreamReader cndReader = new InputStreamReader(cndStream, Charset.forName("UTF-8"))) {
+            try {
                 final Session session = getAdminSession();
-                this.logNodeTypes(CndImporter.registerNodeTypes(cndReader, session));
+                this.logNodeTypes(NodeTypeCache.registerNodeTypes(this.cndUrl, session));
             } catch (IOException e) {
                 throw new AssertionError("Could not load CND resource", e);
             } catch (RepositoryException e) {
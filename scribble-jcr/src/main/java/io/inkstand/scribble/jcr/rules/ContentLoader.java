@@ -17,19 +17,50 @@
 package io.inkstand.scribble.jcr.rules;
 
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.UnsupportedRepositoryOperationException;
+import java.io.File;
+import java.lang.ref.WeakReference;
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.inkstand.scribble.rules.ExternalResource;
 import io.inkstand.scribble.rules.RuleSetup;
 import io.inkstand.scribble.rules.RuleSetup.RequirementLevel;
+import io.inkstand.scribble.jcr.rules.util.BinaryContentLoader;
+import io.inkstand.scribble.jcr.rules.util.ContentGenerator;
+import io.inkstand.scribble.jcr.rules.util.SystemViewContentLoader;
 import io.inkstand.scribble.jcr.rules.util.XMLContentLoader;
 
 /**
  * The ContentLoader is a testRule to prefill a {@link ContentRepository} with a node structure before the test.
+ * <br>
+ * By default the content is loaded into the default workspace and the loaded root node is removed after the test.
+ * With workspace isolation enabled, the content is loaded once per repository into a template workspace. Each test
+ * gets a workspace of its own into which the template is cloned. After the test the workspace is deleted. If the
+ * repository does not support deleting workspaces - such as Jackrabbit 2.x - all content is removed from the workspace
+ * instead, including content created outside the loaded root node. The name of the workspace is determined when the
+ * rule is set up and remains leased by the loader until the loader is garbage collected, then the workspace is reused
+ * by other loaders. So the number of workspaces is bounded by the number of loaders in use on the repository.
+ * Sessions for the test workspace can be obtained from an {@link ActiveSession} using the
+ * {@link #getWorkspaceName() workspace name} of the loader.
+ * <br>
+ * Instead of or in addition to a content definition, a synthetic tree can be generated by a {@link ContentGenerator}
+ * for scale tests. The generated tree is created for each test and removed afterwards.
  * <p>Experimental!</p>
  *
  * @author <a href="mailto:gerald.muecke@gmail.com">Gerald M&uuml;cke</a>
@@ -41,9 +72,26 @@ public class ContentLoader extends ExternalResource<ContentRepository> {
      */
     private static final Logger LOG = LoggerFactory.getLogger(ContentLoader.class);
 
+    /**
+     * The workspaces of each repository used by loaders with workspace isolation enabled.
+     */
+    private static final Map<ContentRepository, Workspaces> WORKSPACES = new WeakHashMap<>();
+
+    /**
+     * The number of nodes removed from a workspace before the session is saved.
+     */
+    private static final int REMOVE_BATCH_SIZE = 1000;
+
     private final ContentRepository repository;
     private URL contentDef;
     private Node rootNode;
+    private ContentGenerator contentGenerator;
+    private Node generatedNode;
+    private int parallelism = 1;
+    private boolean validating;
+    private boolean workspaceIsolation;
+    private String workspaceName;
+    private Session workspaceSession;
 
     public ContentLoader(final ContentRepository repository) {
 
@@ -64,18 +112,118 @@ public class ContentLoader extends ExternalResource<ContentRepository> {
         this.contentDef = contentDef;
     }
 
+    /**
+     * Sets the generator of a synthetic content tree that is generated before each test.
+     *
+     * @param contentGenerator
+     *         the generator defining the shape of the tree
+     */
+    @RuleSetup(RequirementLevel.OPTIONAL)
+    public void setContentGenerator(final ContentGenerator contentGenerator) {
+
+        assertStateBefore(State.INITIALIZED);
+        this.contentGenerator = contentGenerator;
+    }
+
+    /**
+     * @return the generator of the synthetic content tree, providing the statistics of the last generation, or
+     * <code>null</code> if no tree is generated.
+     */
+    public ContentGenerator getContentGenerator() {
+
+        return this.contentGenerator;
+    }
+
+    /**
+     * Sets the number of threads used to import the top-level subtrees of the content definition concurrently. Each
+     * thread uses its own admin session. Default is 1.
+     *
+     * @param parallelism
+     *         the number of concurrent subtree imports
+     */
+    @RuleSetup(RequirementLevel.OPTIONAL)
+    public void setParallelism(final int parallelism) {
+
+        assertStateBefore(State.INITIALIZED);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Enables validation of content definitions in the inkstand import format against the import schema, so that
+     * typos in the content definition fail the test instead of being silently ignored. Default is false.
+     *
+     * @param validating
+     *         <code>true</code> to validate the content definitions
+     */
+    @RuleSetup(RequirementLevel.OPTIONAL)
+    public void setValidating(final boolean validating) {
+
+        assertStateBefore(State.INITIALIZED);
+        this.validating = validating;
+    }
+
+    /**
+     * Enables loading the content into a workspace of its own for each test that is deleted or cleared afterwards. The
+     * content is cloned from a template workspace that contains the loaded content. Default is false.
+     *
+     * @param workspaceIsolation
+     *         <code>true</code> to use a separate workspace for each test
+     */
+    @RuleSetup(RequirementLevel.OPTIONAL)
+    public void setWorkspaceIsolation(final boolean workspaceIsolation) {
+
+        assertStateBefore(State.INITIALIZED);
+        this.releaseWorkspace();
+        this.workspaceIsolation = workspaceIsolation;
+        if (workspaceIsolation) {
+            this.workspaceName = workspacesOf(this.repository).lease(this);
+        } else {
+            this.workspaceName = null;
+        }
+    }
+
+    /**
+     * The name of the workspace of the test. The name is determined when workspace isolation is enabled so that it
+     * can be passed to an {@link ActiveSession} when the rules are set up. The workspace itself is created when the
+     * rule is applied, unless it exists from a previous test. The name remains the same if the rule is applied again.
+     *
+     * @return the name of the workspace the content is loaded into or <code>null</code> if workspace isolation is not
+     * enabled and the default workspace is used.
+     */
+    public String getWorkspaceName() {
+
+        return this.workspaceName;
+    }
+
     @Override
     protected void before() throws Throwable {
 
-        if (this.contentDef != null) {
+        if (this.workspaceIsolation) {
+            this.createWorkspace();
+        } else if (this.contentDef != null) {
             this.rootNode = loadContent(this.contentDef);
         }
+        if (this.contentGenerator != null) {
+            final Session session = this.workspaceSession != null ? this.workspaceSession : repository.getAdminSession();
+            this.generatedNode = this.contentGenerator.generate(session);
+        }
     }
 
     @Override
     protected void after() {
 
-        if (this.rootNode != null) {
+        //the generated tree is removed in batches, also before the workspace is cleared
+        if (this.generatedNode != null) {
+            try {
+                this.contentGenerator.remove(this.generatedNode);
+            } catch (RepositoryException e) {
+                LOG.warn("Could not remove generated tree", e);
+            }
+            this.generatedNode = null;
+        }
+        if (this.workspaceIsolation) {
+            this.clearWorkspace();
+        } else if (this.rootNode != null) {
             try {
                 this.rootNode.refresh(false);
                 this.rootNode.remove();
@@ -86,7 +234,210 @@ public class ContentLoader extends ExternalResource<ContentRepository> {
     }
 
     /**
-     * Loads content from an external content definition into the underlying repository.
+     * Creates the workspace of the test. A workspace that exists from a previous test is deleted and created again or,
+     * if the repository does not support deleting workspaces, cleared. If a content definition is set, the content is
+     * cloned from the template workspace of the content definition which is created and loaded first, if it does not
+     * exist yet.
+     *
+     * @throws RepositoryException
+     *         if the workspace could not be created
+     */
+    private void createWorkspace() throws RepositoryException {
+
+        this.createEmptyWorkspace(this.workspaceName);
+        this.workspaceSession = repository.loginAdmin(this.workspaceName);
+        if (this.contentDef != null) {
+            final String templateName = templateNameOf(this.contentDef);
+            final String rootPath = this.getTemplateRoot(templateName);
+            LOG.debug("Cloning workspace {} from {}", this.workspaceName, templateName);
+            this.cloneWorkspace(templateName);
+            this.rootNode = this.workspaceSession.getNode(rootPath);
+        }
+    }
+
+    /**
+     * Clones all top-level nodes of the template workspace into the workspace of the test. The nodes are cloned
+     * explicitly as {@link javax.jcr.Workspace#createWorkspace(String, String)} of Jackrabbit only clones the nodes
+     * that exist in the workspace of the calling session.
+     */
+    private void cloneWorkspace(final String templateName) throws RepositoryException {
+
+        final Session templateSession = repository.loginAdmin(templateName);
+        try {
+            final NodeIterator it = templateSession.getRootNode().getNodes();
+            while (it.hasNext()) {
+                final Node node = it.nextNode();
+                if (!"jcr:system".equals(node.getName())) {
+                    this.workspaceSession.getWorkspace().clone(templateName, node.getPath(), node.getPath(), false);
+                }
+            }
+        } finally {
+            templateSession.logout();
+        }
+    }
+
+    /**
+     * Determines the path of the root node in the template workspace of the content definition, creating and loading
+     * the template if it has not been loaded for the repository yet. A template workspace that exists from an earlier
+     * run on a persistent repository is cleared and loaded again.
+     */
+    private String getTemplateRoot(final String templateName) throws RepositoryException {
+
+        final Workspaces workspaces = workspacesOf(this.repository);
+        synchronized (workspaces) {
+            String rootPath = workspaces.templateRoots.get(templateName);
+            if (rootPath == null) {
+                LOG.info("Creating template workspace {} for {}", templateName, this.contentDef);
+                this.createEmptyWorkspace(templateName);
+                final Session templateSession = repository.loginAdmin(templateName);
+                try {
+                    rootPath = this.loadContent(templateSession, this.contentDef).getPath();
+                } finally {
+                    templateSession.logout();
+                }
+                workspaces.templateRoots.put(templateName, rootPath);
+            }
+            return rootPath;
+        }
+    }
+
+    /**
+     * Deletes the workspace of the test or removes all of its content. The name of the workspace remains leased by
+     * this loader.
+     */
+    private void clearWorkspace() {
+
+        if (this.workspaceSession != null) {
+            this.workspaceSession.logout();
+            this.workspaceSession = null;
+        }
+        try {
+            this.deleteWorkspace(this.workspaceName);
+        } catch (RepositoryException e) {
+            LOG.warn("Could not clear workspace {}", this.workspaceName, e);
+        }
+        this.rootNode = null;
+    }
+
+    private void releaseWorkspace() {
+
+        if (this.workspaceName != null) {
+            workspacesOf(this.repository).release(this.workspaceName);
+            this.workspaceName = null;
+        }
+    }
+
+    /**
+     * Creates an empty workspace. If the workspace exists, it is deleted and created again or, if the repository does
+     * not support deleting workspaces, cleared.
+     */
+    private void createEmptyWorkspace(final String workspace) throws RepositoryException {
+
+        if (!this.workspaceExists(workspace) || this.deleteWorkspace(workspace)) {
+            repository.getAdminSession().getWorkspace().createWorkspace(workspace);
+        } else {
+            LOG.debug("Reusing workspace {}", workspace);
+        }
+    }
+
+    /**
+     * Deletes the workspace. If the repository does not support deleting workspaces, all content is removed from the
+     * workspace instead.
+     *
+     * @return <code>true</code> if the workspace was deleted, <code>false</code> if its content was removed
+     */
+    private boolean deleteWorkspace(final String workspace) throws RepositoryException {
+
+        try {
+            repository.getAdminSession().getWorkspace().deleteWorkspace(workspace);
+            return true;
+        } catch (UnsupportedRepositoryOperationException e) { //NOSONAR
+            LOG.debug("Deleting workspaces is not supported, removing content of {}", workspace);
+            this.removeContent(workspace);
+            return false;
+        }
+    }
+
+    private boolean workspaceExists(final String workspace) throws RepositoryException {
+
+        final String[] workspaces = repository.getAdminSession().getWorkspace().getAccessibleWorkspaceNames();
+        return Arrays.asList(workspaces).contains(workspace);
+    }
+
+    /**
+     * Removes all top-level nodes of the workspace, including nodes created outside the loaded root node. The nodes
+     * are removed bottom-up and the session is saved after each batch, so that large trees are not held in the
+     * transient space of the session entirely.
+     */
+    private void removeContent(final String workspace) throws RepositoryException {
+
+        final Session session = repository.loginAdmin(workspace);
+        try {
+            final List<Node> nodes = new ArrayList<>();
+            final NodeIterator it = session.getRootNode().getNodes();
+            while (it.hasNext()) {
+                final Node node = it.nextNode();
+                if (!"jcr:system".equals(node.getName())) {
+                    nodes.add(node);
+                }
+            }
+            long removed = 0;
+            for (Node node : nodes) {
+                removed = removeTree(node, removed);
+            }
+            session.save();
+            LOG.debug("Removed {} nodes from workspace {}", removed, workspace);
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Removes the children of the node before the node itself and saves the session after each batch.
+     *
+     * @return the number of removed nodes including the removed nodes of previous subtrees
+     */
+    private static long removeTree(final Node node, final long removed) throws RepositoryException {
+
+        final List<Node> children = new ArrayList<>();
+        final NodeIterator it = node.getNodes();
+        while (it.hasNext()) {
+            children.add(it.nextNode());
+        }
+        long count = removed;
+        for (Node child : children) {
+            count = removeTree(child, count);
+        }
+        node.remove();
+        if (++count % REMOVE_BATCH_SIZE == 0) {
+            node.getSession().save();
+        }
+        return count;
+    }
+
+    private static String templateNameOf(final URL contentDefinition) {
+
+        return "template_" + DigestUtils.sha1Hex(contentDefinition.toExternalForm());
+    }
+
+    private static Workspaces workspacesOf(final ContentRepository repository) {
+
+        synchronized (WORKSPACES) {
+            Workspaces workspaces = WORKSPACES.get(repository);
+            if (workspaces == null) {
+                workspaces = new Workspaces();
+                WORKSPACES.put(repository, workspaces);
+            }
+            return workspaces;
+        }
+    }
+
+    /**
+     * Loads content from an external content definition into the underlying repository. Content definitions with the
+     * extension <code>.jcrdump</code> or <code>.jcrdump.gz</code> are loaded as binary dump and content definitions
+     * with the extension <code>.sysview.xml</code> or <code>.sysview.xml.gz</code> are imported as JCR System View,
+     * both for example created by {@link #exportContent(String, File)}. All other content definitions are imported
+     * using the inkstand import format.
      *
      * @param contentDefinition
      *         URL pointing to the resource that defines the content to be loaded.
@@ -97,9 +448,127 @@ public class ContentLoader extends ExternalResource<ContentRepository> {
      */
     public Node loadContent(URL contentDefinition) throws RepositoryException {
 
+        final Session session = this.workspaceSession != null ? this.workspaceSession : repository.getAdminSession();
+        return this.loadContent(session, contentDefinition);
+    }
+
+    private Node loadContent(final Session session, final URL contentDefinition) throws RepositoryException {
+
         LOG.info("Loading Content");
-        final Session session = repository.getAdminSession();
+        final String workspace = session.getWorkspace().getName();
+        final boolean defaultWorkspace = workspace.equals(repository.getAdminSession().getWorkspace().getName());
+        if (BinaryContentLoader.isDump(contentDefinition)) {
+            return new BinaryContentLoader().loadContent(session, contentDefinition);
+        }
+        if (SystemViewContentLoader.isSystemView(contentDefinition)) {
+            return new SystemViewContentLoader().loadContent(session, contentDefinition);
+        }
         final XMLContentLoader loader = new XMLContentLoader();
-        return loader.loadContent(session, contentDefinition);
+        loader.setParallelism(this.parallelism);
+        loader.setValidating(this.validating);
+        return loader.loadContent(session, contentDefinition, new Callable<Session>() {
+
+            @Override
+            public Session call() throws RepositoryException {
+
+                if (defaultWorkspace) {
+                    return repository.loginAdmin();
+                }
+                return repository.loginAdmin(workspace);
+            }
+        }, new XMLContentLoader.SessionRelease() {
+
+            @Override
+            public void release(final Session workerSession) {
+
+                //sessions that are not pooled are logged out
+                repository.release(workerSession);
+            }
+        });
+    }
+
+    /**
+     * Exports the subtree at the specified path of the underlying repository into the target file. If the name of the
+     * file ends with <code>.jcrdump</code> or <code>.jcrdump.gz</code>, the content is written in the compact binary
+     * dump format, otherwise as JCR System View. The file can be loaded again as content definition, if its name ends
+     * with <code>.jcrdump</code> or <code>.sysview.xml</code>, optionally followed by <code>.gz</code> for gzip
+     * compressed content.
+     *
+     * @param absPath
+     *         the absolute path of the root node of the subtree to export
+     * @param target
+     *         the file to write the content to
+     *
+     * @throws RepositoryException
+     *         if the session of the workspace could not be obtained
+     */
+    public void exportContent(String absPath, File target) throws RepositoryException {
+
+        LOG.info("Exporting Content");
+        final Session session = this.workspaceSession != null ? this.workspaceSession : repository.getAdminSession();
+        if (BinaryContentLoader.isDump(target)) {
+            new BinaryContentLoader().exportContent(session, absPath, target);
+        } else {
+            new SystemViewContentLoader().exportContent(session, absPath, target);
+        }
+    }
+
+    /**
+     * The workspaces of a repository. Each workspace is leased by a single loader until the loader is garbage collected
+     * or disables workspace isolation. Workspaces that are not leased are kept for reuse, the most recently released
+     * workspace first.
+     */
+    private static final class Workspaces {
+
+        /**
+         * The path of the root node of each template workspace. The name of a template workspace is derived from its
+         * content definition so the same template is used by all loaders with the same content definition.
+         */
+        private final Map<String, String> templateRoots = new HashMap<>();
+        private final Deque<String> idle = new ArrayDeque<>();
+        /**
+         * The leased workspaces and the loader each workspace is leased by. The loaders are weakly referenced so that
+         * the workspace of a discarded loader can be reused.
+         */
+        private final Map<String, WeakReference<ContentLoader>> leased = new HashMap<>();
+        private int count;
+
+        /**
+         * Leases the name of an idle workspace or the name of a new workspace, if no workspace is idle.
+         */
+        synchronized String lease(final ContentLoader loader) {
+
+            this.reclaim();
+            String name = this.idle.pollFirst();
+            if (name == null) {
+                do {
+                    name = "test_" + ++this.count;
+                } while (this.leased.containsKey(name));
+            }
+            this.leased.put(name, new WeakReference<>(loader));
+            return name;
+        }
+
+        synchronized void release(final String name) {
+
+            if (this.leased.remove(name) != null) {
+                this.idle.addFirst(name);
+            }
+        }
+
+        /**
+         * Returns the workspaces of loaders that have been garbage collected to the idle workspaces.
+         */
+        private void reclaim() {
+
+            final Iterator<Map.Entry<String, WeakReference<ContentLoader>>> it = this.leased.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<String, WeakReference<ContentLoader>> entry = it.next();
+                if (entry.getValue().get() == null) {
+                    it.remove();
+                    this.idle.addLast(entry.getKey());
+                }
+            }
+        }
     }
 }
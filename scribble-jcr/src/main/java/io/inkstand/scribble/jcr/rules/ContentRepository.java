@@ -28,13 +28,20 @@ import javax.jcr.security.AccessControlManager;
 import javax.jcr.security.Privilege;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
 
 import io.inkstand.scribble.inject.InjectableHolder;
+import io.inkstand.scribble.jcr.rules.util.SessionPool;
 import io.inkstand.scribble.rules.ExternalResource;
+import io.inkstand.scribble.rules.RuleSetup;
+import io.inkstand.scribble.rules.RuleSetup.RequirementLevel;
 import io.inkstand.scribble.security.SecurityTestHelper;
 
 /**
@@ -50,6 +57,10 @@ public abstract class ContentRepository extends ExternalResource<TemporaryFolder
 
     private static final String ANY_WILDCARD = "*";
 
+    private static final String ADMIN_USER = "admin";
+
+    private static final String ADMIN_PASSWORD = "admin";
+
     private final TemporaryFolder workingDirectory;
     /**
      * The JCR Repository.
@@ -66,6 +77,21 @@ public abstract class ContentRepository extends ExternalResource<TemporaryFolder
      */
     private Session anonSession;
 
+    /**
+     * Maximum number of idle sessions kept per user. 0 disables session pooling.
+     */
+    private int sessionPoolSize;
+
+    /**
+     * Time in ms after which an idle pooled session is logged out.
+     */
+    private long sessionIdleTimeout = 60_000L;
+
+    /**
+     * Pool of user sessions, <code>null</code> if session pooling is disabled.
+     */
+    private transient SessionPool sessionPool;
+
     /**
      * Creates the content repository in the working directory.
      *
@@ -120,6 +146,10 @@ public abstract class ContentRepository extends ExternalResource<TemporaryFolder
      */
     private void doAfter() { //NOSONAR
 
+        if (this.sessionPool != null) {
+            this.sessionPool.close();
+            this.sessionPool = null;
+        }
         if (this.isActive(this.adminSession)) {
             this.adminSession.logout();
         }
@@ -152,6 +182,9 @@ public abstract class ContentRepository extends ExternalResource<TemporaryFolder
     private void doBefore() throws Throwable { //NOSONAR
 
         this.repository = this.createRepository();
+        if (this.sessionPoolSize > 0) {
+            this.sessionPool = new SessionPool(this.repository, this.sessionPoolSize, this.sessionIdleTimeout);
+        }
         doStateTransition(State.CREATED);
         this.initialize();
         doStateTransition(State.INITIALIZED);
@@ -175,6 +208,43 @@ public abstract class ContentRepository extends ExternalResource<TemporaryFolder
     protected void initialize() { //NOSONAR override is optional
     }
 
+    /**
+     * Enables pooling of user sessions created by {@link #login(String, String)}. Released sessions are kept and
+     * reused by subsequent logins with the same credentials, as long as the repository is alive. Default is 0 which
+     * disables pooling.
+     *
+     * @param sessionPoolSize
+     *         the maximum number of idle sessions kept per user
+     */
+    @RuleSetup(RequirementLevel.OPTIONAL)
+    public void setSessionPoolSize(final int sessionPoolSize) {
+
+        assertStateBefore(State.CREATED);
+        this.sessionPoolSize = sessionPoolSize;
+    }
+
+    /**
+     * Sets the time after which an idle pooled session is logged out. Default is 60 seconds.
+     *
+     * @param sessionIdleTimeout
+     *         the idle timeout in ms
+     */
+    @RuleSetup(RequirementLevel.OPTIONAL)
+    public void setSessionIdleTimeout(final long sessionIdleTimeout) {
+
+        assertStateBefore(State.CREATED);
+        this.sessionIdleTimeout = sessionIdleTimeout;
+    }
+
+    /**
+     * The pool of user sessions. The pool provides statistics about the logins that have been avoided.
+     * @return the session pool or <code>null</code> if session pooling is not enabled
+     */
+    public SessionPool getSessionPool() {
+
+        return this.sessionPool;
+    }
+
     /**
      * The repository wrapped by this rule.
      * @return the repository
@@ -202,7 +272,8 @@ public abstract class ContentRepository extends ExternalResource<TemporaryFolder
 
     /**
      * Logs into the repository with the given credentials. The created session is not managed and be logged out after
-     * use by the caller.
+     * use by the caller. If session pooling is enabled, the session is leased from the pool and should be returned
+     * using {@link #release(Session)}.
      *
      * @param userId
      *            the user id to log in
@@ -215,9 +286,28 @@ public abstract class ContentRepository extends ExternalResource<TemporaryFolder
     public Session login(final String userId, final String password) throws RepositoryException {
 
         assertStateAfterOrEqual(State.CREATED);
+        if (this.sessionPool != null) {
+            return this.sessionPool.lease(userId, password);
+        }
         return this.repository.login(new SimpleCredentials(userId, password.toCharArray()));
     }
 
+    /**
+     * Releases a session created by {@link #login(String, String)}. If session pooling is enabled, the session is
+     * returned to the pool, otherwise it is logged out.
+     *
+     * @param session
+     *         the session to release
+     */
+    public void release(final Session session) {
+
+        if (this.sessionPool != null) {
+            this.sessionPool.release(session);
+        } else {
+            session.logout();
+        }
+    }
+
     /**
      * Adds a user with the given password to the repository. <p> <b>Note:</b> in case the rule is used as a class rule
      * you should ensure that you delete each created user properly. Otherwise consecutive calls will fail. You may also
@@ -237,6 +327,23 @@ public abstract class ContentRepository extends ExternalResource<TemporaryFolder
         throw new UnsupportedOperationException("add user not supported");
     }
 
+    /**
+     * Adds multiple users with their passwords to the repository in a single operation. Other than adding each user
+     * using {@link #addUser(String, String)}, the admin session is retrieved only once for all users. <p> The default
+     * implementation throws an {@link UnsupportedOperationException} as it's up to the JCR implementation if and how
+     * user management ist provided. </p>
+     *
+     * @param users
+     *         map of the names of the users to add to their passwords
+     *
+     * @return the Principals representing the newly created users, mapped by user name in the order of the specified
+     * users
+     */
+    public Map<String, Principal> addUsers(final Map<String, String> users) {
+
+        throw new UnsupportedOperationException("add users not supported");
+    }
+
     /**
      * Removes a user from the repository. <p> The default implementation throws an {@link
      * UnsupportedOperationException} as it's up to the JCR implementation if and how user management ist provided.
@@ -280,7 +387,7 @@ public abstract class ContentRepository extends ExternalResource<TemporaryFolder
 
         final Privilege[] privilegeArray = this.toPrivilegeArray(session, privileges);
         final AccessControlList acl = this.getAccessControlList(session, path);
-        final Principal principal = this.resolvePrincipal(principalId);
+        final Principal principal = this.resolvePrincipal(session, principalId);
         // add a new one for the special "everyone" principal
         acl.addAccessControlEntry(principal, privilegeArray);
 
@@ -292,9 +399,56 @@ public abstract class ContentRepository extends ExternalResource<TemporaryFolder
 
     }
 
+    /**
+     * Grants all specified access control entries in a single operation. Other than granting each entry using {@link
+     * #grant(String, String, String...)}, all entries are applied using the same session, principals and privileges
+     * are resolved once, the policy of each path is set once and the changes are saved once.
+     *
+     * @param aclSpecs
+     *         the specifications of the access control entries to grant
+     *
+     * @throws RepositoryException
+     *         if a principal or privilege could not be resolved or the policies could not be set
+     */
+    public void grantAll(final List<AclSpec> aclSpecs) throws RepositoryException {
+
+        final Session session = this.getAdminSession();
+        final Map<String, Principal> principals = new HashMap<>();
+        for (AclSpec spec : aclSpecs) {
+            if (!principals.containsKey(spec.getPrincipalId())) {
+                principals.put(spec.getPrincipalId(), this.resolvePrincipal(session, spec.getPrincipalId()));
+            }
+        }
+        final Map<List<String>, Privilege[]> privileges = new HashMap<>();
+        final Map<String, AccessControlList> acls = new LinkedHashMap<>();
+        for (AclSpec spec : aclSpecs) {
+            final List<String> privilegeNames = Arrays.asList(spec.getPrivileges());
+            Privilege[] privilegeArray = privileges.get(privilegeNames);
+            if (privilegeArray == null) {
+                privilegeArray = this.toPrivilegeArray(session, spec.getPrivileges());
+                privileges.put(privilegeNames, privilegeArray);
+            }
+            AccessControlList acl = acls.get(spec.getPath());
+            if (acl == null) {
+                acl = this.getAccessControlList(session, spec.getPath());
+                acls.put(spec.getPath(), acl);
+            }
+            acl.addAccessControlEntry(principals.get(spec.getPrincipalId()), privilegeArray);
+        }
+
+        final AccessControlManager acm = session.getAccessControlManager();
+        for (Map.Entry<String, AccessControlList> entry : acls.entrySet()) {
+            acm.setPolicy(entry.getKey(), entry.getValue());
+        }
+        session.save();
+        LOG.info("Granted {} entries on {} nodes", aclSpecs.size(), acls.size());
+    }
+
     /**
      * Logs into the repository as admin user. The session should be logged out after each test if the repository is
-     * used as a {@link org.junit.ClassRule}.
+     * used as a {@link org.junit.ClassRule}. The same session is returned on subsequent calls, unsaved changes left by
+     * a previous caller are discarded. The session is not refreshed otherwise, as changes saved by other sessions are
+     * visible to it without a refresh.
      *
      * @return a session with admin privileges
      *
@@ -304,15 +458,55 @@ public abstract class ContentRepository extends ExternalResource<TemporaryFolder
     public Session getAdminSession() throws RepositoryException {
 
         if(this.isActive(this.adminSession)){
-            //perform a refresh to update the session to the latest repository version
-            this.adminSession.refresh(false);
+            if(this.adminSession.hasPendingChanges()) {
+                //discard the unsaved changes of a previous caller
+                this.adminSession.refresh(false);
+            }
         } else {
-            this.adminSession = this.repository.login(new SimpleCredentials("admin", "admin".toCharArray()));
+            this.adminSession = this.repository.login(adminCredentials());
         }
 
         return this.adminSession;
     }
 
+    /**
+     * Logs into the repository as admin user. Other than {@link #getAdminSession()}, a separate session is returned on
+     * each call, so it may be used concurrently to the admin session. If session pooling is enabled, the session is
+     * leased from the pool. In any case the session should be returned using {@link #release(Session)}.
+     *
+     * @return a session with admin privileges
+     *
+     * @throws RepositoryException
+     *         if the login failed for any reason
+     */
+    public Session loginAdmin() throws RepositoryException {
+
+        return this.login(ADMIN_USER, ADMIN_PASSWORD);
+    }
+
+    /**
+     * Logs into the specified workspace of the repository as admin user. The session is not pooled and has to be
+     * logged out by the caller.
+     *
+     * @param workspaceName
+     *         the name of the workspace to log into
+     *
+     * @return a session with admin privileges for the workspace
+     *
+     * @throws RepositoryException
+     *         if the login failed for any reason
+     */
+    public Session loginAdmin(final String workspaceName) throws RepositoryException {
+
+        assertStateAfterOrEqual(State.CREATED);
+        return this.repository.login(adminCredentials(), workspaceName);
+    }
+
+    private static SimpleCredentials adminCredentials() {
+
+        return new SimpleCredentials(ADMIN_USER, ADMIN_PASSWORD.toCharArray());
+    }
+
     /**
      * Converts the list of privilege names to an array of {@link Privilege}s.
      *
@@ -383,6 +577,24 @@ public abstract class ContentRepository extends ExternalResource<TemporaryFolder
         return SecurityTestHelper.toPrincipal(principalId);
     }
 
+    /**
+     * Resolves a user ID to a {@link Principal} using the specified session. Implementations that resolve principals
+     * using the repository should override this method so that operations resolving many principals, such as {@link
+     * #grantAll(List)}, use the session of the operation. The default implementation delegates to {@link
+     * #resolvePrincipal(String)}.
+     *
+     * @param session
+     *         the session of the operation that requires the principal
+     * @param principalId
+     *         the principal Id to be resolved
+     *
+     * @return the {@link Principal} that reflects the ID.
+     */
+    protected Principal resolvePrincipal(final Session session, final String principalId) throws RepositoryException {
+
+        return this.resolvePrincipal(principalId);
+    }
+
     /**
      * Logs into the repository as anonymous user. The session should be logged out after each test if the repository is
      * used as a {@link org.junit.ClassRule}.
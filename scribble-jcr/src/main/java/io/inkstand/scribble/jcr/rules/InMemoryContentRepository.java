@@ -16,11 +16,31 @@
 
 package io.inkstand.scribble.jcr.rules;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 
 import io.inkstand.scribble.rules.RuleSetup;
+import io.inkstand.scribble.rules.RuleSetup.RequirementLevel;
 import org.apache.jackrabbit.core.TransientRepository;
+import org.apache.jackrabbit.core.config.ConfigurationException;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
 import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 
 /**
  * The {@link InMemoryContentRepository} rule is intended for self-sufficient unit tests. It is based on the
@@ -35,8 +55,20 @@ public class InMemoryContentRepository extends JackrabbitContentRepository{
 
     private static final String SECURITY_ENABLED_INMEMORY_CONFIG = "securityEnabledInMemoryRepository.xml";
 
+    private static final String RAM_DIRECTORY_MANAGER =
+            "org.apache.jackrabbit.core.query.lucene.directory.RAMDirectoryManager";
+
     private transient boolean securityEnabled;
 
+    /**
+     * The size of the bundle cache of the persistence managers in MB. <code>null</code> for the Jackrabbit default.
+     */
+    private transient Integer bundleCacheSize;
+
+    private transient boolean searchIndexDisabled;
+
+    private transient boolean inMemorySearchIndex;
+
     public InMemoryContentRepository(final TemporaryFolder workingDirectory) {
         super(workingDirectory);
     }
@@ -73,4 +105,115 @@ public class InMemoryContentRepository extends JackrabbitContentRepository{
         this.securityEnabled = securityEnabled;
 
     }
+
+    /**
+     * Sets the size of the bundle cache of the persistence managers of the workspaces and the version storage. For
+     * small test repositories a smaller cache reduces the memory footprint, for large content a larger cache
+     * reduces deserialization of node bundles. Default is the Jackrabbit default of 8 MB.
+     * @param bundleCacheSize
+     *  the size of the bundle cache in MB
+     */
+    @RuleSetup(RequirementLevel.OPTIONAL)
+    public void setBundleCacheSize(final int bundleCacheSize) {
+        assertStateBefore(State.CREATED);
+        this.bundleCacheSize = bundleCacheSize;
+    }
+
+    /**
+     * Disables the Lucene search index of the repository. Tests that do not perform queries save the effort of
+     * maintaining the index on every save. Without search index, the repository does not support queries.
+     * @param searchIndexDisabled
+     *  <code>true</code> to disable the search index. <code>false</code> to enable the search index (default)
+     */
+    @RuleSetup(RequirementLevel.OPTIONAL)
+    public void setSearchIndexDisabled(final boolean searchIndexDisabled) {
+        assertStateBefore(State.CREATED);
+        this.searchIndexDisabled = searchIndexDisabled;
+    }
+
+    /**
+     * Keeps the Lucene search index in memory instead of the working directory.
+     * @param inMemorySearchIndex
+     *  <code>true</code> to keep the index in memory. <code>false</code> to write the index to the working directory
+     *  (default)
+     */
+    @RuleSetup(RequirementLevel.OPTIONAL)
+    public void setInMemorySearchIndex(final boolean inMemorySearchIndex) {
+        assertStateBefore(State.CREATED);
+        this.inMemorySearchIndex = inMemorySearchIndex;
+    }
+
+    /**
+     * Creates the configuration from the default configuration, tuned by the persistence and search index settings
+     * of this rule.
+     */
+    @Override
+    protected RepositoryConfig createRepositoryConfiguration() throws ConfigurationException, IOException {
+
+        if (this.bundleCacheSize == null && !this.searchIndexDisabled && !this.inMemorySearchIndex) {
+            return super.createRepositoryConfiguration();
+        }
+        try (InputStream configStream = getConfigUrl().openStream()) {
+            final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            //the dtd of the configuration is not required and should not be loaded from the network
+            dbf.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            final Document config = dbf.newDocumentBuilder().parse(configStream);
+            this.tuneConfiguration(config);
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            TransformerFactory.newInstance().newTransformer().transform(new DOMSource(config), new StreamResult(out));
+            return RepositoryConfig.create(new ByteArrayInputStream(out.toByteArray()),
+                                           getOuterRule().getRoot().getAbsolutePath());
+        } catch (ParserConfigurationException | SAXException | TransformerException e) {
+            throw new ConfigurationException("Could not tune repository configuration", e);
+        }
+    }
+
+    private void tuneConfiguration(final Document config) {
+
+        if (this.bundleCacheSize != null) {
+            for (Element pm : getElements(config, "PersistenceManager")) {
+                setParam(pm, "bundleCacheSize", String.valueOf(this.bundleCacheSize));
+            }
+        }
+        for (Element searchIndex : getElements(config, "SearchIndex")) {
+            if (this.searchIndexDisabled) {
+                searchIndex.getParentNode().removeChild(searchIndex);
+            } else if (this.inMemorySearchIndex) {
+                setParam(searchIndex, "directoryManagerClass", RAM_DIRECTORY_MANAGER);
+            }
+        }
+    }
+
+    private static List<Element> getElements(final Document config, final String tagName) {
+
+        final NodeList nodes = config.getElementsByTagName(tagName);
+        final List<Element> elements = new ArrayList<>(nodes.getLength());
+        for (int i = 0; i < nodes.getLength(); i++) {
+            elements.add((Element) nodes.item(i));
+        }
+        return elements;
+    }
+
+    /**
+     * Sets the value of the param with the specified name of the parent element. An existing param of the same name is
+     * replaced, otherwise the param is added.
+     */
+    private static void setParam(final Element parent, final String name, final String value) {
+
+        final NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            final Node child = children.item(i);
+            if (child instanceof Element
+                    && "param".equals(child.getNodeName())
+                    && name.equals(((Element) child).getAttribute("name"))) {
+                ((Element) child).setAttribute("value", value);
+                return;
+            }
+        }
+        final Element param = parent.getOwnerDocument().createElement("param");
+        param.setAttribute("name", name);
+        param.setAttribute("value", value);
+        parent.appendChild(param);
+    }
 }
@@ -21,10 +21,13 @@ import static org.slf4j.LoggerFactory.getLogger;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.UnsupportedRepositoryOperationException;
 import javax.jcr.security.Privilege;
 import java.io.IOException;
 import java.security.Principal;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import org.apache.jackrabbit.api.JackrabbitSession;
 import org.apache.jackrabbit.api.security.user.Authorizable;
@@ -110,6 +113,67 @@ public abstract class JackrabbitContentRepository extends ConfigurableContentRep
         }
     }
 
+    /**
+     * Adds all users using the user manager of a single admin session. The auto save of the user manager is disabled
+     * while the users are created, so that the session is saved once after all users have been created, and is
+     * restored afterwards. If the user manager does not support disabling the auto save, each user is saved when it
+     * is created.
+     */
+    @Override
+    public Map<String, Principal> addUsers(final Map<String, String> users) {
+
+        try {
+            final Session session = getAdminSession();
+            final UserManager userManager = ((JackrabbitSession) session).getUserManager();
+            final boolean autoSaveDisabled = this.disableAutoSave(userManager);
+            try {
+                final Map<String, Principal> principals = new LinkedHashMap<>();
+                for (Map.Entry<String, String> entry : users.entrySet()) {
+                    final User user = userManager.createUser(entry.getKey(), entry.getValue());
+                    this.addedUsers.add(entry.getKey());
+                    principals.put(entry.getKey(), user.getPrincipal());
+                }
+                if (autoSaveDisabled || !userManager.isAutoSave()) {
+                    session.save();
+                }
+                LOG.info("Added {} users", principals.size());
+                return principals;
+            } finally {
+                if (autoSaveDisabled) {
+                    userManager.autoSave(true);
+                }
+            }
+        } catch (RepositoryException e) {
+            throw new AssertionError("Could not add users", e);
+        }
+    }
+
+    /**
+     * Disables the auto save of the user manager.
+     *
+     * @param userManager
+     *         the user manager whose auto save should be disabled
+     *
+     * @return <code>true</code> if the auto save was enabled and has been disabled, <code>false</code> if the auto save
+     * was not enabled or the user manager does not support disabling it
+     *
+     * @throws RepositoryException
+     *         if the auto save could not be disabled
+     */
+    private boolean disableAutoSave(final UserManager userManager) throws RepositoryException {
+
+        if (!userManager.isAutoSave()) {
+            return false;
+        }
+        try {
+            userManager.autoSave(false);
+            return true;
+        } catch (UnsupportedRepositoryOperationException e) { //NOSONAR
+            LOG.debug("User manager does not support disabling auto save, users are saved individually");
+            return false;
+        }
+    }
+
     @Override
     public boolean deleteUser(String username) {
 
@@ -150,13 +214,18 @@ public abstract class JackrabbitContentRepository extends ConfigurableContentRep
     @Override
     protected Principal resolvePrincipal(final String principalId) throws RepositoryException {
 
+        return this.resolvePrincipal(getAdminSession(), principalId);
+    }
+
+    @Override
+    protected Principal resolvePrincipal(final Session session, final String principalId) throws RepositoryException {
+
         final Principal principal;
 
-        final Session session = getAdminSession();
         if ("everyone".equals(principalId)) {
             principal = ((JackrabbitSession) session).getPrincipalManager().getEveryone();
         } else {
-            final Authorizable authorizable = this.resolveAuthorizable(principalId);
+            final Authorizable authorizable = this.resolveAuthorizable(session, principalId);
             principal = authorizable.getPrincipal();
         }
 
@@ -179,7 +248,7 @@ public abstract class JackrabbitContentRepository extends ConfigurableContentRep
         final Session session = getAdminSession();
 
         final Privilege[] privilegeArray = toPrivilegeArray(session, privilege);
-        final Principal principal = this.resolvePrincipal(principalId);
+        final Principal principal = this.resolvePrincipal(session, principalId);
 
         AccessControlUtils.addAccessControlEntry(session, path, principal, privilegeArray, false);
 
@@ -204,7 +273,25 @@ public abstract class JackrabbitContentRepository extends ConfigurableContentRep
      */
     protected Authorizable resolveAuthorizable(final String authorizableId) throws RepositoryException {
 
-        final Session session = getAdminSession();
+        return this.resolveAuthorizable(getAdminSession(), authorizableId);
+    }
+
+    /**
+     * Resolves a name to an {@link Authorizable} using the user manager of the specified session.
+     *
+     * @param session
+     *         the session whose user manager is used
+     * @param authorizableId
+     *         the id of the authorizable
+     *
+     * @return the resolved {@link org.apache.jackrabbit.api.security.user.Authorizable}
+     *
+     * @throws RepositoryException
+     *         if the name was not found
+     */
+    protected Authorizable resolveAuthorizable(final Session session, final String authorizableId)
+            throws RepositoryException {
+
         final UserManager userManager = ((JackrabbitSession) session).getUserManager();
         final Authorizable authorizable = userManager.getAuthorizable(authorizableId);
         assertNotNull("Could not resolve " + authorizableId, authorizable);
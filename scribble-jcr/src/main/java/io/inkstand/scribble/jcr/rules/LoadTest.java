@@ -0,0 +1,314 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules;
+
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.inkstand.scribble.rules.ExternalResource;
+import io.inkstand.scribble.rules.RuleSetup;
+import io.inkstand.scribble.rules.RuleSetup.RequirementLevel;
+
+/**
+ * The LoadTest is a TestRule to execute a {@link Workload} concurrently from multiple sessions against a {@link
+ * ContentRepository}. Each session is used by its own thread. By default all sessions are admin sessions, optionally
+ * the rule creates a user for each session before the test and removes it after the test. Operations that fail to
+ * save because of a concurrent modification are retried.
+ * <p>Experimental!</p>
+ *
+ * @author <a href="mailto:gerald.muecke@gmail.com">Gerald M&uuml;cke</a>
+ */
+public class LoadTest extends ExternalResource<ContentRepository> {
+
+    /**
+     * SLF4J Logger for this class
+     */
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTest.class);
+
+    private final ContentRepository repository;
+    private int sessions = 1;
+    private int maxRetries = 3;
+    private String userPrefix;
+    private String userPassword;
+    private String[] userPrivileges = new String[0];
+    private final List<String> users = new ArrayList<>();
+
+    public LoadTest(final ContentRepository repository) {
+
+        super(repository);
+        this.repository = repository;
+    }
+
+    /**
+     * Sets the number of concurrent sessions executing the workload. Default is 1.
+     *
+     * @param sessions
+     *         the number of concurrent sessions
+     */
+    @RuleSetup(RequirementLevel.OPTIONAL)
+    public void setSessions(final int sessions) {
+
+        assertStateBefore(State.INITIALIZED);
+        this.sessions = sessions;
+    }
+
+    /**
+     * Sets the number of times an operation is retried if it fails because of a concurrent modification. Default is 3.
+     *
+     * @param maxRetries
+     *         the maximum number of retries per operation
+     */
+    @RuleSetup(RequirementLevel.OPTIONAL)
+    public void setMaxRetries(final int maxRetries) {
+
+        assertStateBefore(State.INITIALIZED);
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Creates a user for each session before the test, named by the prefix and the index of the session. The users
+     * are granted the specified privileges on the root node and are removed after the test. If no users are set, the
+     * workload is executed using admin sessions.
+     *
+     * @param prefix
+     *         the prefix of the user names
+     * @param password
+     *         the password of all users
+     * @param privileges
+     *         the privileges granted to the users on the root node
+     */
+    @RuleSetup(RequirementLevel.OPTIONAL)
+    public void setUsers(final String prefix, final String password, final String... privileges) {
+
+        assertStateBefore(State.INITIALIZED);
+        this.userPrefix = prefix;
+        this.userPassword = password;
+        this.userPrivileges = privileges.clone();
+    }
+
+    @Override
+    protected void before() throws Throwable {
+
+        if (this.userPrefix != null) {
+            final Map<String, String> newUsers = new LinkedHashMap<>();
+            final List<AclSpec> acls = new ArrayList<>();
+            for (int i = 0; i < this.sessions; i++) {
+                final String username = this.userPrefix + i;
+                newUsers.put(username, this.userPassword);
+                if (this.userPrivileges.length > 0) {
+                    acls.add(new AclSpec(username, "/", this.userPrivileges));
+                }
+            }
+            this.repository.addUsers(newUsers);
+            this.users.addAll(newUsers.keySet());
+            this.repository.grantAll(acls);
+        }
+    }
+
+    @Override
+    protected void after() {
+
+        for (String username : this.users) {
+            this.repository.deleteUser(username);
+        }
+        this.users.clear();
+    }
+
+    /**
+     * Executes the workload the specified number of times from each session concurrently. All sessions are logged in
+     * before the first operation is executed and released after the last operation of all sessions completed.
+     *
+     * @param workload
+     *         the operation to be executed
+     * @param iterations
+     *         the number of times each session executes the workload
+     *
+     * @return the result of the load test
+     *
+     * @throws RepositoryException
+     *         if a session could not be logged in
+     */
+    public LoadTestResult run(final Workload workload, final int iterations) throws RepositoryException {
+
+        assertStateAfterOrEqual(State.INITIALIZED);
+        final List<Session> activeSessions = new ArrayList<>(this.sessions);
+        final ExecutorService executor = Executors.newFixedThreadPool(this.sessions);
+        try {
+            for (int i = 0; i < this.sessions; i++) {
+                activeSessions.add(this.login(i));
+            }
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<SessionStats>> results = new ArrayList<>(this.sessions);
+            for (int i = 0; i < this.sessions; i++) {
+                results.add(executor.submit(new SessionRun(workload,
+                                                           activeSessions.get(i),
+                                                           i,
+                                                           iterations,
+                                                           start)));
+            }
+            final long startTime = System.nanoTime();
+            start.countDown();
+            final LoadTestResult result = this.collect(results, iterations, startTime);
+            LOG.info("Load test completed: {}", result);
+            return result;
+        } finally {
+            executor.shutdownNow();
+            for (Session session : activeSessions) {
+                this.repository.release(session);
+            }
+        }
+    }
+
+    private Session login(final int sessionIndex) throws RepositoryException {
+
+        if (this.userPrefix != null) {
+            return this.repository.login(this.userPrefix + sessionIndex, this.userPassword);
+        }
+        return this.repository.login("admin", "admin");
+    }
+
+    private LoadTestResult collect(final List<Future<SessionStats>> results, final int iterations, final long startTime) {
+
+        final long[] latencies = new long[results.size() * iterations];
+        long errors = 0;
+        long conflicts = 0;
+        long retries = 0;
+        int offset = 0;
+        try {
+            for (Future<SessionStats> future : results) {
+                final SessionStats stats = future.get();
+                System.arraycopy(stats.latencies, 0, latencies, offset, stats.latencies.length);
+                offset += stats.latencies.length;
+                errors += stats.errors;
+                conflicts += stats.conflicts;
+                retries += stats.retries;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError("Load test interrupted", e);
+        } catch (ExecutionException e) {
+            throw new AssertionError("Load test failed", e.getCause());
+        }
+        return new LoadTestResult(System.nanoTime() - startTime, latencies, errors, conflicts, retries);
+    }
+
+    /**
+     * Counters of a single session
+     */
+    private static class SessionStats {
+
+        private final long[] latencies;
+        private long errors;
+        private long conflicts;
+        private long retries;
+
+        SessionStats(final int iterations) {
+
+            this.latencies = new long[iterations];
+        }
+    }
+
+    /**
+     * Executes the workload repeatedly on a single session.
+     */
+    private class SessionRun implements Callable<SessionStats> {
+
+        private final Workload workload;
+        private final Session session;
+        private final int sessionIndex;
+        private final int iterations;
+        private final CountDownLatch start;
+
+        SessionRun(final Workload workload,
+                   final Session session,
+                   final int sessionIndex,
+                   final int iterations,
+                   final CountDownLatch start) {
+
+            this.workload = workload;
+            this.session = session;
+            this.sessionIndex = sessionIndex;
+            this.iterations = iterations;
+            this.start = start;
+        }
+
+        @Override
+        public SessionStats call() throws InterruptedException {
+
+            final SessionStats stats = new SessionStats(this.iterations);
+            this.start.await();
+            for (int i = 0; i < this.iterations; i++) {
+                final long startTime = System.nanoTime();
+                this.execute(i, stats);
+                stats.latencies[i] = System.nanoTime() - startTime;
+            }
+            return stats;
+        }
+
+        private void execute(final int iteration, final SessionStats stats) {
+
+            int attempt = 0;
+            while (true) {
+                try {
+                    this.workload.execute(this.session, this.sessionIndex, iteration);
+                    return;
+                } catch (InvalidItemStateException e) { //NOSONAR
+                    stats.conflicts++;
+                    if (attempt++ >= maxRetries) {
+                        LOG.debug("Operation {} of session {} failed after {} retries",
+                                  iteration,
+                                  this.sessionIndex,
+                                  maxRetries,
+                                  e);
+                        stats.errors++;
+                        this.discardChanges();
+                        return;
+                    }
+                    stats.retries++;
+                    this.discardChanges();
+                } catch (RepositoryException | RuntimeException e) {
+                    LOG.debug("Operation {} of session {} failed", iteration, this.sessionIndex, e);
+                    stats.errors++;
+                    this.discardChanges();
+                    return;
+                }
+            }
+        }
+
+        private void discardChanges() {
+
+            try {
+                this.session.refresh(false);
+            } catch (RepositoryException e) {
+                LOG.warn("Could not discard changes of session {}", this.sessionIndex, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The result of a single run of a {@link LoadTest}. The latencies are measured per operation, including the retries
+ * of the operation.
+ *
+ * @author <a href="mailto:gerald.muecke@gmail.com">Gerald M&uuml;cke</a>
+ */
+public class LoadTestResult {
+
+    private final long durationNanos;
+    private final long[] latencyNanos;
+    private final long errors;
+    private final long conflicts;
+    private final long retries;
+
+    /**
+     * Creates a new result
+     *
+     * @param durationNanos
+     *         the time in ns it took all sessions to complete the workload
+     * @param latencyNanos
+     *         the latencies of all operations in ns
+     * @param errors
+     *         the number of failed operations
+     * @param conflicts
+     *         the number of concurrent modification conflicts
+     * @param retries
+     *         the number of retried operations
+     */
+    LoadTestResult(final long durationNanos,
+                   final long[] latencyNanos,
+                   final long errors,
+                   final long conflicts,
+                   final long retries) {
+
+        this.durationNanos = durationNanos;
+        this.latencyNanos = latencyNanos.clone();
+        Arrays.sort(this.latencyNanos);
+        this.errors = errors;
+        this.conflicts = conflicts;
+        this.retries = retries;
+    }
+
+    /**
+     * @return the number of executed operations, including failed operations
+     */
+    public long getOperations() {
+
+        return this.latencyNanos.length;
+    }
+
+    /**
+     * @return the number of operations that failed with an exception, or because of conflicts, even after retrying
+     */
+    public long getErrors() {
+
+        return this.errors;
+    }
+
+    /**
+     * @return the number of saves that failed because of a concurrent modification of another session
+     */
+    public long getConflicts() {
+
+        return this.conflicts;
+    }
+
+    /**
+     * @return the number of times an operation was retried after a conflict
+     */
+    public long getRetries() {
+
+        return this.retries;
+    }
+
+    /**
+     * @param unit
+     *         the time unit of the result
+     *
+     * @return the time it took all sessions to complete the workload
+     */
+    public long getDuration(TimeUnit unit) {
+
+        return unit.convert(this.durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of operations per second of all sessions
+     */
+    public double getThroughput() {
+
+        if (this.durationNanos == 0) {
+            return 0;
+        }
+        return this.latencyNanos.length * (double) TimeUnit.SECONDS.toNanos(1) / this.durationNanos;
+    }
+
+    /**
+     * Determines the latency of the given percentile of all operations using the nearest-rank method.
+     *
+     * @param percentile
+     *         the percentile between 0 and 100, i.e. 50 for the median or 99
+     * @param unit
+     *         the time unit of the result
+     *
+     * @return the latency the specified percentage of operations did not exceed
+     */
+    public long getLatencyPercentile(double percentile, TimeUnit unit) {
+
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        if (this.latencyNanos.length == 0) {
+            return 0;
+        }
+        final int rank = (int) Math.ceil(percentile / 100 * this.latencyNanos.length);
+        return unit.convert(this.latencyNanos[Math.max(rank - 1, 0)], TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+
+        return "LoadTestResult{operations=" + getOperations()
+                + ", ops/s=" + String.format("%.1f", getThroughput())
+                + ", p50=" + getLatencyPercentile(50, TimeUnit.MICROSECONDS) + "us"
+                + ", p99=" + getLatencyPercentile(99, TimeUnit.MICROSECONDS) + "us"
+                + ", errors=" + this.errors
+                + ", conflicts=" + this.conflicts
+                + ", retries=" + this.retries + '}';
+    }
+}
@@ -20,15 +20,23 @@
 package io.inkstand.scribble.jcr.rules;
 
 import javax.jcr.Repository;
-import javax.xml.namespace.QName;
+import javax.jcr.RepositoryException;
+import javax.jcr.RepositoryFactory;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
-import javax.xml.xpath.XPathVariableResolver;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.apache.jackrabbit.commons.JcrUtils;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -36,6 +44,8 @@ import org.junit.ClassRule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
 /**
@@ -45,6 +55,10 @@ import org.xml.sax.SAXException;
  * or acceptance test. When being used with arquillian, this rule may to be used as static {@link ClassRule}. The
  * initialize method has to be invoked in a {@link BeforeClass} annotated class if the Jackrabbit web is being deployed
  * as part of the arquillian deployment.
+ * <br>
+ * The repository is looked up using the {@link RepositoryFactory} implementations on the classpath, i.e. the
+ * Jackrabbit jcr2dav remoting client. The settings of the client, such as the size of its connection pool, can be
+ * tuned using client parameters. The hosts defined in an arquillian.xml are read once per file and cached.
  *
  * @author <a href="mailto:gerald.muecke@gmail.com">Gerald M&uuml;cke</a>
  */
@@ -54,6 +68,23 @@ public class RemoteContentRepository extends ContentRepository {
      * SLF4J Logger for this class
      */
     private static final Logger LOG = LoggerFactory.getLogger(RemoteContentRepository.class);
+    /**
+     * Parameter of the jcr2dav remoting client defining the maximum number of concurrent http connections
+     */
+    public static final String PARAM_MAX_CONNECTIONS = "org.apache.jackrabbit.spi2davex.MaxConnections";
+    /**
+     * Parameter of the jcr2dav remoting client defining the number of item infos cached by the client
+     */
+    public static final String PARAM_ITEM_INFO_CACHE_SIZE = "org.apache.jackrabbit.spi2davex.ItemInfoCacheSize";
+    /**
+     * Parameter of the jcr2dav remoting client defining the depth of batch reads. The value has to be an instance
+     * of <code>org.apache.jackrabbit.spi2davex.BatchReadConfig</code>
+     */
+    public static final String PARAM_BATCH_READ_CONFIG = "org.apache.jackrabbit.spi2davex.BatchReadConfig";
+    /**
+     * The hosts of the arquillian container qualifiers per arquillian.xml URL
+     */
+    private static final ConcurrentMap<String, Map<String, String>> ARQUILLIAN_HOSTS = new ConcurrentHashMap<>();
     /**
      * The name of the host on which the jackrabbit web app is installed
      */
@@ -68,6 +99,10 @@ public class RemoteContentRepository extends ContentRepository {
     private String contextRoot = "/jackrabbit-webapp-2.8.0/server";
     private boolean manualSetup;
     private URL arquillianXml;
+    /**
+     * Additional parameters passed to the repository factory of the remoting client
+     */
+    private final Map<String, Object> clientParameters = new LinkedHashMap<>();
 
     public RemoteContentRepository() {
 
@@ -116,6 +151,52 @@ public class RemoteContentRepository extends ContentRepository {
         return this;
     }
 
+    /**
+     * Sets the maximum number of concurrent http connections of the remoting client. Increase the value if the tests
+     * use more concurrent sessions than the default of the client (20) permits.
+     *
+     * @param maxConnections
+     *         the size of the connection pool of the remoting client
+     *
+     * @return this test rule
+     */
+    public RemoteContentRepository withMaxConnections(final int maxConnections) {
+
+        return withClientParameter(PARAM_MAX_CONNECTIONS, String.valueOf(maxConnections));
+    }
+
+    /**
+     * Sets the number of item infos the remoting client caches per session. A larger cache reduces the number of
+     * requests when the same items are read repeatedly.
+     *
+     * @param cacheSize
+     *         the number of cached item infos
+     *
+     * @return this test rule
+     */
+    public RemoteContentRepository withItemInfoCacheSize(final int cacheSize) {
+
+        return withClientParameter(PARAM_ITEM_INFO_CACHE_SIZE, String.valueOf(cacheSize));
+    }
+
+    /**
+     * Sets a parameter that is passed to the {@link RepositoryFactory} of the remoting client when the repository is
+     * looked up, i.e. {@link #PARAM_BATCH_READ_CONFIG} with a <code>BatchReadConfig</code> to define the depth of
+     * batch reads.
+     *
+     * @param name
+     *         the name of the parameter
+     * @param value
+     *         the value of the parameter
+     *
+     * @return this test rule
+     */
+    public RemoteContentRepository withClientParameter(final String name, final Object value) {
+
+        clientParameters.put(name, value);
+        return this;
+    }
+
     /**
      * If this method is invoked, the rule will be configured to not perform the lookup when being evaluated. Instead
      * the initialize method has to be invoked in the {@link BeforeClass} or {@link Before} annotated method.
@@ -193,17 +274,52 @@ public class RemoteContentRepository extends ContentRepository {
      */
     private String getActiveArquillianHost(final URL arquillianXml, final String arquillianLaunch) {
 
+        //SCRIB-23 doing parameter sanity check
+        if (!arquillianLaunch.matches("[a-zA-Z0-9]+")) {
+            throw new AssertionError(arquillianLaunch + " is no allowed qualifier");
+        }
+        return getArquillianHosts(arquillianXml).get(arquillianLaunch);
+    }
+
+    /**
+     * Reads the hosts of all containers defined in the <code>arquillian.xml</code>. The file is only parsed the first
+     * time, subsequent invocations for the same URL return the cached hosts.
+     *
+     * @param arquillianXml
+     *         the URL of the arquillian.xml file
+     *
+     * @return a map of container qualifiers and the host defined for the container
+     */
+    private static Map<String, String> getArquillianHosts(final URL arquillianXml) {
+
+        final String key = arquillianXml.toExternalForm();
+        Map<String, String> hosts = ARQUILLIAN_HOSTS.get(key);
+        if (hosts == null) {
+            hosts = readArquillianHosts(arquillianXml);
+            ARQUILLIAN_HOSTS.putIfAbsent(key, hosts);
+        }
+        return hosts;
+    }
+
+    private static Map<String, String> readArquillianHosts(final URL arquillianXml) {
+
         final XPath xPath = XPathFactory.newInstance().newXPath();
-        final String xpExpr = "//container[@qualifier=$containerQualifier]/protocol/property[@name='host']";
+        final String xpExpr = "protocol/property[@name='host']";
         try {
             final Document document = parseDocument(arquillianXml);
-
-            //SCRIB-23 adding a variable resolver that returns only sanitized input values
-            xPath.setXPathVariableResolver(new ArquillianLaunchVariableResolver(arquillianLaunch));
-            // with the sanity check the already unlikely chance of maliciously injecting statements into
-            // the xpath expression becomes impossible. As the sonar rule still indicating this as
-            // an error, the NOSONAR marker is set
-            return xPath.evaluate(xpExpr, document);//NOSONAR
+            final NodeList containers = document.getElementsByTagName("container");
+            final Map<String, String> hosts = new HashMap<>();
+            for (int i = 0; i < containers.getLength(); i++) {
+                final Element container = (Element) containers.item(i);
+                final org.w3c.dom.Node host = (org.w3c.dom.Node) xPath.evaluate(xpExpr,
+                                                                                 container,
+                                                                                 XPathConstants.NODE);
+                if (host != null) {
+                    hosts.put(container.getAttribute("qualifier"), host.getTextContent());
+                }
+            }
+            LOG.debug("Read hosts {} from {}", hosts, arquillianXml);
+            return Collections.unmodifiableMap(hosts);
         } catch (SAXException | IOException | ParserConfigurationException e) {
             LOG.error("Could not parse arquilian.xml", e);
             throw new AssertionError("Could not parse arquilian.xml:" + e.getMessage(), e);
@@ -213,7 +329,7 @@ public class RemoteContentRepository extends ContentRepository {
         }
     }
 
-    private Document parseDocument(final URL documentLocation)
+    private static Document parseDocument(final URL documentLocation)
             throws SAXException, IOException, ParserConfigurationException {
 
         final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
@@ -236,10 +352,33 @@ public class RemoteContentRepository extends ContentRepository {
     @Override
     protected Repository createRepository() throws Exception {
 
-        final URL remoteUrl = new URL("http", remoteHost, remotePort, contextRoot);
-        LOG.info("Creating remote repository for {}", remoteUrl);
+        final Map<String, Object> parameters = getClientParameters();
+        LOG.info("Creating remote repository for {}", parameters);
 
-        return JcrUtils.getRepository(remoteUrl.toString());
+        for (RepositoryFactory factory : ServiceLoader.load(RepositoryFactory.class)) {
+            final Repository repository = factory.getRepository(parameters);
+            if (repository != null) {
+                return repository;
+            }
+        }
+        throw new RepositoryException("No repository factory found for " + parameters);
+    }
+
+    /**
+     * The parameters for looking up the repository, consisting of the URL of the remote repository and the client
+     * parameters.
+     *
+     * @return a map of parameters for a {@link RepositoryFactory}
+     *
+     * @throws IOException
+     *         if the repository URL is not valid
+     */
+    protected Map<String, Object> getClientParameters() throws IOException {
+
+        final Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put(JcrUtils.REPOSITORY_URI, new URL("http", remoteHost, remotePort, contextRoot).toString());
+        parameters.putAll(clientParameters);
+        return parameters;
     }
 
     @Override
@@ -261,26 +400,4 @@ public class RemoteContentRepository extends ContentRepository {
 
         return contextRoot;
     }
-
-    private static class ArquillianLaunchVariableResolver implements XPathVariableResolver {
-
-        private final String qualifier;
-
-        public ArquillianLaunchVariableResolver(String arquillianLaunchParameter) {
-            //SCRIB-23 doing parameter sanity check
-            if (!arquillianLaunchParameter.matches("[a-zA-Z0-9]+")) {
-                throw new AssertionError(arquillianLaunchParameter + " is no allowed qualifier");
-            }
-            qualifier = arquillianLaunchParameter;
-        }
-
-        @Override
-        public Object resolveVariable(final QName variableName) {
-
-            if ("containerQualifier".equals(variableName.getLocalPart())) {
-                return qualifier;
-            }
-            return "";
-        }
-    }
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+/**
+ * A single operation of a load test, executed repeatedly by each session of the {@link LoadTest}. Implementations must
+ * be thread-safe as the same workload is executed concurrently by all sessions, but each session is only used by one
+ * thread.
+ *
+ * @author <a href="mailto:gerald.muecke@gmail.com">Gerald M&uuml;cke</a>
+ */
+public interface Workload {
+
+    /**
+     * Executes the operation once. A write operation has to save the session. If the save fails because of a
+     * concurrent modification, the pending changes are discarded and the operation is retried.
+     *
+     * @param session
+     *         the session of the executing user
+     * @param sessionIndex
+     *         the index of the session, from 0 to the number of concurrent sessions - 1
+     * @param iteration
+     *         the iteration of the session, starting with 0
+     *
+     * @throws RepositoryException
+     *         if the operation failed
+     */
+    void execute(Session session, int sessionIndex, int iteration) throws RepositoryException;
+}
@@ -21,6 +21,7 @@ import java.net.URL;
 import io.inkstand.scribble.Builder;
 import io.inkstand.scribble.jcr.rules.ContentLoader;
 import io.inkstand.scribble.jcr.rules.ContentRepository;
+import io.inkstand.scribble.jcr.rules.util.ContentGenerator;
 
 /**
  * Builder for creating {@link io.inkstand.scribble.jcr.rules.ContentLoader} TestRules. A content loader can be used to
@@ -31,13 +32,17 @@ import io.inkstand.scribble.jcr.rules.ContentRepository;
 public class ContentLoaderBuilder implements Builder<ContentLoader> {
 
     private final ContentLoader contentLoader;
+    private ContentGenerator contentGenerator;
 
     public ContentLoaderBuilder(final ContentRepository repository) {
         contentLoader = new ContentLoader(repository);
     }
 
     /**
-     * Uses the content descriptor specified by the URL.
+     * Uses the content descriptor specified by the URL. The format of the descriptor is determined by the extension
+     * of the URL: <code>.jcrdump</code> and <code>.jcrdump.gz</code> descriptors are loaded as binary dump,
+     * <code>.sysview.xml</code> and <code>.sysview.xml.gz</code> descriptors are imported as JCR System View, all
+     * others using the inkstand import format.
      *
      * @param contentDescriptorUrl
      *            the URL referencing a content descriptor file
@@ -49,6 +54,156 @@ public class ContentLoaderBuilder implements Builder<ContentLoader> {
         return this;
     }
 
+    /**
+     * Imports the top-level subtrees of the content descriptor concurrently using the specified number of threads.
+     *
+     * @param parallelism
+     *            the number of concurrent subtree imports
+     * @return this builder
+     */
+    public ContentLoaderBuilder withParallelism(final int parallelism) {
+
+        contentLoader.setParallelism(parallelism);
+        return this;
+    }
+
+    /**
+     * Validates content descriptors in the inkstand import format against the import schema before importing them.
+     *
+     * @return this builder
+     */
+    public ContentLoaderBuilder validating() {
+
+        contentLoader.setValidating(true);
+        return this;
+    }
+
+    /**
+     * Loads the content into a workspace of its own for each test, that is cloned from a template workspace and
+     * cleared for reuse after the test. The name of the workspace is available from the built {@link ContentLoader}.
+     *
+     * @return this builder
+     */
+    public ContentLoaderBuilder inIsolatedWorkspace() {
+
+        contentLoader.setWorkspaceIsolation(true);
+        return this;
+    }
+
+    /**
+     * Generates a synthetic tree below a root node with the specified name before each test. The shape of the tree
+     * is defined using the <code>with...</code> methods of the generator settings. By default the tree has a depth of
+     * 1 and a fanout of 10 nodes of type nt:unstructured without properties.
+     *
+     * @param rootName
+     *            the name of the root node of the generated tree
+     * @return this builder
+     */
+    public ContentLoaderBuilder generatingTree(final String rootName) {
+
+        contentGenerator = new ContentGenerator(rootName);
+        contentLoader.setContentGenerator(contentGenerator);
+        return this;
+    }
+
+    /**
+     * Sets the shape of the generated tree.
+     *
+     * @param depth
+     *            the number of levels of child nodes below the root node
+     * @param fanout
+     *            the number of child nodes of each node above the deepest level
+     * @return this builder
+     */
+    public ContentLoaderBuilder withTreeShape(final int depth, final int fanout) {
+
+        getContentGenerator().setDepth(depth);
+        getContentGenerator().setFanout(fanout);
+        return this;
+    }
+
+    /**
+     * Sets the primary type of the generated nodes.
+     *
+     * @param nodeType
+     *            the name of the node type
+     * @return this builder
+     */
+    public ContentLoaderBuilder withNodeType(final String nodeType) {
+
+        getContentGenerator().setNodeType(nodeType);
+        return this;
+    }
+
+    /**
+     * Adds a property with a random value to each generated node.
+     *
+     * @param name
+     *            the name of the property
+     * @param propertyType
+     *            the {@link javax.jcr.PropertyType} of the property
+     * @param size
+     *            the number of characters of string values
+     * @return this builder
+     */
+    public ContentLoaderBuilder withGeneratedProperty(final String name, final int propertyType, final int size) {
+
+        getContentGenerator().addProperty(name, propertyType, size);
+        return this;
+    }
+
+    /**
+     * Adds a binary property with random content to each generated node. The sizes of the binaries are uniformly
+     * distributed in the specified range.
+     *
+     * @param name
+     *            the name of the property
+     * @param minSize
+     *            the minimum size in bytes
+     * @param maxSize
+     *            the maximum size in bytes
+     * @return this builder
+     */
+    public ContentLoaderBuilder withGeneratedBinary(final String name, final int minSize, final int maxSize) {
+
+        getContentGenerator().setBinaryProperty(name, minSize, maxSize);
+        return this;
+    }
+
+    /**
+     * Sets the number of generated nodes saved at once.
+     *
+     * @param batchSize
+     *            the number of nodes per save
+     * @return this builder
+     */
+    public ContentLoaderBuilder withBatchSize(final int batchSize) {
+
+        getContentGenerator().setBatchSize(batchSize);
+        return this;
+    }
+
+    /**
+     * Sets the seed of the random values of the generated tree, so that each seed produces the same content.
+     *
+     * @param seed
+     *            the seed of the random values
+     * @return this builder
+     */
+    public ContentLoaderBuilder withSeed(final long seed) {
+
+        getContentGenerator().setSeed(seed);
+        return this;
+    }
+
+    private ContentGenerator getContentGenerator() {
+
+        if (contentGenerator == null) {
+            throw new IllegalStateException("No generated tree defined");
+        }
+        return contentGenerator;
+    }
+
     @Override
     public ContentLoader build() {
         return contentLoader;
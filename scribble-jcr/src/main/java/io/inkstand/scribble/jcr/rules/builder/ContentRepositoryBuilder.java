@@ -22,6 +22,7 @@ import io.inkstand.scribble.Builder;
 import io.inkstand.scribble.jcr.rules.ActiveSession;
 import io.inkstand.scribble.jcr.rules.ContentLoader;
 import io.inkstand.scribble.jcr.rules.ContentRepository;
+import io.inkstand.scribble.jcr.rules.LoadTest;
 
 /**
  * Abstract Builder for {@link ContentRepository} rules.
@@ -34,6 +35,8 @@ public abstract class ContentRepositoryBuilder<T extends ContentRepository> impl
 
     private transient URL cndModelResource;
 
+    private transient int sessionPoolSize;
+
     /**
      * Creates a {@link JCRSessionBuilder} for building a {@link ActiveSession} with the {@link ContentRepository} as
      * outer rule.
@@ -54,6 +57,16 @@ public abstract class ContentRepositoryBuilder<T extends ContentRepository> impl
         return new ContentLoaderBuilder(build());
     }
 
+    /**
+     * Creates a {@link LoadTestBuilder} for building a {@link LoadTest} with the {@link ContentRepository} as outer
+     * rule.
+     *
+     * @return
+     */
+    public LoadTestBuilder aroundLoadTest() {
+        return new LoadTestBuilder(build());
+    }
+
     /**
      * Specifies the content repository should be initialized with node types specified in <a href="http://jackrabbit
      * .apache.org/rules/node-type-notation.html">CND format</a> in the resource specified.
@@ -67,6 +80,19 @@ public abstract class ContentRepositoryBuilder<T extends ContentRepository> impl
         return this;
     }
 
+    /**
+     * Specifies that user sessions of the content repository should be pooled and reused by subsequent logins of the
+     * same user, until the repository is destroyed.
+     * @param maxIdleSessions
+     *  the maximum number of idle sessions kept per user
+     * @return
+     *  this builder
+     */
+    public ContentRepositoryBuilder<T> withSessionPool(int maxIdleSessions){
+        this.sessionPoolSize = maxIdleSessions;
+        return this;
+    }
+
     /**
      * The URL of the cnd file for initializing the node types of the repository
      * @return
@@ -75,5 +101,12 @@ public abstract class ContentRepositoryBuilder<T extends ContentRepository> impl
         return cndModelResource;
     }
 
+    /**
+     * The maximum number of idle sessions kept per user, 0 if sessions should not be pooled
+     * @return
+     */
+    protected int getSessionPoolSize() {
+        return sessionPoolSize;
+    }
 
 }
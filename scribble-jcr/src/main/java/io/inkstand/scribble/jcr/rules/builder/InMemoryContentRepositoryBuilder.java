@@ -34,6 +34,12 @@ public class InMemoryContentRepositoryBuilder extends ContentRepositoryBuilder<I
 
     private transient boolean securityEnabled;
 
+    private transient Integer bundleCacheSize;
+
+    private transient boolean searchIndexDisabled;
+
+    private transient boolean inMemorySearchIndex;
+
     public InMemoryContentRepositoryBuilder(final TemporaryFolder temporaryFolder) {
         this.temporaryFolder = temporaryFolder;
     }
@@ -43,7 +49,13 @@ public class InMemoryContentRepositoryBuilder extends ContentRepositoryBuilder<I
 
         InMemoryContentRepository repository = new InMemoryContentRepository(temporaryFolder);
         repository.setCndUrl(getCndModelResource());
+        repository.setSessionPoolSize(getSessionPoolSize());
         repository.setSecurityEnabled(this.securityEnabled);
+        if (this.bundleCacheSize != null) {
+            repository.setBundleCacheSize(this.bundleCacheSize);
+        }
+        repository.setSearchIndexDisabled(this.searchIndexDisabled);
+        repository.setInMemorySearchIndex(this.inMemorySearchIndex);
         return repository;
     }
 
@@ -53,4 +65,36 @@ public class InMemoryContentRepositoryBuilder extends ContentRepositoryBuilder<I
 
 
     }
+
+    /**
+     * Sets the size of the bundle cache of the persistence managers.
+     * @param sizeInMB
+     *  the cache size in MB
+     * @return
+     *  this builder
+     */
+    public InMemoryContentRepositoryBuilder withBundleCacheSize(int sizeInMB) {
+        this.bundleCacheSize = sizeInMB;
+        return this;
+    }
+
+    /**
+     * Disables the search index, for tests that do not perform queries.
+     * @return
+     *  this builder
+     */
+    public InMemoryContentRepositoryBuilder withoutSearchIndex() {
+        this.searchIndexDisabled = true;
+        return this;
+    }
+
+    /**
+     * Keeps the search index in memory instead of the working directory.
+     * @return
+     *  this builder
+     */
+    public InMemoryContentRepositoryBuilder withInMemorySearchIndex() {
+        this.inMemorySearchIndex = true;
+        return this;
+    }
 }
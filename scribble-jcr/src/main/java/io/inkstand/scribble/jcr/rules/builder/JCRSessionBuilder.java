@@ -33,6 +33,19 @@ public class JCRSessionBuilder implements Builder<ActiveSession> {
         jcrSession = new ActiveSession(contentRepository);
     }
 
+    /**
+     * Logs the sessions into the specified workspace instead of the default workspace.
+     *
+     * @param workspace
+     *            the name of the workspace, i.e. the workspace of an isolated
+     *            {@link io.inkstand.scribble.jcr.rules.ContentLoader}
+     * @return this builder
+     */
+    public JCRSessionBuilder inWorkspace(final String workspace) {
+        jcrSession.setWorkspace(workspace);
+        return this;
+    }
+
     @Override
     public ActiveSession build() {
         return jcrSession;
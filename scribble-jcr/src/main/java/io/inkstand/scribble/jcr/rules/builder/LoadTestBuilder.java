@@ -0,0 +1,86 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules.builder;
+
+import io.inkstand.scribble.Builder;
+import io.inkstand.scribble.jcr.rules.ContentRepository;
+import io.inkstand.scribble.jcr.rules.LoadTest;
+
+/**
+ * Builder for creating {@link LoadTest} TestRules. A load test executes a workload concurrently from multiple
+ * sessions against a JCR Content Repository.
+ *
+ * @author <a href="mailto:gerald.muecke@gmail.com">Gerald M&uuml;cke</a>
+ */
+public class LoadTestBuilder implements Builder<LoadTest> {
+
+    private final LoadTest loadTest;
+
+    public LoadTestBuilder(final ContentRepository repository) {
+        loadTest = new LoadTest(repository);
+    }
+
+    /**
+     * Executes the workload using the specified number of concurrent sessions.
+     *
+     * @param sessions
+     *            the number of concurrent sessions
+     * @return this builder
+     */
+    public LoadTestBuilder withSessions(final int sessions) {
+
+        loadTest.setSessions(sessions);
+        return this;
+    }
+
+    /**
+     * Retries operations that failed because of a concurrent modification up to the specified number of times.
+     *
+     * @param maxRetries
+     *            the maximum number of retries per operation
+     * @return this builder
+     */
+    public LoadTestBuilder withMaxRetries(final int maxRetries) {
+
+        loadTest.setMaxRetries(maxRetries);
+        return this;
+    }
+
+    /**
+     * Executes the workload with a separate user for each session, that is created before and removed after the
+     * test.
+     *
+     * @param prefix
+     *            the prefix of the user names, the index of the session is appended
+     * @param password
+     *            the password of the users
+     * @param privileges
+     *            the privileges granted to the users on the root node
+     * @return this builder
+     */
+    public LoadTestBuilder asUsers(final String prefix, final String password, final String... privileges) {
+
+        loadTest.setUsers(prefix, password, privileges);
+        return this;
+    }
+
+    @Override
+    public LoadTest build() {
+        return loadTest;
+    }
+
+}
@@ -62,6 +62,7 @@ public class StandaloneContentRepositoryBuilder extends ContentRepositoryBuilder
             repository.setConfigUrl(this.configUrl);
         }
         repository.setCndUrl(getCndModelResource());
+        repository.setSessionPoolSize(getSessionPoolSize());
         return repository;
     }
 
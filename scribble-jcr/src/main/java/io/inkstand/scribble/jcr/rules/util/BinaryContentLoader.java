@@ -0,0 +1,379 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules.util;
+
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import javax.jcr.nodetype.NodeType;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.jackrabbit.core.NodeImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads and exports content in a compact binary dump format. Other than the XML based formats, the dump is read with a
+ * {@link DataInputStream} without any parsing: names and values are length-prefixed, the values of binary properties
+ * are streamed directly into the repository. The dump contains the complete state of a subtree except protected
+ * properties, which are created by the repository. The identifiers of referenceable nodes are kept if the repository
+ * is a Jackrabbit repository, references are resolved once all nodes are created. The dump may be gzip compressed,
+ * indicated by the {@value #GZIP_EXTENSION} extension.
+ * <p>
+ * The format is: the magic number and the format version, followed by the root node. A node is written as its name,
+ * primary type, identifier (empty if not referenceable), mixin types and non-protected properties, followed by its
+ * child nodes, each preceded by <code>true</code>, and terminated by <code>false</code>.
+ * </p>
+ *
+ * @author <a href="mailto:gerald@inkstand.io">Gerald M&uuml;cke</a>
+ */
+public class BinaryContentLoader {
+
+    /**
+     * Extension of content definitions in the binary dump format.
+     */
+    public static final String DUMP_EXTENSION = ".jcrdump";
+
+    /**
+     * Extension of compressed content definitions.
+     */
+    public static final String GZIP_EXTENSION = ".gz";
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryContentLoader.class);
+
+    /**
+     * Magic number at the start of each dump, "JCRD".
+     */
+    private static final int MAGIC = 0x4A435244;
+
+    private static final int VERSION = 1;
+
+    private int batchSize = 1000;
+
+    /**
+     * Checks if the specified content definition is in the binary dump format, which is determined by the extension
+     * {@value #DUMP_EXTENSION} optionally followed by {@value #GZIP_EXTENSION}.
+     *
+     * @param contentDef
+     *         the url of the content definition
+     *
+     * @return <code>true</code> if the content definition is a binary dump
+     */
+    public static boolean isDump(final URL contentDef) {
+
+        return isDump(contentDef.getPath());
+    }
+
+    /**
+     * Checks if the specified file is in the binary dump format, which is determined by the extension
+     * {@value #DUMP_EXTENSION} optionally followed by {@value #GZIP_EXTENSION}.
+     *
+     * @param file
+     *         the file to check
+     *
+     * @return <code>true</code> if the file is a binary dump
+     */
+    public static boolean isDump(final File file) {
+
+        return isDump(file.getName());
+    }
+
+    private static boolean isDump(final String name) {
+
+        String path = name;
+        if (path.endsWith(GZIP_EXTENSION)) {
+            path = path.substring(0, path.length() - GZIP_EXTENSION.length());
+        }
+        return path.endsWith(DUMP_EXTENSION);
+    }
+
+    /**
+     * Sets the number of nodes after which the session is saved during loading. Default is 1000.
+     *
+     * @param batchSize
+     *         the number of nodes per save
+     */
+    public void setBatchSize(final int batchSize) {
+
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Loads the content from the specified content definition into the workspace of the specified session. The
+     * content is added below the root node of the workspace.
+     *
+     * @param session
+     *         the session used to import the data. The user bound to the session must have the required privileges to
+     *         perform the import operation.
+     * @param contentDef
+     *         the url of the content definition in the binary dump format
+     *
+     * @return the root node of the imported content
+     */
+    public Node loadContent(final Session session, final URL contentDef) {
+
+        final long startTime = System.nanoTime();
+        try (DataInputStream in = new DataInputStream(this.openStream(contentDef))) {
+            if (in.readInt() != MAGIC) {
+                throw new AssertionError(contentDef + " is not a content dump");
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new AssertionError("Unsupported version " + version + " of content dump " + contentDef);
+            }
+            final DumpReader reader = new DumpReader(session, in);
+            final Node rootNode = reader.readNode(session.getRootNode());
+            reader.references.resolve(session);
+            session.save();
+            LOG.info("Content with {} nodes imported in {} ms",
+                     reader.count,
+                     (System.nanoTime() - startTime) / 1_000_000);
+            return rootNode;
+        } catch (IOException | RepositoryException e) {
+            throw new AssertionError("Loading Content to JCR Repository failed", e);
+        }
+    }
+
+    /**
+     * Exports the subtree at the specified path in the binary dump format into the target file. If the name of the
+     * file ends with {@value #GZIP_EXTENSION} the content is gzip compressed.
+     *
+     * @param session
+     *         the session used to export the data.
+     * @param absPath
+     *         the absolute path of the root node of the subtree to export
+     * @param target
+     *         the file to write the content to
+     */
+    public void exportContent(final Session session, final String absPath, final File target) {
+
+        try (DataOutputStream out = new DataOutputStream(this.openStream(target))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeNode(out, session.getNode(absPath));
+        } catch (IOException | RepositoryException e) {
+            throw new AssertionError("Exporting Content from JCR Repository failed", e);
+        }
+    }
+
+    private static void writeNode(final DataOutputStream out, final Node node) throws IOException,
+                                                                                      RepositoryException {
+
+        out.writeUTF(node.getName());
+        out.writeUTF(node.getPrimaryNodeType().getName());
+        out.writeUTF(node.isNodeType("mix:referenceable") ? node.getIdentifier() : "");
+        final NodeType[] mixins = node.getMixinNodeTypes();
+        out.writeInt(mixins.length);
+        for (NodeType mixin : mixins) {
+            out.writeUTF(mixin.getName());
+        }
+        final List<Property> properties = new ArrayList<>();
+        final PropertyIterator propIt = node.getProperties();
+        while (propIt.hasNext()) {
+            final Property property = propIt.nextProperty();
+            if (!property.getDefinition().isProtected()) {
+                properties.add(property);
+            }
+        }
+        out.writeInt(properties.size());
+        for (Property property : properties) {
+            writeProperty(out, property);
+        }
+        final NodeIterator nodeIt = node.getNodes();
+        while (nodeIt.hasNext()) {
+            out.writeBoolean(true);
+            writeNode(out, nodeIt.nextNode());
+        }
+        out.writeBoolean(false);
+    }
+
+    private static void writeProperty(final DataOutputStream out, final Property property) throws IOException,
+                                                                                                  RepositoryException {
+
+        out.writeUTF(property.getName());
+        out.writeInt(property.getType());
+        final boolean multiple = property.isMultiple();
+        out.writeBoolean(multiple);
+        final Value[] values = multiple ? property.getValues() : new Value[] { property.getValue() };
+        out.writeInt(values.length);
+        for (Value value : values) {
+            if (value.getType() == PropertyType.BINARY) {
+                final Binary binary = value.getBinary();
+                try (InputStream data = binary.getStream()) {
+                    out.writeLong(binary.getSize());
+                    IOUtils.copyLarge(data, out);
+                } finally {
+                    binary.dispose();
+                }
+            } else {
+                writeString(out, value.getString());
+            }
+        }
+    }
+
+    /**
+     * Writes a string of arbitrary length, as {@link DataOutputStream#writeUTF(String)} is limited to 64k.
+     */
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+
+        final byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+
+        final byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private InputStream openStream(final URL contentDef) throws IOException {
+
+        final InputStream contentStream = new BufferedInputStream(contentDef.openStream());
+        if (contentDef.getPath().endsWith(GZIP_EXTENSION)) {
+            return new BufferedInputStream(new GZIPInputStream(contentStream));
+        }
+        return contentStream;
+    }
+
+    private OutputStream openStream(final File target) throws IOException {
+
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(target));
+        if (target.getName().endsWith(GZIP_EXTENSION)) {
+            return new BufferedOutputStream(new GZIPOutputStream(out));
+        }
+        return out;
+    }
+
+    /**
+     * Creates the nodes of a dump. The session is saved after each batch of nodes, the references are collected and
+     * resolved after all nodes are created.
+     */
+    private class DumpReader {
+
+        private final Session session;
+        private final DataInputStream in;
+        private final ValueFactory valueFactory;
+        private final ReferenceResolver references = new ReferenceResolver();
+        private long count;
+
+        DumpReader(final Session session, final DataInputStream in) throws RepositoryException {
+
+            this.session = session;
+            this.in = in;
+            this.valueFactory = session.getValueFactory();
+        }
+
+        Node readNode(final Node parent) throws IOException, RepositoryException {
+
+            final String name = this.in.readUTF();
+            final String primaryType = this.in.readUTF();
+            final String identifier = this.in.readUTF();
+            final Node node;
+            if (!identifier.isEmpty() && parent instanceof NodeImpl) {
+                node = ((NodeImpl) parent).addNodeWithUuid(name, primaryType, identifier);
+            } else {
+                node = parent.addNode(name, primaryType);
+            }
+            final int mixinCount = this.in.readInt();
+            for (int i = 0; i < mixinCount; i++) {
+                node.addMixin(this.in.readUTF());
+            }
+            if (!identifier.isEmpty()) {
+                this.references.declareId(identifier, node.getPath());
+            }
+            final int propertyCount = this.in.readInt();
+            for (int i = 0; i < propertyCount; i++) {
+                this.readProperty(node);
+            }
+            if (++this.count % BinaryContentLoader.this.batchSize == 0) {
+                this.session.save();
+            }
+            while (this.in.readBoolean()) {
+                this.readNode(node);
+            }
+            return node;
+        }
+
+        private void readProperty(final Node node) throws IOException, RepositoryException {
+
+            final String name = this.in.readUTF();
+            final int type = this.in.readInt();
+            final boolean multiple = this.in.readBoolean();
+            final int valueCount = this.in.readInt();
+            if (type == PropertyType.REFERENCE || type == PropertyType.WEAKREFERENCE) {
+                final String[] targets = new String[valueCount];
+                for (int i = 0; i < valueCount; i++) {
+                    targets[i] = readString(this.in);
+                }
+                final boolean weak = type == PropertyType.WEAKREFERENCE;
+                if (multiple) {
+                    this.references.addReferences(node.getPath(), name, weak, targets);
+                } else {
+                    this.references.addReference(node.getPath(), name, weak, targets[0]);
+                }
+                return;
+            }
+            final Value[] values = new Value[valueCount];
+            for (int i = 0; i < valueCount; i++) {
+                values[i] = this.readValue(type);
+            }
+            if (multiple) {
+                node.setProperty(name, values, type);
+            } else {
+                node.setProperty(name, values[0]);
+            }
+        }
+
+        private Value readValue(final int type) throws IOException, RepositoryException {
+
+            if (type == PropertyType.BINARY) {
+                final long size = this.in.readLong();
+                final BoundedInputStream data = new BoundedInputStream(this.in, size);
+                data.setPropagateClose(false);
+                return this.valueFactory.createValue(this.valueFactory.createBinary(data));
+            }
+            return this.valueFactory.createValue(readString(this.in), type);
+        }
+    }
+}
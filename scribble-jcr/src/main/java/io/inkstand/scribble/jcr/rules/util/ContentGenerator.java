@@ -0,0 +1,419 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules.util;
+
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates a synthetic content tree of a defined shape for scale testing. The tree consists of a root node and
+ * levels of child nodes, each node having the same number of child nodes (fanout) down to the defined depth. Every
+ * node gets the defined properties with random values of the defined size and optionally a binary property of
+ * random size within a range. All random values are derived from a seed, so the same generator settings produce the
+ * same content. The nodes are created depth-first and saved in batches.
+ *
+ * @author <a href="mailto:gerald@inkstand.io">Gerald M&uuml;cke</a>
+ */
+public class ContentGenerator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentGenerator.class);
+
+    private static final char[] CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
+
+    private final String rootName;
+    private String nodeType = "nt:unstructured";
+    private int depth = 1;
+    private int fanout = 10;
+    private int batchSize = 1000;
+    private long seed;
+    /**
+     * The property types and sizes by property name
+     */
+    private final Map<String, int[]> properties = new LinkedHashMap<>();
+    private String binaryProperty;
+    private int minBinarySize;
+    private int maxBinarySize;
+
+    private long nodeCount;
+    private long durationNanos;
+
+    /**
+     * Creates a generator for a tree with the specified root node name.
+     *
+     * @param rootName
+     *         the name of the root node of the generated tree, which is created as child of the root node of the
+     *         workspace
+     */
+    public ContentGenerator(final String rootName) {
+
+        this.rootName = rootName;
+    }
+
+    /**
+     * Sets the primary type of all generated nodes. Default is nt:unstructured.
+     *
+     * @param nodeType
+     *         the name of the node type
+     */
+    public void setNodeType(final String nodeType) {
+
+        this.nodeType = nodeType;
+    }
+
+    /**
+     * Sets the number of levels of child nodes below the root node. Default is 1.
+     *
+     * @param depth
+     *         the depth of the tree
+     */
+    public void setDepth(final int depth) {
+
+        this.depth = depth;
+    }
+
+    /**
+     * Sets the number of child nodes of each node above the deepest level. Default is 10.
+     *
+     * @param fanout
+     *         the number of child nodes per node
+     */
+    public void setFanout(final int fanout) {
+
+        this.fanout = fanout;
+    }
+
+    /**
+     * Sets the number of nodes created before the session is saved. Default is 1000.
+     *
+     * @param batchSize
+     *         the number of nodes per save, must be greater than 0
+     */
+    public void setBatchSize(final int batchSize) {
+
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the seed for the random values. Default is 0.
+     *
+     * @param seed
+     *         the seed of the random values
+     */
+    public void setSeed(final long seed) {
+
+        this.seed = seed;
+    }
+
+    /**
+     * Adds a property that is set on every generated node.
+     *
+     * @param name
+     *         the name of the property
+     * @param propertyType
+     *         the {@link PropertyType} of the property. Supported are STRING, LONG, DOUBLE, DECIMAL, BOOLEAN and DATE
+     * @param size
+     *         the number of characters of STRING values, ignored for other types
+     */
+    public void addProperty(final String name, final int propertyType, final int size) {
+
+        switch (propertyType) {
+            case PropertyType.STRING:
+            case PropertyType.LONG:
+            case PropertyType.DOUBLE:
+            case PropertyType.DECIMAL:
+            case PropertyType.BOOLEAN:
+            case PropertyType.DATE:
+                this.properties.put(name, new int[] { propertyType, size });
+                break;
+            default:
+                throw new IllegalArgumentException("Property type "
+                                                           + PropertyType.nameFromValue(propertyType)
+                                                           + " is not supported");
+        }
+    }
+
+    /**
+     * Sets a binary property on every generated node. The size of each binary is uniformly distributed between the
+     * minimum and maximum size.
+     *
+     * @param name
+     *         the name of the binary property
+     * @param minSize
+     *         the minimum size in bytes
+     * @param maxSize
+     *         the maximum size in bytes
+     */
+    public void setBinaryProperty(final String name, final int minSize, final int maxSize) {
+
+        if (minSize < 0 || maxSize < minSize) {
+            throw new IllegalArgumentException("Invalid binary size range " + minSize + " - " + maxSize);
+        }
+        this.binaryProperty = name;
+        this.minBinarySize = minSize;
+        this.maxBinarySize = maxSize;
+    }
+
+    /**
+     * Generates the tree using the specified session. The session is saved after each batch and after the last node.
+     *
+     * @param session
+     *         the session to create the nodes with
+     *
+     * @return the root node of the generated tree
+     *
+     * @throws RepositoryException
+     *         if the nodes could not be created
+     */
+    public Node generate(final Session session) throws RepositoryException {
+
+        final long start = System.nanoTime();
+        final Generation generation = new Generation(session);
+        final Node root = generation.createNode(session.getRootNode(), this.rootName);
+        generation.createChildren(root, 1);
+        session.save();
+        this.nodeCount = generation.count;
+        this.durationNanos = System.nanoTime() - start;
+        LOG.info("Generated {} nodes in {} ms ({} nodes/s)",
+                 this.nodeCount,
+                 TimeUnit.NANOSECONDS.toMillis(this.durationNanos),
+                 String.format("%.1f", getNodesPerSecond()));
+        return root;
+    }
+
+    /**
+     * Removes a generated tree bottom-up. Removing the root node of a large tree in one go requires the entire tree to
+     * be held in the transient space of the session, so the nodes are removed in batches of the same size as they are
+     * created, each saved before the next batch is removed.
+     *
+     * @param root
+     *         the root node of the tree to remove
+     *
+     * @throws RepositoryException
+     *         if the nodes could not be removed
+     */
+    public void remove(final Node root) throws RepositoryException {
+
+        root.refresh(false);
+        final long removed = this.removeTree(root, 0);
+        root.getSession().save();
+        LOG.info("Removed {} nodes", removed);
+    }
+
+    /**
+     * Removes the children of the node before the node itself and saves the session after each batch.
+     *
+     * @return the number of removed nodes including the removed nodes of previous subtrees
+     */
+    private long removeTree(final Node node, final long removed) throws RepositoryException {
+
+        final List<Node> children = new ArrayList<>();
+        final NodeIterator it = node.getNodes();
+        while (it.hasNext()) {
+            children.add(it.nextNode());
+        }
+        long count = removed;
+        for (Node child : children) {
+            count = this.removeTree(child, count);
+        }
+        node.remove();
+        if (++count % this.batchSize == 0) {
+            node.getSession().save();
+        }
+        return count;
+    }
+
+    /**
+     * @return the total number of nodes of a generated tree, including the root node
+     */
+    public long getExpectedNodeCount() {
+
+        long count = 1;
+        long levelCount = 1;
+        for (int level = 0; level < this.depth; level++) {
+            levelCount *= this.fanout;
+            count += levelCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of nodes created by the last generation
+     */
+    public long getNodeCount() {
+
+        return this.nodeCount;
+    }
+
+    /**
+     * @param unit
+     *         the time unit of the result
+     *
+     * @return the duration of the last generation
+     */
+    public long getDuration(final TimeUnit unit) {
+
+        return unit.convert(this.durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of nodes created per second by the last generation
+     */
+    public double getNodesPerSecond() {
+
+        if (this.durationNanos == 0) {
+            return 0;
+        }
+        return this.nodeCount * (double) TimeUnit.SECONDS.toNanos(1) / this.durationNanos;
+    }
+
+    /**
+     * State of a single generation.
+     */
+    private class Generation {
+
+        private final Session session;
+        private final ValueFactory valueFactory;
+        private final Random random = new Random(seed);
+        private long count;
+
+        Generation(final Session session) throws RepositoryException {
+
+            this.session = session;
+            this.valueFactory = session.getValueFactory();
+        }
+
+        void createChildren(final Node parent, final int level) throws RepositoryException {
+
+            if (level > depth) {
+                return;
+            }
+            for (int i = 0; i < fanout; i++) {
+                final Node child = this.createNode(parent, "node" + i);
+                this.createChildren(child, level + 1);
+            }
+        }
+
+        Node createNode(final Node parent, final String name) throws RepositoryException {
+
+            final Node node = parent.addNode(name, nodeType);
+            for (Map.Entry<String, int[]> property : properties.entrySet()) {
+                node.setProperty(property.getKey(), this.createValue(property.getValue()[0], property.getValue()[1]));
+            }
+            if (binaryProperty != null) {
+                final int size = minBinarySize + this.random.nextInt(maxBinarySize - minBinarySize + 1);
+                final Binary binary = this.valueFactory.createBinary(new RandomInputStream(this.random.nextLong(),
+                                                                                           size));
+                try {
+                    node.setProperty(binaryProperty, binary);
+                } finally {
+                    binary.dispose();
+                }
+            }
+            if (++this.count % batchSize == 0) {
+                this.session.save();
+                LOG.debug("Saved {} nodes", this.count);
+            }
+            return node;
+        }
+
+        private Value createValue(final int type, final int size) throws RepositoryException {
+
+            switch (type) {
+                case PropertyType.LONG:
+                    return this.valueFactory.createValue(this.random.nextLong());
+                case PropertyType.DOUBLE:
+                    return this.valueFactory.createValue(this.random.nextDouble());
+                case PropertyType.DECIMAL:
+                    return this.valueFactory.createValue(BigDecimal.valueOf(this.random.nextLong(), 2));
+                case PropertyType.BOOLEAN:
+                    return this.valueFactory.createValue(this.random.nextBoolean());
+                case PropertyType.DATE:
+                    final Calendar date = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+                    date.setTimeInMillis(this.random.nextInt() & Integer.MAX_VALUE);
+                    date.add(Calendar.YEAR, 45);
+                    return this.valueFactory.createValue(date);
+                default:
+                    final char[] chars = new char[size];
+                    for (int i = 0; i < size; i++) {
+                        chars[i] = CHARACTERS[this.random.nextInt(CHARACTERS.length)];
+                    }
+                    return this.valueFactory.createValue(new String(chars));
+            }
+        }
+    }
+
+    /**
+     * Stream of random bytes of a fixed length, so that binaries of any size can be created without holding them in
+     * memory.
+     */
+    private static class RandomInputStream extends InputStream {
+
+        private final Random random;
+        private long remaining;
+
+        RandomInputStream(final long seed, final long length) {
+
+            this.random = new Random(seed);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            this.remaining--;
+            return this.random.nextInt(256);
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            final int n = (int) Math.min(len, this.remaining);
+            for (int i = 0; i < n; i++) {
+                b[off + i] = (byte) this.random.nextInt(256);
+            }
+            this.remaining -= n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules.util;
+
+import javax.jcr.NamespaceRegistry;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.NodeTypeDefinition;
+import javax.jcr.nodetype.NodeTypeIterator;
+import javax.jcr.nodetype.NodeTypeManager;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.commons.cnd.CompactNodeTypeDefReader;
+import org.apache.jackrabbit.commons.cnd.ParseException;
+import org.apache.jackrabbit.spi.QNodeTypeDefinition;
+import org.apache.jackrabbit.spi.commons.conversion.DefaultNamePathResolver;
+import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceMapping;
+import org.apache.jackrabbit.spi.commons.nodetype.NodeTypeDefinitionImpl;
+import org.apache.jackrabbit.spi.commons.nodetype.QDefinitionBuilderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JVM-wide cache of node type definitions parsed from compact node type definition (CND) resources. The definitions
+ * are cached per URL and content hash in a repository independent form so that the same resource is parsed only once,
+ * no matter how many repositories are created. A changed resource is parsed again. When registering the definitions,
+ * the namespaces of the resource and all node types that are not yet known to the repository are registered at once.
+ *
+ * @author <a href="mailto:gerald@inkstand.io">Gerald M&uuml;cke</a>
+ */
+public final class NodeTypeCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NodeTypeCache.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The parsed definitions by URL and SHA-1 hash of the content
+     */
+    private static final ConcurrentMap<String, CndDefinitions> CACHE = new ConcurrentHashMap<>();
+
+    private static final AtomicLong PARSE_COUNT = new AtomicLong();
+
+    private NodeTypeCache() {
+
+    }
+
+    /**
+     * Registers the namespaces and node types defined in the CND resource in the workspace of the session. The resource
+     * is only parsed if it has not been parsed before. Node types that are already registered are not registered
+     * again.
+     *
+     * @param cndUrl
+     *         the URL of the CND resource
+     * @param session
+     *         the session of a user that is allowed to register namespaces and node types
+     *
+     * @return the node types that have been registered. If all node types were registered before, the array is
+     * empty
+     *
+     * @throws IOException
+     *         if the resource could not be read
+     * @throws ParseException
+     *         if the resource is not a valid CND
+     * @throws RepositoryException
+     *         if the namespaces or node types could not be registered
+     */
+    public static NodeType[] registerNodeTypes(final URL cndUrl, final Session session)
+            throws IOException, ParseException, RepositoryException {
+
+        final CndDefinitions definitions = getDefinitions(cndUrl);
+        registerNamespaces(definitions.namespaces, session.getWorkspace().getNamespaceRegistry());
+
+        final NodeTypeManager ntm = session.getWorkspace().getNodeTypeManager();
+        final NamePathResolver resolver = new DefaultNamePathResolver(session);
+        final List<NodeTypeDefinition> newTypes = new ArrayList<>(definitions.nodeTypes.size());
+        for (QNodeTypeDefinition qntd : definitions.nodeTypes) {
+            if (!ntm.hasNodeType(resolver.getJCRName(qntd.getName()))) {
+                newTypes.add(new NodeTypeDefinitionImpl(qntd, resolver, session.getValueFactory()));
+            }
+        }
+        LOG.debug("Registering {} of {} node types of {}", newTypes.size(), definitions.nodeTypes.size(), cndUrl);
+        if (newTypes.isEmpty()) {
+            return new NodeType[0];
+        }
+        final NodeTypeIterator it = ntm.registerNodeTypes(newTypes.toArray(new NodeTypeDefinition[newTypes.size()]),
+                                                          false);
+        final List<NodeType> registered = new ArrayList<>(newTypes.size());
+        while (it.hasNext()) {
+            registered.add(it.nextNodeType());
+        }
+        return registered.toArray(new NodeType[registered.size()]);
+    }
+
+    /**
+     * @return the number of times a CND resource has been parsed because it was not found in the cache.
+     */
+    public static long getParseCount() {
+
+        return PARSE_COUNT.get();
+    }
+
+    /**
+     * Removes all cached definitions.
+     */
+    public static void clear() {
+
+        CACHE.clear();
+    }
+
+    private static CndDefinitions getDefinitions(final URL cndUrl) throws IOException, ParseException {
+
+        final byte[] content;
+        try (InputStream cndStream = cndUrl.openStream()) {
+            content = IOUtils.toByteArray(cndStream);
+        }
+        final String key = cndUrl.toExternalForm() + '#' + DigestUtils.sha1Hex(content);
+        CndDefinitions definitions = CACHE.get(key);
+        if (definitions == null) {
+            definitions = parse(cndUrl, content);
+            final CndDefinitions existing = CACHE.putIfAbsent(key, definitions);
+            if (existing != null) {
+                definitions = existing;
+            }
+        }
+        return definitions;
+    }
+
+    private static CndDefinitions parse(final URL cndUrl, final byte[] content) throws IOException, ParseException {
+
+        LOG.debug("Parsing node types of {}", cndUrl);
+        PARSE_COUNT.incrementAndGet();
+        try (Reader cndReader = new InputStreamReader(new ByteArrayInputStream(content), UTF_8)) {
+            final CompactNodeTypeDefReader<QNodeTypeDefinition, NamespaceMapping> reader
+                    = new CompactNodeTypeDefReader<>(cndReader,
+                                                     cndUrl.toExternalForm(),
+                                                     new QDefinitionBuilderFactory());
+            return new CndDefinitions(reader.getNodeTypeDefinitions(), reader.getNamespaceMapping());
+        }
+    }
+
+    /**
+     * Registers all namespaces of the mapping that are not yet registered.
+     */
+    private static void registerNamespaces(final NamespaceMapping namespaces, final NamespaceRegistry nsRegistry)
+            throws RepositoryException {
+
+        final List<String> registeredUris = Arrays.asList(nsRegistry.getURIs());
+        for (Map.Entry<String, String> namespace : namespaces.getPrefixToURIMapping().entrySet()) {
+            if (!registeredUris.contains(namespace.getValue())) {
+                nsRegistry.registerNamespace(namespace.getKey(), namespace.getValue());
+            }
+        }
+    }
+
+    /**
+     * The repository independent node type definitions and namespaces of a CND resource.
+     */
+    private static class CndDefinitions {
+
+        private final List<QNodeTypeDefinition> nodeTypes;
+        private final NamespaceMapping namespaces;
+
+        CndDefinitions(final List<QNodeTypeDefinition> nodeTypes, final NamespaceMapping namespaces) {
+
+            this.nodeTypes = Collections.unmodifiableList(new ArrayList<>(nodeTypes));
+            this.namespaces = namespaces;
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules.util;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.LocatorImpl;
+
+/**
+ * Content handler that imports the top-level subtrees of the rootNode element in parallel. The rootNode itself,
+ * including its mixins and properties, is created by an {@link XMLContentHandler} on the session of the caller. The
+ * events of each top-level node element are recorded and replayed on a separate {@link XMLContentHandler} in a {@link
+ * ForkJoinPool}, each using its own session that is saved once the subtree is complete. Reference properties of all
+ * subtrees are resolved in a final pass on the session of the caller after all subtrees are imported. The number of
+ * recorded subtrees waiting for or being imported is limited to the parallelism of the pool, so that a parser that
+ * outruns the workers does not buffer the entire document.
+ *
+ * @author <a href="mailto:gerald@inkstand.io">Gerald M&uuml;cke</a>
+ */
+class ParallelContentHandler extends DefaultHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelContentHandler.class);
+
+    /**
+     * The depth of the elements of a top-level subtree.
+     */
+    private static final int SUBTREE_DEPTH = 1;
+
+    /**
+     * The handler creating the rootNode on the session of the caller.
+     */
+    private final XMLContentHandler rootHandler;
+    /**
+     * The pool executing the subtree imports.
+     */
+    private final ForkJoinPool pool;
+    /**
+     * Factory for the sessions used by the workers importing a subtree.
+     */
+    private final Callable<Session> workerSessions;
+    /**
+     * Callback to release the sessions of the workers once their subtree is imported.
+     */
+    private final XMLContentLoader.SessionRelease sessionRelease;
+    /**
+     * The pending subtree imports.
+     */
+    private final List<ForkJoinTask<?>> subtreeImports;
+    /**
+     * Permits for the recorded subtrees that are pending or being imported.
+     */
+    private final Semaphore pendingSubtrees;
+    /**
+     * The current element depth in the document.
+     */
+    private int depth;
+    /**
+     * The events of the subtree that is currently recorded. <code>null</code> if no subtree is recorded.
+     */
+    private List<SAXEvent> subtree;
+    /**
+     * Flag to indicate whether the rootNode has been saved, so it is visible to the worker sessions.
+     */
+    private boolean rootNodeSaved;
+    /**
+     * The locator of the processed document, passed on to the handlers of the subtree imports.
+     */
+    private Locator documentLocator;
+
+    /**
+     * Creates a new parallel content handler.
+     *
+     * @param session
+     *         the session used to create the rootNode
+     * @param pool
+     *         the pool to execute the subtree imports
+     * @param workerSessions
+     *         factory to create a new session for each subtree import
+     * @param sessionRelease
+     *         callback to release the session of each subtree import after the import
+     */
+    ParallelContentHandler(final Session session,
+                           final ForkJoinPool pool,
+                           final Callable<Session> workerSessions,
+                           final XMLContentLoader.SessionRelease sessionRelease) {
+
+        this.rootHandler = new XMLContentHandler(session);
+        this.pool = pool;
+        this.workerSessions = workerSessions;
+        this.sessionRelease = sessionRelease;
+        this.subtreeImports = new ArrayList<>();
+        this.pendingSubtrees = new Semaphore(pool.getParallelism());
+    }
+
+    @Override
+    public void setDocumentLocator(final Locator locator) {
+
+        this.documentLocator = locator;
+        this.rootHandler.setDocumentLocator(locator);
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+
+        this.rootHandler.startDocument();
+    }
+
+    /**
+     * Waits for all subtree imports to complete before the rootNode session is saved.
+     */
+    @Override
+    public void endDocument() throws SAXException {
+
+        LOG.info("Waiting for {} subtree imports to complete", this.subtreeImports.size());
+        for (ForkJoinTask<?> subtreeImport : this.subtreeImports) {
+            subtreeImport.join();
+        }
+        this.rootHandler.endDocument();
+    }
+
+    @Override
+    public void startElement(final String uri, final String localName, final String qName, final Attributes attributes)
+            throws SAXException {
+
+        if (this.subtree == null && this.depth == SUBTREE_DEPTH && this.isNodeElement(uri, localName)) {
+            this.saveRootNode();
+            this.subtree = new ArrayList<>();
+        }
+        this.depth++;
+        if (this.subtree == null) {
+            this.rootHandler.startElement(uri, localName, qName, attributes);
+        } else {
+            this.subtree.add(new StartElement(uri, localName, qName, attributes));
+        }
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+
+        this.depth--;
+        if (this.subtree == null) {
+            this.rootHandler.endElement(uri, localName, qName);
+        } else {
+            this.subtree.add(new EndElement(uri, localName, qName));
+            if (this.depth == SUBTREE_DEPTH) {
+                this.submitSubtree(this.subtree);
+                this.subtree = null;
+            }
+        }
+    }
+
+    @Override
+    public void characters(final char[] chr, final int start, final int length) throws SAXException {
+
+        if (this.subtree == null) {
+            this.rootHandler.characters(chr, start, length);
+        } else {
+            this.subtree.add(new Characters(new String(chr, start, length)));
+        }
+    }
+
+    @Override
+    public void error(final SAXParseException parseException) throws SAXException {
+
+        this.rootHandler.error(parseException);
+    }
+
+    /**
+     * Accessor for the root {@link Node} created by this handler for the root element.
+     * @return
+     *  the Node representing the root node of the content created by this handler.
+     */
+    public Node getRootNode() {
+
+        return this.rootHandler.getRootNode();
+    }
+
+    private boolean isNodeElement(final String uri, final String localName) {
+
+        return XMLContentHandler.NS_INK_IMPORT.equals(uri) && "node".equals(localName);
+    }
+
+    /**
+     * Saves the rootNode before the first subtree is imported so that the worker sessions are able to see it.
+     */
+    private void saveRootNode() {
+
+        if (!this.rootNodeSaved) {
+            try {
+                this.rootHandler.getRootNode().getSession().save();
+                this.rootNodeSaved = true;
+            } catch (RepositoryException e) {
+                throw new AssertionError("Could not save root node", e);
+            }
+        }
+    }
+
+    /**
+     * Submits the import of a recorded subtree. If the maximum number of subtrees is pending, the call blocks until
+     * the import of a previous subtree is completed.
+     */
+    private void submitSubtree(final List<SAXEvent> events) throws SAXException {
+
+        try {
+            this.pendingSubtrees.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SAXException("Interrupted while waiting for pending subtree imports", e);
+        }
+        try {
+            final String parentPath = this.rootHandler.getRootNode().getPath();
+            LOG.debug("Submitting subtree import of {} events below {}", events.size(), parentPath);
+            final Locator locator = this.documentLocator == null ? null : new LocatorImpl(this.documentLocator);
+            this.subtreeImports.add(this.pool.submit(new SubtreeImport(parentPath, locator, events)));
+        } catch (RepositoryException e) {
+            this.pendingSubtrees.release();
+            throw new AssertionError("Could not determine path of root node", e);
+        }
+    }
+
+    /**
+     * Imports a single recorded subtree using a new worker session.
+     */
+    private class SubtreeImport extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String parentPath;
+        private final transient Locator locator;
+        private transient List<SAXEvent> events;
+
+        SubtreeImport(final String parentPath, final Locator locator, final List<SAXEvent> events) {
+
+            this.parentPath = parentPath;
+            this.locator = locator;
+            this.events = events;
+        }
+
+        @Override
+        protected void compute() {
+
+            try {
+                this.importSubtree();
+            } finally {
+                //the completed task is kept until the end of the document, but not its events
+                this.events = null;
+                pendingSubtrees.release();
+            }
+        }
+
+        private void importSubtree() {
+
+            final Session session = this.login();
+            try {
+                final XMLContentHandler handler = new XMLContentHandler(session,
+                                                                        session.getNode(this.parentPath),
+                                                                        rootHandler.getReferenceResolver());
+                if (this.locator != null) {
+                    handler.setDocumentLocator(this.locator);
+                }
+                for (SAXEvent event : this.events) {
+                    event.replay(handler);
+                }
+                session.save();
+            } catch (RepositoryException | SAXException e) {
+                throw new AssertionError("Importing subtree below " + this.parentPath + " failed", e);
+            } finally {
+                sessionRelease.release(session);
+            }
+        }
+
+        private Session login() {
+
+            try {
+                return workerSessions.call();
+            } catch (Exception e) { //NOSONAR
+                throw new AssertionError("Could not login worker session", e);
+            }
+        }
+    }
+
+    /**
+     * A recorded SAX event that can be replayed on another handler.
+     */
+    private interface SAXEvent {
+
+        void replay(ContentHandler handler) throws SAXException;
+    }
+
+    private static class StartElement implements SAXEvent {
+
+        private final String uri;
+        private final String localName;
+        private final String qName;
+        private final Attributes attributes;
+
+        StartElement(final String uri, final String localName, final String qName, final Attributes attributes) {
+
+            this.uri = uri;
+            this.localName = localName;
+            this.qName = qName;
+            //the parser reuses the attributes instance, so they have to be copied
+            this.attributes = new AttributesImpl(attributes);
+        }
+
+        @Override
+        public void replay(final ContentHandler handler) throws SAXException {
+
+            handler.startElement(this.uri, this.localName, this.qName, this.attributes);
+        }
+    }
+
+    private static class EndElement implements SAXEvent {
+
+        private final String uri;
+        private final String localName;
+        private final String qName;
+
+        EndElement(final String uri, final String localName, final String qName) {
+
+            this.uri = uri;
+            this.localName = localName;
+            this.qName = qName;
+        }
+
+        @Override
+        public void replay(final ContentHandler handler) throws SAXException {
+
+            handler.endElement(this.uri, this.localName, this.qName);
+        }
+    }
+
+    private static class Characters implements SAXEvent {
+
+        private final String text;
+
+        Characters(final String text) {
+
+            this.text = text;
+        }
+
+        @Override
+        public void replay(final ContentHandler handler) throws SAXException {
+
+            handler.characters(this.text.toCharArray(), 0, this.text.length());
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules.util;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the REFERENCE and WEAKREFERENCE properties of a content definition and resolves them in a single pass once
+ * all nodes of the content definition are created. The target of a reference is either the id declared on a node
+ * element, an absolute path or the identifier of an existing node. The resolver may be shared among the handlers of a
+ * parallel import.
+ *
+ * @author <a href="mailto:gerald@inkstand.io">Gerald M&uuml;cke</a>
+ */
+class ReferenceResolver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReferenceResolver.class);
+
+    /**
+     * Map of the ids declared on node elements to the path of the created nodes.
+     */
+    private final Map<String, String> declaredIds = new ConcurrentHashMap<>();
+
+    /**
+     * The reference properties to be resolved.
+     */
+    private final Queue<PendingReference> references = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Registers the id declared on a node element.
+     *
+     * @param id
+     *         the id of the node element
+     * @param path
+     *         the path of the created node
+     */
+    void declareId(final String id, final String path) {
+
+        LOG.debug("Node {} declares id {}", path, id);
+        if (this.declaredIds.put(id, path) != null) {
+            throw new AssertionError("Duplicate node id " + id);
+        }
+    }
+
+    /**
+     * Registers a reference property that is set on resolution.
+     *
+     * @param nodePath
+     *         the path of the node to set the property on
+     * @param propertyName
+     *         the name of the property
+     * @param weak
+     *         <code>true</code> for a WEAKREFERENCE, <code>false</code> for a REFERENCE
+     * @param target
+     *         the declared id, absolute path or identifier of the referenced node
+     */
+    void addReference(final String nodePath, final String propertyName, final boolean weak, final String target) {
+
+        this.references.add(new PendingReference(nodePath, propertyName, weak, false, target));
+    }
+
+    /**
+     * Registers a multi-valued reference property that is set on resolution.
+     *
+     * @param nodePath
+     *         the path of the node to set the property on
+     * @param propertyName
+     *         the name of the property
+     * @param weak
+     *         <code>true</code> for a WEAKREFERENCE, <code>false</code> for a REFERENCE
+     * @param targets
+     *         the declared ids, absolute paths or identifiers of the referenced nodes
+     */
+    void addReferences(final String nodePath, final String propertyName, final boolean weak, final String... targets) {
+
+        this.references.add(new PendingReference(nodePath, propertyName, weak, true, targets));
+    }
+
+    /**
+     * Sets all registered reference properties using the specified session. Target and source nodes are looked up
+     * once per resolution. The changes are not saved.
+     *
+     * @param session
+     *         the session to resolve the references with
+     *
+     * @return the number of resolved references
+     *
+     * @throws RepositoryException
+     *         if a node could not be found or the property could not be set
+     */
+    int resolve(final Session session) throws RepositoryException {
+
+        final ValueFactory valueFactory = session.getValueFactory();
+        final Map<String, Node> nodes = new HashMap<>();
+        final Map<String, Node> targets = new HashMap<>();
+        int count = 0;
+        PendingReference ref;
+        while ((ref = this.references.poll()) != null) {
+            final Value[] values = new Value[ref.targets.length];
+            for (int i = 0; i < values.length; i++) {
+                Node target = targets.get(ref.targets[i]);
+                if (target == null) {
+                    target = this.lookupTarget(session, ref.targets[i]);
+                    targets.put(ref.targets[i], target);
+                }
+                values[i] = valueFactory.createValue(target, ref.weak);
+            }
+            Node node = nodes.get(ref.nodePath);
+            if (node == null) {
+                node = session.getNode(ref.nodePath);
+                nodes.put(ref.nodePath, node);
+            }
+            LOG.debug("Node {} adding reference {} to {}", ref.nodePath, ref.propertyName, Arrays.toString(ref.targets));
+            if (ref.multiple) {
+                node.setProperty(ref.propertyName, values);
+            } else {
+                node.setProperty(ref.propertyName, values[0]);
+            }
+            count++;
+        }
+        LOG.info("Resolved {} references", count);
+        return count;
+    }
+
+    private Node lookupTarget(final Session session, final String target) throws RepositoryException {
+
+        final String declaredPath = this.declaredIds.get(target);
+        if (declaredPath != null) {
+            return session.getNode(declaredPath);
+        }
+        if (target.startsWith("/")) {
+            return session.getNode(target);
+        }
+        return session.getNodeByIdentifier(target);
+    }
+
+    /**
+     * A reference property that is not yet resolved.
+     */
+    private static class PendingReference {
+
+        private final String nodePath;
+        private final String propertyName;
+        private final boolean weak;
+        private final boolean multiple;
+        private final String[] targets;
+
+        PendingReference(final String nodePath,
+                         final String propertyName,
+                         final boolean weak,
+                         final boolean multiple,
+                         final String... targets) {
+
+            this.nodePath = nodePath;
+            this.propertyName = propertyName;
+            this.weak = weak;
+            this.multiple = multiple;
+            this.targets = targets;
+        }
+    }
+}
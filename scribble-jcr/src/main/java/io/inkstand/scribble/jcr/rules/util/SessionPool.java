@@ -0,0 +1,274 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules.util;
+
+import javax.jcr.Repository;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of JCR sessions that keeps sessions of released logins for reuse by subsequent logins with the same
+ * credentials. A pooled session is refreshed when it is leased again, discarding all pending changes and updating it
+ * to the latest repository state. For each credential at most the configured number of idle sessions is kept, idle
+ * sessions exceeding the idle timeout are logged out. The pool is thread-safe, the leased sessions are not. Logins and
+ * refreshes are performed outside the lock of the pool so that concurrent leases do not wait for each other.
+ *
+ * @author <a href="mailto:gerald@inkstand.io">Gerald M&uuml;cke</a>
+ */
+public class SessionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionPool.class);
+
+    private final Repository repository;
+    private final int maxIdleSessions;
+    private final long idleTimeout;
+
+    /**
+     * The idle sessions per credential, the most recently released session first.
+     */
+    private final Map<String, Deque<IdleSession>> idleSessions = new HashMap<>();
+    /**
+     * The currently leased sessions and the credential they were created for.
+     */
+    private final Map<Session, String> leasedSessions = new IdentityHashMap<>();
+
+    private long logins;
+    private long reuses;
+    private long evictions;
+
+    /**
+     * Creates a new pool for sessions of the specified repository.
+     *
+     * @param repository
+     *         the repository to log into
+     * @param maxIdleSessions
+     *         the maximum number of idle sessions kept per credential
+     * @param idleTimeout
+     *         the time in ms after which an idle session is logged out
+     */
+    public SessionPool(final Repository repository, final int maxIdleSessions, final long idleTimeout) {
+
+        this.repository = repository;
+        this.maxIdleSessions = maxIdleSessions;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Leases a session for the specified credentials. If an idle session for the credentials is available, it is
+     * refreshed and returned, otherwise a new session is created. The session should be returned to the pool using
+     * {@link #release(Session)}.
+     *
+     * @param userId
+     *         the user id to log in
+     * @param password
+     *         the password of the user
+     *
+     * @return a session for the user
+     *
+     * @throws RepositoryException
+     *         if the login failed
+     */
+    public Session lease(final String userId, final String password) throws RepositoryException {
+
+        final String credential = toCredential(userId, password);
+        final Session idle = this.pollIdleSession(credential);
+        if (idle != null) {
+            try {
+                idle.refresh(false);
+            } catch (RepositoryException e) {
+                idle.logout();
+                throw e;
+            }
+            LOG.debug("Reusing session for {}", userId);
+            this.recordLease(idle, credential, true);
+            return idle;
+        }
+        final Session session = this.repository.login(new SimpleCredentials(userId, password.toCharArray()));
+        this.recordLease(session, credential, false);
+        return session;
+    }
+
+    /**
+     * Removes the most recently released live session for the credential from the idle sessions. The session is
+     * refreshed or a new session is created by the caller outside of the lock of the pool.
+     *
+     * @return the idle session or <code>null</code> if no live session is available for the credential
+     */
+    private synchronized Session pollIdleSession(final String credential) {
+
+        this.evictIdleSessions();
+        final Deque<IdleSession> sessions = this.idleSessions.get(credential);
+        IdleSession idle;
+        while (sessions != null && (idle = sessions.pollFirst()) != null) {
+            if (idle.session.isLive()) {
+                return idle.session;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void recordLease(final Session session, final String credential, final boolean reused) {
+
+        this.leasedSessions.put(session, credential);
+        if (reused) {
+            this.reuses++;
+        } else {
+            this.logins++;
+        }
+    }
+
+    /**
+     * Returns a leased session to the pool. If the pool already holds the maximum number of idle sessions for the
+     * credential of the session, the session is logged out. Sessions that are not live or have not been leased from
+     * this pool are not kept.
+     *
+     * @param session
+     *         the session to return
+     */
+    public synchronized void release(final Session session) {
+
+        final String credential = this.leasedSessions.remove(session);
+        if (credential == null || !session.isLive()) {
+            LOG.debug("Discarding session {}", session.getUserID());
+            if (session.isLive()) {
+                session.logout();
+            }
+            return;
+        }
+        Deque<IdleSession> sessions = this.idleSessions.get(credential);
+        if (sessions == null) {
+            sessions = new ArrayDeque<>();
+            this.idleSessions.put(credential, sessions);
+        }
+        if (sessions.size() < this.maxIdleSessions) {
+            sessions.addFirst(new IdleSession(session, System.currentTimeMillis()));
+        } else {
+            this.evictions++;
+            session.logout();
+        }
+        this.evictIdleSessions();
+    }
+
+    /**
+     * Logs out all idle sessions and all sessions currently leased.
+     */
+    public synchronized void close() {
+
+        for (Deque<IdleSession> sessions : this.idleSessions.values()) {
+            for (IdleSession idle : sessions) {
+                idle.logout();
+            }
+        }
+        this.idleSessions.clear();
+        for (Session session : this.leasedSessions.keySet()) {
+            if (session.isLive()) {
+                session.logout();
+            }
+        }
+        this.leasedSessions.clear();
+        LOG.info("Closed session pool, {} logins, {} logins avoided, {} sessions evicted",
+                 this.logins,
+                 this.reuses,
+                 this.evictions);
+    }
+
+    /**
+     * @return the number of sessions created by logging into the repository
+     */
+    public synchronized long getLoginCount() {
+
+        return this.logins;
+    }
+
+    /**
+     * @return the number of leases served by an idle session, each avoiding a login to the repository
+     */
+    public synchronized long getReuseCount() {
+
+        return this.reuses;
+    }
+
+    /**
+     * @return the number of sessions logged out because the pool was full or the idle timeout expired
+     */
+    public synchronized long getEvictionCount() {
+
+        return this.evictions;
+    }
+
+    /**
+     * @return the number of idle sessions currently kept by the pool
+     */
+    public synchronized int getIdleCount() {
+
+        int count = 0;
+        for (Deque<IdleSession> sessions : this.idleSessions.values()) {
+            count += sessions.size();
+        }
+        return count;
+    }
+
+    private void evictIdleSessions() {
+
+        final long expired = System.currentTimeMillis() - this.idleTimeout;
+        for (Deque<IdleSession> sessions : this.idleSessions.values()) {
+            final Iterator<IdleSession> it = sessions.descendingIterator();
+            IdleSession idle;
+            while (it.hasNext() && (idle = it.next()).releaseTime < expired) {
+                it.remove();
+                idle.logout();
+                this.evictions++;
+            }
+        }
+    }
+
+    private static String toCredential(final String userId, final String password) {
+
+        return userId + '\u0000' + password;
+    }
+
+    /**
+     * A session that has been returned to the pool.
+     */
+    private static class IdleSession {
+
+        private final Session session;
+        private final long releaseTime;
+
+        IdleSession(final Session session, final long releaseTime) {
+
+            this.session = session;
+            this.releaseTime = releaseTime;
+        }
+
+        void logout() {
+
+            if (this.session.isLive()) {
+                this.session.logout();
+            }
+        }
+    }
+}
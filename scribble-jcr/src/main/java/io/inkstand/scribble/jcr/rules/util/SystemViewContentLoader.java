@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules.util;
+
+import javax.jcr.ImportUUIDBehavior;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Loads content that has been exported from a JCR Repository in the System View format into the JCR Repository.
+ * Other than the inkstand import format, the System View contains the complete state of a subtree, including
+ * identifiers, references and binary content, and is imported directly into the workspace without using the
+ * transient space of a session. The content may be gzip compressed, indicated by the {@value #GZIP_EXTENSION}
+ * extension.
+ *
+ * @author <a href="mailto:gerald@inkstand.io">Gerald M&uuml;cke</a>
+ */
+public class SystemViewContentLoader {
+
+    /**
+     * Extension of content definitions in the System View format.
+     */
+    public static final String SYSTEM_VIEW_EXTENSION = ".sysview.xml";
+
+    /**
+     * Extension of compressed content definitions.
+     */
+    public static final String GZIP_EXTENSION = ".gz";
+
+    /**
+     * Namespace of the elements and attributes of the System View format.
+     */
+    public static final String NS_SYSTEM_VIEW = "http://www.jcp.org/jcr/sv/1.0";
+
+    private static final Logger LOG = LoggerFactory.getLogger(SystemViewContentLoader.class);
+
+    /**
+     * Checks if the specified content definition is in the System View format, which is determined by the extension
+     * {@value #SYSTEM_VIEW_EXTENSION} optionally followed by {@value #GZIP_EXTENSION}.
+     *
+     * @param contentDef
+     *         the url of the content definition
+     *
+     * @return <code>true</code> if the content definition is in the System View format
+     */
+    public static boolean isSystemView(final URL contentDef) {
+
+        String path = contentDef.getPath();
+        if (path.endsWith(GZIP_EXTENSION)) {
+            path = path.substring(0, path.length() - GZIP_EXTENSION.length());
+        }
+        return path.endsWith(SYSTEM_VIEW_EXTENSION);
+    }
+
+    /**
+     * Loads the content from the specified contentDefinition into the workspace of the specified session. The content
+     * is added below the root node of the workspace.
+     *
+     * @param session
+     *         the session used to import the data. The user bound to the session must have the required privileges to
+     *         perform the import operation.
+     * @param contentDef
+     *         the url of the content definition in System View format
+     *
+     * @return the root node of the imported content
+     */
+    public Node loadContent(final Session session, final URL contentDef) {
+
+        final long startTime = System.nanoTime();
+        try (InputStream contentStream = this.openStream(contentDef)) {
+            final SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            final RootNodeNameFilter filter = new RootNodeNameFilter();
+            filter.setParent(factory.newSAXParser().getXMLReader());
+            filter.setContentHandler(session.getWorkspace()
+                                            .getImportContentHandler("/",
+                                                                     ImportUUIDBehavior.IMPORT_UUID_COLLISION_THROW));
+            filter.parse(new InputSource(contentStream));
+            LOG.info("Content imported in {} ms", (System.nanoTime() - startTime) / 1_000_000);
+            session.refresh(true);
+            return session.getRootNode().getNode(filter.getRootNodeName());
+        } catch (ParserConfigurationException | SAXException | IOException | RepositoryException e) {
+            throw new AssertionError("Loading Content to JCR Repository failed", e);
+        }
+    }
+
+    /**
+     * Exports the subtree at the specified path in the System View format into the target file. If the name of the
+     * file ends with {@value #GZIP_EXTENSION} the content is gzip compressed.
+     *
+     * @param session
+     *         the session used to export the data.
+     * @param absPath
+     *         the absolute path of the root node of the subtree to export
+     * @param target
+     *         the file to write the content to
+     */
+    public void exportContent(final Session session, final String absPath, final File target) {
+
+        try (OutputStream out = this.openStream(target)) {
+            session.exportSystemView(absPath, out, false, false);
+        } catch (IOException | RepositoryException e) {
+            throw new AssertionError("Exporting Content from JCR Repository failed", e);
+        }
+    }
+
+    private InputStream openStream(final URL contentDef) throws IOException {
+
+        final InputStream contentStream = new BufferedInputStream(contentDef.openStream());
+        if (contentDef.getPath().endsWith(GZIP_EXTENSION)) {
+            return new GZIPInputStream(contentStream);
+        }
+        return contentStream;
+    }
+
+    private OutputStream openStream(final File target) throws IOException {
+
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(target));
+        if (target.getName().endsWith(GZIP_EXTENSION)) {
+            return new GZIPOutputStream(out);
+        }
+        return out;
+    }
+
+    /**
+     * Filter that passes all events to the import content handler of the workspace and records the name of the
+     * document element, which denotes the root node of the imported content.
+     */
+    private static class RootNodeNameFilter extends XMLFilterImpl {
+
+        private String rootNodeName;
+
+        @Override
+        public void startElement(final String uri,
+                                 final String localName,
+                                 final String qName,
+                                 final Attributes atts) throws SAXException {
+
+            if (this.rootNodeName == null) {
+                this.rootNodeName = atts.getValue(NS_SYSTEM_VIEW, "name");
+            }
+            super.startElement(uri, localName, qName, atts);
+        }
+
+        String getRootNodeName() {
+
+            return this.rootNodeName;
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package io.inkstand.scribble.jcr.rules.util;
 
+import javax.jcr.Binary;
 import javax.jcr.Node;
 import javax.jcr.PropertyType;
 import javax.jcr.Repository;
@@ -24,6 +25,10 @@ import javax.jcr.Session;
 import javax.jcr.Value;
 import javax.jcr.ValueFactory;
 import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
 import java.util.Collections;
@@ -31,9 +36,13 @@ import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.helpers.DefaultHandler;
@@ -41,6 +50,7 @@ import org.xml.sax.helpers.DefaultHandler;
 import io.inkstand.schemas.jcr_import.ObjectFactory;
 import io.inkstand.schemas.jcr_import.PropertyDescriptor;
 import io.inkstand.schemas.jcr_import.PropertyValueType;
+import io.inkstand.scribble.util.ResourceResolver;
 
 /**
  * Implementation of the {@link DefaultHandler} that creates {@link Node} in a JCR {@link Repository} that are defined
@@ -55,7 +65,17 @@ public class XMLContentHandler extends DefaultHandler {
      */
     public static final String NS_INK_IMPORT = "http://inkstand.io/schemas/jcr-import";
 
+    /**
+     * Prefix of property refs that denote a resource on the classpath.
+     */
+    public static final String CLASSPATH_PREFIX = "classpath:";
+
     private static final Logger LOG = LoggerFactory.getLogger(XMLContentHandler.class);
+
+    /**
+     * Size in bytes up to which decoded binary content is kept in memory before it is written to a temporary file.
+     */
+    private static final int BINARY_MEMORY_THRESHOLD = 64 * 1024;
     /**
      * Object Factory for creating temporary model object.
      */
@@ -102,6 +122,10 @@ public class XMLContentHandler extends DefaultHandler {
      * A stack fo the created property descriptors.
      */
     private final Deque<PropertyDescriptor> propertyStack;
+    /**
+     * The resolver for the reference properties that are set once all nodes are created.
+     */
+    private final ReferenceResolver referenceResolver;
     /**
      * The start time in ns.
      */
@@ -111,6 +135,19 @@ public class XMLContentHandler extends DefaultHandler {
      * The root node of the content tree that is created by this handler.
      */
     private Node rootNode;
+    /**
+     * The locator of the processed document, used to resolve property refs relative to the document.
+     */
+    private Locator documentLocator;
+    /**
+     * The decoded content of the binary property that is currently processed. <code>null</code> if no binary
+     * property is processed.
+     */
+    private DeferredFileOutputStream binaryContent;
+    /**
+     * The decoder writing the base64 encoded text of the current binary property to the binaryContent.
+     */
+    private Base64OutputStream binaryDecoder;
 
 
     /**
@@ -121,12 +158,69 @@ public class XMLContentHandler extends DefaultHandler {
      */
     public XMLContentHandler(final Session session) {
 
+        this(session, new ReferenceResolver());
+    }
+
+    /**
+     * Creates a new content handler that registers declared node ids and reference properties at the specified
+     * resolver.
+     *
+     * @param session
+     *         the JCR session bound to a user with sufficient privileges to perform the content loader operation.
+     * @param referenceResolver
+     *         the resolver for the reference properties
+     */
+    XMLContentHandler(final Session session, final ReferenceResolver referenceResolver) {
+
         this.session = session;
+        this.referenceResolver = referenceResolver;
         this.nodeStack = new ArrayDeque<>();
         this.textStack = new ArrayDeque<>();
         this.propertyStack = new ArrayDeque<>();
     }
 
+    /**
+     * Creates a new content handler that adds the nodes of the processed elements below the specified parent node
+     * instead of the root node of the session's workspace. The handler is used to import a subtree of a content
+     * definition.
+     *
+     * @param session
+     *         the JCR session bound to a user with sufficient privileges to perform the content loader operation.
+     * @param parentNode
+     *         the node below which the nodes of the processed node elements are created.
+     */
+    public XMLContentHandler(final Session session, final Node parentNode) {
+
+        this(session, parentNode, new ReferenceResolver());
+    }
+
+    /**
+     * Creates a new content handler for importing a subtree of a content definition below the specified parent node
+     * that registers declared node ids and reference properties at the specified resolver. The references are not
+     * resolved by this handler.
+     *
+     * @param session
+     *         the JCR session bound to a user with sufficient privileges to perform the content loader operation.
+     * @param parentNode
+     *         the node below which the nodes of the processed node elements are created.
+     * @param referenceResolver
+     *         the resolver for the reference properties
+     */
+    XMLContentHandler(final Session session, final Node parentNode, final ReferenceResolver referenceResolver) {
+
+        this(session, referenceResolver);
+        this.nodeStack.push(parentNode);
+    }
+
+    /**
+     * Keeps the document locator to resolve property refs relative to the location of the document.
+     */
+    @Override
+    public void setDocumentLocator(final Locator locator) {
+
+        this.documentLocator = locator;
+    }
+
     /**
      * Prints out information statements and sets the startTimer.
      */
@@ -146,6 +240,7 @@ public class XMLContentHandler extends DefaultHandler {
 
         LOG.info("Content Processing finished, saving...");
         try {
+            this.referenceResolver.resolve(this.session);
             this.session.save();
         } catch (final RepositoryException e) {
             throw new AssertionError("Saving failed", e);
@@ -223,15 +318,158 @@ public class XMLContentHandler extends DefaultHandler {
         LOG.debug("Closing property");
         final PropertyDescriptor propDesc = this.propertyStack.pop();
         try {
-            propDesc.setValue(this.parseValue(propDesc.getJcrType(), this.textStack.pop()));
+            if (this.isReference(propDesc.getJcrType())) {
+                this.addReference(this.nodeStack.peek(), propDesc, this.textStack.pop());
+                return;
+            }
+            if (propDesc.getRef() != null) {
+                propDesc.setValue(this.readRefValue(propDesc.getJcrType(), propDesc.getRef()));
+            } else if (this.binaryDecoder != null) {
+                propDesc.setValue(this.createDecodedBinaryValue());
+            } else {
+                propDesc.setValue(this.parseValue(propDesc.getJcrType(), this.textStack.pop()));
+            }
             this.addProperty(this.nodeStack.peek(), propDesc);
         } catch (final RepositoryException e) {
             throw new AssertionError("Could set property value", e);
+        } catch (final IOException e) {
+            throw new AssertionError("Could not read property value", e);
+        }
+    }
+
+    private boolean isReference(final PropertyValueType valueType) {
+
+        return valueType == PropertyValueType.REFERENCE || valueType == PropertyValueType.WEAKREFERENCE;
+    }
+
+    /**
+     * Registers a REFERENCE or WEAKREFERENCE property at the reference resolver. The property is set once all nodes
+     * of the content definition are created.
+     *
+     * @param node
+     *         the node to which the property should be added
+     * @param propDesc
+     *         the {@link PropertyDescriptor} containing the details of the property
+     * @param target
+     *         the declared id, absolute path or identifier of the referenced node
+     *
+     * @throws RepositoryException
+     *         if the path of the node can not be determined
+     */
+    private void addReference(final Node node, final PropertyDescriptor propDesc, final String target)
+            throws RepositoryException {
+
+        LOG.info("Node {} adding reference {} to {}", node.getPath(), propDesc.getName(), target);
+        this.referenceResolver.addReference(node.getPath(),
+                                            propDesc.getName(),
+                                            propDesc.getJcrType() == PropertyValueType.WEAKREFERENCE,
+                                            target);
+    }
+
+    /**
+     * Creates a value from the content of the resource referenced by the property. Binary content is streamed
+     * directly into the repository, all other types are read as UTF-8 text and converted to the property type.
+     *
+     * @param valueType
+     *         the type of the property value
+     * @param ref
+     *         the reference to the resource containing the value. The reference is either a resource on the classpath
+     *         prefixed with <code>classpath:</code>, an absolute URL or a URL relative to the processed document.
+     *
+     * @return the value of the property
+     *
+     * @throws IOException
+     *         if the resource could not be read
+     * @throws RepositoryException
+     *         if the value could not be created
+     */
+    private Object readRefValue(final PropertyValueType valueType, final String ref)
+            throws IOException, RepositoryException {
+
+        final URL resource = this.resolveRef(ref);
+        LOG.debug("Reading type={} from ref={}", valueType, resource);
+        try (InputStream refStream = resource.openStream()) {
+            if (valueType == PropertyValueType.BINARY) {
+                return this.createBinaryValue(refStream);
+            }
+            return this.parseValue(valueType, IOUtils.toString(refStream, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Resolves the ref of a property to a URL.
+     *
+     * @param ref
+     *         the ref to resolve
+     *
+     * @return the URL of the referenced resource
+     *
+     * @throws IOException
+     *         if the ref is not a valid URL
+     */
+    private URL resolveRef(final String ref) throws IOException {
+
+        if (ref.startsWith(CLASSPATH_PREFIX)) {
+            final String resource = ref.substring(CLASSPATH_PREFIX.length());
+            return new ResourceResolver(true).resolve(resource.startsWith("/") ? resource : '/' + resource);
+        }
+        URL documentUrl = null;
+        if (this.documentLocator != null && this.documentLocator.getSystemId() != null) {
+            documentUrl = new URL(this.documentLocator.getSystemId());
         }
+        return new URL(documentUrl, ref);
+    }
+
+    /**
+     * Creates a binary value from the incrementally decoded base64 content of the current property.
+     *
+     * @return the binary value
+     *
+     * @throws IOException
+     *         if the decoded content could not be read
+     * @throws RepositoryException
+     *         if the value could not be created
+     */
+    private Object createDecodedBinaryValue() throws IOException, RepositoryException {
+
+        final DeferredFileOutputStream content = this.binaryContent;
+        this.binaryDecoder.close();
+        this.binaryDecoder = null;
+        this.binaryContent = null;
+        LOG.debug("Decoded {} bytes of binary content", content.getByteCount());
+        if (content.isInMemory()) {
+            return this.createBinaryValue(new ByteArrayInputStream(content.getData()));
+        }
+        try (InputStream contentStream = new FileInputStream(content.getFile())) {
+            return this.createBinaryValue(contentStream);
+        } finally {
+            if (!content.getFile().delete()) {
+                LOG.warn("Could not delete temporary file {}", content.getFile());
+            }
+        }
+    }
+
+    /**
+     * Creates a binary value from the stream. The stream is consumed by the repository without buffering it in
+     * memory.
+     *
+     * @param binaryStream
+     *         the stream providing the binary content
+     *
+     * @return the binary value
+     *
+     * @throws RepositoryException
+     *         if the value could not be created
+     */
+    private Value createBinaryValue(final InputStream binaryStream) throws RepositoryException {
+
+        final ValueFactory valFactory = this.session.getValueFactory();
+        final Binary binary = valFactory.createBinary(binaryStream);
+        return valFactory.createValue(binary);
     }
 
     private Object parseValue(final PropertyValueType valueType, final String valueAsText) throws RepositoryException {
-        // TODO handle ref property
+
         LOG.debug("Parsing type={} from='{}'", valueType, valueAsText);
         final ValueFactory valFactory = this.session.getValueFactory();
         Value value;
@@ -240,14 +478,6 @@ public class XMLContentHandler extends DefaultHandler {
                 value = valFactory.createValue(valFactory.createBinary(new ByteArrayInputStream(Base64.decodeBase64(
                         valueAsText.getBytes(StandardCharsets.UTF_8)))));
                 break;
-            case REFERENCE:
-                // TODO resolve IDs
-                value = null;
-                break;
-            case WEAKREFERENCE:
-                // TODO resolve IDs
-                value = null;
-                break;
             default:
                 value = valFactory.createValue(valueAsText, this.getPropertyType(valueType));
         }
@@ -291,6 +521,10 @@ public class XMLContentHandler extends DefaultHandler {
     @Override
     public void characters(final char[] chr, final int start, final int length) throws SAXException {
 
+        if (this.binaryDecoder != null) {
+            this.decodeBinary(chr, start, length);
+            return;
+        }
         final String text = new String(chr).substring(start, start + length);
         LOG.trace("characters; '{}'", text);
         final String trimmedText = text.trim();
@@ -298,6 +532,19 @@ public class XMLContentHandler extends DefaultHandler {
         this.textStack.push(trimmedText);
     }
 
+    /**
+     * Decodes a chunk of base64 encoded text of the current binary property. The decoded content is kept in memory
+     * up to a threshold and then written to a temporary file.
+     */
+    private void decodeBinary(final char[] chr, final int start, final int length) {
+
+        try {
+            this.binaryDecoder.write(new String(chr, start, length).getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            throw new AssertionError("Could not decode binary content", e);
+        }
+    }
+
     /**
      * Converts the {@link SAXParseException} into an {@link AssertionError} to force the test to fail.
      * @param parseException
@@ -389,7 +636,12 @@ public class XMLContentHandler extends DefaultHandler {
     private void startElementProperty(final Attributes attributes) {
 
         LOG.debug("Found property");
-        this.propertyStack.push(this.newPropertyDescriptor(attributes));
+        final PropertyDescriptor propDesc = this.newPropertyDescriptor(attributes);
+        if (propDesc.getJcrType() == PropertyValueType.BINARY && propDesc.getRef() == null) {
+            this.binaryContent = new DeferredFileOutputStream(BINARY_MEMORY_THRESHOLD, "scribble", ".bin", null);
+            this.binaryDecoder = new Base64OutputStream(this.binaryContent, false);
+        }
+        this.propertyStack.push(propDesc);
     }
 
     /**
@@ -422,8 +674,14 @@ public class XMLContentHandler extends DefaultHandler {
         final String name = attributes.getValue("name");
         final String primaryType = attributes.getValue("primaryType");
 
+        final String id = attributes.getValue("id");
+
         LOG.info("Node {} adding child node {}(type={})", parentNode.getPath(), name, primaryType);
-        return parentNode.addNode(name, primaryType);
+        final Node node = parentNode.addNode(name, primaryType);
+        if (id != null) {
+            this.referenceResolver.declareId(id, node.getPath());
+        }
+        return node;
     }
 
     private void addMixin(final Node node, final Attributes attributes) throws RepositoryException {
@@ -446,8 +704,10 @@ public class XMLContentHandler extends DefaultHandler {
         final PropertyDescriptor propDesc = FACTORY.createPropertyDescriptor();
         LOG.debug("property name={}", attributes.getValue("name"));
         LOG.debug("property jcrType={}", attributes.getValue("jcrType"));
+        LOG.debug("property ref={}", attributes.getValue("ref"));
         propDesc.setName(attributes.getValue("name"));
         propDesc.setJcrType(PropertyValueType.fromValue(attributes.getValue("jcrType")));
+        propDesc.setRef(attributes.getValue("ref"));
         return propDesc;
     }
 
@@ -460,4 +720,15 @@ public class XMLContentHandler extends DefaultHandler {
 
         return rootNode;
     }
+
+    /**
+     * Accessor for the resolver of the reference properties, used to share the resolver among the handlers of a
+     * parallel import.
+     *
+     * @return the reference resolver of this handler
+     */
+    ReferenceResolver getReferenceResolver() {
+
+        return this.referenceResolver;
+    }
 }
@@ -18,22 +18,70 @@ package io.inkstand.scribble.jcr.rules.util;
 
 import javax.jcr.Node;
 import javax.jcr.Session;
+import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 /**
- * Loads content from an external XML source into the JCR Repository.
+ * Loads content from an external XML source into the JCR Repository. The content definition may optionally be
+ * validated against the import schema, which is compiled only once. The SAX parsers that do not validate or validate
+ * against the import schema are pooled and reused for subsequent loads with the same settings. Parsers for other
+ * schemas are not pooled, so that the pool does not keep custom schemas and their parsers for the lifetime of the
+ * class.
  *
  * @author <a href="mailto:gerald@inkstand.io">Gerald M&uuml;cke</a>
  */
 public class XMLContentLoader {
 
+    private static final Logger LOG = LoggerFactory.getLogger(XMLContentLoader.class);
+
+    /**
+     * The classpath resource of the XML schema of the inkstand import format.
+     */
+    public static final String IMPORT_SCHEMA = "inkstandJcrImport_v1-0.xsd";
+
+    /**
+     * The maximum number of idle parsers kept per parser configuration.
+     */
+    private static final int MAX_IDLE_PARSERS = 8;
+
+    /**
+     * Idle parsers per parser configuration, either without schema or with the import schema
+     */
+    private static final ConcurrentMap<ParserKey, Queue<SAXParser>> PARSERS = new ConcurrentHashMap<>();
+
+    /**
+     * Releases worker sessions by logging them out.
+     */
+    private static final SessionRelease LOGOUT = new SessionRelease() {
+
+        @Override
+        public void release(final Session session) {
+
+            session.logout();
+        }
+    };
+
+    /**
+     * The compiled import schema, created on first use.
+     */
+    private static volatile Schema importSchema;
+
     /**
      * Flag to indicate the xml processing should resolve namespaces.
      */
@@ -44,6 +92,16 @@ public class XMLContentLoader {
      */
     private Schema schema;
 
+    /**
+     * The number of threads used to import the top-level subtrees of the content definition.
+     */
+    private int parallelism = 1;
+
+    /**
+     * Flag to indicate the input should be validated against the import schema if no other schema is set.
+     */
+    private boolean validating;
+
     /**
      * Loads the content from the specified contentDefinition into the JCRRepository, using the specified session.
      *  @param session
@@ -53,33 +111,171 @@ public class XMLContentLoader {
      */
     public Node loadContent(final Session session, final URL contentDef) {
 
-        final SAXParserFactory factory = this.getSAXParserFactory();
+        return this.loadContent(session, contentDef, null, null);
+    }
+
+    /**
+     * Loads the content from the specified contentDefinition into the JCRRepository. The root node of the content
+     * is created using the specified session. If a parallelism greater than 1 is set, the top-level subtrees of the
+     * root node are imported concurrently, each using a separate session created by the workerSessions factory.
+     *
+     * @param session
+     *         the session used to import the root node. The user bound to the session must have the required
+     *         privileges to perform the import operation.
+     * @param contentDef
+     *         the url of the content definition
+     * @param workerSessions
+     *         factory to create the sessions for the parallel subtree import. If <code>null</code>, the entire
+     *         content is imported using the specified session.
+     * @param sessionRelease
+     *         callback to release the sessions created by the workerSessions factory once their subtree is
+     *         imported, i.e. to log them out or to return them to a session pool. If <code>null</code>, the sessions
+     *         are logged out.
+     *
+     * @return the root node of the imported content
+     */
+    public Node loadContent(final Session session,
+                            final URL contentDef,
+                            final Callable<Session> workerSessions,
+                            final SessionRelease sessionRelease) {
+
+        final ParserKey key = new ParserKey(this.namespaceAware, this.getEffectiveSchema());
         try {
-            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-            final SAXParser parser = factory.newSAXParser();
+            final SAXParser parser = this.leaseParser(key);
             final InputSource source = new InputSource(contentDef.openStream());
-            final XMLContentHandler handler = new XMLContentHandler(session);
-            parser.parse(source, handler);
-            return handler.getRootNode();
+            //the system id is required to resolve property refs relative to the content definition
+            source.setSystemId(contentDef.toExternalForm());
+            final Node rootNode;
+            if (this.parallelism > 1 && workerSessions != null) {
+                rootNode = this.loadContentInParallel(parser,
+                                                      source,
+                                                      session,
+                                                      workerSessions,
+                                                      sessionRelease == null ? LOGOUT : sessionRelease);
+            } else {
+                final XMLContentHandler handler = new XMLContentHandler(session);
+                parser.parse(source, handler);
+                rootNode = handler.getRootNode();
+            }
+            //a parser that failed is not reused
+            releaseParser(key, parser);
+            return rootNode;
         } catch (ParserConfigurationException | SAXException | IOException e) {
             throw new AssertionError("Loading Content to JCR Repository failed", e);
         }
     }
 
     /**
-     * Creates a new {@link SAXParserFactory} using the configured parameters.
+     * Parses the content definition using a {@link ParallelContentHandler} that imports the top-level subtrees in a
+     * {@link ForkJoinPool} of the configured parallelism.
+     */
+    private Node loadContentInParallel(final SAXParser parser,
+                                       final InputSource source,
+                                       final Session session,
+                                       final Callable<Session> workerSessions,
+                                       final SessionRelease sessionRelease) throws SAXException, IOException {
+
+        final ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            final ParallelContentHandler handler = new ParallelContentHandler(session,
+                                                                                pool,
+                                                                                workerSessions,
+                                                                                sessionRelease);
+            parser.parse(source, handler);
+            return handler.getRootNode();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the schema to validate the input against, either the schema that was set, the import schema if
+     * validation is enabled, or <code>null</code> if the input should not be validated.
+     */
+    private Schema getEffectiveSchema() {
+
+        if (this.schema == null && this.validating) {
+            return getImportSchema();
+        }
+        return this.schema;
+    }
+
+    /**
+     * Takes an idle parser of the specified configuration from the pool or creates a new parser if no idle parser is
+     * available.
+     */
+    private SAXParser leaseParser(final ParserKey key) throws ParserConfigurationException, SAXException {
+
+        final Queue<SAXParser> idleParsers = key.isPooled() ? PARSERS.get(key) : null;
+        final SAXParser parser = idleParsers == null ? null : idleParsers.poll();
+        if (parser != null) {
+            return parser;
+        }
+        LOG.debug("Creating new SAX parser");
+        return this.getSAXParserFactory(key).newSAXParser();
+    }
+
+    /**
+     * Resets the parser and returns it to the pool, unless the maximum number of idle parsers is reached or parsers
+     * of the configuration are not pooled.
+     */
+    private static void releaseParser(final ParserKey key, final SAXParser parser) {
+
+        if (!key.isPooled()) {
+            return;
+        }
+        Queue<SAXParser> idleParsers = PARSERS.get(key);
+        if (idleParsers == null) {
+            final Queue<SAXParser> newQueue = new ConcurrentLinkedQueue<>();
+            idleParsers = PARSERS.putIfAbsent(key, newQueue);
+            if (idleParsers == null) {
+                idleParsers = newQueue;
+            }
+        }
+        if (idleParsers.size() < MAX_IDLE_PARSERS) {
+            parser.reset();
+            idleParsers.offer(parser);
+        }
+    }
+
+    /**
+     * Creates a new {@link SAXParserFactory} using the specified configuration.
      *
      * @return an instance of a SAXParserFactory to create new SAX parsers. The factory is configured according to the
      * settings for input schema validation and namespace awareness.
      */
-    private SAXParserFactory getSAXParserFactory() {
+    private SAXParserFactory getSAXParserFactory(final ParserKey key) throws ParserConfigurationException,
+                                                                             SAXException {
 
         final SAXParserFactory factory = SAXParserFactory.newInstance();
-        factory.setNamespaceAware(this.namespaceAware);
-        factory.setSchema(this.schema);
+        factory.setNamespaceAware(key.namespaceAware);
+        factory.setSchema(key.schema);
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
         return factory;
     }
 
+    /**
+     * Provides the XML schema of the inkstand import format. The schema is compiled on first access and shared by all
+     * loaders as a compiled {@link Schema} is thread-safe.
+     *
+     * @return the compiled import schema
+     */
+    public static synchronized Schema getImportSchema() {
+
+        if (importSchema == null) {
+            final URL schemaUrl = XMLContentLoader.class.getResource(IMPORT_SCHEMA);
+            if (schemaUrl == null) {
+                throw new AssertionError("Import schema " + IMPORT_SCHEMA + " not found");
+            }
+            try {
+                importSchema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemaUrl);
+            } catch (SAXException e) {
+                throw new AssertionError("Could not compile import schema", e);
+            }
+        }
+        return importSchema;
+    }
+
     /**
      * Configures the loader to be aware of namespaces.
      *
@@ -91,10 +287,21 @@ public class XMLContentLoader {
         this.namespaceAware = namespaceAware;
     }
 
-    // TODO link to published schema
+    /**
+     * Enables validation of the input against the import schema. A schema set using {@link #setSchema(Schema)} takes
+     * precedence. Default is <code>false</code>.
+     *
+     * @param validating
+     *         <code>true</code> if the input should be validated
+     */
+    public void setValidating(final boolean validating) {
+
+        this.validating = validating;
+    }
 
     /**
-     * Sets a specific schema to validate the input against. Default is the inkstandLoader schema.
+     * Sets a specific schema to validate the input against. Default is no schema, or the import schema if validation
+     * is enabled.
      *
      * @param schema
      *         schema to validate the input against
@@ -104,4 +311,72 @@ public class XMLContentLoader {
         this.schema = schema;
     }
 
+    /**
+     * Sets the number of threads used to import the top-level subtrees of the root node concurrently. Default is 1,
+     * which imports the entire content sequentially.
+     *
+     * @param parallelism
+     *         the number of concurrent subtree imports
+     */
+    public void setParallelism(final int parallelism) {
+
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * The configuration of a pooled parser. Schemas are compared by identity.
+     */
+    private static final class ParserKey {
+
+        private final boolean namespaceAware;
+        private final Schema schema;
+
+        ParserKey(final boolean namespaceAware, final Schema schema) {
+
+            this.namespaceAware = namespaceAware;
+            this.schema = schema;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ParserKey)) {
+                return false;
+            }
+            final ParserKey other = (ParserKey) o;
+            return namespaceAware == other.namespaceAware && schema == other.schema;
+        }
+
+        @Override
+        public int hashCode() {
+
+            return 31 * (namespaceAware ? 1 : 0) + System.identityHashCode(schema);
+        }
+
+        /**
+         * @return <code>true</code> if parsers of this configuration are pooled, which are parsers without schema
+         * and parsers validating against the import schema
+         */
+        boolean isPooled() {
+
+            return schema == null || schema == importSchema;
+        }
+    }
+
+    /**
+     * Callback to release the sessions used for the parallel import of the subtrees of a content definition.
+     */
+    public interface SessionRelease {
+
+        /**
+         * Releases a session once the import of a subtree is completed.
+         *
+         * @param session
+         *         the session to release
+         */
+        void release(Session session);
+    }
 }
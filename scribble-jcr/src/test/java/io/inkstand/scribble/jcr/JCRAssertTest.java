@@ -23,16 +23,27 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.PathNotFoundException;
 import javax.jcr.Property;
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.Value;
 import javax.jcr.Workspace;
 import javax.jcr.nodetype.NodeType;
 import javax.jcr.nodetype.NodeTypeManager;
+import javax.jcr.query.InvalidQueryException;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -56,6 +67,24 @@ public class JCRAssertTest {
     @Mock
     private Property property;
 
+    @Mock
+    private QueryManager queryManager;
+
+    @Mock
+    private Query query;
+
+    @Mock
+    private QueryResult queryResult;
+
+    @Mock
+    private RowIterator rows;
+
+    @Mock
+    private Row row;
+
+    @Mock
+    private Value value;
+
     @Test
     public void testAssertNodeExistByPath_SessionString_PathFound_success() throws Exception {
         final String absPath = "root";
@@ -330,4 +359,114 @@ public class JCRAssertTest {
         JCRAssert.assertNodeTypeExists(session, "test:nodeType");
     }
 
+    @Test
+    public void testAssertNodesExist_allFound_success() throws Exception {
+        prepareChildren("/root", new String[] { "first", "second" }, "/root/first", "/root/second");
+        JCRAssert.assertNodesExist(session, "/root/first", "/root/second");
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testAssertNodesExist_oneNotFound_fail() throws Exception {
+        prepareChildren("/root", new String[] { "first", "second" }, "/root/first");
+        JCRAssert.assertNodesExist(session, "/root/first", "/root/second");
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testAssertNodesExist_parentNotFound_fail() throws Exception {
+        when(session.nodeExists("/root")).thenReturn(false);
+        JCRAssert.assertNodesExist(session, "/root/first", "/root/second");
+    }
+
+    @Test
+    public void testAssertNodesExist_sameNameSiblings_success() throws Exception {
+        prepareChildren("/root", new String[] { "item" }, "/root/item", "/root/item[2]");
+        JCRAssert.assertNodesExist(session, "/root/item[1]", "/root/item[2]", "/root[1]/item");
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testAssertNodesExist_sameNameSiblingNotFound_fail() throws Exception {
+        prepareChildren("/root", new String[] { "item" }, "/root/item", "/root/item[2]");
+        JCRAssert.assertNodesExist(session, "/root/item[1]", "/root/item[3]");
+    }
+
+    private void prepareChildren(final String parentPath, final String[] names, final String... childPaths)
+            throws RepositoryException {
+
+        final NodeIterator children = mock(NodeIterator.class);
+        when(session.nodeExists(parentPath)).thenReturn(true);
+        when(session.getNode(parentPath)).thenReturn(node);
+        when(node.getNodes(names)).thenReturn(children);
+        Boolean[] moreHasNext = new Boolean[childPaths.length];
+        Node[] moreNodes = new Node[childPaths.length];
+        for (int i = 0; i < childPaths.length; i++) {
+            moreHasNext[i] = i + 1 < childPaths.length;
+            moreNodes[i] = mock(Node.class);
+            when(moreNodes[i].getPath()).thenReturn(childPaths[i]);
+        }
+        when(children.hasNext()).thenReturn(childPaths.length > 0, moreHasNext);
+        if (childPaths.length > 0) {
+            when(children.nextNode()).thenReturn(moreNodes[0], Arrays.copyOfRange(moreNodes, 1, moreNodes.length));
+        }
+    }
+
+    @Test
+    public void testAssertQueryResultCount_success() throws Exception {
+        prepareQuery("SELECT * FROM [nt:base]", true, true, false);
+        JCRAssert.assertQueryResultCount(session, Query.JCR_SQL2, "SELECT * FROM [nt:base]", 2);
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testAssertQueryResultCount_fail() throws Exception {
+        prepareQuery("SELECT * FROM [nt:base]", true, true, false);
+        JCRAssert.assertQueryResultCount(session, Query.JCR_SQL2, "SELECT * FROM [nt:base]", 3);
+    }
+
+    @Test
+    public void testAssertQueryExecutionTime_success() throws Exception {
+        prepareQuery("SELECT * FROM [nt:base]", false);
+        JCRAssert.assertQueryExecutionTime(session, Query.JCR_SQL2, "SELECT * FROM [nt:base]", 3, 1, TimeUnit.MINUTES);
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testAssertQueryExecutionTime_fail() throws Exception {
+        prepareQuery("SELECT * FROM [nt:base]", false);
+        JCRAssert.assertQueryExecutionTime(session,
+                                           Query.JCR_SQL2,
+                                           "SELECT * FROM [nt:base]",
+                                           3,
+                                           -1,
+                                           TimeUnit.NANOSECONDS);
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testAssertQueryUsesIndex_traversal_fail() throws Exception {
+        prepareQuery("explain SELECT * FROM [nt:base]", true, false);
+        when(queryResult.getColumnNames()).thenReturn(new String[] { "plan" });
+        when(rows.nextRow()).thenReturn(row);
+        when(row.getValue("plan")).thenReturn(value);
+        when(value.getString()).thenReturn("[nt:base] as [nt:base] /* traverse \"*\" */");
+        JCRAssert.assertQueryUsesIndex(session, Query.JCR_SQL2, "SELECT * FROM [nt:base]");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test(expected = AssertionError.class)
+    public void testAssertQueryUsesIndex_notExplained_fail() throws Exception {
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery("explain SELECT * FROM [nt:base]", Query.JCR_SQL2))
+                .thenThrow(InvalidQueryException.class);
+        when(queryManager.createQuery("SELECT * FROM [nt:base]", Query.JCR_SQL2)).thenReturn(query);
+        JCRAssert.assertQueryUsesIndex(session, Query.JCR_SQL2, "SELECT * FROM [nt:base]");
+    }
+
+    private void prepareQuery(final String statement, final Boolean hasNext, final Boolean... moreHasNext)
+            throws Exception {
+
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(statement, Query.JCR_SQL2)).thenReturn(query);
+        when(query.execute()).thenReturn(queryResult);
+        when(queryResult.getRows()).thenReturn(rows);
+        when(rows.hasNext()).thenReturn(hasNext, moreHasNext);
+    }
 }
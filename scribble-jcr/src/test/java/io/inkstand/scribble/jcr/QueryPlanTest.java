@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.Workspace;
+import javax.jcr.query.InvalidQueryException;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.jcr.query.Row;
+import javax.jcr.query.RowIterator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.inkstand.scribble.jcr.rules.ContentRepository;
+import io.inkstand.scribble.jcr.rules.InMemoryContentRepository;
+
+public class QueryPlanTest {
+
+    @Rule
+    public final ContentRepository repository = new InMemoryContentRepository(new TemporaryFolder());
+
+    @Test
+    public void testExplain_sql2_notSupported_noPlan() throws Exception {
+        // prepare
+        final String statement = "SELECT * FROM [nt:unstructured] AS n WHERE n.[title] = 'test' ORDER BY n.[title]";
+
+        // act
+        final QueryPlan plan = QueryPlan.explain(repository.getAdminSession(), Query.JCR_SQL2, statement);
+
+        // assert
+        assertFalse(plan.isExplained());
+        assertNull(plan.getPlan());
+        assertEquals(Query.JCR_SQL2, plan.getLanguage());
+        assertEquals(statement, plan.getStatement());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIsIndexUsed_notExplained_fail() throws Exception {
+        // prepare
+        final String statement = "SELECT * FROM [nt:unstructured] AS n WHERE n.[title] = 'test'";
+        final QueryPlan plan = QueryPlan.explain(repository.getAdminSession(), Query.JCR_SQL2, statement);
+
+        // act
+        plan.isIndexUsed();
+    }
+
+    @Test
+    public void testAssertQueryUsesIndex_notExplained_fail() throws Exception {
+        // prepare
+        final String statement = "SELECT * FROM [nt:unstructured] AS n WHERE n.[title] = 'test'";
+
+        // act
+        try {
+            JCRAssert.assertQueryUsesIndex(repository.getAdminSession(), Query.JCR_SQL2, statement);
+            fail("AssertionError expected");
+        } catch (AssertionError e) {
+            // assert
+            assertTrue(e.getMessage(), e.getMessage().contains("does not explain queries"));
+        }
+    }
+
+    @Test(expected = InvalidQueryException.class)
+    public void testExplain_notSupported_invalidQuery() throws Exception {
+        // act
+        QueryPlan.explain(repository.getAdminSession(), Query.JCR_SQL2, "SELECT * FROM");
+    }
+
+    @Test
+    public void testExplain_xpath_notSupported_noPlan() throws Exception {
+        // prepare
+        final String statement = "/jcr:root//element(*, nt:unstructured)[@title = 'test']";
+
+        // act
+        final QueryPlan plan = QueryPlan.explain(repository.getAdminSession(), Query.XPATH, statement);
+
+        // assert
+        assertFalse(plan.isExplained());
+        assertNull(plan.getPlan());
+    }
+
+    @Test
+    public void testExplain_supported_traversal() throws Exception {
+        // prepare
+        final String statement = "SELECT * FROM [nt:base] AS a";
+        final Session session = mockExplainingSession(statement, "[nt:base] as [a] /* traverse \"*\" */");
+
+        // act
+        final QueryPlan plan = QueryPlan.explain(session, Query.JCR_SQL2, statement);
+
+        // assert
+        assertTrue(plan.isExplained());
+        assertFalse(plan.isIndexUsed());
+        assertEquals("[nt:base] as [a] /* traverse \"*\" */", plan.getPlan());
+    }
+
+    @Test
+    public void testExplain_supported_index() throws Exception {
+        // prepare
+        final String statement = "SELECT * FROM [nt:base] AS a WHERE a.[title] = 'test'";
+        final Session session = mockExplainingSession(statement,
+                                                      "[nt:base] as [a] /* property title = 'test' where [a].[title] = 'test' */");
+
+        // act
+        final QueryPlan plan = QueryPlan.explain(session, Query.JCR_SQL2, statement);
+
+        // assert
+        assertTrue(plan.isExplained());
+        assertTrue(plan.isIndexUsed());
+    }
+
+    private static Session mockExplainingSession(final String statement, final String planText) throws Exception {
+
+        final Session session = mock(Session.class);
+        final Workspace workspace = mock(Workspace.class);
+        final QueryManager queryManager = mock(QueryManager.class);
+        final Query query = mock(Query.class);
+        final QueryResult result = mock(QueryResult.class);
+        final RowIterator rows = mock(RowIterator.class);
+        final Row row = mock(Row.class);
+        final Value value = mock(Value.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery("explain " + statement, Query.JCR_SQL2)).thenReturn(query);
+        when(query.execute()).thenReturn(result);
+        when(result.getColumnNames()).thenReturn(new String[] { "plan", "statement" });
+        when(result.getRows()).thenReturn(rows);
+        when(rows.hasNext()).thenReturn(true, false);
+        when(rows.nextRow()).thenReturn(row);
+        when(row.getValue("plan")).thenReturn(value);
+        when(value.getString()).thenReturn(planText);
+        return session;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.xml.parsers.SAXParserFactory;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+
+import io.inkstand.scribble.jcr.rules.ContentRepository;
+import io.inkstand.scribble.jcr.rules.InMemoryContentRepository;
+import io.inkstand.scribble.jcr.rules.util.XMLContentLoader;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TreeComparatorTest {
+
+    @Rule
+    public final ContentRepository repository = new InMemoryContentRepository(new TemporaryFolder());
+
+    private Node root;
+
+    @Before
+    public void setUp() throws Exception {
+
+        final Session session = repository.getAdminSession();
+        root = new XMLContentLoader().loadContent(session, getClass().getResource("TreeComparatorTest_tree.xml"));
+    }
+
+    private List<String> compare(final String resource) throws Exception {
+
+        final TreeComparator subject = new TreeComparator(root);
+        final SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.newSAXParser().parse(getClass().getResource(resource).openStream(), subject);
+        return subject.getDifferences();
+    }
+
+    @Test
+    public void testCompare_sameDefinition_noDifferences() throws Exception {
+        // act
+        final List<String> differences = compare("TreeComparatorTest_tree.xml");
+        // assert
+        assertTrue(differences.toString(), differences.isEmpty());
+    }
+
+    @Test
+    public void testCompare_otherDefinition_allDifferences() throws Exception {
+        // act
+        final List<String> differences = compare("TreeComparatorTest_differences.xml");
+        // assert
+        assertEquals(Arrays.asList("Node /root has no mixin type mix:lockable",
+                                   "Property /root/jcr:title is 'TestTitle' instead of 'OtherTitle'",
+                                   "Property /root/source/count has type Long instead of String",
+                                   "Node /root/source has no property missing",
+                                   "Node /root/source/folder has primary type nt:folder instead of nt:unstructured",
+                                   "Missing node /root/target/child",
+                                   "Property /root/source/idRef references /root/target instead of /root/source",
+                                   "Unexpected node /root/other"), differences);
+    }
+
+    @Test
+    public void testCompare_undefinedType_comparedByActualType() throws Exception {
+        // act
+        final List<String> differences = compare("TreeComparatorTest_undefined.xml");
+        // assert
+        assertEquals(Arrays.asList("Property /root/source/ratio is '0.5' instead of '0.7'"), differences);
+    }
+
+    @Test
+    public void testCompare_missingWeakReferenceTarget() throws Exception {
+        // prepare
+        final Session session = root.getSession();
+        final String targetId = root.getNode("target").getIdentifier();
+        root.getNode("source").getProperty("idRef").remove();
+        root.getNode("target").remove();
+        session.save();
+        // act
+        final List<String> differences = compare("TreeComparatorTest_tree.xml");
+        // assert
+        assertTrue(differences.toString(),
+                   differences.contains("Property /root/source/pathRef references missing node " + targetId
+                                                + " instead of /root/target"));
+    }
+
+    @Test
+    public void testAssertTreeEquals_sameDefinition() throws Exception {
+        // act
+        JCRAssert.assertTreeEquals(getClass().getResource("TreeComparatorTest_tree.xml"), root);
+    }
+
+    @Test
+    public void testAssertTreeEquals_otherDefinition_fail() throws Exception {
+        // prepare
+        final URL definition = getClass().getResource("TreeComparatorTest_differences.xml");
+        // act
+        try {
+            JCRAssert.assertTreeEquals(definition, root);
+            fail("AssertionError expected");
+        } catch (AssertionError e) {
+            // assert
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Node /root differs in 8 places from " + definition));
+            assertTrue(e.getMessage(), e.getMessage().contains("\tUnexpected node /root/other"));
+        }
+    }
+
+    @Test
+    public void testAssertNodesExist() throws Exception {
+        // act
+        JCRAssert.assertNodesExist(root.getSession(), "/root", "/root/source/folder", "/root/target");
+    }
+
+    @Test
+    public void testAssertNodesExist_missingNodes_fail() throws Exception {
+        // act
+        try {
+            JCRAssert.assertNodesExist(root.getSession(), "/root", "/root/missing", "/root/source/missing");
+            fail("AssertionError expected");
+        } catch (AssertionError e) {
+            // assert
+            assertEquals("2 of 3 nodes do not exist: [/root/missing, /root/source/missing]", e.getMessage());
+        }
+    }
+}
@@ -18,8 +18,11 @@ package io.inkstand.scribble.jcr.rules;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -35,6 +38,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import io.inkstand.scribble.jcr.rules.util.SessionPool;
 import io.inkstand.scribble.rules.BaseRule;
 import io.inkstand.scribble.rules.BaseRuleHelper;
 
@@ -236,4 +240,63 @@ public class ActiveSessionTest {
         assertEquals("admin", String.valueOf(passedParam.getPassword()));
     }
 
+    @Test
+    public void testAfter_withSessionPool_released() throws Exception {
+        // prepare
+        final SessionPool pool = new SessionPool(repository, 1, 60_000L);
+        when(repositoryRule.getSessionPool()).thenReturn(pool);
+        when(repository.login(any(Credentials.class))).thenReturn(userSession);
+        when(userSession.isLive()).thenReturn(true);
+        BaseRuleHelper.setState(subject, BaseRule.State.INITIALIZED);
+        subject.login("user", "password");
+        // act
+        subject.after();
+        // assert
+        verify(userSession, never()).logout();
+        assertEquals(1, pool.getIdleCount());
+        assertSame(userSession, pool.lease("user", "password"));
+    }
+
+    @Test
+    public void testLoginStringString_withWorkspace() throws Throwable {
+        // prepare
+        final SessionPool pool = new SessionPool(repository, 1, 60_000L);
+        when(repositoryRule.getSessionPool()).thenReturn(pool);
+        subject.setWorkspace("test");
+        BaseRuleHelper.setState(subject, BaseRule.State.INITIALIZED);
+        when(repository.login(any(Credentials.class), eq("test"))).thenReturn(userSession);
+
+        // act
+        final Session session = subject.login("user", "password");
+        subject.after();
+
+        // assert
+        assertEquals("test", subject.getWorkspace());
+        assertEquals(userSession, session);
+        verify(userSession).logout();
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testLogin_anonymous_withWorkspace() throws Throwable {
+        // prepare
+        subject.setWorkspace("test");
+        BaseRuleHelper.setState(subject, BaseRule.State.INITIALIZED);
+        when(repository.login("test")).thenReturn(anonSession);
+
+        // act
+        final Session session = subject.login();
+
+        // assert
+        assertEquals(anonSession, session);
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testSetWorkspace_afterInitialized_fail() throws Throwable {
+        // prepare
+        BaseRuleHelper.setState(subject, BaseRule.State.INITIALIZED);
+
+        // act
+        subject.setWorkspace("test");
+    }
 }
@@ -30,6 +30,7 @@ import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import java.net.URL;
 
+import io.inkstand.scribble.jcr.rules.util.NodeTypeCache;
 import io.inkstand.scribble.rules.BaseRule;
 import io.inkstand.scribble.rules.BaseRuleHelper;
 import org.apache.jackrabbit.core.RepositoryImpl;
@@ -165,6 +166,46 @@ public class ConfigurableContentRepositoryTest {
         session.logout();
     }
 
+    @Test
+    public void testInitialized_secondRepository_cndParsedOnce() throws Throwable {
+        //prepare
+        final URL cndResource = getClass().getResource("ConfigurableContentRepositoryTest_testModel.cnd");
+        subject.setConfigUrl(configUrl);
+        subject.setCndUrl(cndResource);
+        repository = RepositoryImpl.create(subject.createRepositoryConfiguration());
+        subject.beforeClass();
+        final long parseCount = NodeTypeCache.getParseCount();
+
+        final TemporaryFolder otherFolder = new TemporaryFolder();
+        otherFolder.create();
+        final ConfigurableContentRepository other = new ConfigurableContentRepository(otherFolder) {
+            @Override
+            protected void destroyRepository() {
+
+            }
+
+            @Override
+            protected Repository createRepository() throws Exception {
+
+                return RepositoryImpl.create(createRepositoryConfiguration());
+            }
+        };
+        other.setConfigUrl(configUrl);
+        other.setCndUrl(cndResource);
+
+        //act
+        other.beforeClass();
+
+        //assert
+        try {
+            assertEquals(parseCount, NodeTypeCache.getParseCount());
+            assertNodeTypeExists(other.getAdminSession(), "test:testType");
+        } finally {
+            ((RepositoryImpl) other.getRepository()).shutdown();
+            otherFolder.delete();
+        }
+    }
+
     @Test(expected = AssertionError.class)
     public void testInitialized_invalidCndUrl_fail() throws Throwable {
         //prepare
@@ -18,14 +18,25 @@ package io.inkstand.scribble.jcr.rules;
 
 import static io.inkstand.scribble.jcr.JCRAssert.assertStringPropertyEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotEquals;
 import static org.slf4j.LoggerFactory.getLogger;
 
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import io.inkstand.scribble.jcr.rules.util.ContentGenerator;
+import io.inkstand.scribble.rules.BaseRule;
+import io.inkstand.scribble.rules.BaseRuleHelper;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -48,6 +59,9 @@ public class ContentLoaderTest {
     @Rule
     public InMemoryContentRepository repository = new InMemoryContentRepository(new TemporaryFolder());
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Mock
     private Description description;
 
@@ -84,6 +98,31 @@ public class ContentLoaderTest {
         }, description).evaluate();
     }
 
+    @Test
+    public void testApply_withParallelism() throws Throwable {
+
+        //prepare
+        URL contentResource = getClass().getResource("ContentLoaderTest_inkstandJcrImport_v1-0_subtrees.xml");
+        subject.setContentDefinition(contentResource);
+        subject.setParallelism(2);
+
+        //act
+        subject.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                //assert
+                Session session = repository.login();
+                assertStringPropertyEquals(session.getNode("/root"), "jcr:title", "TestTitle");
+                assertStringPropertyEquals(session.getNode("/root/first/child"), "myProperty", "FirstChild");
+                assertStringPropertyEquals(session.getNode("/root/second/child"), "myProperty", "SecondChild");
+                assertStringPropertyEquals(session.getNode("/root/third/child"), "myProperty", "ThirdChild");
+
+            }
+        }, description).evaluate();
+    }
+
     @Test
     public void testApply_withoutInitialContentDefinition() throws Throwable {
 
@@ -128,4 +167,217 @@ public class ContentLoaderTest {
         }, description).evaluate();
 
     }
+
+    @Test
+    public void testLoadContent_exportedSystemView() throws Throwable {
+
+        //prepare
+        final URL contentResource = getClass().getResource("ContentLoaderTest_inkstandJcrImport_v1-0.xml");
+        final File export = folder.newFile("content.sysview.xml.gz");
+
+        //act
+        subject.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                Node root = subject.loadContent(contentResource);
+                subject.exportContent("/root", export);
+                root.remove();
+                root.getSession().save();
+
+                //act
+                Node imported = subject.loadContent(export.toURI().toURL());
+
+                //assert
+                assertEquals("/root", imported.getPath());
+                Session session = repository.login();
+                assertStringPropertyEquals(session.getNode("/root"), "jcr:title", "TestTitle");
+            }
+        }, description).evaluate();
+
+    }
+
+    @Test
+    public void testLoadContent_exportedDump() throws Throwable {
+
+        //prepare
+        final URL contentResource = getClass().getResource("ContentLoaderTest_inkstandJcrImport_v1-0.xml");
+        final File export = folder.newFile("content.jcrdump.gz");
+
+        //act
+        subject.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                Node root = subject.loadContent(contentResource);
+                subject.exportContent("/root", export);
+                root.remove();
+                root.getSession().save();
+
+                //act
+                Node imported = subject.loadContent(export.toURI().toURL());
+
+                //assert
+                assertEquals("/root", imported.getPath());
+                Session session = repository.login();
+                assertStringPropertyEquals(session.getNode("/root"), "jcr:title", "TestTitle");
+            }
+        }, description).evaluate();
+
+    }
+
+    @Test
+    public void testApply_withWorkspaceIsolation() throws Throwable {
+
+        //prepare
+        final URL contentResource = getClass().getResource("ContentLoaderTest_inkstandJcrImport_v1-0.xml");
+        final List<String> nodesAfter = new ArrayList<>();
+        subject = new ContentLoader(repository) {
+
+            @Override
+            protected void after() {
+
+                final String workspace = getWorkspaceName();
+                super.after();
+                try {
+                    final Session session = repository.getRepository().login(
+                            new SimpleCredentials("admin", "admin".toCharArray()), workspace);
+                    final NodeIterator it = session.getRootNode().getNodes();
+                    while (it.hasNext()) {
+                        nodesAfter.add(it.nextNode().getPath());
+                    }
+                    session.logout();
+                } catch (RepositoryException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        subject.setContentDefinition(contentResource);
+        subject.setWorkspaceIsolation(true);
+        final String workspace = subject.getWorkspaceName();
+        assertNotNull(workspace);
+
+        //act
+        subject.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                //assert
+                final Session session = repository.getRepository()
+                                                  .login(new SimpleCredentials("admin", "admin".toCharArray()),
+                                                         workspace);
+                assertStringPropertyEquals(session.getNode("/root"), "jcr:title", "TestTitle");
+                session.getRootNode().addNode("outside");
+                session.save();
+                session.logout();
+                assertFalse(repository.getAdminSession().nodeExists("/root"));
+            }
+        }, description).evaluate();
+
+        //assert
+        //Jackrabbit does not support deleting workspaces, so the content of the workspace is removed
+        assertEquals(Arrays.asList("/jcr:system"), nodesAfter);
+        //the workspace remains leased by the loader
+        final ContentLoader next = new ContentLoader(repository);
+        next.setWorkspaceIsolation(true);
+        assertNotEquals(workspace, next.getWorkspaceName());
+    }
+
+    @Test
+    public void testApply_withWorkspaceIsolation_appliedAgain() throws Throwable {
+
+        //prepare
+        final URL contentResource = getClass().getResource("ContentLoaderTest_inkstandJcrImport_v1-0.xml");
+        subject.setContentDefinition(contentResource);
+        subject.setWorkspaceIsolation(true);
+        final String workspace = subject.getWorkspaceName();
+        subject.before();
+        subject.after();
+        //another loader set up between the tests does not get the workspace of the first loader
+        final ContentLoader other = new ContentLoader(repository);
+        other.setWorkspaceIsolation(true);
+
+        //act
+        subject.before();
+
+        //assert
+        try {
+            final Session session = repository.getRepository()
+                                              .login(new SimpleCredentials("admin", "admin".toCharArray()), workspace);
+            assertStringPropertyEquals(session.getNode("/root"), "jcr:title", "TestTitle");
+            session.logout();
+            assertEquals(workspace, subject.getWorkspaceName());
+            assertNotEquals(workspace, other.getWorkspaceName());
+        } finally {
+            subject.after();
+        }
+    }
+
+    @Test
+    public void testApply_withWorkspaceIsolation_templateReused() throws Throwable {
+
+        //prepare
+        final URL contentResource = getClass().getResource("ContentLoaderTest_inkstandJcrImport_v1-0.xml");
+        subject.setContentDefinition(contentResource);
+        subject.setWorkspaceIsolation(true);
+        final ActiveSession session = new ActiveSession(repository);
+        session.setWorkspace(subject.getWorkspaceName());
+        BaseRuleHelper.setState(session, BaseRule.State.INITIALIZED);
+
+        //act
+        subject.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                final Session admin = session.getAdminSession();
+                assertEquals(subject.getWorkspaceName(), admin.getWorkspace().getName());
+                admin.getNode("/root").addNode("created");
+                admin.save();
+
+                //a second loader with the same content is cloned from the same template
+                final ContentLoader other = new ContentLoader(repository);
+                other.setContentDefinition(contentResource);
+                other.setWorkspaceIsolation(true);
+                other.before();
+                try {
+                    final Session otherSession = repository.getRepository().login(
+                            new SimpleCredentials("admin", "admin".toCharArray()), other.getWorkspaceName());
+                    assertStringPropertyEquals(otherSession.getNode("/root"), "jcr:title", "TestTitle");
+                    assertFalse(otherSession.nodeExists("/root/created"));
+                    otherSession.logout();
+                } finally {
+                    other.after();
+                    session.after();
+                }
+            }
+        }, description).evaluate();
+    }
+
+    @Test
+    public void testApply_withContentGenerator() throws Throwable {
+
+        //prepare
+        final ContentGenerator generator = new ContentGenerator("generated");
+        generator.setDepth(2);
+        generator.setFanout(5);
+        generator.setBatchSize(10);
+        subject.setContentGenerator(generator);
+
+        //act
+        subject.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                //assert
+                Session session = repository.login();
+                assertNotNull(session.getNode("/generated/node4/node4"));
+                assertEquals(31, subject.getContentGenerator().getNodeCount());
+            }
+        }, description).evaluate();
+    }
 }
@@ -19,6 +19,9 @@ package io.inkstand.scribble.jcr.rules;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -30,6 +33,8 @@ import javax.jcr.Repository;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.jackrabbit.core.RepositoryImpl;
 import org.apache.jackrabbit.core.config.RepositoryConfig;
@@ -290,6 +295,64 @@ public class ContentRepositoryTest {
         assertEquals("aPassword", String.valueOf(passedParam.getPassword()));
     }
 
+    @Test
+    public void testLogin_sessionPool_reused() throws Throwable {
+        // prepare
+        when(repository.login(any(SimpleCredentials.class))).thenReturn(session);
+        when(session.isLive()).thenReturn(true);
+        subject.setSessionPoolSize(1);
+        subject.before();
+        final Session first = subject.login("aUser", "aPassword");
+        subject.release(first);
+        // act
+        final Session second = subject.login("aUser", "aPassword");
+        // assert
+        assertEquals(session, second);
+        verify(repository, times(1)).login(any(SimpleCredentials.class));
+        verify(session).refresh(false);
+        assertEquals(1, subject.getSessionPool().getReuseCount());
+    }
+
+    @Test
+    public void testRelease_noSessionPool_logout() throws Throwable {
+        // prepare
+        when(repository.login(any(SimpleCredentials.class))).thenReturn(session);
+        subject.before();
+        final Session userSession = subject.login("aUser", "aPassword");
+        // act
+        subject.release(userSession);
+        // assert
+        verify(session).logout();
+    }
+
+    @Test
+    public void testAfter_sessionPool_closed() throws Throwable {
+        // prepare
+        when(repository.login(any(SimpleCredentials.class))).thenReturn(session);
+        when(session.isLive()).thenReturn(true);
+        subject.setSessionPoolSize(1);
+        subject.before();
+        subject.release(subject.login("aUser", "aPassword"));
+        // act
+        subject.after();
+        // assert
+        verify(session).logout();
+    }
+
+    @Test
+    public void testLoginAdmin_workspace() throws Throwable {
+        // prepare
+        when(repository.login(any(SimpleCredentials.class), eq("aWorkspace"))).thenReturn(session);
+        subject.before();
+        // act
+        final Session adminSession = subject.loginAdmin("aWorkspace");
+        // assert
+        assertEquals(session, adminSession);
+        final ArgumentCaptor<SimpleCredentials> captor = ArgumentCaptor.forClass(SimpleCredentials.class);
+        verify(repository).login(captor.capture(), eq("aWorkspace"));
+        assertEquals("admin", captor.getValue().getUserID());
+    }
+
     @Test
     public void testGetAdminSession_firstLogin() throws Throwable {
 
@@ -319,6 +382,7 @@ public class ContentRepositoryTest {
         //prepare
         when(repository.login(any(SimpleCredentials.class))).thenReturn(session);
         when(session.isLive()).thenReturn(true);
+        when(session.hasPendingChanges()).thenReturn(true);
         subject.before();
         BaseRuleHelper.setState(subject, BaseRule.State.INITIALIZED);
         //the first login
@@ -334,10 +398,28 @@ public class ContentRepositoryTest {
 
         //verify no new admin login has been performed, only 1 login from the prepare phase
         verify(repository, times(1)).login(any(SimpleCredentials.class));
-        //and the session was refreshed
+        //and the pending changes were discarded
         verify(session).refresh(false);
     }
 
+    @Test
+    public void testGetAdminSession_consecutiveLogin_noPendingChanges_notRefreshed() throws Throwable {
+
+        //prepare
+        when(repository.login(any(SimpleCredentials.class))).thenReturn(session);
+        when(session.isLive()).thenReturn(true);
+        subject.before();
+        BaseRuleHelper.setState(subject, BaseRule.State.INITIALIZED);
+        subject.getAdminSession();
+
+        // act
+        Session adminSession = subject.getAdminSession();
+
+        // assert
+        assertEquals(session, adminSession);
+        verify(session, never()).refresh(anyBoolean());
+    }
+
     @Test
     public void testGetAdminSession_inactiveSession() throws Throwable {
 
@@ -443,6 +525,31 @@ public class ContentRepositoryTest {
 
     }
 
+    @Test
+    public void testGrantAll() throws Throwable {
+        //prepare
+        setupInMemoryRepository();
+        final Session admin = subject.getAdminSession();
+        admin.getRootNode().addNode("readonly", "nt:unstructured");
+        admin.save();
+
+        //act
+        subject.grantAll(Arrays.asList(new AclSpec("anonymous", "/", "jcr:read", "jcr:write"),
+                                       new AclSpec("anonymous", "/", "jcr:all"),
+                                       new AclSpec("everyone", "/readonly", "jcr:read")));
+
+        //assert
+        final Session anonSession = repository.login();
+        assertNotNull(anonSession.getRootNode().addNode("test", "nt:unstructured"));
+        assertNotNull(anonSession.getNode("/readonly"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAddUsers() throws Exception {
+
+        subject.addUsers(Collections.singletonMap("user", "password"));
+    }
+
     /**
      * Replaces the mock repository with a real repository with effective security and in-memory persistence.
      *
@@ -18,11 +18,15 @@ package io.inkstand.scribble.jcr.rules;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryResult;
 import javax.jcr.security.AccessControlManager;
 import javax.jcr.security.Privilege;
+import java.io.File;
 import java.net.URL;
 
 import io.inkstand.scribble.rules.BaseRule;
@@ -54,6 +58,7 @@ public class InMemoryContentRepositoryTest {
 
     @After
     public void tearDown() throws Exception {
+        subject.after();
     }
 
 
@@ -120,4 +125,96 @@ public class InMemoryContentRepositoryTest {
         assertTrue(acm.hasPrivileges("/", new Privilege[] { acm.privilegeFromName(Privilege.JCR_ALL) }));
 
     }
+
+    @Test
+    public void testBundleCacheSize() throws Throwable {
+        //prepare
+        subject.setBundleCacheSize(2);
+        BaseRuleHelper.setState(subject, BaseRule.State.INITIALIZED);
+
+        //act
+        final RepositoryConfig config = subject.createRepositoryConfiguration();
+
+        //assert
+        assertEquals("2", config.getVersioningConfig().getPersistenceManagerConfig().getParameters()
+                                .getProperty("bundleCacheSize"));
+        assertEquals("2", config.getWorkspaceConfig("default").getPersistenceManagerConfig().getParameters()
+                                .getProperty("bundleCacheSize"));
+        assertTrue(config.getWorkspaceConfig("default").getFileSystem() instanceof MemoryFileSystem);
+    }
+
+    @Test
+    public void testBundleCacheSize_replacesConfiguredParam() throws Throwable {
+        //prepare
+        subject = new InMemoryContentRepository(workingDirectory) {
+
+            @Override
+            public URL getConfigUrl() {
+
+                return InMemoryContentRepositoryTest.class.getResource(
+                        "InMemoryContentRepositoryTest_bundleCache.xml");
+            }
+        };
+        subject.setBundleCacheSize(2);
+        BaseRuleHelper.setState(subject, BaseRule.State.INITIALIZED);
+
+        //act
+        final RepositoryConfig config = subject.createRepositoryConfiguration();
+
+        //assert
+        assertEquals("2", config.getVersioningConfig().getPersistenceManagerConfig().getParameters()
+                                .getProperty("bundleCacheSize"));
+        assertEquals("2", config.getWorkspaceConfig("default").getPersistenceManagerConfig().getParameters()
+                                .getProperty("bundleCacheSize"));
+    }
+
+    @Test
+    public void testSearchIndexDisabled() throws Throwable {
+        //prepare
+        subject.setSearchIndexDisabled(true);
+        BaseRuleHelper.setState(subject, BaseRule.State.INITIALIZED);
+
+        //act
+        final RepositoryConfig config = subject.createRepositoryConfiguration();
+
+        //assert
+        assertFalse(config.isSearchEnabled());
+        assertFalse(config.getWorkspaceConfig("default").isSearchEnabled());
+    }
+
+    @Test
+    public void testSearchIndexDisabled_crud() throws Throwable {
+        //prepare
+        subject.setSearchIndexDisabled(true);
+        subject.before();
+
+        //act
+        Session session = subject.getAdminSession();
+        session.getRootNode().addNode("test", "nt:unstructured");
+        session.save();
+
+        //assert
+        assertTrue(subject.login().nodeExists("/test"));
+    }
+
+    @Test
+    public void testInMemorySearchIndex() throws Throwable {
+        //prepare
+        subject.setInMemorySearchIndex(true);
+        subject.before();
+        Session session = subject.getAdminSession();
+        session.getRootNode().addNode("test", "nt:unstructured").setProperty("title", "indexed");
+        session.save();
+
+        //act
+        QueryResult result = session.getWorkspace().getQueryManager()
+                                    .createQuery("SELECT * FROM [nt:unstructured] WHERE [title] = 'indexed'",
+                                                 Query.JCR_SQL2)
+                                    .execute();
+
+        //assert
+        assertEquals(1, result.getNodes().getSize());
+        assertFalse(new File(workingDirectory.getRoot(), "workspaces/default/index").exists());
+        assertFalse(new File(workingDirectory.getRoot(), "repository/index").exists());
+    }
 }
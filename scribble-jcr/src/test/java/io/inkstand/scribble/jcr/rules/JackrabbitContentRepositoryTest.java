@@ -16,17 +16,31 @@
 
 package io.inkstand.scribble.jcr.rules;
 
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.slf4j.LoggerFactory.getLogger;
 
 import javax.jcr.LoginException;
 import javax.jcr.Repository;
 import javax.jcr.Session;
 import javax.jcr.SimpleCredentials;
+import javax.jcr.UnsupportedRepositoryOperationException;
 import java.net.URL;
 import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.User;
 import org.apache.jackrabbit.api.security.user.UserManager;
 import org.apache.jackrabbit.core.RepositoryImpl;
 import org.junit.After;
@@ -37,6 +51,7 @@ import org.junit.rules.TemporaryFolder;
 import org.junit.runner.Description;
 import org.junit.runner.RunWith;
 import org.junit.runners.model.Statement;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.slf4j.Logger;
@@ -134,6 +149,123 @@ public class JackrabbitContentRepositoryTest extends TestCase {
 
     }
 
+    @Test
+    public void testAddUsers() throws Throwable {
+        //prepare
+        final Map<String, String> users = new LinkedHashMap<>();
+        users.put("user1", "password1");
+        users.put("user2", "password2");
+
+        subject.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+                //act
+                Map<String, Principal> principals = subject.addUsers(users);
+
+                //assert
+                assertEquals(2, principals.size());
+                assertEquals("user1", principals.get("user1").getName());
+                assertEquals("user2", principals.get("user2").getName());
+                Session session = subject.getRepository().login(
+                        new SimpleCredentials("user2", "password2".toCharArray()));
+                assertEquals("user2", session.getUserID());
+                assertTrue(((JackrabbitSession) subject.getAdminSession()).getUserManager().isAutoSave());
+
+                subject.resetUsers();
+                UserManager userManager = ((JackrabbitSession) subject.getAdminSession()).getUserManager();
+                assertNull(userManager.getAuthorizable("user1"));
+                assertNull(userManager.getAuthorizable("user2"));
+            }
+        }, description).evaluate();
+    }
+
+    @Test
+    public void testAddUsers_autoSave_savedOnce() throws Throwable {
+        //prepare
+        final JackrabbitSession session = mock(JackrabbitSession.class);
+        final UserManager userManager = mock(UserManager.class);
+        final User user = mock(User.class);
+        when(session.getUserManager()).thenReturn(userManager);
+        when(userManager.isAutoSave()).thenReturn(true);
+        when(userManager.createUser(anyString(), anyString())).thenReturn(user);
+        subject = new JackrabbitContentRepository(folder) {
+            @Override
+            public Session getAdminSession() {
+                return session;
+            }
+        };
+        final Map<String, String> users = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            users.put("user" + i, "password");
+        }
+
+        //act
+        subject.addUsers(users);
+
+        //assert
+        final InOrder inOrder = inOrder(userManager, session);
+        inOrder.verify(userManager).autoSave(false);
+        inOrder.verify(userManager, times(10)).createUser(anyString(), eq("password"));
+        inOrder.verify(session, times(1)).save();
+        inOrder.verify(userManager).autoSave(true);
+    }
+
+    @Test
+    public void testAddUsers_autoSaveNotSupported_savedByUserManager() throws Throwable {
+        //prepare
+        final JackrabbitSession session = mock(JackrabbitSession.class);
+        final UserManager userManager = mock(UserManager.class);
+        final User user = mock(User.class);
+        when(session.getUserManager()).thenReturn(userManager);
+        when(userManager.isAutoSave()).thenReturn(true);
+        doThrow(new UnsupportedRepositoryOperationException()).when(userManager).autoSave(false);
+        when(userManager.createUser(anyString(), anyString())).thenReturn(user);
+        subject = new JackrabbitContentRepository(folder) {
+            @Override
+            public Session getAdminSession() {
+                return session;
+            }
+        };
+
+        //act
+        subject.addUsers(Collections.singletonMap("user", "password"));
+
+        //assert
+        verify(userManager).createUser("user", "password");
+        verify(session, never()).save();
+        verify(userManager, never()).autoSave(true);
+    }
+
+    @Test
+    public void testGrantAll_addedUsers() throws Throwable {
+        //prepare
+        final Map<String, String> users = new LinkedHashMap<>();
+        users.put("writer", "password");
+        users.put("reader", "password");
+
+        subject.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+                //prepare
+                subject.addUsers(users);
+
+                //act
+                subject.grantAll(Arrays.asList(new AclSpec("writer", "/", "jcr:all"),
+                                               new AclSpec("reader", "/", "jcr:read")));
+
+                //assert
+                Session writer = subject.login("writer", "password");
+                writer.getRootNode().addNode("test", "nt:unstructured");
+                writer.save();
+                Session reader = subject.login("reader", "password");
+                assertTrue(reader.nodeExists("/test"));
+                assertFalse(reader.hasPermission("/test", Session.ACTION_ADD_NODE));
+            }
+        }, description).evaluate();
+    }
+
     @Test
     public void testDeleteUser_userExists_false() throws Throwable {
         //prepare
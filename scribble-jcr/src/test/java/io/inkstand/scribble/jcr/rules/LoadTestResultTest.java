@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class LoadTestResultTest {
+
+    private final LoadTestResult subject = new LoadTestResult(TimeUnit.SECONDS.toNanos(2),
+                                                              new long[] { 50, 10, 40, 20, 30, 60, 70, 80, 100, 90 },
+                                                              1,
+                                                              2,
+                                                              3);
+
+    @Test
+    public void testGetOperations() throws Exception {
+
+        assertEquals(10, subject.getOperations());
+        assertEquals(1, subject.getErrors());
+        assertEquals(2, subject.getConflicts());
+        assertEquals(3, subject.getRetries());
+    }
+
+    @Test
+    public void testGetThroughput() throws Exception {
+
+        assertEquals(5.0, subject.getThroughput(), 0.0001);
+        assertEquals(2000, subject.getDuration(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testGetLatencyPercentile() throws Exception {
+
+        assertEquals(10, subject.getLatencyPercentile(0, TimeUnit.NANOSECONDS));
+        assertEquals(50, subject.getLatencyPercentile(50, TimeUnit.NANOSECONDS));
+        assertEquals(90, subject.getLatencyPercentile(90, TimeUnit.NANOSECONDS));
+        assertEquals(100, subject.getLatencyPercentile(99, TimeUnit.NANOSECONDS));
+        assertEquals(100, subject.getLatencyPercentile(100, TimeUnit.NANOSECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetLatencyPercentile_invalid() throws Exception {
+
+        subject.getLatencyPercentile(101, TimeUnit.NANOSECONDS);
+    }
+
+    @Test
+    public void testGetLatencyPercentile_noOperations() throws Exception {
+
+        assertEquals(0, new LoadTestResult(0, new long[0], 0, 0, 0).getLatencyPercentile(50, TimeUnit.NANOSECONDS));
+        assertEquals(0.0, new LoadTestResult(0, new long[0], 0, 0, 0).getThroughput(), 0.0001);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.model.Statement;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LoadTestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private Description description;
+
+    private InMemoryContentRepository repository;
+
+    private final Set<String> deletedUsers = new HashSet<>();
+
+    /**
+     * The class under test
+     */
+    private LoadTest subject;
+
+    @Before
+    public void setUp() throws Exception {
+
+        repository = new InMemoryContentRepository(folder) {
+
+            @Override
+            public boolean deleteUser(final String username) {
+
+                deletedUsers.add(username);
+                return super.deleteUser(username);
+            }
+        };
+        repository.setSecurityEnabled(true);
+        subject = new LoadTest(repository);
+    }
+
+    @Test
+    public void testRun_concurrentWrites() throws Throwable {
+
+        //prepare
+        subject.setSessions(4);
+
+        //act
+        subject.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                final Node root = repository.getAdminSession().getRootNode().addNode("load", "nt:unstructured");
+                root.getSession().save();
+
+                //act
+                LoadTestResult result = subject.run(new Workload() {
+
+                    @Override
+                    public void execute(final Session session, final int sessionIndex, final int iteration)
+                            throws RepositoryException {
+
+                        session.getNode("/load").addNode("node-" + sessionIndex + "-" + iteration, "nt:unstructured");
+                        session.save();
+                    }
+                }, 10);
+
+                //assert
+                assertEquals(40, result.getOperations());
+                assertEquals(0, result.getErrors());
+                assertTrue(result.getThroughput() > 0);
+                assertEquals(40, repository.getAdminSession().getNode("/load").getNodes().getSize());
+            }
+        }, description).evaluate();
+    }
+
+    @Test
+    public void testRun_conflict_retried() throws Throwable {
+
+        //prepare
+        subject.setMaxRetries(1);
+        final AtomicInteger attempts = new AtomicInteger();
+
+        //act
+        subject.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                //act
+                LoadTestResult result = subject.run(new Workload() {
+
+                    @Override
+                    public void execute(final Session session, final int sessionIndex, final int iteration)
+                            throws RepositoryException {
+
+                        //first iteration succeeds on retry, second iteration fails on retry
+                        if (attempts.incrementAndGet() != 2) {
+                            throw new InvalidItemStateException("conflict");
+                        }
+                    }
+                }, 2);
+
+                //assert
+                assertEquals(2, result.getOperations());
+                assertEquals(3, result.getConflicts());
+                assertEquals(2, result.getRetries());
+                assertEquals(1, result.getErrors());
+            }
+        }, description).evaluate();
+    }
+
+    @Test
+    public void testRun_asUsers() throws Throwable {
+
+        //prepare
+        subject.setSessions(3);
+        subject.setUsers("loaduser", "password", "jcr:read");
+        final Set<String> userIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        //act
+        subject.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                //act
+                LoadTestResult result = subject.run(new Workload() {
+
+                    @Override
+                    public void execute(final Session session, final int sessionIndex, final int iteration)
+                            throws RepositoryException {
+
+                        userIds.add(session.getUserID());
+                        session.getRootNode();
+                    }
+                }, 5);
+
+                //assert
+                assertEquals(15, result.getOperations());
+                assertEquals(0, result.getErrors());
+            }
+        }, description).evaluate();
+
+        //assert
+        assertEquals(3, userIds.size());
+        assertTrue(userIds.contains("loaduser0"));
+        assertTrue(userIds.contains("loaduser2"));
+        assertEquals(userIds, deletedUsers);
+    }
+}
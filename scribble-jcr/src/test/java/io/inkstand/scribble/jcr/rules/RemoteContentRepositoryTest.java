@@ -17,7 +17,10 @@
 package io.inkstand.scribble.jcr.rules;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import javax.jcr.RepositoryException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -25,7 +28,9 @@ import java.io.InputStream;
 import java.io.StringWriter;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.Map;
 import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.commons.JcrUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -74,6 +79,68 @@ public class RemoteContentRepositoryTest {
         assertEquals("test.example.com", subject.getRemoteHost());
     }
 
+    @Test
+    public void testBefore_arquillianXmlCached() throws Throwable {
+        //prepare
+        System.setProperty("arquillian.launch", "testContainer");
+        final File arquillianXml = folder.newFile("arquillian.xml");
+        try (InputStream is = getClass().getResourceAsStream("RemoteContentRepositoryTest_arquillian.xml");
+             FileOutputStream fos = new FileOutputStream(arquillianXml)) {
+            IOUtils.copy(is, fos);
+        }
+        subject.onArquillianHost(arquillianXml.toURI().toURL());
+        subject.setupManually();
+        subject.before();
+        //the cached configuration is used, so the file is not read again
+        assertTrue(arquillianXml.delete());
+        final RemoteContentRepository other = new RemoteContentRepository();
+        other.onArquillianHost(arquillianXml.toURI().toURL());
+        other.setupManually();
+
+        //act
+        other.before();
+
+        //assert
+        assertEquals("test.example.com", other.getRemoteHost());
+    }
+
+    @Test
+    public void testGetClientParameters_defaults() throws Exception {
+        //act
+        final Map<String, Object> parameters = subject.getClientParameters();
+
+        //assert
+        assertEquals(1, parameters.size());
+        assertEquals("http://localhost:8080/jackrabbit-webapp-2.8.0/server", parameters.get(JcrUtils.REPOSITORY_URI));
+    }
+
+    @Test
+    public void testGetClientParameters_tuned() throws Exception {
+        //prepare
+        final Object batchReadConfig = new Object();
+        subject.onHost("remote")
+               .onPort(8090)
+               .atContextRoot("/server")
+               .withMaxConnections(50)
+               .withItemInfoCacheSize(10000)
+               .withClientParameter(RemoteContentRepository.PARAM_BATCH_READ_CONFIG, batchReadConfig);
+
+        //act
+        final Map<String, Object> parameters = subject.getClientParameters();
+
+        //assert
+        assertEquals("http://remote:8090/server", parameters.get(JcrUtils.REPOSITORY_URI));
+        assertEquals("50", parameters.get(RemoteContentRepository.PARAM_MAX_CONNECTIONS));
+        assertEquals("10000", parameters.get(RemoteContentRepository.PARAM_ITEM_INFO_CACHE_SIZE));
+        assertSame(batchReadConfig, parameters.get(RemoteContentRepository.PARAM_BATCH_READ_CONFIG));
+    }
+
+    @Test(expected = RepositoryException.class)
+    public void testCreateRepository_noRemotingClient() throws Exception {
+        //act
+        subject.createRepository();
+    }
+
     /**
      * This tests implements an exploit to the XML External Entity Attack {@see http://www.ws-attacks.org/index.php/XML_Entity_Reference_Attack}.
      * The attack targets a file in the filesystem containing a secret, i.e. a password, which is not untypical for
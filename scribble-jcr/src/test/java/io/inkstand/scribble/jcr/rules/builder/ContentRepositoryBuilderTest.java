@@ -20,10 +20,14 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 
+import javax.jcr.PropertyType;
 import java.net.URL;
 import org.junit.Test;
 import org.junit.rules.TestRule;
 
+import io.inkstand.scribble.jcr.rules.ActiveSession;
+import io.inkstand.scribble.jcr.rules.ContentLoader;
+
 /**
  * Created by Gerald on 18.05.2015.
  */
@@ -60,6 +64,63 @@ public class ContentRepositoryBuilderTest {
         assertNotNull(result);
     }
 
+    @Test
+    public void testAroundPreparedContent_inIsolatedWorkspace() throws Exception {
+
+        //act
+        ContentLoader result = subject.aroundPreparedContent().inIsolatedWorkspace().build();
+
+        //assert
+        assertNotNull(result.getWorkspaceName());
+    }
+
+    @Test
+    public void testAroundPreparedContent_generatingTree() throws Exception {
+
+        //act
+        ContentLoader result = subject.aroundPreparedContent()
+                                      .generatingTree("generated")
+                                      .withTreeShape(3, 20)
+                                      .withNodeType("nt:unstructured")
+                                      .withGeneratedProperty("title", PropertyType.STRING, 64)
+                                      .withGeneratedBinary("data", 1024, 4096)
+                                      .withBatchSize(500)
+                                      .withSeed(42)
+                                      .build();
+
+        //assert
+        assertNotNull(result.getContentGenerator());
+        assertEquals(1 + 20 + 400 + 8000, result.getContentGenerator().getExpectedNodeCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testAroundPreparedContent_withTreeShape_noGeneratedTree() throws Exception {
+
+        //act
+        subject.aroundPreparedContent().withTreeShape(3, 20);
+    }
+
+    @Test
+    public void testAroundSession_inWorkspace() throws Exception {
+
+        //act
+        ActiveSession result = subject.aroundSession().inWorkspace("test").build();
+
+        //assert
+        assertEquals("test", result.getWorkspace());
+    }
+
+    @Test
+    public void testAroundLoadTest() throws Exception {
+
+        //act
+        LoadTestBuilder result = subject.aroundLoadTest();
+
+        //assert
+        assertNotNull(result);
+        assertNotNull(result.withSessions(2).withMaxRetries(1).asUsers("user", "password", "jcr:read").build());
+    }
+
     @Test
     public void testWithNodeTypesFromCnd() throws Exception {
 
@@ -75,4 +136,15 @@ public class ContentRepositoryBuilderTest {
         assertSame(result, subject);
         assertEquals(resource, actualResource);
     }
+
+    @Test
+    public void testWithSessionPool() throws Exception {
+
+        //act
+        ContentRepositoryBuilder result = subject.withSessionPool(5);
+
+        //assert
+        assertSame(result, subject);
+        assertEquals(5, subject.getSessionPoolSize());
+    }
 }
@@ -16,7 +16,12 @@
 
 package io.inkstand.scribble.jcr.rules.builder;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import javax.jcr.Session;
+import java.io.File;
 
 import io.inkstand.scribble.jcr.rules.InMemoryContentRepository;
 import org.junit.Before;
@@ -93,4 +98,45 @@ public class InMemoryContentRepositoryBuilderTest {
 
     }
 
+    @Test
+    public void testTunedConfiguration() throws Throwable {
+        //prepare
+
+        //act
+        final InMemoryContentRepository rule = subject.withBundleCacheSize(1).withoutSearchIndex().build();
+
+        rule.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                //assert
+                Session session = rule.getAdminSession();
+                session.getRootNode().addNode("test", "nt:unstructured");
+                session.save();
+                assertTrue(rule.login().nodeExists("/test"));
+            }
+        }, description).evaluate();
+
+    }
+
+    @Test
+    public void testInMemorySearchIndex() throws Throwable {
+        //prepare
+
+        //act
+        final InMemoryContentRepository rule = subject.withInMemorySearchIndex().build();
+
+        rule.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                //assert
+                assertNotNull(rule.getAdminSession().getWorkspace().getQueryManager());
+                assertFalse(new File(folder.getRoot(), "workspaces/default/index").exists());
+            }
+        }, description).evaluate();
+
+    }
 }
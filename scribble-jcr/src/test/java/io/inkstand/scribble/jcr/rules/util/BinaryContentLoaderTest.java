@@ -0,0 +1,186 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules.util;
+
+import static io.inkstand.scribble.jcr.JCRAssert.assertMixinNodeType;
+import static io.inkstand.scribble.jcr.JCRAssert.assertStringPropertyEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import io.inkstand.scribble.jcr.rules.ContentRepository;
+import io.inkstand.scribble.jcr.rules.InMemoryContentRepository;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BinaryContentLoaderTest {
+
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public final ContentRepository repository = new InMemoryContentRepository(folder);
+
+    private BinaryContentLoader subject;
+
+    @Before
+    public void setUp() throws Exception {
+
+        subject = new BinaryContentLoader();
+    }
+
+    @Test
+    public void testIsDump() throws Exception {
+
+        assertTrue(BinaryContentLoader.isDump(new URL("file:/content.jcrdump")));
+        assertTrue(BinaryContentLoader.isDump(new URL("file:/content.jcrdump.gz")));
+        assertTrue(BinaryContentLoader.isDump(new File("content.jcrdump")));
+        assertFalse(BinaryContentLoader.isDump(new URL("file:/content.sysview.xml")));
+        assertFalse(BinaryContentLoader.isDump(new URL("file:/content.xml.gz")));
+    }
+
+    @Test
+    public void testExportAndLoadContent_uncompressed() throws Exception {
+        // prepare
+        final byte[] data = this.createContent();
+        final File export = new File(folder.getRoot(), "content.jcrdump");
+        final String targetId = repository.getAdminSession().getNode("/root/target").getIdentifier();
+        // act
+        subject.exportContent(repository.getAdminSession(), "/root", export);
+        this.removeContent();
+        final Node rootNode = subject.loadContent(repository.getAdminSession(), export.toURI().toURL());
+        // assert
+        assertEquals("/root", rootNode.getPath());
+        this.assertContent(repository.getRepository().login(), data);
+        assertEquals(targetId, repository.getAdminSession().getNode("/root/target").getIdentifier());
+    }
+
+    @Test
+    public void testExportAndLoadContent_compressed() throws Exception {
+        // prepare
+        final byte[] data = this.createContent();
+        final File export = new File(folder.getRoot(), "content.jcrdump.gz");
+        // act
+        subject.exportContent(repository.getAdminSession(), "/root", export);
+        this.removeContent();
+        final Node rootNode = subject.loadContent(repository.getAdminSession(), export.toURI().toURL());
+        // assert
+        assertEquals("/root", rootNode.getPath());
+        this.assertContent(repository.getRepository().login(), data);
+    }
+
+    @Test
+    public void testLoadContent_smallBatches() throws Exception {
+        // prepare
+        final byte[] data = this.createContent();
+        final File export = new File(folder.getRoot(), "content.jcrdump");
+        subject.exportContent(repository.getAdminSession(), "/root", export);
+        this.removeContent();
+        subject.setBatchSize(1);
+        // act
+        subject.loadContent(repository.getAdminSession(), export.toURI().toURL());
+        // assert
+        this.assertContent(repository.getRepository().login(), data);
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testLoadContent_noDump() throws Exception {
+        // prepare
+        final File file = new File(folder.getRoot(), "content.jcrdump");
+        Files.write(file.toPath(), "<xml/>".getBytes("UTF-8"));
+        // act
+        subject.loadContent(repository.getAdminSession(), file.toURI().toURL());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetBatchSize_invalid() throws Exception {
+
+        subject.setBatchSize(0);
+    }
+
+    private byte[] createContent() throws Exception {
+
+        final byte[] data = new byte[100 * 1024];
+        new Random(42).nextBytes(data);
+        final Session session = repository.getAdminSession();
+        final Node root = session.getRootNode().addNode("root", "nt:unstructured");
+        root.addMixin("mix:title");
+        root.setProperty("jcr:title", "TestTitle");
+        final char[] longValue = new char[100_000];
+        Arrays.fill(longValue, 'x');
+        root.setProperty("long", new String(longValue));
+        root.setProperty("multi", new String[] { "a", "b" });
+        root.setProperty("number", 42L);
+        final Node target = root.addNode("target", "nt:unstructured");
+        target.addMixin("mix:referenceable");
+        final Node other = root.addNode("other", "nt:unstructured");
+        other.addMixin("mix:referenceable");
+        final Node source = root.addNode("source", "nt:unstructured");
+        source.setProperty("ref", target);
+        source.setProperty("refs", new Value[] {
+                session.getValueFactory().createValue(target, true), session.getValueFactory().createValue(other, true)
+        });
+        final Binary binary = session.getValueFactory().createBinary(new ByteArrayInputStream(data));
+        source.setProperty("data", binary);
+        session.save();
+        return data;
+    }
+
+    private void removeContent() throws Exception {
+
+        final Session session = repository.getAdminSession();
+        session.getNode("/root").remove();
+        session.save();
+    }
+
+    private void assertContent(final Session verifySession, final byte[] data) throws Exception {
+
+        final Node root = verifySession.getNode("/root");
+        assertMixinNodeType(root, "mix:title");
+        assertStringPropertyEquals(root, "jcr:title", "TestTitle");
+        assertEquals(100_000, root.getProperty("long").getString().length());
+        assertEquals(2, root.getProperty("multi").getValues().length);
+        assertEquals(PropertyType.LONG, root.getProperty("number").getType());
+        final Node source = verifySession.getNode("/root/source");
+        assertEquals(PropertyType.REFERENCE, source.getProperty("ref").getType());
+        assertEquals("/root/target", source.getProperty("ref").getNode().getPath());
+        final Value[] refs = source.getProperty("refs").getValues();
+        assertEquals(PropertyType.WEAKREFERENCE, source.getProperty("refs").getType());
+        assertEquals(Arrays.asList("/root/target", "/root/other"),
+                     Arrays.asList(verifySession.getNodeByIdentifier(refs[0].getString()).getPath(),
+                                   verifySession.getNodeByIdentifier(refs[1].getString()).getPath()));
+        try (InputStream is = source.getProperty("data").getBinary().getStream()) {
+            assertArrayEquals(data, IOUtils.toByteArray(is));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.Session;
+import java.io.InputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.inkstand.scribble.jcr.rules.ContentRepository;
+import io.inkstand.scribble.jcr.rules.InMemoryContentRepository;
+
+public class ContentGeneratorTest {
+
+    @Rule
+    public final ContentRepository repository = new InMemoryContentRepository(new TemporaryFolder());
+
+    @Test
+    public void testGenerate_defaultShape() throws Exception {
+        // prepare
+        final ContentGenerator subject = new ContentGenerator("generated");
+        final Session session = repository.getAdminSession();
+
+        // act
+        final Node root = subject.generate(session);
+
+        // assert
+        assertEquals("/generated", root.getPath());
+        assertEquals(10, root.getNodes().getSize());
+        assertFalse(session.hasPendingChanges());
+        assertEquals(11, subject.getNodeCount());
+        assertEquals(11, subject.getExpectedNodeCount());
+        assertTrue(subject.getNodesPerSecond() > 0);
+    }
+
+    @Test
+    public void testGenerate_depthAndFanout_batchedSaves() throws Exception {
+        // prepare
+        final ContentGenerator subject = new ContentGenerator("generated");
+        subject.setDepth(3);
+        subject.setFanout(4);
+        subject.setBatchSize(7);
+        subject.setNodeType("nt:folder");
+
+        // act
+        subject.generate(repository.getAdminSession());
+
+        // assert
+        final Session session = repository.login("admin", "admin");
+        assertEquals(1 + 4 + 16 + 64, subject.getNodeCount());
+        assertEquals(subject.getExpectedNodeCount(), subject.getNodeCount());
+        final Node leaf = session.getNode("/generated/node3/node2/node1");
+        assertEquals("nt:folder", leaf.getPrimaryNodeType().getName());
+        assertFalse(leaf.hasNodes());
+    }
+
+    @Test
+    public void testRemove_batched() throws Exception {
+        // prepare
+        final ContentGenerator subject = new ContentGenerator("generated");
+        subject.setDepth(3);
+        subject.setFanout(4);
+        subject.setBatchSize(7);
+        final Session session = repository.getAdminSession();
+        final Node root = subject.generate(session);
+
+        // act
+        subject.remove(root);
+
+        // assert
+        assertFalse(session.hasPendingChanges());
+        assertFalse(repository.login("admin", "admin").nodeExists("/generated"));
+    }
+
+    @Test
+    public void testGenerate_properties() throws Exception {
+        // prepare
+        final ContentGenerator subject = new ContentGenerator("generated");
+        subject.addProperty("title", PropertyType.STRING, 32);
+        subject.addProperty("count", PropertyType.LONG, 0);
+        subject.addProperty("created", PropertyType.DATE, 0);
+        subject.addProperty("active", PropertyType.BOOLEAN, 0);
+        subject.setBinaryProperty("data", 100, 200);
+
+        // act
+        final Node root = subject.generate(repository.getAdminSession());
+
+        // assert
+        final Node node = root.getNode("node5");
+        assertEquals(32, node.getProperty("title").getString().length());
+        assertEquals(PropertyType.LONG, node.getProperty("count").getType());
+        assertEquals(PropertyType.DATE, node.getProperty("created").getType());
+        assertEquals(PropertyType.BOOLEAN, node.getProperty("active").getType());
+        final long size = node.getProperty("data").getLength();
+        assertTrue(size >= 100 && size <= 200);
+        try (InputStream data = node.getProperty("data").getBinary().getStream()) {
+            assertEquals(size, IOUtils.toByteArray(data).length);
+        }
+    }
+
+    @Test
+    public void testGenerate_sameSeed_sameContent() throws Exception {
+        // prepare
+        final ContentGenerator first = new ContentGenerator("first");
+        first.addProperty("title", PropertyType.STRING, 16);
+        first.setBinaryProperty("data", 0, 1000);
+        first.setSeed(42);
+        final ContentGenerator second = new ContentGenerator("second");
+        second.addProperty("title", PropertyType.STRING, 16);
+        second.setBinaryProperty("data", 0, 1000);
+        second.setSeed(42);
+
+        // act
+        final Node firstRoot = first.generate(repository.getAdminSession());
+        final Node secondRoot = second.generate(repository.getAdminSession());
+
+        // assert
+        for (int i = 0; i < 10; i++) {
+            final Node firstNode = firstRoot.getNode("node" + i);
+            final Node secondNode = secondRoot.getNode("node" + i);
+            assertEquals(firstNode.getProperty("title").getString(), secondNode.getProperty("title").getString());
+            assertEquals(firstNode.getProperty("data").getLength(), secondNode.getProperty("data").getLength());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddProperty_unsupportedType() throws Exception {
+
+        new ContentGenerator("generated").addProperty("ref", PropertyType.REFERENCE, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetBinaryProperty_invalidRange() throws Exception {
+
+        new ContentGenerator("generated").setBinaryProperty("data", 10, 5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetBatchSize_zero() throws Exception {
+
+        new ContentGenerator("generated").setBatchSize(0);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules.util;
+
+import static io.inkstand.scribble.jcr.JCRAssert.assertNodeTypeExists;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import javax.jcr.Session;
+import javax.jcr.nodetype.NodeType;
+import javax.jcr.nodetype.PropertyDefinition;
+import java.io.File;
+import java.net.URL;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.commons.cnd.ParseException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.inkstand.scribble.jcr.rules.ContentRepository;
+import io.inkstand.scribble.jcr.rules.InMemoryContentRepository;
+
+public class NodeTypeCacheTest {
+
+    @Rule
+    public final ContentRepository repository = new InMemoryContentRepository(new TemporaryFolder());
+
+    @Rule
+    public final ContentRepository otherRepository = new InMemoryContentRepository(new TemporaryFolder());
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final URL cndUrl = getClass().getResource("NodeTypeCacheTest_model.cnd");
+
+    @Before
+    public void setUp() throws Exception {
+
+        NodeTypeCache.clear();
+    }
+
+    @Test
+    public void testRegisterNodeTypes() throws Exception {
+        // prepare
+        final Session session = repository.getAdminSession();
+        final long parseCount = NodeTypeCache.getParseCount();
+        // act
+        final NodeType[] nodeTypes = NodeTypeCache.registerNodeTypes(cndUrl, session);
+        // assert
+        assertEquals(2, nodeTypes.length);
+        assertEquals(parseCount + 1, NodeTypeCache.getParseCount());
+        assertEquals("http://inkstand.io/jcr/cache/1.0", session.getNamespaceURI("cache"));
+        assertNodeTypeExists(session, "cache:document");
+        assertNodeTypeExists(session, "cache:folder");
+        final NodeType document = session.getWorkspace().getNodeTypeManager().getNodeType("cache:document");
+        for (PropertyDefinition pd : document.getDeclaredPropertyDefinitions()) {
+            if ("cache:title".equals(pd.getName())) {
+                assertEquals("untitled", pd.getDefaultValues()[0].getString());
+                return;
+            }
+        }
+        fail("Property definition cache:title not registered");
+    }
+
+    @Test
+    public void testRegisterNodeTypes_alreadyRegistered_skipped() throws Exception {
+        // prepare
+        final Session session = repository.getAdminSession();
+        NodeTypeCache.registerNodeTypes(cndUrl, session);
+        final long parseCount = NodeTypeCache.getParseCount();
+        // act
+        final NodeType[] nodeTypes = NodeTypeCache.registerNodeTypes(cndUrl, session);
+        // assert
+        assertEquals(0, nodeTypes.length);
+        assertEquals(parseCount, NodeTypeCache.getParseCount());
+    }
+
+    @Test
+    public void testRegisterNodeTypes_otherRepository_parsedOnce() throws Exception {
+        // prepare
+        NodeTypeCache.registerNodeTypes(cndUrl, repository.getAdminSession());
+        final long parseCount = NodeTypeCache.getParseCount();
+        final Session otherSession = otherRepository.getAdminSession();
+        // act
+        final NodeType[] nodeTypes = NodeTypeCache.registerNodeTypes(cndUrl, otherSession);
+        // assert
+        assertEquals(2, nodeTypes.length);
+        assertEquals(parseCount, NodeTypeCache.getParseCount());
+        assertNodeTypeExists(otherSession, "cache:document");
+        assertNodeTypeExists(otherSession, "cache:folder");
+    }
+
+    @Test
+    public void testRegisterNodeTypes_changedContent_parsedAgain() throws Exception {
+        // prepare
+        final File cndFile = folder.newFile("model.cnd");
+        FileUtils.writeStringToFile(cndFile, IOUtils.toString(cndUrl, "UTF-8"), "UTF-8");
+        NodeTypeCache.registerNodeTypes(cndFile.toURI().toURL(), repository.getAdminSession());
+        final long parseCount = NodeTypeCache.getParseCount();
+        FileUtils.writeStringToFile(cndFile, "\n[cache:link] > nt:base", "UTF-8", true);
+        // act
+        final NodeType[] nodeTypes = NodeTypeCache.registerNodeTypes(cndFile.toURI().toURL(),
+                                                                     repository.getAdminSession());
+        // assert
+        assertEquals(parseCount + 1, NodeTypeCache.getParseCount());
+        assertEquals(1, nodeTypes.length);
+        assertEquals("cache:link", nodeTypes[0].getName());
+    }
+
+    @Test(expected = ParseException.class)
+    public void testRegisterNodeTypes_invalidCnd() throws Exception {
+        // act
+        NodeTypeCache.registerNodeTypes(getClass().getResource(
+                "/io/inkstand/scribble/jcr/rules/ConfigurableContentRepositoryTest_invalidTestModel.cnd"),
+                                        repository.getAdminSession());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.jcr.Credentials;
+import javax.jcr.Repository;
+import javax.jcr.Session;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SessionPoolTest {
+
+    @Mock
+    private Repository repository;
+
+    private SessionPool subject;
+
+    @Before
+    public void setUp() throws Exception {
+
+        subject = new SessionPool(repository, 2, 60_000L);
+        when(repository.login(any(Credentials.class))).thenAnswer(new Answer<Session>() {
+
+            @Override
+            public Session answer(final InvocationOnMock invocation) throws Throwable {
+
+                final Session session = mock(Session.class);
+                when(session.isLive()).thenReturn(true);
+                return session;
+            }
+        });
+    }
+
+    @Test
+    public void testLease_released_reused() throws Exception {
+        // prepare
+        final Session session = subject.lease("user", "password");
+        subject.release(session);
+        // act
+        final Session reused = subject.lease("user", "password");
+        // assert
+        assertSame(session, reused);
+        verify(reused).refresh(false);
+        verify(reused, never()).logout();
+        assertEquals(1, subject.getLoginCount());
+        assertEquals(1, subject.getReuseCount());
+    }
+
+    @Test
+    public void testLease_differentCredentials_newSession() throws Exception {
+        // prepare
+        final Session session = subject.lease("user", "password");
+        subject.release(session);
+        // act
+        final Session other = subject.lease("user", "otherPassword");
+        // assert
+        assertNotSame(session, other);
+        assertEquals(2, subject.getLoginCount());
+        assertEquals(0, subject.getReuseCount());
+    }
+
+    @Test
+    public void testLease_notLive_newSession() throws Exception {
+        // prepare
+        final Session session = subject.lease("user", "password");
+        subject.release(session);
+        when(session.isLive()).thenReturn(false);
+        // act
+        final Session other = subject.lease("user", "password");
+        // assert
+        assertNotSame(session, other);
+        assertEquals(2, subject.getLoginCount());
+    }
+
+    @Test
+    public void testRelease_poolFull_logout() throws Exception {
+        // prepare
+        final Session session1 = subject.lease("user", "password");
+        final Session session2 = subject.lease("user", "password");
+        final Session session3 = subject.lease("user", "password");
+        // act
+        subject.release(session1);
+        subject.release(session2);
+        subject.release(session3);
+        // assert
+        verify(session3).logout();
+        assertEquals(2, subject.getIdleCount());
+        assertEquals(1, subject.getEvictionCount());
+    }
+
+    @Test
+    public void testRelease_idleTimeout_evicted() throws Exception {
+        // prepare
+        subject = new SessionPool(repository, 2, -1L);
+        final Session session = subject.lease("user", "password");
+        // act
+        subject.release(session);
+        // assert
+        verify(session).logout();
+        assertEquals(0, subject.getIdleCount());
+        assertEquals(1, subject.getEvictionCount());
+    }
+
+    @Test
+    public void testRelease_notLeased_logout() throws Exception {
+        // prepare
+        final Session session = mock(Session.class);
+        when(session.isLive()).thenReturn(true);
+        // act
+        subject.release(session);
+        // assert
+        verify(session).logout();
+        assertEquals(0, subject.getIdleCount());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        // prepare
+        final Session idle = subject.lease("user", "password");
+        final Session leased = subject.lease("user", "password");
+        subject.release(idle);
+        // act
+        subject.close();
+        // assert
+        verify(idle).logout();
+        verify(leased).logout();
+        assertEquals(0, subject.getIdleCount());
+    }
+}
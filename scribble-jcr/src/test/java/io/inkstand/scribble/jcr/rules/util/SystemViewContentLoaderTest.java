@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.jcr.rules.util;
+
+import static io.inkstand.scribble.jcr.JCRAssert.assertMixinNodeType;
+import static io.inkstand.scribble.jcr.JCRAssert.assertStringPropertyEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.Session;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import io.inkstand.scribble.jcr.rules.ContentRepository;
+import io.inkstand.scribble.jcr.rules.InMemoryContentRepository;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SystemViewContentLoaderTest {
+
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public final ContentRepository repository = new InMemoryContentRepository(folder);
+
+    private SystemViewContentLoader subject;
+
+    @Before
+    public void setUp() throws Exception {
+
+        subject = new SystemViewContentLoader();
+    }
+
+    @Test
+    public void testIsSystemView() throws Exception {
+
+        assertTrue(SystemViewContentLoader.isSystemView(new URL("file:/content.sysview.xml")));
+        assertTrue(SystemViewContentLoader.isSystemView(new URL("file:/content.sysview.xml.gz")));
+        assertFalse(SystemViewContentLoader.isSystemView(new URL("file:/content.xml")));
+        assertFalse(SystemViewContentLoader.isSystemView(new URL("file:/content.xml.gz")));
+    }
+
+    @Test
+    public void testExportAndLoadContent_uncompressed() throws Exception {
+        // prepare
+        final byte[] data = this.createContent();
+        final File export = new File(folder.getRoot(), "content.sysview.xml");
+        // act
+        subject.exportContent(repository.getAdminSession(), "/root", export);
+        this.removeContent();
+        final Node rootNode = subject.loadContent(repository.getAdminSession(), export.toURI().toURL());
+        // assert
+        try (InputStream is = new FileInputStream(export)) {
+            assertTrue(IOUtils.toString(is, "UTF-8").startsWith("<?xml"));
+        }
+        assertEquals("/root", rootNode.getPath());
+        this.assertContent(repository.getRepository().login(), data);
+    }
+
+    @Test
+    public void testExportAndLoadContent_compressed() throws Exception {
+        // prepare
+        final byte[] data = this.createContent();
+        final File export = new File(folder.getRoot(), "content.sysview.xml.gz");
+        // act
+        subject.exportContent(repository.getAdminSession(), "/root", export);
+        this.removeContent();
+        final Node rootNode = subject.loadContent(repository.getAdminSession(), export.toURI().toURL());
+        // assert
+        try (InputStream is = new GZIPInputStream(new FileInputStream(export))) {
+            assertTrue(IOUtils.toString(is, "UTF-8").startsWith("<?xml"));
+        }
+        assertEquals("/root", rootNode.getPath());
+        this.assertContent(repository.getRepository().login(), data);
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testLoadContent_existingIdentifier() throws Exception {
+        // prepare
+        this.createContent();
+        final File export = new File(folder.getRoot(), "content.sysview.xml");
+        subject.exportContent(repository.getAdminSession(), "/root", export);
+        repository.getAdminSession().move("/root", "/moved");
+        repository.getAdminSession().save();
+        // act
+        subject.loadContent(repository.getAdminSession(), export.toURI().toURL());
+    }
+
+    private byte[] createContent() throws Exception {
+
+        final byte[] data = new byte[100 * 1024];
+        new Random(42).nextBytes(data);
+        final Session session = repository.getAdminSession();
+        final Node root = session.getRootNode().addNode("root", "nt:unstructured");
+        root.addMixin("mix:title");
+        root.setProperty("jcr:title", "TestTitle");
+        final Node target = root.addNode("target", "nt:unstructured");
+        target.addMixin("mix:referenceable");
+        final Node source = root.addNode("source", "nt:unstructured");
+        source.setProperty("ref", target);
+        final Binary binary = session.getValueFactory().createBinary(new ByteArrayInputStream(data));
+        source.setProperty("data", binary);
+        session.save();
+        return data;
+    }
+
+    private void removeContent() throws Exception {
+
+        final Session session = repository.getAdminSession();
+        session.getNode("/root").remove();
+        session.save();
+    }
+
+    private void assertContent(final Session verifySession, final byte[] data) throws Exception {
+
+        final Node root = verifySession.getNode("/root");
+        assertMixinNodeType(root, "mix:title");
+        assertStringPropertyEquals(root, "jcr:title", "TestTitle");
+        final Node source = verifySession.getNode("/root/source");
+        assertEquals(PropertyType.REFERENCE, source.getProperty("ref").getType());
+        assertEquals("/root/target", source.getProperty("ref").getNode().getPath());
+        try (InputStream is = source.getProperty("data").getBinary().getStream()) {
+            assertArrayEquals(data, IOUtils.toByteArray(is));
+        }
+    }
+}
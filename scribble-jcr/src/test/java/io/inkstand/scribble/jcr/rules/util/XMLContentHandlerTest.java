@@ -17,15 +17,21 @@
 package io.inkstand.scribble.jcr.rules.util;
 
 import static io.inkstand.scribble.jcr.JCRAssert.*;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.Mockito.mock;
 
+import javax.jcr.Binary;
 import javax.jcr.Node;
 import javax.jcr.Session;
+import java.io.InputStream;
+import java.util.Random;
 
 import io.inkstand.scribble.jcr.rules.ContentRepository;
 import io.inkstand.scribble.jcr.rules.InMemoryContentRepository;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -140,6 +146,41 @@ public class XMLContentHandlerTest {
         return attr;
     }
 
+    @Test
+    public void testEventFlow_05_chunkedBinary() throws Exception {
+        // prepare
+        final byte[] data = new byte[100 * 1024];
+        new Random(42).nextBytes(data);
+        final char[] encoded = Base64.encodeBase64String(data).toCharArray();
+
+        // act
+        subject.startDocument();
+        subject.startElement(INKSTAND_IMPORT_NAMESPACE,
+                             ROOT_NODE,
+                             INK_ROOT_NODE,
+                             createAttributes("name", "root", "primaryType", "nt:unstructured"));
+        subject.startElement(INKSTAND_IMPORT_NAMESPACE,
+                             PROPERTY,
+                             INK_PROPERTY,
+                             createAttributes("name", "data", "jcrType", "BINARY"));
+        //the parser may deliver the text in chunks of arbitrary size
+        for (int i = 0; i < encoded.length; i += 1000) {
+            subject.characters(encoded, i, Math.min(1000, encoded.length - i));
+        }
+        subject.endElement(INKSTAND_IMPORT_NAMESPACE, PROPERTY, INK_PROPERTY);
+        subject.endElement(INKSTAND_IMPORT_NAMESPACE, ROOT_NODE, INK_ROOT_NODE);
+        subject.endDocument();
+
+        // assert
+        final Session session = repository.getAdminSession();
+        final Binary binary = session.getNode("/root").getProperty("data").getBinary();
+        try (InputStream is = binary.getStream()) {
+            assertArrayEquals(data, IOUtils.toByteArray(is));
+        } finally {
+            binary.dispose();
+        }
+    }
+
     @Test
     public void testEventFlow_01_ignoredNamespace() throws Exception {
         // act
@@ -22,8 +22,11 @@ import static io.inkstand.scribble.jcr.JCRAssert.assertPrimaryNodeType;
 import static io.inkstand.scribble.jcr.JCRAssert.assertStringPropertyEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
+import javax.jcr.Binary;
 import javax.jcr.Node;
+import javax.jcr.PropertyType;
 import javax.jcr.Session;
 import javax.xml.XMLConstants;
 import javax.xml.validation.Schema;
@@ -35,6 +38,7 @@ import java.io.InputStream;
 import java.io.StringWriter;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
 
 import io.inkstand.scribble.jcr.rules.ContentRepository;
 import io.inkstand.scribble.jcr.rules.InMemoryContentRepository;
@@ -97,6 +101,147 @@ public class XMLContentLoaderTest {
         assertStringPropertyEquals(root, "jcr:title", "TestTitle");
     }
 
+    @Test
+    public void testLoadContent_parallel_subtrees() throws Exception {
+        // prepare
+        final URL resource = getClass().getResource("XMLContentLoaderTest_inkstandJcrImport_v1-0_subtrees.xml");
+        final Session actSession = repository.getAdminSession();
+        // act
+        subject.setParallelism(3);
+        Node rootNode = subject.loadContent(actSession, resource, new Callable<Session>() {
+
+            @Override
+            public Session call() throws Exception {
+
+                return repository.login("admin", "admin");
+            }
+        }, new XMLContentLoader.SessionRelease() {
+
+            @Override
+            public void release(final Session session) {
+
+                repository.release(session);
+            }
+        });
+        // assert
+        assertNotNull(rootNode);
+        final Session verifySession = repository.getRepository().login();
+        assertStringPropertyEquals(verifySession.getNode("/root"), "jcr:title", "TestTitle");
+        assertStringPropertyEquals(verifySession.getNode("/root/first"), "jcr:title", "First");
+        assertStringPropertyEquals(verifySession.getNode("/root/first/child"), "myProperty", "FirstChild");
+        assertStringPropertyEquals(verifySession.getNode("/root/second"), "jcr:title", "Second");
+        assertStringPropertyEquals(verifySession.getNode("/root/second/child"), "myProperty", "SecondChild");
+        assertStringPropertyEquals(verifySession.getNode("/root/third"), "jcr:title", "Third");
+        assertStringPropertyEquals(verifySession.getNode("/root/third/child"), "myProperty", "ThirdChild");
+    }
+
+    @Test
+    public void testLoadContent_parallel_workerSessionsReleased() throws Exception {
+        // prepare
+        final URL resource = getClass().getResource("XMLContentLoaderTest_inkstandJcrImport_v1-0_subtrees.xml");
+        final Session actSession = repository.getAdminSession();
+        final SessionPool pool = new SessionPool(repository.getRepository(), 3, 60000);
+        // act
+        subject.setParallelism(3);
+        try {
+            subject.loadContent(actSession, resource, new Callable<Session>() {
+
+                @Override
+                public Session call() throws Exception {
+
+                    return pool.lease("admin", "admin");
+                }
+            }, new XMLContentLoader.SessionRelease() {
+
+                @Override
+                public void release(final Session session) {
+
+                    pool.release(session);
+                }
+            });
+            // assert
+            assertEquals(3, pool.getLoginCount() + pool.getReuseCount());
+            assertEquals(pool.getLoginCount(), pool.getIdleCount());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testLoadContent_binaryProperties() throws Exception {
+        // prepare
+        final URL resource = getClass().getResource("XMLContentLoaderTest_inkstandJcrImport_v1-0_binary.xml");
+        final Session actSession = repository.getAdminSession();
+        // act
+        subject.loadContent(actSession, resource);
+        // assert
+        final Session verifySession = repository.getRepository().login();
+        final Node root = verifySession.getNode("/root");
+        assertStringPropertyEquals(root, "jcr:title", "Referenced Content");
+        assertEquals("Inline Content", readBinary(root, "inline"));
+        assertEquals("Referenced Content", readBinary(root, "relativeRef"));
+        assertEquals("Referenced Content", readBinary(root, "classpathRef"));
+    }
+
+    private String readBinary(final Node node, final String propertyName) throws Exception {
+
+        final Binary binary = node.getProperty(propertyName).getBinary();
+        try (InputStream is = binary.getStream()) {
+            return IOUtils.toString(is, Charset.forName("UTF-8"));
+        } finally {
+            binary.dispose();
+        }
+    }
+
+    @Test
+    public void testLoadContent_references() throws Exception {
+        // prepare
+        final URL resource = getClass().getResource("XMLContentLoaderTest_inkstandJcrImport_v1-0_references.xml");
+        final Session actSession = repository.getAdminSession();
+        // act
+        subject.loadContent(actSession, resource);
+        // assert
+        assertReferences(repository.getRepository().login());
+    }
+
+    @Test
+    public void testLoadContent_parallel_references() throws Exception {
+        // prepare
+        final URL resource = getClass().getResource("XMLContentLoaderTest_inkstandJcrImport_v1-0_references.xml");
+        final Session actSession = repository.getAdminSession();
+        // act
+        subject.setParallelism(2);
+        subject.loadContent(actSession, resource, new Callable<Session>() {
+
+            @Override
+            public Session call() throws Exception {
+
+                return repository.login("admin", "admin");
+            }
+        }, new XMLContentLoader.SessionRelease() {
+
+            @Override
+            public void release(final Session session) {
+
+                repository.release(session);
+            }
+        });
+        // assert
+        assertReferences(repository.getRepository().login());
+    }
+
+    private void assertReferences(final Session verifySession) throws Exception {
+
+        final Node source = verifySession.getNode("/root/source");
+        final Node target = verifySession.getNode("/root/target");
+        assertEquals(PropertyType.REFERENCE, source.getProperty("idRef").getType());
+        assertEquals(target.getIdentifier(), source.getProperty("idRef").getNode().getIdentifier());
+        assertEquals(PropertyType.WEAKREFERENCE, source.getProperty("weakIdRef").getType());
+        assertEquals(target.getIdentifier(), source.getProperty("weakIdRef").getNode().getIdentifier());
+        assertEquals(PropertyType.REFERENCE, source.getProperty("pathRef").getType());
+        assertEquals(target.getIdentifier(), source.getProperty("pathRef").getNode().getIdentifier());
+    }
+
     @Test
     public void testLoadContent_validating_validResource() throws Exception {
         // prepare
@@ -131,6 +276,55 @@ public class XMLContentLoaderTest {
         subject.loadContent(actSession, resource);
     }
 
+    @Test
+    public void testLoadContent_validatingWithImportSchema_validResource() throws Exception {
+        // prepare
+        final URL resource = getClass().getResource("XMLContentLoaderTest_inkstandJcrImport_v1-0.xml");
+        final Session actSession = repository.getAdminSession();
+        // act
+        subject.setValidating(true);
+        Node rootNode = subject.loadContent(actSession, resource);
+        // assert
+        assertNotNull(rootNode);
+        assertStringPropertyEquals(rootNode, "jcr:title", "TestTitle");
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testLoadContent_validatingWithImportSchema_invalidResource() throws Exception {
+        // prepare
+        final URL resource = getClass().getResource("XMLContentLoaderTest_inkstandJcrImport_v1-0_invalid.xml");
+        final Session actSession = repository.getAdminSession();
+        // act
+        subject.setValidating(true);
+        subject.loadContent(actSession, resource);
+    }
+
+    @Test
+    public void testGetImportSchema_compiledOnce() throws Exception {
+        // act
+        final Schema schema = XMLContentLoader.getImportSchema();
+        // assert
+        assertNotNull(schema);
+        assertSame(schema, XMLContentLoader.getImportSchema());
+    }
+
+    @Test
+    public void testLoadContent_repeatedLoads() throws Exception {
+        // prepare
+        final URL resource = getClass().getResource("XMLContentLoaderTest_inkstandJcrImport_v1-0.xml");
+        final Session actSession = repository.getAdminSession();
+        subject.setValidating(true);
+        // act
+        final Node first = subject.loadContent(actSession, resource);
+        first.remove();
+        actSession.save();
+        final XMLContentLoader other = new XMLContentLoader();
+        other.setValidating(true);
+        final Node second = other.loadContent(actSession, resource);
+        // assert
+        assertStringPropertyEquals(second, "jcr:title", "TestTitle");
+    }
+
     /**
      * This tests implements an exploit to the XML External Entity Attack {@see http://www.ws-attacks.org/index.php/XML_Entity_Reference_Attack}.
      * The attack targets a file in the filesystem containing a secret, i.e. a password, configurations, etc. The
@@ -19,29 +19,40 @@ package io.inkstand.scribble.rules.ldap;
 import static org.slf4j.LoggerFactory.getLogger;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStreamWriter;
+import java.io.InputStreamReader;
 import java.io.Writer;
 import java.net.URI;
 import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.io.Charsets;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.CacheService;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.DnFactory;
 import org.apache.directory.server.core.api.InstanceLayout;
+import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.partition.Partition;
-import org.apache.directory.server.core.factory.DefaultDirectoryServiceFactory;
 import org.apache.directory.server.core.factory.DirectoryServiceFactory;
 import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
-import org.apache.directory.server.protocol.shared.store.LdifFileLoader;
 import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
 import org.junit.rules.TemporaryFolder;
 import org.slf4j.Logger;
@@ -59,11 +70,21 @@ public class Directory extends ExternalResource<TemporaryFolder> {
 
     private static final Logger LOG = getLogger(Directory.class);
 
+    /**
+     * Default number of entries cached by a partition.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /**
+     * The shared directory services by the settings they were set up with.
+     */
+    private static final Map<String, DirectoryService> SHARED_SERVICES = new HashMap<>();
+
 
     /**
      * Map of partitions that should be created on directory initialization.
      */
-    private transient final Map<String, String> partitions;
+    private transient final Map<String, PartitionConfig> partitions;
 
     /**
      * The directory services provided and managed by this rule.
@@ -90,6 +111,37 @@ public class Directory extends ExternalResource<TemporaryFolder> {
      */
     private transient URL initialLdif;
 
+    /**
+     * Flag to indicate that a JVM-wide directory service is shared by all rules with the same configuration.
+     */
+    private transient boolean sharedService;
+
+    /**
+     * The revision of the change log of the shared service when the rule was applied.
+     */
+    private transient long revision;
+
+    /**
+     * Number of entries added from an ldif stream after which the progress of the import is logged.
+     */
+    private transient int importProgressInterval = 1000;
+
+    /**
+     * Generator of a synthetic population of users and groups that is added after the initial ldif.
+     */
+    private transient PopulationGenerator populationGenerator;
+
+    /**
+     * Number of entries added to the directory by all ldif imports.
+     */
+    private final AtomicLong importedEntries = new AtomicLong();
+
+    /**
+     * Number of entries of all ldif imports that were skipped because they already existed or are change records
+     * other than add.
+     */
+    private final AtomicLong skippedEntries = new AtomicLong();
+
     public Directory(final TemporaryFolder folder) {
 
         super(folder);
@@ -111,20 +163,44 @@ public class Directory extends ExternalResource<TemporaryFolder> {
     @Override
     protected void before() throws Throwable {
 
-        setupService();
-        startService();
+        if (this.sharedService) {
+            this.revision = this.getDirectoryService().getChangeLog().getCurrentRevision();
+        } else {
+            setupService();
+            startService();
+        }
     }
 
     @Override
     protected void after() {
 
         try {
-            tearDownService();
+            if (this.sharedService) {
+                revertService();
+            } else {
+                tearDownService();
+            }
         } catch (Exception e) {
             throw new AssertionError("Error tearing down the directoy", e);
         }
     }
 
+    /**
+     * Reverts all changes made to the shared directory service since the rule was applied.
+     *
+     * @throws Exception
+     *         if the changes could not be reverted
+     */
+    protected void revertService() throws Exception { // NOSONAR
+
+        final DirectoryService service = this.getDirectoryService();
+        final ChangeLog changeLog = service.getChangeLog();
+        if (changeLog.isEnabled() && this.revision < changeLog.getCurrentRevision()) {
+            LOG.debug("Reverting directory from revision {} to {}", changeLog.getCurrentRevision(), this.revision);
+            service.revert(this.revision);
+        }
+    }
+
     /**
      * Shuts down the directory service.
      *
@@ -145,7 +221,11 @@ public class Directory extends ExternalResource<TemporaryFolder> {
     public DirectoryService getDirectoryService() {
 
         if (this.directoryService == null) {
-            this.directoryService = this.createDirectoryService();
+            if (this.sharedService) {
+                this.acquireSharedService();
+            } else {
+                this.directoryService = this.createDirectoryService("scribble", false);
+            }
         }
 
         return this.directoryService;
@@ -155,11 +235,13 @@ public class Directory extends ExternalResource<TemporaryFolder> {
      * Creates a new DirectoryService instance for the test rule. Initialization of the service is done in the
      * apply Statement phase by invoking the setupService method.
      */
-    private DirectoryService createDirectoryService() {
+    private DirectoryService createDirectoryService(final String instanceId, final boolean changeLogEnabled) {
 
-        final DirectoryServiceFactory factory = new DefaultDirectoryServiceFactory();
+        final DirectoryServiceFactory factory = new SchemaCachingDirectoryServiceFactory();
         try {
-            factory.init("scribble");
+            //the change log has to be enabled before the factory starts the service
+            factory.getDirectoryService().getChangeLog().setEnabled(changeLogEnabled);
+            factory.init(instanceId);
             return factory.getDirectoryService();
         } catch (Exception e) { //NOSONAR
 
@@ -167,6 +249,76 @@ public class Directory extends ExternalResource<TemporaryFolder> {
         }
     }
 
+    /**
+     * Uses the shared directory service of the configuration of this rule. If no such service exists, it is created,
+     * set up and started. The service is shut down when the JVM exits.
+     */
+    private void acquireSharedService() {
+
+        final String key = this.getSharedServiceKey();
+        synchronized (SHARED_SERVICES) {
+            this.directoryService = SHARED_SERVICES.get(key);
+            if (this.directoryService != null) {
+                return;
+            }
+            final String instanceId = "scribble-" + sha1Hex(key.getBytes(Charsets.UTF_8));
+            LOG.info("Creating shared directory service {}", instanceId);
+            //the change log is initialized when the service is started, and is disabled while the service is set up
+            this.directoryService = this.createDirectoryService(instanceId, true);
+            try {
+                this.setupService();
+                this.startService();
+            } catch (Exception e) { //NOSONAR
+                final DirectoryService service = this.directoryService;
+                this.directoryService = null;
+                shutdownQuietly(service);
+                deleteQuietly(this.workDir);
+                throw new AssertionError("Unable to set up shared directory service", e);
+            }
+            //only the changes made by the tests are recorded and reverted
+            this.directoryService.getChangeLog().setEnabled(true);
+            SHARED_SERVICES.put(key, this.directoryService);
+            final DirectoryService service = this.directoryService;
+            final File serviceWorkDir = this.workDir;
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+
+                @Override
+                public void run() {
+
+                    shutdownQuietly(service);
+                    deleteQuietly(serviceWorkDir);
+                }
+            });
+        }
+    }
+
+    private static void shutdownQuietly(final DirectoryService service) {
+
+        try {
+            service.shutdown();
+        } catch (Exception e) { //NOSONAR
+            LOG.warn("Could not shut down directory service", e);
+        }
+    }
+
+    private static void deleteQuietly(final File dir) {
+
+        if (dir != null && !FileUtils.deleteQuietly(dir)) {
+            LOG.warn("Could not delete working directory {}", dir);
+        }
+    }
+
+    /**
+     * The key of the shared directory service consists of all settings that are applied when the service is set up:
+     * the partitions with their suffix, cache size, sync policy and indices, the initial ldif, the access settings and
+     * the settings of the population generator.
+     */
+    private String getSharedServiceKey() {
+
+        return new TreeMap<>(this.partitions) + "|" + this.initialLdif + "|ac=" + this.acEnabled + "|anonymous="
+                + this.anonymousAllowed + "|" + this.populationGenerator;
+    }
+
     /**
      * Applies the configuration to the service such as AccessControl and AnonymousAccess. Both are enabled as
      * configured. Further, the method initializes the cache service. The method does not start the service.
@@ -177,9 +329,14 @@ public class Directory extends ExternalResource<TemporaryFolder> {
     protected void setupService() throws Exception { // NOSONAR
 
         final DirectoryService service = this.getDirectoryService();
+        //the initial content is not recorded in the change log, so it is never reverted
         service.getChangeLog().setEnabled(false);
-
-        this.workDir = getOuterRule().newFolder("dsworkdir");
+        if (this.sharedService) {
+            //the shared service outlives the temporary folder of the test
+            this.workDir = Files.createTempDirectory("scribble-ds").toFile();
+        } else {
+            this.workDir = getOuterRule().newFolder("dsworkdir");
+        }
 
         service.setInstanceLayout(new InstanceLayout(this.workDir));
         final CacheService cacheService = new CacheService();
@@ -191,6 +348,9 @@ public class Directory extends ExternalResource<TemporaryFolder> {
 
         this.createPartitions();
         this.importInitialLdif();
+        if (this.populationGenerator != null) {
+            this.populationGenerator.generate(service);
+        }
     }
 
     /**
@@ -220,15 +380,33 @@ public class Directory extends ExternalResource<TemporaryFolder> {
         }
     }
 
+    private static String sha1Hex(final byte[] data) {
+
+        try {
+            final StringBuilder buf = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(data)) {
+                buf.append(String.format("%02x", b));
+            }
+            return buf.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not supported", e);
+        }
+    }
+
     /**
      * Creates all paritions that are added on rule setup.
      *
      */
     private void createPartitions() {
 
-        for (Map.Entry<String, String> partitionEntry : this.partitions.entrySet()) {
+        for (Map.Entry<String, PartitionConfig> partitionEntry : this.partitions.entrySet()) {
+            final PartitionConfig config = partitionEntry.getValue();
             try {
-                this.addPartitionInternal(partitionEntry.getKey(), partitionEntry.getValue());
+                this.addPartitionInternal(partitionEntry.getKey(),
+                                          config.suffix,
+                                          config.cacheSize,
+                                          config.syncOnWrite,
+                                          config.indexAttributes);
             } catch (Exception e) { //NOSONAR
                 throw new AssertionError("Could not create partitions " + this.partitions, e);
             }
@@ -263,6 +441,35 @@ public class Directory extends ExternalResource<TemporaryFolder> {
      */
     protected void addPartitionInternal(final String partitionId, final String suffix) throws Exception { //NOSONAR
 
+        this.addPartitionInternal(partitionId, suffix, DEFAULT_CACHE_SIZE, true);
+    }
+
+    /**
+     * Creates a new partition with the specified cache size, sync policy and indices and adds it to the directory
+     * service. An index on the objectClass attribute is always created. Indices on the attributes used in search
+     * filters, such as uid, mail or member, avoid scanning the entire partition on search. Disabling sync on write
+     * avoids flushing the partition on every modification, which is sufficient for the in-memory partitions of a test.
+     *
+     * @param partitionId
+     *         the id of the partition
+     * @param suffix
+     *         the suffix dn of all partition entries
+     * @param cacheSize
+     *         the number of entries cached by the partition
+     * @param syncOnWrite
+     *         <code>true</code> if the partition should be synced on every write
+     * @param indexAttributes
+     *         the attributes to create an index for
+     *
+     * @throws Exception
+     *         if the partition could not be created
+     */
+    protected void addPartitionInternal(final String partitionId,
+                                        final String suffix,
+                                        final int cacheSize,
+                                        final boolean syncOnWrite,
+                                        final String... indexAttributes) throws Exception { //NOSONAR
+
         final DirectoryService service = this.getDirectoryService();
 
         final CacheService cacheService = service.getCacheService();
@@ -274,12 +481,17 @@ public class Directory extends ExternalResource<TemporaryFolder> {
         partition.setId(partitionId);
         partition.setSuffixDn(dnFactory.create(suffix));
         partition.setCacheService(cacheService);
-        partition.setCacheSize(1000);
-        partition.setSyncOnWrite(true);
+        partition.setCacheSize(cacheSize);
+        partition.setSyncOnWrite(syncOnWrite);
         partition.setPartitionPath(partitionPath);
-        partition.addIndex(new AvlIndex<Entry>("objectClass", false));
+        final Set<String> indices = new LinkedHashSet<>();
+        indices.add("objectClass");
+        indices.addAll(Arrays.asList(indexAttributes));
+        for (String attribute : indices) {
+            partition.addIndex(new AvlIndex<Entry>(attribute, false));
+        }
         partition.initialize();
-        LOG.info("Created partition {} in {}", partitionId, partitionPath);
+        LOG.info("Created partition {} in {} with indices {}", partitionId, partitionPath, indices);
         service.addPartition(partition);
     }
 
@@ -312,27 +524,150 @@ public class Directory extends ExternalResource<TemporaryFolder> {
     }
 
     /**
-     * Imports directory content that is defined in LDIF format and provided as input stream. The method writes the
-     * stream content into a temporary file.
+     * Imports directory content that is defined in LDIF format and provided as input stream. Each entry is added to
+     * the directory as soon as it is read from the stream, without copying the stream or buffering entries. Entries
+     * that already exist are skipped. The progress of the import is logged periodically and is available from {@link
+     * #getImportedEntries()} and {@link #getSkippedEntries()}.
      *
      * @param ldifData
      *         the ldif data to import as a stream
      *
      * @throws IOException
-     *         if the temporary file can not be created
+     *         if the ldif data could not be read or parsed or an entry could not be added
      */
     public void importLdif(InputStream ldifData) throws IOException {
 
-        final File ldifFile = getOuterRule().newFile("scribble_import.ldif");
-        try (final Writer writer = new OutputStreamWriter(new FileOutputStream(ldifFile), Charsets.UTF_8)) {
+        final DirectoryService service = this.getDirectoryService();
+        final CoreSession session = service.getAdminSession();
+        final SchemaManager schemaManager = service.getSchemaManager();
+        final long start = System.nanoTime();
+        final long importedBefore = this.importedEntries.get();
+        try (LdifReader reader = new LdifReader(new InputStreamReader(ldifData, Charsets.UTF_8))) {
+            for (LdifEntry ldifEntry : reader) {
+                this.addEntry(session, schemaManager, ldifEntry);
+            }
+            if (reader.hasError()) {
+                throw new IOException("Could not parse ldif data", reader.getError());
+            }
+        } catch (LdapException e) {
+            throw new IOException("Could not import ldif data", e);
+        }
+        LOG.info("Imported {} entries in {} ms",
+                 this.importedEntries.get() - importedBefore,
+                 TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Adds an ldif entry to the directory. Change records other than add are not supported and skipped.
+     */
+    private void addEntry(final CoreSession session, final SchemaManager schemaManager, final LdifEntry ldifEntry)
+            throws LdapException {
+
+        if ((ldifEntry.isEntry() || ldifEntry.isChangeAdd()) && !session.exists(ldifEntry.getDn())) {
+            session.add(new DefaultEntry(schemaManager, ldifEntry.getEntry()));
+            this.importedEntries.incrementAndGet();
+        } else {
+            LOG.debug("Skipping entry {}", ldifEntry.getDn());
+            this.skippedEntries.incrementAndGet();
+        }
+        final long processed = this.importedEntries.get() + this.skippedEntries.get();
+        if (processed % this.importProgressInterval == 0) {
+            LOG.info("Imported {} entries, skipped {}", this.importedEntries.get(), this.skippedEntries.get());
+        }
+    }
+
+    /**
+     * Exports the entries of a subtree or partition as LDIF in a deterministic order. The export is streamed to the
+     * writer, so large directories can be exported without loading them into memory. An export can be used as
+     * expected LDIF for the {@link LdifMatcher}.
+     *
+     * @param baseDn
+     *         the DN of the root entry of the subtree or partition to export
+     * @param writer
+     *         the writer to write the LDIF to. The writer is not closed
+     *
+     * @return the number of exported entries
+     *
+     * @throws IOException
+     *         if the entries could not be read or written
+     * @see LdifExporter
+     */
+    public long exportLdif(final String baseDn, final Writer writer) throws IOException {
+
+        return new LdifExporter(this.getDirectoryService()).export(baseDn, writer);
+    }
+
+    /**
+     * Sets the generator of a synthetic population of users and groups. The population is generated after the
+     * initial ldif has been imported, so the ldif has to contain the base entry of the population.
+     *
+     * @param populationGenerator
+     *         the generator of the population
+     */
+    @RuleSetup
+    public void setPopulationGenerator(final PopulationGenerator populationGenerator) {
+
+        this.populationGenerator = populationGenerator;
+    }
+
+    /**
+     * @return the generator of the synthetic population or <code>null</code> if none is set
+     */
+    public PopulationGenerator getPopulationGenerator() {
+
+        return this.populationGenerator;
+    }
+
+    /**
+     * Enables the use of a directory service that is shared by all rules with the same partitions, initial ldif and
+     * access settings in the JVM, i.e. in all test classes of a module. The shared service is created and set up by
+     * the first rule and shut down when the JVM exits. To keep tests independent, the change log of the shared
+     * service is enabled after the service has been set up and all changes made while a rule is applied are reverted
+     * afterwards. As the change log records the changes of all rules using the service, the revert is not safe if
+     * tests using the same shared service run concurrently, i.e. test classes executed in parallel in the same JVM,
+     * as the changes of the other tests are reverted as well. Default is false.
+     *
+     * @param sharedService
+     *         <code>true</code> to use a shared directory service
+     */
+    @RuleSetup
+    public void setSharedService(final boolean sharedService) {
+
+        this.sharedService = sharedService;
+    }
+
+    /**
+     * Sets the number of entries added from an ldif stream after which the progress of the import is logged. Default
+     * is 1000.
+     *
+     * @param importProgressInterval
+     *         the number of entries between two progress messages, must be greater than 0
+     */
+    @RuleSetup
+    public void setImportProgressInterval(final int importProgressInterval) {
 
-            IOUtils.copy(ldifData, writer);
+        if (importProgressInterval <= 0) {
+            throw new IllegalArgumentException("Import progress interval must be greater than 0, was "
+                                                       + importProgressInterval);
         }
-        final String pathToLdifFile = ldifFile.getAbsolutePath();
-        final CoreSession session = this.getDirectoryService().getAdminSession();
-        final LdifFileLoader loader = new LdifFileLoader(session, pathToLdifFile);
-        loader.execute();
+        this.importProgressInterval = importProgressInterval;
+    }
+
+    /**
+     * @return the number of entries added to the directory by all ldif imports so far
+     */
+    public long getImportedEntries() {
+
+        return this.importedEntries.get();
+    }
+
+    /**
+     * @return the number of entries of all ldif imports so far that were skipped, because they already existed or
+     * are change records other than add
+     */
+    public long getSkippedEntries() {
 
+        return this.skippedEntries.get();
     }
 
     /**
@@ -371,7 +706,61 @@ public class Directory extends ExternalResource<TemporaryFolder> {
     @RuleSetup
     public void addPartition(String partitionId, String suffix) {
 
-        this.partitions.put(partitionId, suffix);
+        this.addPartition(partitionId, suffix, DEFAULT_CACHE_SIZE, true);
+    }
+
+    /**
+     * Adds a partition with the specified cache size, sync policy and indices to the rule. The actual partition is
+     * created when the rule is applied. An index on the objectClass attribute is always created.
+     *
+     * @param partitionId
+     *         the id of the partition
+     * @param suffix
+     *         the suffix of the partition
+     * @param cacheSize
+     *         the number of entries cached by the partition
+     * @param syncOnWrite
+     *         <code>true</code> if the partition should be synced on every write
+     * @param indexAttributes
+     *         the attributes to create an index for, i.e. uid, mail or member
+     */
+    @RuleSetup
+    public void addPartition(String partitionId,
+                             String suffix,
+                             int cacheSize,
+                             boolean syncOnWrite,
+                             String... indexAttributes) {
+
+        this.partitions.put(partitionId, new PartitionConfig(suffix, cacheSize, syncOnWrite, indexAttributes));
+    }
+
+    /**
+     * The settings of a partition that is created on directory initialization.
+     */
+    private static final class PartitionConfig {
+
+        private final String suffix;
+        private final int cacheSize;
+        private final boolean syncOnWrite;
+        private final String[] indexAttributes;
+
+        PartitionConfig(final String suffix,
+                        final int cacheSize,
+                        final boolean syncOnWrite,
+                        final String... indexAttributes) {
+
+            this.suffix = suffix;
+            this.cacheSize = cacheSize;
+            this.syncOnWrite = syncOnWrite;
+            this.indexAttributes = indexAttributes.clone();
+        }
+
+        @Override
+        public String toString() {
+
+            return this.suffix + "{cacheSize=" + this.cacheSize + ", syncOnWrite=" + this.syncOnWrite + ", indices="
+                    + Arrays.toString(this.indexAttributes) + '}';
+        }
     }
 
 }
@@ -16,9 +16,17 @@
 
 package io.inkstand.scribble.rules.ldap;
 
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.ldap.replication.SyncReplConfiguration;
+import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumer;
+import org.apache.directory.server.ldap.replication.consumer.ReplicationConsumerImpl;
+import org.apache.directory.server.ldap.replication.provider.SyncReplRequestHandler;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.directory.server.protocol.shared.transport.Transport;
 import org.junit.rules.TestRule;
 
 import io.inkstand.scribble.net.NetworkUtils;
@@ -28,7 +36,13 @@ import io.inkstand.scribble.rules.RuleSetup;
 /**
  * The directory server provides an LDAP service as a {@link TestRule}. It requires a {@link Directory} test rule that
  * contains the LDAP service's content. The server may be configured regarding port and listen address. If neither is
- * configured, it listens on localhost:10389
+ * configured, it listens on localhost:10389. For load tests, the backlog and number of I/O threads of the transport
+ * as well as the size and time limits of searches may be tuned. Optionally, the server accepts LDAPS connections on a
+ * second port, using the self-signed certificate the directory service generates for its admin entry. With metrics
+ * enabled, a {@link MetricsInterceptor} records the operations processed by the directory service while the server
+ * is running. With fault injection enabled, a {@link FaultInjector} may delay or fail requests or drop connections to
+ * test the behavior of clients. The server may provide its content for syncrepl replication or replicate the content
+ * of another server, see {@link DirectoryTopology}.
  */
 public class DirectoryServer extends ExternalResource<Directory> {
 
@@ -52,6 +66,87 @@ public class DirectoryServer extends ExternalResource<Directory> {
      */
     private transient boolean autoBind;
 
+    /**
+     * The maximum number of pending connections of the transports, -1 for the default of ApacheDS.
+     */
+    private transient int backlog = -1;
+
+    /**
+     * The number of I/O processor threads of the transports, -1 for the default of ApacheDS.
+     */
+    private transient int nbThreads = -1;
+
+    /**
+     * The maximum number of entries returned by a search, 0 for no limit or -1 for the default of ApacheDS.
+     */
+    private transient long maxSizeLimit = -1;
+
+    /**
+     * The maximum duration of a search in seconds, 0 for no limit or -1 for the default of ApacheDS.
+     */
+    private transient int maxTimeLimit = -1;
+
+    /**
+     * Flag indicating the server accepts LDAPS connections.
+     */
+    private transient boolean ldapsEnabled;
+
+    /**
+     * The tcp port the server will accept LDAPS connections.
+     */
+    private transient int ldapsPort = 10636;
+
+    /**
+     * Flag indicating the operations of the directory service should be recorded.
+     */
+    private transient boolean metricsEnabled;
+
+    /**
+     * The maximum number of operations in the slow operation log of the metrics.
+     */
+    private transient int slowLogSize = 10;
+
+    /**
+     * The interceptor recording the operations of the last server start.
+     */
+    private transient MetricsInterceptor metrics;
+
+    /**
+     * Flag indicating a fault injector should be installed on the transports.
+     */
+    private transient boolean faultInjectionEnabled;
+
+    /**
+     * The fault injector of the last server start.
+     */
+    private transient FaultInjector faultInjector;
+
+    /**
+     * Flag indicating the server provides its content for syncrepl replication.
+     */
+    private transient boolean replicationProvider;
+
+    /**
+     * The server whose content is replicated by this server.
+     */
+    private transient DirectoryServer replicationSource;
+
+    /**
+     * The DN of the replicated content.
+     */
+    private transient String replicationBaseDn;
+
+    /**
+     * The id of this server as consumer of the replication source.
+     */
+    private transient int replicaId;
+
+    /**
+     * The interval in milliseconds in which the replicated content is refreshed, 0 if the changes are pushed by the
+     * replication source immediately.
+     */
+    private transient long refreshInterval;
+
     public DirectoryServer(final Directory directory) {
 
         super(directory);
@@ -88,12 +183,19 @@ public class DirectoryServer extends ExternalResource<Directory> {
     protected void shutdownServer() {
 
         this.ldapServer.stop();
-
+        if (this.faultInjector != null) {
+            this.faultInjector.shutdown();
+        }
+        if (this.metrics != null) {
+            getOuterRule().getDirectoryService().remove(MetricsInterceptor.NAME);
+        }
     }
 
     /**
      * Starts the server on the configured listen address and tcp port (default localhost:10389) and assigns the {@link
-     * DirectoryService} provided by the {@link Directory} rule to it.
+     * DirectoryService} provided by the {@link Directory} rule to it. If LDAPS is enabled, the server additionally
+     * accepts SSL connections on the LDAPS port. As no keystore is configured, the server uses the self-signed
+     * certificate stored in the admin entry of the directory service.
      *
      * @throws Exception
      *  if the server could not be started for various reasons, i.e. the directory service is not initialized or
@@ -103,12 +205,99 @@ public class DirectoryServer extends ExternalResource<Directory> {
 
         if (this.autoBind) {
             this.setTcpPort(NetworkUtils.findAvailablePort());
+            if (this.ldapsEnabled) {
+                this.setLdapsPort(NetworkUtils.findAvailablePort());
+            }
+        }
+
+        if (this.metricsEnabled) {
+            this.metrics = new MetricsInterceptor(this.slowLogSize);
+            getOuterRule().getDirectoryService().addFirst(this.metrics);
         }
 
         this.ldapServer = new LdapServer();
         this.ldapServer.setDirectoryService(getOuterRule().getDirectoryService());
-        this.ldapServer.setTransports(new TcpTransport(this.getTcpPort()));
+        if (this.ldapsEnabled) {
+            final TcpTransport ldaps = createTransport(this.getLdapsPort());
+            ldaps.setEnableSSL(true);
+            this.ldapServer.setTransports(createTransport(this.getTcpPort()), ldaps);
+        } else {
+            this.ldapServer.setTransports(createTransport(this.getTcpPort()));
+        }
+        if (this.maxSizeLimit != -1) {
+            this.ldapServer.setMaxSizeLimit(this.maxSizeLimit);
+        }
+        if (this.maxTimeLimit != -1) {
+            this.ldapServer.setMaxTimeLimit(this.maxTimeLimit);
+        }
+        if (this.replicationProvider) {
+            this.ldapServer.setReplicationReqHandler(new SyncReplRequestHandler());
+        }
+        if (this.replicationSource != null) {
+            this.ldapServer.setReplConsumers(
+                    Collections.<ReplicationConsumer>singletonList(this.createReplicationConsumer()));
+        }
         this.ldapServer.start();
+        if (this.faultInjectionEnabled) {
+            this.faultInjector = new FaultInjector();
+            for (Transport transport : this.ldapServer.getTransports()) {
+                this.faultInjector.install(transport);
+            }
+        }
+    }
+
+    /**
+     * Creates the consumer replicating the content of the replication source. The consumer binds as admin to the
+     * source. If a refresh interval is set, the consumer polls the source for changes in that interval, otherwise the
+     * source pushes the changes immediately.
+     *
+     * @return the replication consumer
+     */
+    private ReplicationConsumer createReplicationConsumer() {
+
+        final SyncReplConfiguration config = new SyncReplConfiguration();
+        config.setRemoteHost(this.replicationSource.getListenAddress() == null
+                             ? "localhost"
+                             : this.replicationSource.getListenAddress());
+        config.setRemotePort(this.replicationSource.getTcpPort());
+        config.setReplUserDn("uid=admin,ou=system");
+        config.setReplUserPassword(Strings.getBytesUtf8("secret"));
+        config.setUseTls(false);
+        config.setBaseDn(this.replicationBaseDn);
+        config.setReplicaId(this.replicaId);
+        if (this.refreshInterval > 0) {
+            config.setRefreshNPersist(false);
+            config.setRefreshInterval(this.refreshInterval);
+        }
+        final ReplicationConsumerImpl consumer = new ReplicationConsumerImpl();
+        consumer.setConfig(config);
+        return consumer;
+    }
+
+    /**
+     * Creates a transport for the specified port on the listen address using the configured backlog and number of
+     * threads.
+     *
+     * @param port
+     *         the port the transport accepts connections
+     *
+     * @return the configured transport
+     */
+    private TcpTransport createTransport(final int port) {
+
+        final TcpTransport transport;
+        if (this.listenAddress == null) {
+            transport = new TcpTransport(port);
+        } else {
+            transport = new TcpTransport(this.listenAddress, port);
+        }
+        if (this.backlog != -1) {
+            transport.setBackLog(this.backlog);
+        }
+        if (this.nbThreads != -1) {
+            transport.setNbThreads(this.nbThreads);
+        }
+        return transport;
     }
 
     /**
@@ -175,6 +364,261 @@ public class DirectoryServer extends ExternalResource<Directory> {
         this.autoBind = autoBind;
     }
 
+    /**
+     * @return the maximum number of pending connections of the transports, -1 if the default of ApacheDS is used.
+     */
+    public int getBacklog() {
+
+        return this.backlog;
+    }
+
+    /**
+     * Sets the maximum number of pending connections of the transports. Connection requests exceeding the backlog are
+     * refused by the operating system. Increase it for tests that open many concurrent connections.
+     * @param backlog
+     *  the maximum number of pending connections
+     */
+    @RuleSetup
+    public void setBacklog(final int backlog) {
+
+        this.backlog = backlog;
+    }
+
+    /**
+     * @return the number of I/O processor threads of the transports, -1 if the default of ApacheDS is used.
+     */
+    public int getNbThreads() {
+
+        return this.nbThreads;
+    }
+
+    /**
+     * Sets the number of I/O processor threads of the transports that read and write the ldap messages.
+     * @param nbThreads
+     *  the number of threads
+     */
+    @RuleSetup
+    public void setNbThreads(final int nbThreads) {
+
+        this.nbThreads = nbThreads;
+    }
+
+    /**
+     * @return the maximum number of entries returned by a search, -1 if the default of ApacheDS is used.
+     */
+    public long getMaxSizeLimit() {
+
+        return this.maxSizeLimit;
+    }
+
+    /**
+     * Sets the maximum number of entries the server returns for a search.
+     * @param maxSizeLimit
+     *  the maximum number of entries, 0 for no limit
+     */
+    @RuleSetup
+    public void setMaxSizeLimit(final long maxSizeLimit) {
+
+        this.maxSizeLimit = maxSizeLimit;
+    }
+
+    /**
+     * @return the maximum duration of a search in seconds, -1 if the default of ApacheDS is used.
+     */
+    public int getMaxTimeLimit() {
+
+        return this.maxTimeLimit;
+    }
+
+    /**
+     * Sets the maximum duration of a search.
+     * @param maxTimeLimit
+     *  the maximum duration in seconds, 0 for no limit
+     */
+    @RuleSetup
+    public void setMaxTimeLimit(final int maxTimeLimit) {
+
+        this.maxTimeLimit = maxTimeLimit;
+    }
+
+    /**
+     * @return <code>true</code> if the server accepts LDAPS connections
+     */
+    public boolean isLdapsEnabled() {
+
+        return this.ldapsEnabled;
+    }
+
+    /**
+     * Enables LDAPS connections on the LDAPS port. The server uses the self-signed certificate of the directory
+     * service, so clients have to trust it explicitly.
+     * @param ldapsEnabled
+     *  <code>true</code> to accept LDAPS connections
+     */
+    @RuleSetup
+    public void setLdapsEnabled(final boolean ldapsEnabled) {
+
+        this.ldapsEnabled = ldapsEnabled;
+    }
+
+    /**
+     * The tcp port the ldap server listens for incoming LDAPS connections.
+     * @return
+     *  the tcp port number
+     */
+    public int getLdapsPort() {
+
+        return this.ldapsPort;
+    }
+
+    /**
+     * Sets the TCP port the LDAP server will listen on for incoming LDAPS connections if LDAPS is enabled. Default
+     * is 10636. In auto-bind mode, an available port is chosen on each rule application.
+     * @param ldapsPort
+     *  the tcp port number
+     */
+    @RuleSetup
+    public void setLdapsPort(final int ldapsPort) {
+
+        this.ldapsPort = ldapsPort;
+    }
+
+    /**
+     * @return <code>true</code> if the operations of the directory service are recorded
+     */
+    public boolean isMetricsEnabled() {
+
+        return this.metricsEnabled;
+    }
+
+    /**
+     * Enables recording of the operations processed by the directory service. The {@link MetricsInterceptor} is
+     * installed as first interceptor of the directory service when the server is started and removed when it is
+     * stopped. Operations performed by the {@link Directory} rule before the server starts are not recorded.
+     * @param metricsEnabled
+     *  <code>true</code> to record the operations
+     */
+    @RuleSetup
+    public void setMetricsEnabled(final boolean metricsEnabled) {
+
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    /**
+     * Sets the maximum number of operations kept in the slow operation log of the metrics. Default is 10.
+     * @param slowLogSize
+     *  the number of slowest operations to keep
+     */
+    @RuleSetup
+    public void setSlowLogSize(final int slowLogSize) {
+
+        this.slowLogSize = slowLogSize;
+    }
+
+    /**
+     * Provides access to the metrics of the operations processed since the server was started.
+     *
+     * @return the interceptor recording the operations or <code>null</code> if metrics are not enabled or the server
+     * has not been started
+     */
+    public MetricsInterceptor getMetrics() {
+
+        return this.metrics;
+    }
+
+    /**
+     * @return <code>true</code> if a fault injector is installed when the server is started
+     */
+    public boolean isFaultInjectionEnabled() {
+
+        return this.faultInjectionEnabled;
+    }
+
+    /**
+     * Enables the injection of faults. A {@link FaultInjector} is installed on the transports when the server is
+     * started. Without configured faults, all requests are processed normally.
+     * @param faultInjectionEnabled
+     *  <code>true</code> to install a fault injector
+     */
+    @RuleSetup
+    public void setFaultInjectionEnabled(final boolean faultInjectionEnabled) {
+
+        this.faultInjectionEnabled = faultInjectionEnabled;
+    }
+
+    /**
+     * Provides access to the fault injector to configure the faults during a test.
+     *
+     * @return the fault injector of the server or <code>null</code> if fault injection is not enabled or the server
+     * has not been started
+     */
+    public FaultInjector getFaultInjector() {
+
+        return this.faultInjector;
+    }
+
+    /**
+     * @return <code>true</code> if the server provides its content for syncrepl replication
+     */
+    public boolean isReplicationProvider() {
+
+        return this.replicationProvider;
+    }
+
+    /**
+     * Enables the server to provide its content for syncrepl replication to other servers.
+     * @param replicationProvider
+     *  <code>true</code> to accept replication requests
+     */
+    @RuleSetup
+    public void setReplicationProvider(final boolean replicationProvider) {
+
+        this.replicationProvider = replicationProvider;
+    }
+
+    /**
+     * @return the server whose content is replicated by this server or <code>null</code> if the server is no
+     * replication consumer
+     */
+    public DirectoryServer getReplicationSource() {
+
+        return this.replicationSource;
+    }
+
+    /**
+     * Sets the server whose content is replicated by this server. The source has to be a replication provider and
+     * has to be started before this server, its port is determined when this server is started. The directory of this
+     * server requires a partition for the replicated content, but should not import the content itself.
+     * @param source
+     *  the server providing the content
+     * @param baseDn
+     *  the DN of the replicated content
+     * @param replicaId
+     *  the id of this server as consumer of the source, which must be unique for the consumers of the source
+     */
+    @RuleSetup
+    public void setReplicationSource(final DirectoryServer source, final String baseDn, final int replicaId) {
+
+        this.replicationSource = source;
+        this.replicationBaseDn = baseDn;
+        this.replicaId = replicaId;
+    }
+
+    /**
+     * Sets the interval in which the replicated content is refreshed from the replication source. By default, the
+     * source pushes changes immediately. With an interval, changes are replicated with a delay of up to the interval,
+     * which allows to simulate replication lag.
+     * @param interval
+     *  the refresh interval, 0 for immediate replication
+     * @param unit
+     *  the unit of the interval
+     */
+    @RuleSetup
+    public void setReplicationRefreshInterval(final long interval, final TimeUnit unit) {
+
+        this.refreshInterval = unit.toMillis(interval);
+    }
+
     /**
      * The directory service manages the entries provided by the LdapServer.
      *
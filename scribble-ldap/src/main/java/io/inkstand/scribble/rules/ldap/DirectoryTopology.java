@@ -0,0 +1,252 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.junit.rules.RuleChain;
+import org.slf4j.Logger;
+
+import io.inkstand.scribble.rules.ExternalResource;
+import io.inkstand.scribble.rules.RuleSetup;
+
+/**
+ * Rule that starts a replicated topology of directory servers in one JVM. The first server is the replication
+ * provider, all other servers replicate its content using syncrepl. The servers are started in the order of the
+ * topology, so the provider is started first. Each server is created by the usual {@link
+ * io.inkstand.scribble.rules.ldap.builder.DirectoryBuilder} chain, with its own temporary folder and on an available
+ * port. The directories of the consumers require a partition for the replicated content, but should not import it.
+ * <br>
+ * The rule allows to wait for the replication of an entry and records the replication lag observed while waiting. To
+ * simulate replication lag, the consumers may refresh the replicated content in an interval instead of receiving the
+ * changes immediately.
+ */
+public class DirectoryTopology extends ExternalResource<RuleChain> {
+
+    private static final Logger LOG = getLogger(DirectoryTopology.class);
+
+    /**
+     * The interval in which the consumers are checked for a replicated entry.
+     */
+    private static final long POLL_INTERVAL_MILLIS = 10;
+
+    /**
+     * The servers of the topology, the provider first.
+     */
+    private final transient List<DirectoryServer> nodes;
+
+    private final AtomicLong lastLagNanos = new AtomicLong();
+
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    /**
+     * Creates a topology of the specified servers. The first server becomes the replication provider, all other
+     * servers replicate its content below the base DN.
+     *
+     * @param baseDn
+     *         the DN of the replicated content
+     * @param nodes
+     *         the servers of the topology, at least two
+     */
+    public DirectoryTopology(final String baseDn, final DirectoryServer... nodes) {
+
+        super(chainOf(nodes));
+        this.nodes = Collections.unmodifiableList(Arrays.asList(nodes.clone()));
+        nodes[0].setReplicationProvider(true);
+        for (int i = 1; i < nodes.length; i++) {
+            nodes[i].setReplicationSource(nodes[0], baseDn, i);
+        }
+    }
+
+    private static RuleChain chainOf(final DirectoryServer... nodes) {
+
+        if (nodes.length < 2) {
+            throw new IllegalArgumentException("A topology requires at least two servers");
+        }
+        RuleChain chain = RuleChain.outerRule(nodes[0]);
+        for (int i = 1; i < nodes.length; i++) {
+            chain = chain.around(nodes[i]);
+        }
+        return chain;
+    }
+
+    /**
+     * Sets the interval in which the consumers refresh the replicated content. By default, the provider pushes the
+     * changes immediately. With an interval, changes are replicated with a delay of up to the interval.
+     *
+     * @param lag
+     *         the maximum artificial replication lag
+     * @param unit
+     *         the unit of the lag
+     */
+    @RuleSetup
+    public void setReplicationLag(final long lag, final TimeUnit unit) {
+
+        for (DirectoryServer consumer : this.getConsumers()) {
+            consumer.setReplicationRefreshInterval(lag, unit);
+        }
+    }
+
+    /**
+     * @return all servers of the topology, the provider first
+     */
+    public List<DirectoryServer> getNodes() {
+
+        return this.nodes;
+    }
+
+    /**
+     * @param index
+     *         the index of the server in the topology, 0 is the provider
+     *
+     * @return the server at the specified position of the topology
+     */
+    public DirectoryServer getNode(final int index) {
+
+        return this.nodes.get(index);
+    }
+
+    /**
+     * @return the server providing the replicated content
+     */
+    public DirectoryServer getProvider() {
+
+        return this.nodes.get(0);
+    }
+
+    /**
+     * @return the servers replicating the content of the provider
+     */
+    public List<DirectoryServer> getConsumers() {
+
+        return this.nodes.subList(1, this.nodes.size());
+    }
+
+    /**
+     * Waits until the current state of the entry on the provider is replicated to all consumers. An entry is replicated
+     * if it exists on the consumer with the same entryCSN as on the provider, or if it does not exist on either. The
+     * duration of the wait is recorded as replication lag.
+     *
+     * @param dn
+     *         the DN of the entry to wait for
+     * @param timeout
+     *         the maximum duration to wait
+     * @param unit
+     *         the unit of the timeout
+     *
+     * @return the duration until the entry was replicated in milliseconds
+     *
+     * @throws InterruptedException
+     *         if the thread was interrupted while waiting
+     */
+    public long awaitReplication(final String dn, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+
+        final long start = System.nanoTime();
+        final long deadline = start + unit.toNanos(timeout);
+        try {
+            final Dn entryDn = new Dn(dn);
+            final String expectedCsn = entryCsnOf(this.getProvider(), entryDn);
+            for (DirectoryServer consumer : this.getConsumers()) {
+                while (!equals(expectedCsn, entryCsnOf(consumer, entryDn))) {
+                    if (System.nanoTime() > deadline) {
+                        throw new AssertionError("Entry " + dn + " not replicated to consumer on port "
+                                                         + consumer.getTcpPort() + " within " + timeout + " " + unit);
+                    }
+                    Thread.sleep(POLL_INTERVAL_MILLIS);
+                }
+            }
+        } catch (LdapException e) {
+            throw new AssertionError("Could not read entry " + dn, e);
+        }
+        final long lag = System.nanoTime() - start;
+        this.lastLagNanos.set(lag);
+        long max = this.maxLagNanos.get();
+        while (lag > max && !this.maxLagNanos.compareAndSet(max, lag)) {
+            max = this.maxLagNanos.get();
+        }
+        LOG.debug("Entry {} replicated after {} ms", dn, TimeUnit.NANOSECONDS.toMillis(lag));
+        return TimeUnit.NANOSECONDS.toMillis(lag);
+    }
+
+    /**
+     * @param unit
+     *         the unit of the result
+     *
+     * @return the replication lag observed by the last {@link #awaitReplication(String, long, TimeUnit)}
+     */
+    public long getLastReplicationLag(final TimeUnit unit) {
+
+        return unit.convert(this.lastLagNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param unit
+     *         the unit of the result
+     *
+     * @return the maximum replication lag observed by all invocations of {@link #awaitReplication(String, long,
+     * TimeUnit)}
+     */
+    public long getMaxReplicationLag(final TimeUnit unit) {
+
+        return unit.convert(this.maxLagNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Reads the entryCSN of the entry from the directory service of the server.
+     *
+     * @return the entryCSN or <code>null</code> if the entry does not exist
+     */
+    private static String entryCsnOf(final DirectoryServer server, final Dn dn) throws LdapException {
+
+        final CoreSession session = server.getDirectoryService().getAdminSession();
+        if (!session.exists(dn)) {
+            return null;
+        }
+        final Entry entry = session.lookup(dn, "*", "+");
+        final Attribute entryCsn = entry.get("entryCSN");
+        return entryCsn == null ? "" : entryCsn.getString();
+    }
+
+    private static boolean equals(final String expected, final String actual) {
+
+        return expected == null ? actual == null : expected.equals(actual);
+    }
+
+    /**
+     * @return the ports of the servers of the topology, i.e. for configuring a client with multiple servers
+     */
+    public List<Integer> getTcpPorts() {
+
+        final List<Integer> ports = new ArrayList<>(this.nodes.size());
+        for (DirectoryServer node : this.nodes) {
+            ports.add(node.getTcpPort());
+        }
+        return ports;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.directory.api.ldap.model.message.AddRequest;
+import org.apache.directory.api.ldap.model.message.BindRequest;
+import org.apache.directory.api.ldap.model.message.DeleteRequest;
+import org.apache.directory.api.ldap.model.message.LdapResult;
+import org.apache.directory.api.ldap.model.message.ModifyRequest;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.ResultResponse;
+import org.apache.directory.api.ldap.model.message.ResultResponseRequest;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.server.protocol.shared.transport.Transport;
+import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+
+import io.inkstand.scribble.rules.ldap.MetricsInterceptor.Operation;
+
+/**
+ * Injects faults into the LDAP requests received by a server to test the timeout, connection pool and failover
+ * behavior of clients. For each operation, requests may be delayed, answered with a result code such as {@link
+ * ResultCodeEnum#BUSY} or {@link ResultCodeEnum#UNAVAILABLE} instead of being processed, or the connection may be
+ * dropped, each at a configurable rate.
+ * <p>
+ * The injector is a filter of the network layer of the server that is installed in front of the executor of the
+ * server's worker threads. Delayed requests are scheduled on a separate timer thread and handed to the worker threads
+ * after the delay, so the worker threads are not blocked and requests without delay are processed at normal speed.
+ * </p>
+ */
+public class FaultInjector extends IoFilterAdapter {
+
+    private static final Logger LOG = getLogger(FaultInjector.class);
+
+    /**
+     * Name of the filter in the filter chain of the transports.
+     */
+    public static final String NAME = "scribbleFaultInjector";
+
+    /**
+     * Name of the filter of the server that hands the requests to the worker threads.
+     */
+    private static final String EXECUTOR_FILTER = "executor";
+
+    private final ConcurrentMap<Operation, Faults> faults = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+
+            final Thread thread = new Thread(runnable, NAME);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AtomicLong delayedRequests = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+    private final AtomicLong droppedConnections = new AtomicLong();
+
+    /**
+     * Delays the requests of the specified operation at the specified rate.
+     *
+     * @param operation
+     *         the operation to delay
+     * @param delay
+     *         the duration of the delay
+     * @param unit
+     *         the unit of the delay
+     * @param rate
+     *         the fraction of the requests to delay between 0.0 and 1.0
+     */
+    public void delay(final Operation operation, final long delay, final TimeUnit unit, final double rate) {
+
+        final Faults operationFaults = this.faultsOf(operation);
+        operationFaults.delayNanos = unit.toNanos(delay);
+        operationFaults.delayRate = rate;
+    }
+
+    /**
+     * Answers the requests of the specified operation at the specified rate with the result code instead of processing
+     * them.
+     *
+     * @param operation
+     *         the operation to fail
+     * @param resultCode
+     *         the result code of the response, i.e. BUSY or UNAVAILABLE
+     * @param rate
+     *         the fraction of the requests to fail between 0.0 and 1.0
+     */
+    public void fail(final Operation operation, final ResultCodeEnum resultCode, final double rate) {
+
+        final Faults operationFaults = this.faultsOf(operation);
+        operationFaults.resultCode = resultCode;
+        operationFaults.failRate = rate;
+    }
+
+    /**
+     * Closes the connection of a request of the specified operation at the specified rate without a response.
+     *
+     * @param operation
+     *         the operation that drops the connection
+     * @param rate
+     *         the fraction of the requests dropping the connection between 0.0 and 1.0
+     */
+    public void drop(final Operation operation, final double rate) {
+
+        this.faultsOf(operation).dropRate = rate;
+    }
+
+    /**
+     * Removes all faults, so all subsequent requests are processed normally.
+     */
+    public void clear() {
+
+        this.faults.clear();
+    }
+
+    /**
+     * @return the number of requests that have been delayed
+     */
+    public long getDelayedRequests() {
+
+        return this.delayedRequests.get();
+    }
+
+    /**
+     * @return the number of requests that have been answered with a result code instead of being processed
+     */
+    public long getFailedRequests() {
+
+        return this.failedRequests.get();
+    }
+
+    /**
+     * @return the number of connections that have been dropped
+     */
+    public long getDroppedConnections() {
+
+        return this.droppedConnections.get();
+    }
+
+    /**
+     * Installs the injector in the filter chain of the transport. The injector applies to all connections accepted
+     * after the installation.
+     *
+     * @param transport
+     *         the started transport of the ldap server
+     */
+    public void install(final Transport transport) {
+
+        final DefaultIoFilterChainBuilder chain = transport.getAcceptor().getFilterChain();
+        if (chain.contains(EXECUTOR_FILTER)) {
+            chain.addBefore(EXECUTOR_FILTER, NAME, this);
+        } else {
+            chain.addLast(NAME, this);
+        }
+    }
+
+    /**
+     * Stops the timer thread. Requests that are still delayed are discarded.
+     */
+    public void shutdown() {
+
+        this.scheduler.shutdownNow();
+    }
+
+    @Override
+    public void messageReceived(final NextFilter nextFilter, final IoSession session, final Object message)
+            throws Exception { //NOSONAR
+
+        final Operation operation = operationOf(message);
+        final Faults operationFaults = operation == null ? null : this.faults.get(operation);
+        if (operationFaults == null) {
+            nextFilter.messageReceived(session, message);
+            return;
+        }
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < operationFaults.dropRate) {
+            LOG.debug("Dropping connection on {} request", operation);
+            this.droppedConnections.incrementAndGet();
+            session.close(true);
+        } else if (operationFaults.resultCode != null && random.nextDouble() < operationFaults.failRate) {
+            LOG.debug("Answering {} request with {}", operation, operationFaults.resultCode);
+            this.failedRequests.incrementAndGet();
+            final ResultResponse response = ((ResultResponseRequest) message).getResultResponse();
+            final LdapResult result = response.getLdapResult();
+            result.setResultCode(operationFaults.resultCode);
+            result.setDiagnosticMessage("Injected fault");
+            session.write(response);
+        } else if (operationFaults.delayNanos > 0 && random.nextDouble() < operationFaults.delayRate) {
+            this.delayedRequests.incrementAndGet();
+            this.scheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    nextFilter.messageReceived(session, message);
+                }
+            }, operationFaults.delayNanos, TimeUnit.NANOSECONDS);
+        } else {
+            nextFilter.messageReceived(session, message);
+        }
+    }
+
+    private Faults faultsOf(final Operation operation) {
+
+        Faults operationFaults = this.faults.get(operation);
+        if (operationFaults == null) {
+            operationFaults = new Faults();
+            final Faults existing = this.faults.putIfAbsent(operation, operationFaults);
+            if (existing != null) {
+                operationFaults = existing;
+            }
+        }
+        return operationFaults;
+    }
+
+    private static Operation operationOf(final Object message) {
+
+        if (message instanceof BindRequest) {
+            return Operation.BIND;
+        } else if (message instanceof SearchRequest) {
+            return Operation.SEARCH;
+        } else if (message instanceof AddRequest) {
+            return Operation.ADD;
+        } else if (message instanceof ModifyRequest) {
+            return Operation.MODIFY;
+        } else if (message instanceof DeleteRequest) {
+            return Operation.DELETE;
+        }
+        return null;
+    }
+
+    /**
+     * The faults of one operation.
+     */
+    private static class Faults {
+
+        private volatile long delayNanos;
+        private volatile double delayRate;
+        private volatile ResultCodeEnum resultCode;
+        private volatile double failRate;
+        private volatile double dropRate;
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.ldif.LdifUtils;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.slf4j.Logger;
+
+/**
+ * Exports the entries of a subtree or partition of a directory service as LDIF in a deterministic order, so the export
+ * can be compared to an expected LDIF file, i.e. using the {@link LdifMatcher}. Each entry is followed by its children,
+ * which are ordered by their normalized RDN. Within an entry, the objectClass attribute is written first, the other
+ * attributes and all values are sorted.
+ * <p>
+ * The export is streamed: the tree is walked level by level, reading the RDNs of the children of an entry with a
+ * cursor and then each entry individually. Only the RDNs of the children of the entries on the current path are held
+ * in memory, not their DNs or the entries of the subtree.
+ * </p>
+ */
+public class LdifExporter {
+
+    private static final Logger LOG = getLogger(LdifExporter.class);
+
+    /**
+     * Orders DNs depth-first, a parent before its children, siblings by their normalized RDN.
+     */
+    static final Comparator<Dn> DN_ORDER = new Comparator<Dn>() {
+
+        @Override
+        public int compare(final Dn dn1, final Dn dn2) {
+
+            final List<Rdn> rdns1 = dn1.getRdns();
+            final List<Rdn> rdns2 = dn2.getRdns();
+            final int common = Math.min(rdns1.size(), rdns2.size());
+            for (int i = 1; i <= common; i++) {
+                final int result = rdns1.get(rdns1.size() - i).getNormName()
+                                        .compareTo(rdns2.get(rdns2.size() - i).getNormName());
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return rdns1.size() - rdns2.size();
+        }
+    };
+
+    private final DirectoryService service;
+
+    private String[] attributes = { SchemaConstants.ALL_USER_ATTRIBUTES };
+
+    private long exportedEntries;
+
+    /**
+     * Creates an exporter for the entries of the directory service.
+     *
+     * @param service
+     *         the directory service containing the entries to export
+     */
+    public LdifExporter(final DirectoryService service) {
+
+        this.service = service;
+    }
+
+    /**
+     * Sets the attributes to export. By default, all user attributes are exported. Operational attributes such as
+     * entryUUID or createTimestamp differ on every run and are not suited for comparison with an expected LDIF.
+     *
+     * @param attributes
+     *         the names of the attributes to export, "*" for all user attributes, "+" for all operational attributes
+     */
+    public void setAttributes(final String... attributes) {
+
+        this.attributes = attributes.clone();
+    }
+
+    /**
+     * @return the number of entries written by the last export
+     */
+    public long getExportedEntries() {
+
+        return this.exportedEntries;
+    }
+
+    /**
+     * Writes the entry with the specified DN and all its descendants as LDIF to the writer.
+     *
+     * @param baseDn
+     *         the DN of the root entry of the subtree or partition to export
+     * @param writer
+     *         the writer to write the LDIF to. The writer is not closed
+     *
+     * @return the number of exported entries
+     *
+     * @throws IOException
+     *         if the entries could not be read or written
+     */
+    public long export(final String baseDn, final Writer writer) throws IOException {
+
+        final long start = System.nanoTime();
+        this.exportedEntries = 0;
+        try {
+            final Iterator<Entry> entries = this.entries(baseDn);
+            while (entries.hasNext()) {
+                writer.write(toLdif(entries.next()));
+                writer.write('\n');
+                this.exportedEntries++;
+            }
+        } catch (LdapException | IllegalStateException e) {
+            throw new IOException("Could not export " + baseDn, e);
+        }
+        writer.flush();
+        LOG.info("Exported {} entries in {} ms",
+                 this.exportedEntries,
+                 TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return this.exportedEntries;
+    }
+
+    /**
+     * Provides the entry with the specified DN and all its descendants in the order of the export. The entries are
+     * read while iterating. If an entry could not be read, the iterator throws an {@link IllegalStateException}.
+     *
+     * @param baseDn
+     *         the DN of the root entry of the subtree or partition
+     *
+     * @return an iterator over the entries of the subtree
+     *
+     * @throws LdapException
+     *         if the base DN is invalid
+     */
+    public Iterator<Entry> entries(final String baseDn) throws LdapException {
+
+        return new EntryIterator(this.service.getAdminSession(), new Dn(this.service.getSchemaManager(), baseDn));
+    }
+
+    /**
+     * Converts the entry to LDIF with the objectClass attribute first and all other attributes and all values sorted.
+     *
+     * @param entry
+     *         the entry to convert
+     *
+     * @return the LDIF representation of the entry
+     *
+     * @throws LdapException
+     *         if the entry could not be converted
+     */
+    static String toLdif(final Entry entry) throws LdapException {
+
+        final List<Attribute> sorted = new ArrayList<>(entry.getAttributes());
+        Collections.sort(sorted, new Comparator<Attribute>() {
+
+            @Override
+            public int compare(final Attribute attr1, final Attribute attr2) {
+
+                final boolean objectClass1 = isObjectClass(attr1);
+                final boolean objectClass2 = isObjectClass(attr2);
+                if (objectClass1 != objectClass2) {
+                    return objectClass1 ? -1 : 1;
+                }
+                return attr1.getUpId().toLowerCase().compareTo(attr2.getUpId().toLowerCase());
+            }
+        });
+        final StringBuilder ldif = new StringBuilder();
+        ldif.append(LdifUtils.convertToLdif(new DefaultAttribute("dn", entry.getDn().getName())));
+        for (Attribute attribute : sorted) {
+            ldif.append(LdifUtils.convertToLdif(sortedValues(attribute)));
+        }
+        return ldif.toString();
+    }
+
+    private static boolean isObjectClass(final Attribute attribute) {
+
+        return SchemaConstants.OBJECT_CLASS_AT.equalsIgnoreCase(attribute.getUpId());
+    }
+
+    /**
+     * Creates a copy of the attribute with the values ordered by their string representation.
+     */
+    private static Attribute sortedValues(final Attribute attribute) throws LdapException {
+
+        final List<Value<?>> values = new ArrayList<>();
+        for (Value<?> value : attribute) {
+            values.add(value);
+        }
+        Collections.sort(values, new Comparator<Value<?>>() {
+
+            @Override
+            public int compare(final Value<?> value1, final Value<?> value2) {
+
+                return stringOf(value1).compareTo(stringOf(value2));
+            }
+        });
+        final Attribute sorted = new DefaultAttribute(attribute.getUpId());
+        for (Value<?> value : values) {
+            if (value.isHumanReadable()) {
+                sorted.add(value.getString());
+            } else {
+                sorted.add(value.getBytes());
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * @return the string representation of the value, binary values are decoded as UTF-8
+     */
+    static String stringOf(final Value<?> value) {
+
+        return value.isHumanReadable() ? value.getString() : Strings.utf8ToString(value.getBytes());
+    }
+
+    /**
+     * Iterates depth-first over a subtree. For each entry on the current path, the DNs of the children that are not
+     * yet visited are kept on a stack, each created from the RDN of the child when it is visited.
+     */
+    private class EntryIterator implements Iterator<Entry> {
+
+        private final CoreSession session;
+        private final Deque<Iterator<Dn>> path = new ArrayDeque<>();
+
+        EntryIterator(final CoreSession session, final Dn baseDn) {
+
+            this.session = session;
+            this.path.push(Collections.singletonList(baseDn).iterator());
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            while (!this.path.isEmpty() && !this.path.peek().hasNext()) {
+                this.path.pop();
+            }
+            return !this.path.isEmpty();
+        }
+
+        @Override
+        public Entry next() {
+
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Dn dn = this.path.peek().next();
+            final Entry entry;
+            try {
+                entry = this.session.lookup(dn, LdifExporter.this.attributes);
+                this.path.push(this.childrenOf(dn));
+            } catch (Exception e) { //NOSONAR
+                throw new IllegalStateException("Could not read entry " + dn, e);
+            }
+            if (entry == null) {
+                throw new IllegalStateException("Entry " + dn + " does not exist");
+            }
+            return entry;
+        }
+
+        /**
+         * Reads the RDNs of the children of the entry without their attributes. Only the user provided RDNs are kept,
+         * ordered by their normalized form, the DNs of the children are created when they are iterated.
+         */
+        private Iterator<Dn> childrenOf(final Dn dn) throws Exception { //NOSONAR
+
+            final SortedMap<String, String> rdns = new TreeMap<>();
+            final SchemaManager schemaManager = LdifExporter.this.service.getSchemaManager();
+            final AttributeType objectClass = schemaManager.getAttributeType(SchemaConstants.OBJECT_CLASS_AT);
+            final EntryFilteringCursor cursor = this.session.search(dn,
+                                                                    SearchScope.ONELEVEL,
+                                                                    new PresenceNode(objectClass),
+                                                                    AliasDerefMode.NEVER_DEREF_ALIASES,
+                                                                    SchemaConstants.NO_ATTRIBUTE);
+            try {
+                while (cursor.next()) {
+                    final Rdn rdn = cursor.get().getDn().getRdn();
+                    rdns.put(rdn.getNormName(), rdn.getName());
+                }
+            } finally {
+                cursor.close();
+            }
+            final Iterator<String> children = rdns.values().iterator();
+            return new Iterator<Dn>() {
+
+                @Override
+                public boolean hasNext() {
+
+                    return children.hasNext();
+                }
+
+                @Override
+                public Dn next() {
+
+                    final String rdn = children.next();
+                    try {
+                        return dn.add(rdn);
+                    } catch (LdapInvalidDnException e) {
+                        throw new IllegalStateException("Invalid RDN " + rdn + " below " + dn, e);
+                    }
+                }
+
+                @Override
+                public void remove() {
+
+                    throw new UnsupportedOperationException("Entries can not be removed");
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+
+            throw new UnsupportedOperationException("Entries can not be removed");
+        }
+    }
+}
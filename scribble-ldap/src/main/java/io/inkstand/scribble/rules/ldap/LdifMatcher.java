@@ -0,0 +1,312 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.apache.commons.io.Charsets;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+
+/**
+ * Matcher that verifies the entries of a subtree or partition of a {@link Directory} against an expected LDIF file.
+ * The entries of the directory and of the file are read and compared one at a time, so neither side is loaded into
+ * memory completely. For this, the expected LDIF has to be in the order of the {@link LdifExporter}, which is the case
+ * if the expected LDIF has been created by the exporter. Attribute values are compared using the matching rules of the
+ * schema. Attributes that differ on every run, such as generated passwords, can be ignored.
+ */
+public class LdifMatcher extends BaseMatcher<Directory> {
+
+    /**
+     * The maximum number of differences included in the mismatch description.
+     */
+    private static final int MAX_REPORTED_DIFFERENCES = 10;
+
+    private final String baseDn;
+
+    private final URL expectedLdif;
+
+    private final Set<String> ignoredAttributes = new HashSet<>();
+
+    private final List<String> differences = new ArrayList<>();
+
+    private long differenceCount;
+
+    private long comparedEntries;
+
+    /**
+     * Creates a matcher for the subtree of the base DN.
+     *
+     * @param baseDn
+     *         the DN of the root entry of the subtree or partition to compare
+     * @param expectedLdif
+     *         the resource containing the expected entries in the order of the {@link LdifExporter}
+     */
+    public LdifMatcher(final String baseDn, final URL expectedLdif) {
+
+        this.baseDn = baseDn;
+        this.expectedLdif = expectedLdif;
+    }
+
+    /**
+     * Creates a matcher that verifies the entries of a subtree or partition of a directory against an expected LDIF.
+     *
+     * @param baseDn
+     *         the DN of the root entry of the subtree or partition to compare
+     * @param expectedLdif
+     *         the resource containing the expected entries in the order of the {@link LdifExporter}
+     *
+     * @return a matcher for a directory
+     */
+    public static LdifMatcher matchesLdif(final String baseDn, final URL expectedLdif) {
+
+        return new LdifMatcher(baseDn, expectedLdif);
+    }
+
+    /**
+     * Excludes the specified attributes from the comparison.
+     *
+     * @param attributes
+     *         the names of the attributes to ignore
+     *
+     * @return this matcher
+     */
+    public LdifMatcher ignoring(final String... attributes) {
+
+        for (String attribute : attributes) {
+            this.ignoredAttributes.add(attribute.toLowerCase());
+        }
+        return this;
+    }
+
+    @Override
+    public boolean matches(final Object item) {
+
+        if (!(item instanceof Directory)) {
+            return false;
+        }
+        this.differences.clear();
+        this.differenceCount = 0;
+        this.comparedEntries = 0;
+        final DirectoryService service = ((Directory) item).getDirectoryService();
+        try (LdifReader reader = new LdifReader(new InputStreamReader(this.expectedLdif.openStream(),
+                                                                      Charsets.UTF_8))) {
+            this.compare(new ExpectedEntries(reader.iterator(), service.getSchemaManager()),
+                         new LdifExporter(service).entries(this.baseDn));
+            if (reader.hasError()) {
+                throw new AssertionError("Could not parse " + this.expectedLdif, reader.getError());
+            }
+        } catch (IOException | LdapException | IllegalStateException e) {
+            throw new AssertionError("Could not compare " + this.baseDn + " with " + this.expectedLdif, e);
+        }
+        return this.differenceCount == 0;
+    }
+
+    /**
+     * Compares the entries of both sides by merging them in the order of the {@link LdifExporter}.
+     */
+    private void compare(final Iterator<Entry> expectedEntries, final Iterator<Entry> actualEntries)
+            throws LdapException {
+
+        Entry expected = next(expectedEntries);
+        Entry actual = next(actualEntries);
+        while (expected != null || actual != null) {
+            final int order;
+            if (expected == null) {
+                order = 1;
+            } else if (actual == null) {
+                order = -1;
+            } else {
+                order = LdifExporter.DN_ORDER.compare(expected.getDn(), actual.getDn());
+            }
+            if (order < 0) {
+                this.addDifference("missing entry " + expected.getDn());
+                expected = next(expectedEntries);
+            } else if (order > 0) {
+                this.addDifference("unexpected entry " + actual.getDn());
+                actual = next(actualEntries);
+            } else {
+                this.compareAttributes(expected, actual);
+                expected = next(expectedEntries);
+                actual = next(actualEntries);
+            }
+            this.comparedEntries++;
+        }
+    }
+
+    private void compareAttributes(final Entry expected, final Entry actual) {
+
+        final Set<AttributeType> attributeTypes = new LinkedHashSet<>();
+        for (Attribute attribute : expected) {
+            attributeTypes.add(attribute.getAttributeType());
+        }
+        for (Attribute attribute : actual) {
+            attributeTypes.add(attribute.getAttributeType());
+        }
+        for (AttributeType attributeType : attributeTypes) {
+            if (this.isIgnored(attributeType)) {
+                continue;
+            }
+            final Attribute expectedAttribute = expected.get(attributeType);
+            final Attribute actualAttribute = actual.get(attributeType);
+            if (expectedAttribute == null ? actualAttribute != null : !expectedAttribute.equals(actualAttribute)) {
+                this.addDifference(actual.getDn() + ": " + attributeType.getName() + " expected "
+                                           + valuesOf(expectedAttribute) + " but was " + valuesOf(actualAttribute));
+            }
+        }
+    }
+
+    private boolean isIgnored(final AttributeType attributeType) {
+
+        if (this.ignoredAttributes.contains(attributeType.getOid())) {
+            return true;
+        }
+        for (String name : attributeType.getNames()) {
+            if (this.ignoredAttributes.contains(name.toLowerCase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addDifference(final String difference) {
+
+        this.differenceCount++;
+        if (this.differences.size() < MAX_REPORTED_DIFFERENCES) {
+            this.differences.add(difference);
+        }
+    }
+
+    private static List<String> valuesOf(final Attribute attribute) {
+
+        if (attribute == null) {
+            return Collections.emptyList();
+        }
+        final List<String> values = new ArrayList<>();
+        for (Value<?> value : attribute) {
+            values.add(LdifExporter.stringOf(value));
+        }
+        Collections.sort(values);
+        return values;
+    }
+
+    private static Entry next(final Iterator<Entry> entries) {
+
+        return entries.hasNext() ? entries.next() : null;
+    }
+
+    @Override
+    public void describeTo(final Description description) {
+
+        description.appendText("entries below " + this.baseDn + " as in " + this.expectedLdif);
+    }
+
+    @Override
+    public void describeMismatch(final Object item, final Description description) {
+
+        description.appendText(this.differenceCount + " differences in " + this.comparedEntries + " entries");
+        for (String difference : this.differences) {
+            description.appendText("\n  ").appendText(difference);
+        }
+        if (this.differenceCount > this.differences.size()) {
+            description.appendText("\n  ...");
+        }
+    }
+
+    /**
+     * Reads the entries of the expected LDIF as entries of the schema of the directory and verifies their order.
+     */
+    private static class ExpectedEntries implements Iterator<Entry> {
+
+        private final Iterator<LdifEntry> ldifEntries;
+        private final SchemaManager schemaManager;
+        private Entry nextEntry;
+        private Dn previousDn;
+
+        ExpectedEntries(final Iterator<LdifEntry> ldifEntries, final SchemaManager schemaManager) {
+
+            this.ldifEntries = ldifEntries;
+            this.schemaManager = schemaManager;
+        }
+
+        @Override
+        public boolean hasNext() {
+
+            while (this.nextEntry == null && this.ldifEntries.hasNext()) {
+                final LdifEntry ldifEntry = this.ldifEntries.next();
+                if (ldifEntry.isEntry() || ldifEntry.isChangeAdd()) {
+                    this.nextEntry = this.toEntry(ldifEntry);
+                }
+            }
+            return this.nextEntry != null;
+        }
+
+        private Entry toEntry(final LdifEntry ldifEntry) {
+
+            final Entry entry;
+            try {
+                entry = new DefaultEntry(this.schemaManager, ldifEntry.getEntry());
+                entry.setDn(new Dn(this.schemaManager, ldifEntry.getDn().getName()));
+            } catch (LdapException e) {
+                throw new IllegalStateException("Invalid entry " + ldifEntry.getDn(), e);
+            }
+            if (this.previousDn != null && LdifExporter.DN_ORDER.compare(this.previousDn, entry.getDn()) >= 0) {
+                throw new AssertionError("Expected ldif is not in export order at " + entry.getDn()
+                                                 + ", create it using the LdifExporter");
+            }
+            this.previousDn = entry.getDn();
+            return entry;
+        }
+
+        @Override
+        public Entry next() {
+
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Entry entry = this.nextEntry;
+            this.nextEntry = null;
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+
+            throw new UnsupportedOperationException("Entries can not be removed");
+        }
+    }
+}
@@ -0,0 +1,522 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.filtering.EntryFilter;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+
+/**
+ * Interceptor that records metrics of the operations processed by a directory service. For each bind, search, add,
+ * modify and delete operation, the number of operations and a latency histogram is recorded. For search operations,
+ * the number of returned entries is recorded as well. The slowest operations are kept in a bounded log together with
+ * their DN and search filter. The interceptor has to be the first in the interceptor chain so the latency covers the
+ * entire processing of the operation. The latency of a search covers the creation of the cursor, the entries are
+ * counted while the cursor is read.
+ */
+public class MetricsInterceptor extends BaseInterceptor {
+
+    /**
+     * Name of the interceptor in the interceptor chain of the directory service.
+     */
+    public static final String NAME = "scribbleMetricsInterceptor";
+
+    /**
+     * The number of buckets of the histograms. The upper bound of bucket i is 2^i.
+     */
+    private static final int BUCKETS = 40;
+
+    /**
+     * The operations recorded by the interceptor.
+     */
+    public enum Operation {
+        BIND,
+        SEARCH,
+        ADD,
+        MODIFY,
+        DELETE
+    }
+
+    private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+
+    /**
+     * Histogram of the number of entries returned per search.
+     */
+    private final Histogram searchEntries = new Histogram();
+
+    private final AtomicLong entriesReturned = new AtomicLong();
+
+    /**
+     * The slowest operations, the fastest of them at the head.
+     */
+    private final PriorityQueue<SlowOperation> slowOperations = new PriorityQueue<>();
+
+    private final int slowLogSize;
+
+    /**
+     * Creates an interceptor that keeps the 10 slowest operations.
+     */
+    public MetricsInterceptor() {
+
+        this(10);
+    }
+
+    /**
+     * Creates an interceptor that keeps the specified number of slowest operations.
+     *
+     * @param slowLogSize
+     *         the maximum number of operations in the slow operation log
+     */
+    public MetricsInterceptor(final int slowLogSize) {
+
+        super(NAME);
+        this.slowLogSize = slowLogSize;
+        for (Operation operation : Operation.values()) {
+            this.stats.put(operation, new OperationStats());
+        }
+    }
+
+    @Override
+    public void bind(final BindOperationContext bindContext) throws LdapException {
+
+        final long start = System.nanoTime();
+        try {
+            next(bindContext);
+        } finally {
+            this.record(Operation.BIND, nameOf(bindContext.getDn()), null, start);
+        }
+    }
+
+    @Override
+    public EntryFilteringCursor search(final SearchOperationContext searchContext) throws LdapException {
+
+        final long start = System.nanoTime();
+        final EntryFilteringCursor cursor;
+        try {
+            cursor = next(searchContext);
+        } finally {
+            this.record(Operation.SEARCH, nameOf(searchContext.getDn()), searchContext.getFilter(), start);
+        }
+        cursor.addEntryFilter(new EntryCounter());
+        return cursor;
+    }
+
+    @Override
+    public void add(final AddOperationContext addContext) throws LdapException {
+
+        final long start = System.nanoTime();
+        try {
+            next(addContext);
+        } finally {
+            this.record(Operation.ADD, nameOf(addContext.getDn()), null, start);
+        }
+    }
+
+    @Override
+    public void modify(final ModifyOperationContext modifyContext) throws LdapException {
+
+        final long start = System.nanoTime();
+        try {
+            next(modifyContext);
+        } finally {
+            this.record(Operation.MODIFY, nameOf(modifyContext.getDn()), null, start);
+        }
+    }
+
+    @Override
+    public void delete(final DeleteOperationContext deleteContext) throws LdapException {
+
+        final long start = System.nanoTime();
+        try {
+            next(deleteContext);
+        } finally {
+            this.record(Operation.DELETE, nameOf(deleteContext.getDn()), null, start);
+        }
+    }
+
+    private static String nameOf(final Dn dn) {
+
+        return dn == null ? null : dn.getName();
+    }
+
+    private void record(final Operation operation, final String dn, final Object filter, final long start) {
+
+        final long duration = System.nanoTime() - start;
+        this.stats.get(operation).record(duration);
+        synchronized (this.slowOperations) {
+            if (this.slowOperations.size() < this.slowLogSize) {
+                this.slowOperations.add(new SlowOperation(operation, dn, filter, duration));
+            } else if (this.slowLogSize > 0 && this.slowOperations.peek().duration < duration) {
+                this.slowOperations.poll();
+                this.slowOperations.add(new SlowOperation(operation, dn, filter, duration));
+            }
+        }
+    }
+
+    /**
+     * @param operation
+     *         the operation
+     *
+     * @return the number of operations of the specified type
+     */
+    public long getCount(final Operation operation) {
+
+        return this.stats.get(operation).count.get();
+    }
+
+    /**
+     * Determines the number of operations of the specified type per bind operation, i.e. to verify the number of
+     * searches issued by a login.
+     *
+     * @param operation
+     *         the operation
+     *
+     * @return the number of operations per bind operation or the number of operations if there was no bind
+     */
+    public double getCountPerBind(final Operation operation) {
+
+        final long binds = this.getCount(Operation.BIND);
+        return binds == 0 ? this.getCount(operation) : this.getCount(operation) / (double) binds;
+    }
+
+    /**
+     * @param operation
+     *         the operation
+     * @param unit
+     *         the time unit of the result
+     *
+     * @return the average latency of the operations of the specified type
+     */
+    public long getAverageLatency(final Operation operation, final TimeUnit unit) {
+
+        final OperationStats operationStats = this.stats.get(operation);
+        final long count = operationStats.count.get();
+        return count == 0 ? 0 : unit.convert(operationStats.totalNanos.get() / count, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param operation
+     *         the operation
+     * @param unit
+     *         the time unit of the result
+     *
+     * @return the maximum latency of the operations of the specified type
+     */
+    public long getMaxLatency(final Operation operation, final TimeUnit unit) {
+
+        return unit.convert(this.stats.get(operation).maxNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Determines the latency percentile of the operations of the specified type. As the latencies are recorded in a
+     * histogram with exponential buckets, the result is the upper bound of the bucket containing the percentile.
+     *
+     * @param operation
+     *         the operation
+     * @param percentile
+     *         the percentile between 0 and 100
+     * @param unit
+     *         the time unit of the result
+     *
+     * @return the upper bound of the latency percentile
+     */
+    public long getLatencyPercentile(final Operation operation, final double percentile, final TimeUnit unit) {
+
+        return unit.convert(this.stats.get(operation).latencies.getPercentile(percentile), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param operation
+     *         the operation
+     *
+     * @return the latency histogram of the operations of the specified type. The keys are the exclusive upper bounds
+     * of the buckets in nanoseconds, the values the number of operations. Empty buckets are omitted.
+     */
+    public SortedMap<Long, Long> getLatencyHistogram(final Operation operation) {
+
+        return this.stats.get(operation).latencies.toMap();
+    }
+
+    /**
+     * @return the histogram of the number of entries returned per search. The keys are the exclusive upper bounds of
+     * the buckets, the values the number of searches. Empty buckets are omitted.
+     */
+    public SortedMap<Long, Long> getSearchEntriesHistogram() {
+
+        return this.searchEntries.toMap();
+    }
+
+    /**
+     * @return the total number of entries returned by all searches
+     */
+    public long getEntriesReturned() {
+
+        return this.entriesReturned.get();
+    }
+
+    /**
+     * @return the slowest operations, ordered by their duration beginning with the slowest
+     */
+    public List<SlowOperation> getSlowestOperations() {
+
+        final List<SlowOperation> result;
+        synchronized (this.slowOperations) {
+            result = new ArrayList<>(this.slowOperations);
+        }
+        Collections.sort(result, Collections.reverseOrder());
+        return result;
+    }
+
+    /**
+     * Resets all metrics, i.e. before executing the code under test.
+     */
+    public void reset() {
+
+        for (OperationStats operationStats : this.stats.values()) {
+            operationStats.reset();
+        }
+        this.searchEntries.reset();
+        this.entriesReturned.set(0);
+        synchronized (this.slowOperations) {
+            this.slowOperations.clear();
+        }
+    }
+
+    /**
+     * An operation of the slow operation log.
+     */
+    public static final class SlowOperation implements Comparable<SlowOperation> {
+
+        private final Operation operation;
+        private final String dn;
+        private final String filter;
+        private final long duration;
+
+        SlowOperation(final Operation operation, final String dn, final Object filter, final long duration) {
+
+            this.operation = operation;
+            this.dn = dn;
+            this.filter = filter == null ? null : filter.toString();
+            this.duration = duration;
+        }
+
+        /**
+         * @return the type of the operation
+         */
+        public Operation getOperation() {
+
+            return this.operation;
+        }
+
+        /**
+         * @return the DN of the operation, for searches the base DN
+         */
+        public String getDn() {
+
+            return this.dn;
+        }
+
+        /**
+         * @return the filter of a search operation or <code>null</code> for other operations
+         */
+        public String getFilter() {
+
+            return this.filter;
+        }
+
+        /**
+         * @param unit
+         *         the time unit of the result
+         *
+         * @return the duration of the operation
+         */
+        public long getDuration(final TimeUnit unit) {
+
+            return unit.convert(this.duration, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(final SlowOperation other) {
+
+            return Long.compare(this.duration, other.duration);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+
+            return this == obj;
+        }
+
+        @Override
+        public int hashCode() {
+
+            return System.identityHashCode(this);
+        }
+
+        @Override
+        public String toString() {
+
+            return this.operation + " " + this.dn + (this.filter == null ? "" : " " + this.filter) + " took "
+                    + TimeUnit.NANOSECONDS.toMicros(this.duration) + "us";
+        }
+    }
+
+    /**
+     * Counter and latency histogram of one operation type.
+     */
+    private static class OperationStats {
+
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final Histogram latencies = new Histogram();
+
+        void record(final long duration) {
+
+            this.count.incrementAndGet();
+            this.totalNanos.addAndGet(duration);
+            long max = this.maxNanos.get();
+            while (duration > max && !this.maxNanos.compareAndSet(max, duration)) {
+                max = this.maxNanos.get();
+            }
+            this.latencies.add(duration);
+        }
+
+        void reset() {
+
+            this.count.set(0);
+            this.totalNanos.set(0);
+            this.maxNanos.set(0);
+            this.latencies.reset();
+        }
+    }
+
+    /**
+     * Lock-free histogram with exponential buckets. A value v is counted in the bucket whose upper bound is the next
+     * power of two above v.
+     */
+    private static class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        static int bucketOf(final long value) {
+
+            return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0, value)));
+        }
+
+        void add(final long value) {
+
+            this.buckets.incrementAndGet(bucketOf(value));
+        }
+
+        /**
+         * Moves a count from the bucket of the previous value to the bucket of the new value.
+         */
+        void move(final long previous, final long value) {
+
+            final int from = bucketOf(previous);
+            final int to = bucketOf(value);
+            if (from != to) {
+                this.buckets.decrementAndGet(from);
+                this.buckets.incrementAndGet(to);
+            }
+        }
+
+        long getPercentile(final double percentile) {
+
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total += this.buckets.get(i);
+            }
+            final long rank = (long) Math.ceil(total * percentile / 100);
+            long cumulated = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulated += this.buckets.get(i);
+                if (cumulated >= rank && cumulated > 0) {
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+
+        SortedMap<Long, Long> toMap() {
+
+            final SortedMap<Long, Long> result = new TreeMap<>();
+            for (int i = 0; i < BUCKETS; i++) {
+                final long count = this.buckets.get(i);
+                if (count > 0) {
+                    result.put(1L << i, count);
+                }
+            }
+            return result;
+        }
+
+        void reset() {
+
+            for (int i = 0; i < BUCKETS; i++) {
+                this.buckets.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * Filter that accepts all entries of a search cursor and counts them. The search is counted in the entries
+     * histogram when it is created and moved to the next bucket as entries are read.
+     */
+    private class EntryCounter implements EntryFilter {
+
+        private final AtomicLong count = new AtomicLong();
+
+        EntryCounter() {
+
+            searchEntries.add(0);
+        }
+
+        @Override
+        public boolean accept(final SearchOperationContext searchContext, final Entry entry) throws LdapException {
+
+            final long current = this.count.incrementAndGet();
+            searchEntries.move(current - 1, current);
+            entriesReturned.incrementAndGet();
+            return true;
+        }
+
+        public String toString(final String tabs) {
+
+            return tabs + "EntryCounter";
+        }
+    }
+}
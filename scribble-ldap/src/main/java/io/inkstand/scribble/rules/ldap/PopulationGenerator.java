@@ -0,0 +1,490 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.Charsets;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.DateUtils;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionNexus;
+import org.slf4j.Logger;
+
+/**
+ * Generates a synthetic population of users and groups for scale testing. The users are created as inetOrgPerson
+ * entries below a users organizational unit, the groups as groupOfUniqueNames entries below a groups organizational
+ * unit of the base DN. Each user is member of a fixed number of groups, which are chosen either uniformly or following
+ * a Zipf distribution where a few groups have most of the members, as it is typical for real directories. Additional
+ * attributes with random values of a defined size can be added to users and groups. All random values are derived
+ * from a seed, so the same generator settings produce the same population.
+ * <p>
+ * The entries are created directly and added to the partition nexus of the directory service, bypassing the LDIF
+ * parser and the interceptor chain. The operational attributes are set by the generator. As the interceptors are
+ * bypassed, the generated entries are not recorded in the change log and are not checked against the schema. The
+ * base DN entry has to exist, i.e. by importing it from an LDIF file.
+ * </p>
+ */
+public class PopulationGenerator {
+
+    private static final Logger LOG = getLogger(PopulationGenerator.class);
+
+    private static final char[] CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
+
+    /**
+     * The distribution of the group memberships.
+     */
+    public enum MembershipDistribution {
+        /**
+         * Every group has the same probability to be chosen for a user.
+         */
+        UNIFORM,
+        /**
+         * The probability of group i to be chosen is proportional to 1/(i+1), so the first groups are large and most
+         * groups are small.
+         */
+        ZIPF
+    }
+
+    private final String baseDn;
+    private String usersOu = "users";
+    private String groupsOu = "groups";
+    private int userCount;
+    private int groupCount;
+    private int groupsPerUser = 1;
+    private MembershipDistribution distribution = MembershipDistribution.UNIFORM;
+    private String userPassword = "Password1";
+    private int batchSize = 1000;
+    private long seed;
+    /**
+     * The additional attributes and the size of their values by attribute name
+     */
+    private final Map<String, Integer> userAttributes = new LinkedHashMap<>();
+    private final Map<String, Integer> groupAttributes = new LinkedHashMap<>();
+
+    private long entryCount;
+    private long membershipCount;
+    private long durationNanos;
+
+    /**
+     * Creates a generator for a population below the specified base DN.
+     *
+     * @param baseDn
+     *         the DN of the existing entry below which the users and groups organizational units are created
+     */
+    public PopulationGenerator(final String baseDn) {
+
+        this.baseDn = baseDn;
+    }
+
+    /**
+     * Sets the number of users to generate.
+     *
+     * @param userCount
+     *         the number of users
+     */
+    public void setUserCount(final int userCount) {
+
+        this.userCount = userCount;
+    }
+
+    /**
+     * Sets the number of groups to generate.
+     *
+     * @param groupCount
+     *         the number of groups
+     */
+    public void setGroupCount(final int groupCount) {
+
+        this.groupCount = groupCount;
+    }
+
+    /**
+     * Sets the number of groups each user is member of. Default is 1.
+     *
+     * @param groupsPerUser
+     *         the number of groups per user, limited by the number of groups
+     */
+    public void setGroupsPerUser(final int groupsPerUser) {
+
+        this.groupsPerUser = groupsPerUser;
+    }
+
+    /**
+     * Sets the distribution of the group memberships. Default is uniform.
+     *
+     * @param distribution
+     *         the membership distribution
+     */
+    public void setMembershipDistribution(final MembershipDistribution distribution) {
+
+        this.distribution = distribution;
+    }
+
+    /**
+     * Sets the names of the organizational units for users and groups. Defaults are users and groups.
+     *
+     * @param usersOu
+     *         the name of the organizational unit containing the users
+     * @param groupsOu
+     *         the name of the organizational unit containing the groups
+     */
+    public void setOrganizationalUnits(final String usersOu, final String groupsOu) {
+
+        this.usersOu = usersOu;
+        this.groupsOu = groupsOu;
+    }
+
+    /**
+     * Sets the password of all users. Default is Password1.
+     *
+     * @param userPassword
+     *         the password of the users
+     */
+    public void setUserPassword(final String userPassword) {
+
+        this.userPassword = userPassword;
+    }
+
+    /**
+     * Sets the number of entries after which the partitions are synced. Default is 1000.
+     *
+     * @param batchSize
+     *         the number of entries per batch, must be greater than 0
+     */
+    public void setBatchSize(final int batchSize) {
+
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the seed for the random values and memberships. Default is 0.
+     *
+     * @param seed
+     *         the seed of the random values
+     */
+    public void setSeed(final long seed) {
+
+        this.seed = seed;
+    }
+
+    /**
+     * Adds an attribute that is set on every user with a random value.
+     *
+     * @param attribute
+     *         the name of the attribute, which has to be defined in the schema and allowed for inetOrgPerson
+     * @param size
+     *         the number of characters of the value
+     */
+    public void addUserAttribute(final String attribute, final int size) {
+
+        this.userAttributes.put(attribute, size);
+    }
+
+    /**
+     * Adds an attribute that is set on every group with a random value.
+     *
+     * @param attribute
+     *         the name of the attribute, which has to be defined in the schema and allowed for groupOfUniqueNames
+     * @param size
+     *         the number of characters of the value
+     */
+    public void addGroupAttribute(final String attribute, final int size) {
+
+        this.groupAttributes.put(attribute, size);
+    }
+
+    /**
+     * @return the DN of the generated user with the specified index
+     */
+    public String getUserDn(final int index) {
+
+        return "uid=user" + index + ",ou=" + this.usersOu + ',' + this.baseDn;
+    }
+
+    /**
+     * @return the DN of the generated group with the specified index
+     */
+    public String getGroupDn(final int index) {
+
+        return "cn=group" + index + ",ou=" + this.groupsOu + ',' + this.baseDn;
+    }
+
+    /**
+     * Generates the population in the specified directory service. The organizational units are created if they
+     * don't exist.
+     *
+     * @param service
+     *         the started directory service containing the partition of the base DN
+     *
+     * @throws Exception
+     *         if an entry could not be created or the partitions could not be synced
+     */
+    public void generate(final DirectoryService service) throws Exception { //NOSONAR
+
+        final long start = System.nanoTime();
+        final Generation generation = new Generation(service);
+        generation.addOrganizationalUnit(this.usersOu);
+        generation.addOrganizationalUnit(this.groupsOu);
+        final int[][] members = generation.assignMembers();
+        for (int i = 0; i < this.userCount; i++) {
+            generation.addUser(i);
+        }
+        for (int i = 0; i < this.groupCount; i++) {
+            generation.addGroup(i, members[i]);
+            members[i] = null;
+        }
+        generation.nexus.sync();
+        this.entryCount = generation.count;
+        this.membershipCount = generation.memberships;
+        this.durationNanos = System.nanoTime() - start;
+        LOG.info("Generated {} entries with {} memberships in {} ms ({} entries/s)",
+                 this.entryCount,
+                 this.membershipCount,
+                 TimeUnit.NANOSECONDS.toMillis(this.durationNanos),
+                 String.format("%.1f", getEntriesPerSecond()));
+    }
+
+    /**
+     * @return the number of entries created by the last generation, including the organizational units
+     */
+    public long getEntryCount() {
+
+        return this.entryCount;
+    }
+
+    /**
+     * @return the number of group memberships created by the last generation
+     */
+    public long getMembershipCount() {
+
+        return this.membershipCount;
+    }
+
+    /**
+     * @param unit
+     *         the time unit of the result
+     *
+     * @return the duration of the last generation
+     */
+    public long getDuration(final TimeUnit unit) {
+
+        return unit.convert(this.durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of entries created per second by the last generation
+     */
+    public double getEntriesPerSecond() {
+
+        if (this.durationNanos == 0) {
+            return 0;
+        }
+        return this.entryCount * (double) TimeUnit.SECONDS.toNanos(1) / this.durationNanos;
+    }
+
+    @Override
+    public String toString() {
+
+        return "PopulationGenerator{" + this.baseDn + ", usersOu=" + this.usersOu + ", groupsOu=" + this.groupsOu
+                + ", users=" + this.userCount + ", groups=" + this.groupCount + ", groupsPerUser=" + this.groupsPerUser
+                + ", distribution=" + this.distribution + ", userPassword=" + this.userPassword + ", userAttributes="
+                + this.userAttributes + ", groupAttributes=" + this.groupAttributes + ", seed=" + this.seed + '}';
+    }
+
+    /**
+     * State of a single generation.
+     */
+    private class Generation {
+
+        private final DirectoryService service;
+        private final CoreSession session;
+        private final PartitionNexus nexus;
+        private final Random random = new Random(seed);
+        private final String creatorsName;
+        private final String createTimestamp;
+        private long count;
+        private long memberships;
+
+        Generation(final DirectoryService service) throws LdapException {
+
+            this.service = service;
+            this.session = service.getAdminSession();
+            this.nexus = service.getPartitionNexus();
+            this.creatorsName = this.session.getEffectivePrincipal().getName();
+            this.createTimestamp = DateUtils.getGeneralizedTime();
+        }
+
+        /**
+         * Assigns the users to the groups.
+         *
+         * @return the indices of the member users by group index
+         */
+        int[][] assignMembers() {
+
+            final int[][] members = new int[groupCount][];
+            final int[] sizes = new int[groupCount];
+            if (groupCount == 0) {
+                return members;
+            }
+            final double[] cumulative = this.cumulativeWeights();
+            final int memberships = Math.min(groupsPerUser, groupCount);
+            final boolean[] chosen = new boolean[groupCount];
+            final int[] groups = new int[memberships];
+            for (int user = 0; user < userCount; user++) {
+                for (int i = 0; i < memberships; i++) {
+                    int group = this.nextGroup(cumulative);
+                    while (chosen[group]) {
+                        group = (group + 1) % groupCount;
+                    }
+                    chosen[group] = true;
+                    groups[i] = group;
+                    add(members, sizes, group, user);
+                }
+                for (int group : groups) {
+                    chosen[group] = false;
+                }
+            }
+            for (int group = 0; group < groupCount; group++) {
+                members[group] = members[group] == null ? new int[0] : Arrays.copyOf(members[group], sizes[group]);
+                this.memberships += sizes[group];
+            }
+            return members;
+        }
+
+        private void add(final int[][] members, final int[] sizes, final int group, final int user) {
+
+            if (members[group] == null) {
+                members[group] = new int[16];
+            } else if (sizes[group] == members[group].length) {
+                members[group] = Arrays.copyOf(members[group], sizes[group] * 2);
+            }
+            members[group][sizes[group]++] = user;
+        }
+
+        private double[] cumulativeWeights() {
+
+            final double[] cumulative = new double[groupCount];
+            double sum = 0;
+            for (int i = 0; i < groupCount; i++) {
+                sum += distribution == MembershipDistribution.ZIPF ? 1.0 / (i + 1) : 1.0;
+                cumulative[i] = sum;
+            }
+            return cumulative;
+        }
+
+        private int nextGroup(final double[] cumulative) {
+
+            final int index = Arrays.binarySearch(cumulative, this.random.nextDouble() * cumulative[groupCount - 1]);
+            return Math.min(index < 0 ? -index - 1 : index, groupCount - 1);
+        }
+
+        void addOrganizationalUnit(final String ou) throws Exception { //NOSONAR
+
+            final Dn dn = this.service.getDnFactory().create("ou=" + ou + ',' + baseDn);
+            if (this.session.exists(dn)) {
+                return;
+            }
+            final Entry entry = new DefaultEntry(this.service.getSchemaManager(), dn);
+            entry.add(SchemaConstants.OBJECT_CLASS_AT, "top", "organizationalUnit");
+            entry.add("ou", ou);
+            this.add(entry);
+        }
+
+        void addUser(final int index) throws Exception { //NOSONAR
+
+            final Entry entry = new DefaultEntry(this.service.getSchemaManager(),
+                                                 this.service.getDnFactory().create(getUserDn(index)));
+            entry.add(SchemaConstants.OBJECT_CLASS_AT, "top", "person", "organizationalPerson", "inetOrgPerson");
+            entry.add("uid", "user" + index);
+            entry.add("cn", "User " + index);
+            entry.add("sn", String.valueOf(index));
+            entry.add("mail", "user" + index + "@" + usersOu + ".scribble.inkstand.io");
+            entry.add("userPassword", userPassword);
+            for (Map.Entry<String, Integer> attribute : userAttributes.entrySet()) {
+                entry.add(attribute.getKey(), this.randomValue(attribute.getValue()));
+            }
+            this.add(entry);
+        }
+
+        void addGroup(final int index, final int[] members) throws Exception { //NOSONAR
+
+            final Entry entry = new DefaultEntry(this.service.getSchemaManager(),
+                                                 this.service.getDnFactory().create(getGroupDn(index)));
+            entry.add(SchemaConstants.OBJECT_CLASS_AT, "top", "groupOfUniqueNames");
+            entry.add("cn", "group" + index);
+            final String[] memberDns;
+            if (members.length == 0) {
+                //uniqueMember is mandatory, a group without users contains the creator
+                memberDns = new String[] { this.creatorsName };
+            } else {
+                memberDns = new String[members.length];
+                for (int i = 0; i < members.length; i++) {
+                    memberDns[i] = getUserDn(members[i]);
+                }
+            }
+            entry.add("uniqueMember", memberDns);
+            for (Map.Entry<String, Integer> attribute : groupAttributes.entrySet()) {
+                entry.add(attribute.getKey(), this.randomValue(attribute.getValue()));
+            }
+            this.add(entry);
+        }
+
+        /**
+         * Adds the operational attributes otherwise set by the interceptors and adds the entry to the partition. The
+         * entryUUID is derived from the seed and the DN of the entry, so the same settings produce the same UUIDs,
+         * while populations of different generators with the same seed do not collide in the same partition.
+         */
+        private void add(final Entry entry) throws Exception { //NOSONAR
+
+            final byte[] name = (seed + ":" + entry.getDn().getName()).getBytes(Charsets.UTF_8);
+            entry.add(SchemaConstants.ENTRY_UUID_AT, UUID.nameUUIDFromBytes(name).toString());
+            entry.add(SchemaConstants.ENTRY_CSN_AT, this.service.getCSN().toString());
+            entry.add(SchemaConstants.CREATORS_NAME_AT, this.creatorsName);
+            entry.add(SchemaConstants.CREATE_TIMESTAMP_AT, this.createTimestamp);
+            this.nexus.add(new AddOperationContext(this.session, entry));
+            if (++this.count % batchSize == 0) {
+                this.nexus.sync();
+                LOG.debug("Generated {} entries", this.count);
+            }
+        }
+
+        private String randomValue(final int size) {
+
+            final char[] chars = new char[size];
+            for (int i = 0; i < size; i++) {
+                chars[i] = CHARACTERS[this.random.nextInt(CHARACTERS.length)];
+            }
+            return new String(chars);
+        }
+    }
+}
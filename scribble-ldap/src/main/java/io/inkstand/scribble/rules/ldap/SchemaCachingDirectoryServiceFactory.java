@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap;
+
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.registries.SchemaLoader;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.constants.ServerDNConstants;
+import org.apache.directory.server.core.DefaultDirectoryService;
+import org.apache.directory.server.core.api.CacheService;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.InstanceLayout;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.schema.SchemaPartition;
+import org.apache.directory.server.core.factory.DirectoryServiceFactory;
+import org.apache.directory.server.core.factory.JdbmPartitionFactory;
+import org.apache.directory.server.core.factory.PartitionFactory;
+import org.apache.directory.server.core.partition.ldif.LdifPartition;
+import org.slf4j.Logger;
+
+/**
+ * Factory for directory services that extracts the LDIF files of the schema only once per version of the schema
+ * library instead of on every initialization. The <code>DefaultDirectoryServiceFactory</code> of ApacheDS extracts the
+ * schema from the classpath into the instance directory each time a service is created, which requires scanning the
+ * entire classpath. This factory extracts the schema once into a
+ * cache directory below <code>java.io.tmpdir</code> that is named after the version of the schema library and
+ * copies the extracted files into the instance directory of each service. The copy is required as the schema
+ * partition writes schema modifications to its files. Apart from the schema, the service is created the same way as
+ * by the default factory.
+ *
+ * @author Gerald Muecke, gerald@inkstand.io
+ */
+public class SchemaCachingDirectoryServiceFactory implements DirectoryServiceFactory {
+
+    private static final Logger LOG = getLogger(SchemaCachingDirectoryServiceFactory.class);
+
+    /**
+     * Lock for the extraction of the schema into the cache directory by concurrent factories of this JVM.
+     */
+    private static final Object SCHEMA_CACHE_LOCK = new Object();
+
+    private final DirectoryService directoryService;
+
+    private final PartitionFactory partitionFactory;
+
+    public SchemaCachingDirectoryServiceFactory() {
+
+        try {
+            this.directoryService = new DefaultDirectoryService();
+            //the service of a test is shut down by the rule
+            this.directoryService.setShutdownHookEnabled(false);
+        } catch (Exception e) { //NOSONAR
+            throw new AssertionError("Could not create directory service", e);
+        }
+        this.partitionFactory = new JdbmPartitionFactory();
+    }
+
+    @Override
+    public void init(final String name) throws Exception { //NOSONAR
+
+        if (this.directoryService.isStarted()) {
+            return;
+        }
+        this.directoryService.setInstanceId(name);
+        this.directoryService.setInstanceLayout(createInstanceLayout(name));
+        final CacheService cacheService = new CacheService();
+        cacheService.initialize(this.directoryService.getInstanceLayout());
+        this.directoryService.setCacheService(cacheService);
+
+        this.initSchema();
+        this.initSystemPartition();
+        this.directoryService.startup();
+    }
+
+    @Override
+    public DirectoryService getDirectoryService() throws Exception { //NOSONAR
+
+        return this.directoryService;
+    }
+
+    @Override
+    public PartitionFactory getPartitionFactory() throws Exception { //NOSONAR
+
+        return this.partitionFactory;
+    }
+
+    /**
+     * Creates the instance layout in a clean instance directory. As with the default factory, the instance directory
+     * is taken from the <code>workingDirectory</code> system property or created below <code>java.io.tmpdir</code>.
+     */
+    private static InstanceLayout createInstanceLayout(final String name) throws IOException {
+
+        String instanceDirectory = System.getProperty("workingDirectory");
+        if (instanceDirectory == null) {
+            instanceDirectory = System.getProperty("java.io.tmpdir") + "/server-work-" + name;
+        }
+        final InstanceLayout instanceLayout = new InstanceLayout(instanceDirectory);
+        if (instanceLayout.getInstanceDirectory().exists()) {
+            FileUtils.deleteDirectory(instanceLayout.getInstanceDirectory());
+        }
+        return instanceLayout;
+    }
+
+    /**
+     * Copies the cached schema into the partitions directory of the instance and loads the schema manager and the
+     * schema partition from the copy.
+     */
+    private void initSchema() throws Exception { //NOSONAR
+
+        final File partitionsDirectory = this.directoryService.getInstanceLayout().getPartitionsDirectory();
+        final File schemaDirectory = new File(partitionsDirectory, "schema");
+        FileUtils.copyDirectory(getSchemaCache(), schemaDirectory);
+
+        final SchemaLoader loader = new LdifSchemaLoader(schemaDirectory);
+        final SchemaManager schemaManager = new DefaultSchemaManager(loader);
+        schemaManager.loadAllEnabled();
+        final List<Throwable> errors = schemaManager.getErrors();
+        if (!errors.isEmpty()) {
+            throw new AssertionError("Could not load schema: " + errors);
+        }
+        this.directoryService.setSchemaManager(schemaManager);
+
+        final LdifPartition ldifPartition = new LdifPartition(schemaManager, this.directoryService.getDnFactory());
+        ldifPartition.setPartitionPath(schemaDirectory.toURI());
+        final SchemaPartition schemaPartition = new SchemaPartition(schemaManager);
+        schemaPartition.setWrappedPartition(ldifPartition);
+        this.directoryService.setSchemaPartition(schemaPartition);
+    }
+
+    private void initSystemPartition() throws Exception { //NOSONAR
+
+        final Partition systemPartition = this.partitionFactory.createPartition(
+                this.directoryService.getSchemaManager(),
+                this.directoryService.getDnFactory(),
+                "system",
+                ServerDNConstants.SYSTEM_DN,
+                500,
+                new File(this.directoryService.getInstanceLayout().getPartitionsDirectory(), "system"));
+        systemPartition.setSchemaManager(this.directoryService.getSchemaManager());
+        this.partitionFactory.addIndex(systemPartition, SchemaConstants.OBJECT_CLASS_AT, 100);
+        this.directoryService.setSystemPartition(systemPartition);
+    }
+
+    /**
+     * Provides the directory containing the extracted schema of the schema library on the classpath. The schema is
+     * extracted into a temporary directory first, which is then moved to the cache directory, so that the cache
+     * directory is either complete or absent, even if several JVMs extract the schema at the same time.
+     *
+     * @return the directory of the extracted schema
+     *
+     * @throws IOException
+     *         if the schema could not be extracted
+     */
+    static File getSchemaCache() throws IOException {
+
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        final File cacheDir = new File(tmpDir, "scribble-schema-" + getSchemaVersion());
+        final File schemaDir = new File(cacheDir, "schema");
+        synchronized (SCHEMA_CACHE_LOCK) {
+            if (!schemaDir.isDirectory()) {
+                LOG.info("Extracting schema to {}", cacheDir);
+                final File extractDir = Files.createTempDirectory(tmpDir.toPath(), "scribble-schema").toFile();
+                new DefaultSchemaLdifExtractor(extractDir).extractOrCopy();
+                try {
+                    Files.move(extractDir.toPath(), cacheDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    FileUtils.deleteDirectory(extractDir);
+                    if (!schemaDir.isDirectory()) {
+                        throw e;
+                    }
+                    LOG.debug("Schema has been extracted to {} concurrently", cacheDir, e);
+                }
+            }
+        }
+        return schemaDir;
+    }
+
+    /**
+     * Determines the version of the schema library, either from the manifest or from the name of the library.
+     */
+    private static String getSchemaVersion() {
+
+        final String version = DefaultSchemaLdifExtractor.class.getPackage().getImplementationVersion();
+        if (version != null) {
+            return version;
+        }
+        final CodeSource codeSource = DefaultSchemaLdifExtractor.class.getProtectionDomain().getCodeSource();
+        if (codeSource == null) {
+            return "unknown";
+        }
+        try {
+            return new File(codeSource.getLocation().toURI()).getName().replaceAll("[^\\w.-]", "_");
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("Could not determine schema version", e);
+        }
+    }
+}
@@ -22,6 +22,8 @@ import java.util.Map;
 
 import io.inkstand.scribble.Builder;
 import io.inkstand.scribble.rules.ldap.Directory;
+import io.inkstand.scribble.rules.ldap.PopulationGenerator;
+import io.inkstand.scribble.rules.ldap.PopulationGenerator.MembershipDistribution;
 import org.junit.rules.TemporaryFolder;
 
 /**
@@ -33,10 +35,20 @@ public class DirectoryBuilder implements Builder<Directory> {
 
     private transient final TemporaryFolder temporaryFolder;
 
-    private transient final Map<String, String> partitions;
+    private transient final Map<String, PartitionSettings> partitions;
 
     private transient URL ldif;
 
+    /**
+     * Number of entries of the ldif that are added to the directory at once.
+     */
+    private transient int importProgressInterval = 1000;
+
+    /**
+     * Flag that indicates that the directory service should be shared with all directories of the same settings.
+     */
+    private transient boolean sharedService;
+
     /**
      * Flag that indicates that access control should be enabled in the directory service.
      */
@@ -47,6 +59,11 @@ public class DirectoryBuilder implements Builder<Directory> {
      */
     private transient boolean anonymousAllowed = true;
 
+    /**
+     * Generator of a synthetic population of users and groups.
+     */
+    private transient PopulationGenerator populationGenerator;
+
     /**
      * Constructor accepting a temporary folder. The directory requires a working directory where the contents of the
      * directory or temporary files are put in.
@@ -76,22 +93,32 @@ public class DirectoryBuilder implements Builder<Directory> {
     public Directory build() {
 
         final Directory dir = new Directory(this.temporaryFolder);
-        for (Map.Entry<String, String> partitionEntry : this.partitions.entrySet()) {
+        for (Map.Entry<String, PartitionSettings> partitionEntry : this.partitions.entrySet()) {
 
+            final PartitionSettings settings = partitionEntry.getValue();
             try {
-                dir.addPartition(partitionEntry.getKey(), partitionEntry.getValue());
+                dir.addPartition(partitionEntry.getKey(),
+                                 settings.suffix,
+                                 settings.cacheSize,
+                                 settings.syncOnWrite,
+                                 settings.indexAttributes);
             } catch (Exception e) { //NOSONAR
                 throw new AssertionError("Could not add partition "
                                                  + partitionEntry.getKey()
                                                  + ", "
-                                                 + partitionEntry.getValue(), e);
+                                                 + settings.suffix, e);
             }
         }
         if (this.ldif != null) {
             dir.setInitialContentLdif(this.ldif);
         }
+        dir.setImportProgressInterval(this.importProgressInterval);
+        dir.setSharedService(this.sharedService);
         dir.setAcEnabled(this.acEnabled);
         dir.setAnonymousAccess(this.anonymousAllowed);
+        if (this.populationGenerator != null) {
+            dir.setPopulationGenerator(this.populationGenerator);
+        }
 
         return dir;
     }
@@ -108,7 +135,34 @@ public class DirectoryBuilder implements Builder<Directory> {
      */
     public DirectoryBuilder withPartition(final String partitionId, final String suffix) {
 
-        this.partitions.put(partitionId, suffix);
+        return this.withPartition(partitionId, suffix, Directory.DEFAULT_CACHE_SIZE, true);
+    }
+
+    /**
+     * Adds a new partition to the {@link Directory} on initialization with the specified cache size, sync policy and
+     * indices. Attributes used in search filters, such as uid, mail or member, should be indexed to avoid scanning
+     * the entire partition on search. An index on the objectClass attribute is always created.
+     *
+     * @param partitionId
+     *         the id of the partition
+     * @param suffix
+     *         the suffix of the parition so that it can be addressed using a DN
+     * @param cacheSize
+     *         the number of entries cached by the partition
+     * @param syncOnWrite
+     *         <code>true</code> if the partition should be synced on every write
+     * @param indexAttributes
+     *         the attributes to create an index for
+     *
+     * @return this builder
+     */
+    public DirectoryBuilder withPartition(final String partitionId,
+                                          final String suffix,
+                                          final int cacheSize,
+                                          final boolean syncOnWrite,
+                                          final String... indexAttributes) {
+
+        this.partitions.put(partitionId, new PartitionSettings(suffix, cacheSize, syncOnWrite, indexAttributes));
         return this;
     }
 
@@ -127,6 +181,34 @@ public class DirectoryBuilder implements Builder<Directory> {
         return this;
     }
 
+    /**
+     * Sets the number of entries imported from an LDIF after which the {@link Directory} logs the progress of the
+     * import. Default is 1000.
+     *
+     * @param importProgressInterval
+     *         the number of entries between two progress messages, must be greater than 0
+     *
+     * @return this builder
+     */
+    public DirectoryBuilder withImportProgressInterval(final int importProgressInterval) {
+
+        this.importProgressInterval = importProgressInterval;
+        return this;
+    }
+
+    /**
+     * Uses a directory service that is shared by all {@link Directory} rules with the same settings in the JVM. The
+     * changes made by a test are reverted after the test, which is not safe if tests sharing the service run
+     * concurrently.
+     *
+     * @return this builder
+     */
+    public DirectoryBuilder withSharedService() {
+
+        this.sharedService = true;
+        return this;
+    }
+
     /**
      * Enables access control on the {@link Directory}. Default setting is disabled access control.
      *
@@ -148,4 +230,118 @@ public class DirectoryBuilder implements Builder<Directory> {
         this.anonymousAllowed = false;
         return this;
     }
+
+    /**
+     * Generates a synthetic population of users and groups below the specified base DN on initialization. The base
+     * entry has to be created by the imported LDIF. By default, every user is member of one group chosen uniformly.
+     *
+     * @param baseDn
+     *         the DN of the entry below which the organizational units of users and groups are created
+     * @param users
+     *         the number of users
+     * @param groups
+     *         the number of groups
+     *
+     * @return this builder
+     */
+    public DirectoryBuilder withPopulation(final String baseDn, final int users, final int groups) {
+
+        this.populationGenerator = new PopulationGenerator(baseDn);
+        this.populationGenerator.setUserCount(users);
+        this.populationGenerator.setGroupCount(groups);
+        return this;
+    }
+
+    /**
+     * Sets the number of groups each generated user is member of and how the groups are chosen.
+     *
+     * @param groupsPerUser
+     *         the number of groups per user
+     * @param distribution
+     *         the distribution of the memberships over the groups
+     *
+     * @return this builder
+     */
+    public DirectoryBuilder withMemberships(final int groupsPerUser, final MembershipDistribution distribution) {
+
+        this.requirePopulation().setGroupsPerUser(groupsPerUser);
+        this.populationGenerator.setMembershipDistribution(distribution);
+        return this;
+    }
+
+    /**
+     * Adds an attribute with a random value of the specified size to every generated user.
+     *
+     * @param attribute
+     *         the name of the attribute
+     * @param size
+     *         the number of characters of the value
+     *
+     * @return this builder
+     */
+    public DirectoryBuilder withUserAttribute(final String attribute, final int size) {
+
+        this.requirePopulation().addUserAttribute(attribute, size);
+        return this;
+    }
+
+    /**
+     * Adds an attribute with a random value of the specified size to every generated group.
+     *
+     * @param attribute
+     *         the name of the attribute
+     * @param size
+     *         the number of characters of the value
+     *
+     * @return this builder
+     */
+    public DirectoryBuilder withGroupAttribute(final String attribute, final int size) {
+
+        this.requirePopulation().addGroupAttribute(attribute, size);
+        return this;
+    }
+
+    /**
+     * Sets the seed for the random values and memberships of the generated population.
+     *
+     * @param seed
+     *         the seed of the random values
+     *
+     * @return this builder
+     */
+    public DirectoryBuilder withPopulationSeed(final long seed) {
+
+        this.requirePopulation().setSeed(seed);
+        return this;
+    }
+
+    private PopulationGenerator requirePopulation() {
+
+        if (this.populationGenerator == null) {
+            throw new IllegalStateException("No population defined");
+        }
+        return this.populationGenerator;
+    }
+
+    /**
+     * The settings of a partition to be added to the {@link Directory}.
+     */
+    private static final class PartitionSettings {
+
+        private final String suffix;
+        private final int cacheSize;
+        private final boolean syncOnWrite;
+        private final String[] indexAttributes;
+
+        PartitionSettings(final String suffix,
+                          final int cacheSize,
+                          final boolean syncOnWrite,
+                          final String... indexAttributes) {
+
+            this.suffix = suffix;
+            this.cacheSize = cacheSize;
+            this.syncOnWrite = syncOnWrite;
+            this.indexAttributes = indexAttributes.clone();
+        }
+    }
 }
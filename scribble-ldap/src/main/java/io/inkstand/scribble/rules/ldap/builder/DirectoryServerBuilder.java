@@ -47,6 +47,51 @@ public class DirectoryServerBuilder implements Builder<DirectoryServer> {
      */
     private transient boolean autoBindMode;
 
+    /**
+     * The maximum number of pending connections.
+     */
+    private transient int backlog = -1;
+
+    /**
+     * The number of I/O processor threads.
+     */
+    private transient int nbThreads = -1;
+
+    /**
+     * The maximum number of entries returned by a search.
+     */
+    private transient long maxSizeLimit = -1;
+
+    /**
+     * The maximum duration of a search in seconds.
+     */
+    private transient int maxTimeLimit = -1;
+
+    /**
+     * Flag to indicate the server should accept LDAPS connections.
+     */
+    private transient boolean ldapsEnabled;
+
+    /**
+     * The port the server should accept LDAPS connections.
+     */
+    private transient int ldapsPort = -1;
+
+    /**
+     * Flag to indicate the operations of the server should be recorded.
+     */
+    private transient boolean metricsEnabled;
+
+    /**
+     * The number of slowest operations to keep.
+     */
+    private transient int slowLogSize = -1;
+
+    /**
+     * Flag to indicate faults should be injected into the requests of the server.
+     */
+    private transient boolean faultInjectionEnabled;
+
     public DirectoryServerBuilder(final Directory directory) {
 
         this.directory = directory;
@@ -62,6 +107,19 @@ public class DirectoryServerBuilder implements Builder<DirectoryServer> {
         }
         directoryServer.setListenAddress(this.listenAddress);
         directoryServer.setAutoBind(this.autoBindMode);
+        directoryServer.setBacklog(this.backlog);
+        directoryServer.setNbThreads(this.nbThreads);
+        directoryServer.setMaxSizeLimit(this.maxSizeLimit);
+        directoryServer.setMaxTimeLimit(this.maxTimeLimit);
+        directoryServer.setLdapsEnabled(this.ldapsEnabled);
+        if (this.ldapsPort != -1) {
+            directoryServer.setLdapsPort(this.ldapsPort);
+        }
+        directoryServer.setMetricsEnabled(this.metricsEnabled);
+        if (this.slowLogSize != -1) {
+            directoryServer.setSlowLogSize(this.slowLogSize);
+        }
+        directoryServer.setFaultInjectionEnabled(this.faultInjectionEnabled);
         return directoryServer;
     }
 
@@ -108,4 +166,139 @@ public class DirectoryServerBuilder implements Builder<DirectoryServer> {
 
         return this;
     }
+
+    /**
+     * Specifies the maximum number of pending connections of the server. Increase it for tests that open many
+     * concurrent connections. If not specified, the default of ApacheDS is used.
+     *
+     * @param backlog
+     *         the maximum number of pending connections
+     *
+     * @return this builder
+     */
+    public DirectoryServerBuilder withBacklog(final int backlog) {
+
+        this.backlog = backlog;
+
+        return this;
+    }
+
+    /**
+     * Specifies the number of I/O processor threads of the server. If not specified, the default of ApacheDS is used.
+     *
+     * @param threads
+     *         the number of threads
+     *
+     * @return this builder
+     */
+    public DirectoryServerBuilder withIoThreads(final int threads) {
+
+        this.nbThreads = threads;
+
+        return this;
+    }
+
+    /**
+     * Specifies the maximum number of entries the server returns for a search. If not specified, the default of
+     * ApacheDS is used.
+     *
+     * @param maxSizeLimit
+     *         the maximum number of entries, 0 for no limit
+     *
+     * @return this builder
+     */
+    public DirectoryServerBuilder withMaxSizeLimit(final long maxSizeLimit) {
+
+        this.maxSizeLimit = maxSizeLimit;
+
+        return this;
+    }
+
+    /**
+     * Specifies the maximum duration of a search. If not specified, the default of ApacheDS is used.
+     *
+     * @param maxTimeLimit
+     *         the maximum duration in seconds, 0 for no limit
+     *
+     * @return this builder
+     */
+    public DirectoryServerBuilder withMaxTimeLimit(final int maxTimeLimit) {
+
+        this.maxTimeLimit = maxTimeLimit;
+
+        return this;
+    }
+
+    /**
+     * Specifies that the server should accept LDAPS connections on the default LDAPS port 10636, or on an available
+     * port if {@link #onAvailablePort()} is used. The server uses the self-signed certificate of the directory service.
+     *
+     * @return this builder
+     */
+    public DirectoryServerBuilder withLdaps() {
+
+        this.ldapsEnabled = true;
+
+        return this;
+    }
+
+    /**
+     * Specifies that the server should accept LDAPS connections on the specified port. The server uses the
+     * self-signed certificate of the directory service.
+     *
+     * @param port
+     *         the port to use for servicing LDAPS requests
+     *
+     * @return this builder
+     */
+    public DirectoryServerBuilder withLdaps(final int port) {
+
+        this.ldapsEnabled = true;
+        this.ldapsPort = port;
+
+        return this;
+    }
+
+    /**
+     * Specifies that the operations processed by the server should be recorded. The metrics can be retrieved from the
+     * rule using {@link DirectoryServer#getMetrics()}.
+     *
+     * @return this builder
+     */
+    public DirectoryServerBuilder withMetrics() {
+
+        this.metricsEnabled = true;
+
+        return this;
+    }
+
+    /**
+     * Specifies that the operations processed by the server should be recorded, keeping the specified number of
+     * slowest operations.
+     *
+     * @param slowLogSize
+     *         the number of slowest operations to keep
+     *
+     * @return this builder
+     */
+    public DirectoryServerBuilder withMetrics(final int slowLogSize) {
+
+        this.metricsEnabled = true;
+        this.slowLogSize = slowLogSize;
+
+        return this;
+    }
+
+    /**
+     * Specifies that a fault injector should be installed on the server. The faults are configured during the test
+     * using {@link DirectoryServer#getFaultInjector()}.
+     *
+     * @return this builder
+     */
+    public DirectoryServerBuilder withFaultInjection() {
+
+        this.faultInjectionEnabled = true;
+
+        return this;
+    }
 }
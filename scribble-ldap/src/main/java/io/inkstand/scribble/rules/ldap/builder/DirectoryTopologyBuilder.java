@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap.builder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.inkstand.scribble.Builder;
+import io.inkstand.scribble.rules.ldap.DirectoryServer;
+import io.inkstand.scribble.rules.ldap.DirectoryTopology;
+
+/**
+ * Builder for creating a {@link DirectoryTopology} rule. The first server added to the builder becomes the replication
+ * provider, all subsequent servers replicate its content.
+ */
+public class DirectoryTopologyBuilder implements Builder<DirectoryTopology> {
+
+    /**
+     * The DN of the replicated content.
+     */
+    private final transient String baseDn;
+
+    /**
+     * The servers of the topology, the provider first.
+     */
+    private final transient List<DirectoryServer> nodes = new ArrayList<>();
+
+    /**
+     * The maximum artificial replication lag in milliseconds.
+     */
+    private transient long replicationLag = -1;
+
+    public DirectoryTopologyBuilder(final String baseDn) {
+
+        this.baseDn = baseDn;
+    }
+
+    @Override
+    public DirectoryTopology build() {
+
+        final DirectoryTopology topology = new DirectoryTopology(this.baseDn,
+                                                                 this.nodes.toArray(new DirectoryServer[this.nodes
+                                                                         .size()]));
+        if (this.replicationLag != -1) {
+            topology.setReplicationLag(this.replicationLag, TimeUnit.MILLISECONDS);
+        }
+        return topology;
+    }
+
+    /**
+     * Adds a server to the topology. The first server is the replication provider. As all servers run in the same
+     * JVM, each server should be started on an available port and each directory should use its own temporary folder.
+     *
+     * @param server
+     *         the builder of the server to add
+     *
+     * @return this builder
+     */
+    public DirectoryTopologyBuilder withNode(final DirectoryServerBuilder server) {
+
+        this.nodes.add(server.build());
+
+        return this;
+    }
+
+    /**
+     * Specifies that the consumers refresh the replicated content in the specified interval instead of receiving the
+     * changes immediately, which simulates replication lag of up to the interval.
+     *
+     * @param lag
+     *         the maximum replication lag
+     * @param unit
+     *         the unit of the lag
+     *
+     * @return this builder
+     */
+    public DirectoryTopologyBuilder withReplicationLag(final long lag, final TimeUnit unit) {
+
+        this.replicationLag = unit.toMillis(lag);
+
+        return this;
+    }
+}
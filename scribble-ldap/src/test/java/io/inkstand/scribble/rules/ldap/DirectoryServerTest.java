@@ -18,14 +18,19 @@ package io.inkstand.scribble.rules.ldap;
 
 import static io.inkstand.scribble.net.NetworkUtils.findAvailablePort;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InstanceLayout;
 import org.apache.directory.server.core.factory.DefaultDirectoryServiceFactory;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
 import org.apache.directory.server.core.factory.DirectoryServiceFactory;
+import org.apache.directory.server.protocol.shared.transport.Transport;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -189,6 +194,108 @@ public class DirectoryServerTest {
 
     }
 
+    @Test
+    public void testStartAndStopServer_tunedTransportWithLdaps() throws Exception {
+        //prepare
+        int port = findAvailablePort();
+        int ldapsPort = findAvailablePort();
+        subject.setTcpPort(port);
+        subject.setListenAddress("localhost");
+        subject.setBacklog(500);
+        subject.setNbThreads(8);
+        subject.setMaxSizeLimit(0);
+        subject.setMaxTimeLimit(30);
+        subject.setLdapsEnabled(true);
+        subject.setLdapsPort(ldapsPort);
+
+        //act
+        Transport[] transports;
+        boolean started;
+        long sizeLimit;
+        int timeLimit;
+        try {
+            subject.startServer();
+            started = subject.getLdapServer().isStarted();
+            transports = subject.getLdapServer().getTransports();
+            sizeLimit = subject.getLdapServer().getMaxSizeLimit();
+            timeLimit = subject.getLdapServer().getMaxTimeLimit();
+        } finally {
+            subject.shutdownServer();
+        }
+
+        //assert
+        assertTrue(started);
+        assertEquals(2, transports.length);
+        assertEquals("localhost", transports[0].getAddress());
+        assertEquals(port, transports[0].getPort());
+        assertEquals(500, transports[0].getBackLog());
+        assertEquals(8, transports[0].getNbThreads());
+        assertFalse(transports[0].isSSLEnabled());
+        assertEquals(ldapsPort, transports[1].getPort());
+        assertTrue(transports[1].isSSLEnabled());
+        assertEquals(0, sizeLimit);
+        assertEquals(30, timeLimit);
+    }
+
+    @Test
+    public void testStartAndStopServer_withMetrics() throws Exception {
+        //prepare
+        subject.setTcpPort(findAvailablePort());
+        subject.setMetricsEnabled(true);
+        subject.setSlowLogSize(5);
+
+        //act
+        Interceptor installed;
+        try {
+            subject.startServer();
+            installed = directoryService.getInterceptor(MetricsInterceptor.NAME);
+        } finally {
+            subject.shutdownServer();
+        }
+
+        //assert
+        assertTrue(subject.isMetricsEnabled());
+        assertNotNull(subject.getMetrics());
+        assertSame(subject.getMetrics(), installed);
+        assertNull(directoryService.getInterceptor(MetricsInterceptor.NAME));
+    }
+
+    @Test
+    public void testGetMetrics_disabled() throws Exception {
+        //prepare
+        subject.setTcpPort(findAvailablePort());
+
+        //act
+        try {
+            subject.startServer();
+        } finally {
+            subject.shutdownServer();
+        }
+
+        //assert
+        assertFalse(subject.isMetricsEnabled());
+        assertNull(subject.getMetrics());
+    }
+
+    @Test
+    public void testGetTuning_default() throws Exception {
+        //prepare
+
+        //act
+        int backlog = subject.getBacklog();
+        int nbThreads = subject.getNbThreads();
+        long maxSizeLimit = subject.getMaxSizeLimit();
+        int maxTimeLimit = subject.getMaxTimeLimit();
+
+        //assert
+        assertEquals(-1, backlog);
+        assertEquals(-1, nbThreads);
+        assertEquals(-1, maxSizeLimit);
+        assertEquals(-1, maxTimeLimit);
+        assertFalse(subject.isLdapsEnabled());
+        assertEquals(10636, subject.getLdapsPort());
+    }
+
     @Test
     public void testGetDirectoryService() throws Exception {
         //prepare
@@ -19,6 +19,8 @@ package io.inkstand.scribble.rules.ldap;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
@@ -26,8 +28,10 @@ import static org.mockito.Mockito.when;
 import static org.slf4j.LoggerFactory.getLogger;
 
 import java.io.File;
+import java.io.StringWriter;
 import java.net.URL;
 import java.util.Set;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.CacheService;
@@ -55,6 +59,8 @@ public class DirectoryTest {
 
     @Rule
     public TemporaryFolder folder = new TemporaryFolder();
+    @Rule
+    public TemporaryFolder otherFolder = new TemporaryFolder();
     /**
      * The class under test
      */
@@ -225,6 +231,29 @@ public class DirectoryTest {
         assertContainsPartition(partitions, "testPartition", "dc=test");
     }
 
+    @Test
+    public void testAddPartition_withCacheSizeSyncAndIndices() throws Exception {
+        //prepare
+
+        //act
+        subject.addPartition("testPartition", "dc=test", 100, false, "uid", "mail");
+        subject.setupService();
+
+        //assert
+        Set<? extends Partition> partitions = subject.getDirectoryService().getPartitions();
+        assertContainsPartition(partitions, "testPartition", "dc=test");
+        for (Partition p : partitions) {
+            if ("testPartition".equals(p.getId())) {
+                final AvlPartition partition = (AvlPartition) p;
+                final SchemaManager schemaManager = subject.getDirectoryService().getSchemaManager();
+                assertEquals(100, partition.getCacheSize());
+                assertFalse(partition.isSyncOnWrite());
+                assertTrue(partition.hasIndexOn(schemaManager.lookupAttributeTypeRegistry("uid")));
+                assertTrue(partition.hasIndexOn(schemaManager.lookupAttributeTypeRegistry("mail")));
+            }
+        }
+    }
+
     @Test
     public void testImportLdif() throws Exception {
         //prepare
@@ -240,6 +269,135 @@ public class DirectoryTest {
         assertTrue(subject.getDirectoryService().getSession().exists("uid=testuser,ou=users,dc=scribble"));
     }
 
+    @Test
+    public void testImportLdif_progressAndCounters() throws Exception {
+        //prepare
+        URL ldifResource = getClass().getResource("DirectoryTest_testUsers.ldif");
+        subject.setImportProgressInterval(2);
+        subject.setupService();
+        subject.startService();
+        subject.addPartitionInternal("scribble", "dc=scribble");
+
+        //act
+        subject.importLdif(ldifResource.openStream());
+
+        //assert
+        assertEquals(5, subject.getImportedEntries());
+        assertEquals(0, subject.getSkippedEntries());
+        assertTrue(subject.getDirectoryService().getSession().exists("cn=testgroup,ou=groups,dc=scribble"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetImportProgressInterval_zero() throws Exception {
+        //act
+        subject.setImportProgressInterval(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetImportProgressInterval_negative() throws Exception {
+        //act
+        subject.setImportProgressInterval(-1);
+    }
+
+    @Test
+    public void testImportLdif_twice() throws Exception {
+        //prepare
+        URL ldifResource = getClass().getResource("DirectoryTest_testUsers.ldif");
+        subject.setupService();
+        subject.startService();
+        subject.addPartitionInternal("scribble", "dc=scribble");
+        subject.importLdif(ldifResource.openStream());
+
+        //act
+        subject.importLdif(ldifResource.openStream());
+
+        //assert
+        assertEquals(5, subject.getImportedEntries());
+        assertEquals(5, subject.getSkippedEntries());
+    }
+
+    @Test
+    public void testExportLdif() throws Exception {
+        //prepare
+        URL ldifResource = getClass().getResource("DirectoryTest_testUsers.ldif");
+        subject.setupService();
+        subject.startService();
+        subject.addPartitionInternal("scribble", "dc=scribble");
+        subject.importLdif(ldifResource.openStream());
+        StringWriter writer = new StringWriter();
+
+        //act
+        long entries = subject.exportLdif("ou=users,dc=scribble", writer);
+
+        //assert
+        assertEquals(2, entries);
+        assertTrue(writer.toString().startsWith("dn: ou=users,dc=scribble\n"));
+        assertTrue(writer.toString().contains("dn: uid=testuser,ou=users,dc=scribble\n"));
+    }
+
+    @Test
+    public void testApply_sharedService_revertsChanges() throws Throwable {
+        //prepare
+        URL ldifResource = getClass().getResource("DirectoryTest_testUsers.ldif");
+        final Directory first = new Directory(folder);
+        first.addPartition("scribble", "dc=scribble");
+        first.setInitialContentLdif(ldifResource);
+        first.setSharedService(true);
+        final Directory second = new Directory(otherFolder);
+        second.addPartition("scribble", "dc=scribble");
+        second.setInitialContentLdif(ldifResource);
+        second.setSharedService(true);
+
+        //act
+        first.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                final DirectoryService service = first.getDirectoryService();
+                service.getAdminSession().add(new DefaultEntry(service.getSchemaManager(),
+                                                               "cn=added,ou=users,dc=scribble",
+                                                               "objectClass: top",
+                                                               "objectClass: person",
+                                                               "cn: added",
+                                                               "sn: added"));
+                assertTrue(service.getAdminSession().exists("cn=added,ou=users,dc=scribble"));
+            }
+        }, description).evaluate();
+        second.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                //assert
+                final DirectoryService service = second.getDirectoryService();
+                assertSame(first.getDirectoryService(), service);
+                assertTrue(service.getAdminSession().exists("uid=testuser,ou=users,dc=scribble"));
+                assertFalse(service.getAdminSession().exists("cn=added,ou=users,dc=scribble"));
+            }
+        }, description).evaluate();
+        assertTrue(first.getDirectoryService().isStarted());
+    }
+
+    @Test
+    public void testGetDirectoryService_sharedService_differentPartitionSettings() throws Throwable {
+        //prepare
+        final Directory first = new Directory(folder);
+        first.addPartition("scribble", "dc=scribble", 100, false);
+        first.setSharedService(true);
+        final Directory second = new Directory(otherFolder);
+        second.addPartition("scribble", "dc=scribble", 200, false);
+        second.setSharedService(true);
+
+        //act
+        final DirectoryService firstService = first.getDirectoryService();
+        final DirectoryService secondService = second.getDirectoryService();
+
+        //assert
+        assertNotSame(firstService, secondService);
+        assertTrue(firstService.getChangeLog().isEnabled());
+    }
+
     @Test
     public void testTearDownService() throws Exception {
         //prepare
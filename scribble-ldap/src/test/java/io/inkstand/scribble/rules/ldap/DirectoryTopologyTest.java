@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.inkstand.scribble.rules.ldap.builder.DirectoryBuilder;
+
+public class DirectoryTopologyTest {
+
+    private static final String USER_DN = "uid=replicated,ou=users,dc=scribble";
+
+    public DirectoryServer provider = newNode().importLdif(DirectoryTopologyTest.class.getResource(
+            "DirectoryExample.ldif")).aroundDirectoryServer().onAvailablePort().build();
+
+    public DirectoryServer consumer = newNode().aroundDirectoryServer().onAvailablePort().build();
+
+    /**
+     * The class under test
+     */
+    @Rule
+    public DirectoryTopology subject = new DirectoryTopology("dc=scribble", provider, consumer);
+
+    @Test
+    public void testTopology() throws Exception {
+        //prepare
+
+        //act
+
+        //assert
+        assertSame(provider, subject.getProvider());
+        assertSame(provider, subject.getNode(0));
+        assertSame(consumer, subject.getNode(1));
+        assertEquals(1, subject.getConsumers().size());
+        assertTrue(provider.isReplicationProvider());
+        assertNull(provider.getReplicationSource());
+        assertFalse(consumer.isReplicationProvider());
+        assertSame(provider, consumer.getReplicationSource());
+        assertNotEquals(provider.getTcpPort(), consumer.getTcpPort());
+        assertEquals(2, subject.getTcpPorts().size());
+    }
+
+    @Test
+    public void testAwaitReplication_initialContent() throws Exception {
+        //prepare
+
+        //act
+        subject.awaitReplication("uid=testuser,ou=users,dc=scribble", 10, TimeUnit.SECONDS);
+
+        //assert
+        final CoreSession session = consumer.getDirectoryService().getAdminSession();
+        assertTrue(session.exists(new Dn("uid=testuser,ou=users,dc=scribble")));
+    }
+
+    @Test
+    public void testAwaitReplication_addedEntry() throws Exception {
+        //prepare
+        subject.awaitReplication("uid=testuser,ou=users,dc=scribble", 10, TimeUnit.SECONDS);
+
+        //act
+        addUser();
+        final long lag = subject.awaitReplication(USER_DN, 10, TimeUnit.SECONDS);
+
+        //assert
+        final CoreSession session = consumer.getDirectoryService().getAdminSession();
+        assertEquals("replicated", session.lookup(new Dn(USER_DN)).get("uid").getString());
+        assertEquals(lag, subject.getLastReplicationLag(TimeUnit.MILLISECONDS));
+        assertTrue(subject.getMaxReplicationLag(TimeUnit.MILLISECONDS) >= lag);
+    }
+
+    @Test
+    public void testAwaitReplication_deletedEntry() throws Exception {
+        //prepare
+        addUser();
+        subject.awaitReplication(USER_DN, 10, TimeUnit.SECONDS);
+
+        //act
+        provider.getDirectoryService().getAdminSession().delete(new Dn(USER_DN));
+        subject.awaitReplication(USER_DN, 10, TimeUnit.SECONDS);
+
+        //assert
+        assertFalse(consumer.getDirectoryService().getAdminSession().exists(new Dn(USER_DN)));
+    }
+
+    @Test
+    public void testAwaitReplication_timeout() throws Exception {
+        //prepare
+        //the entry does not exist on the consumer
+        final CoreSession session = consumer.getDirectoryService().getAdminSession();
+        subject.awaitReplication("uid=testuser,ou=users,dc=scribble", 10, TimeUnit.SECONDS);
+        session.delete(new Dn("uid=testuser,ou=users,dc=scribble"));
+
+        //act
+        try {
+            subject.awaitReplication("uid=testuser,ou=users,dc=scribble", 100, TimeUnit.MILLISECONDS);
+            fail("AssertionError expected");
+        } catch (AssertionError e) {
+            //assert
+            assertTrue(e.getMessage().contains("uid=testuser,ou=users,dc=scribble"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDirectoryTopology_singleNode() throws Exception {
+
+        new DirectoryTopology("dc=scribble", provider);
+    }
+
+    private static DirectoryBuilder newNode() {
+
+        return new DirectoryBuilder(new TemporaryFolder()).withPartition("scribble", "dc=scribble");
+    }
+
+    private void addUser() throws Exception {
+
+        provider.getDirectoryService()
+                .getAdminSession()
+                .add(new DefaultEntry(provider.getDirectoryService().getSchemaManager(),
+                                      USER_DN,
+                                      "objectClass: top",
+                                      "objectClass: person",
+                                      "objectClass: organizationalPerson",
+                                      "objectClass: inetOrgPerson",
+                                      "cn: replicated",
+                                      "sn: user",
+                                      "uid: replicated"));
+    }
+}
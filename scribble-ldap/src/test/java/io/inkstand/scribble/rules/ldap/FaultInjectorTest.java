@@ -0,0 +1,191 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.directory.api.ldap.model.message.BindRequestImpl;
+import org.apache.directory.api.ldap.model.message.BindResponse;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
+import org.apache.directory.api.ldap.model.message.UnbindRequestImpl;
+import org.apache.directory.server.protocol.shared.transport.Transport;
+import org.apache.mina.core.filterchain.DefaultIoFilterChainBuilder;
+import org.apache.mina.core.filterchain.IoFilter.NextFilter;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.service.IoAcceptor;
+import org.apache.mina.core.session.IoSession;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import io.inkstand.scribble.rules.ldap.MetricsInterceptor.Operation;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FaultInjectorTest {
+
+    @Mock
+    private NextFilter nextFilter;
+
+    @Mock
+    private IoSession session;
+
+    /**
+     * The class under test
+     */
+    private final FaultInjector subject = new FaultInjector();
+
+    @After
+    public void tearDown() throws Exception {
+
+        subject.shutdown();
+    }
+
+    @Test
+    public void testMessageReceived_noFaults() throws Exception {
+        //prepare
+        final BindRequestImpl request = new BindRequestImpl();
+
+        //act
+        subject.messageReceived(nextFilter, session, request);
+
+        //assert
+        verify(nextFilter).messageReceived(session, request);
+    }
+
+    @Test
+    public void testMessageReceived_delay() throws Exception {
+        //prepare
+        final SearchRequestImpl request = new SearchRequestImpl();
+        subject.delay(Operation.SEARCH, 200, TimeUnit.MILLISECONDS, 1.0);
+
+        //act
+        subject.messageReceived(nextFilter, session, request);
+
+        //assert
+        Thread.sleep(100);
+        verify(nextFilter, never()).messageReceived(session, request);
+        verify(nextFilter, timeout(1000)).messageReceived(session, request);
+        assertEquals(1, subject.getDelayedRequests());
+    }
+
+    @Test
+    public void testMessageReceived_delayOtherOperation() throws Exception {
+        //prepare
+        final BindRequestImpl request = new BindRequestImpl();
+        subject.delay(Operation.SEARCH, 1, TimeUnit.SECONDS, 1.0);
+
+        //act
+        subject.messageReceived(nextFilter, session, request);
+
+        //assert
+        verify(nextFilter).messageReceived(session, request);
+        assertEquals(0, subject.getDelayedRequests());
+    }
+
+    @Test
+    public void testMessageReceived_fail() throws Exception {
+        //prepare
+        final BindRequestImpl request = new BindRequestImpl();
+        request.setMessageId(7);
+        subject.fail(Operation.BIND, ResultCodeEnum.BUSY, 1.0);
+
+        //act
+        subject.messageReceived(nextFilter, session, request);
+
+        //assert
+        final ArgumentCaptor<Object> response = ArgumentCaptor.forClass(Object.class);
+        verify(session).write(response.capture());
+        verify(nextFilter, never()).messageReceived(session, request);
+        assertEquals(ResultCodeEnum.BUSY, ((BindResponse) response.getValue()).getLdapResult().getResultCode());
+        assertEquals(7, ((BindResponse) response.getValue()).getMessageId());
+        assertEquals(1, subject.getFailedRequests());
+    }
+
+    @Test
+    public void testMessageReceived_drop() throws Exception {
+        //prepare
+        final BindRequestImpl request = new BindRequestImpl();
+        subject.drop(Operation.BIND, 1.0);
+
+        //act
+        subject.messageReceived(nextFilter, session, request);
+
+        //assert
+        verify(session).close(true);
+        verify(nextFilter, never()).messageReceived(session, request);
+        assertEquals(1, subject.getDroppedConnections());
+    }
+
+    @Test
+    public void testMessageReceived_unsupportedOperation() throws Exception {
+        //prepare
+        final UnbindRequestImpl request = new UnbindRequestImpl();
+        subject.drop(Operation.BIND, 1.0);
+
+        //act
+        subject.messageReceived(nextFilter, session, request);
+
+        //assert
+        verify(nextFilter).messageReceived(session, request);
+        verify(session, never()).close(anyBoolean());
+    }
+
+    @Test
+    public void testClear() throws Exception {
+        //prepare
+        final BindRequestImpl request = new BindRequestImpl();
+        subject.fail(Operation.BIND, ResultCodeEnum.UNAVAILABLE, 1.0);
+
+        //act
+        subject.clear();
+        subject.messageReceived(nextFilter, session, request);
+
+        //assert
+        verify(nextFilter).messageReceived(session, request);
+        verify(session, never()).write(any());
+    }
+
+    @Test
+    public void testInstall() throws Exception {
+        //prepare
+        final Transport transport = mock(Transport.class);
+        final IoAcceptor acceptor = mock(IoAcceptor.class);
+        final DefaultIoFilterChainBuilder chain = new DefaultIoFilterChainBuilder();
+        chain.addLast("executor", new IoFilterAdapter());
+        when(transport.getAcceptor()).thenReturn(acceptor);
+        when(acceptor.getFilterChain()).thenReturn(chain);
+
+        //act
+        subject.install(transport);
+
+        //assert
+        assertEquals(FaultInjector.NAME, chain.getAll().get(0).getName());
+        assertEquals("executor", chain.getAll().get(1).getName());
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.ldif.LdifEntry;
+import org.apache.directory.api.ldap.model.ldif.LdifReader;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+
+import io.inkstand.scribble.rules.ldap.builder.DirectoryBuilder;
+
+public class LdifExporterTest {
+
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public Directory directory = new DirectoryBuilder(folder).withPartition("scribble", "dc=scribble")
+                                                             .importLdif(LdifExporterTest.class.getResource(
+                                                                     "DirectoryExample.ldif"))
+                                                             .build();
+
+    @Rule
+    public RuleChain chain = RuleChain.outerRule(folder).around(directory);
+
+    /**
+     * The class under test
+     */
+    private LdifExporter subject;
+
+    @Before
+    public void setUp() throws Exception {
+
+        subject = new LdifExporter(directory.getDirectoryService());
+    }
+
+    @Test
+    public void testExport_partition() throws Exception {
+        //prepare
+        final StringWriter writer = new StringWriter();
+
+        //act
+        final long entries = subject.export("dc=scribble", writer);
+
+        //assert
+        assertEquals(5, entries);
+        assertEquals(5, subject.getExportedEntries());
+        final List<String> dns = new ArrayList<>();
+        try (LdifReader reader = new LdifReader(new StringReader(writer.toString()))) {
+            for (LdifEntry entry : reader) {
+                dns.add(entry.getDn().getName());
+                //operational attributes are not exported
+                assertNull(entry.get("entryUUID"));
+            }
+        }
+        //parents before children, siblings ordered
+        assertEquals("dc=scribble", dns.get(0));
+        assertEquals("ou=groups,dc=scribble", dns.get(1));
+        assertEquals("cn=testgroup,ou=groups,dc=scribble", dns.get(2));
+        assertEquals("ou=users,dc=scribble", dns.get(3));
+        assertEquals("uid=testuser,ou=users,dc=scribble", dns.get(4));
+    }
+
+    @Test
+    public void testExport_subtree() throws Exception {
+        //prepare
+        final StringWriter writer = new StringWriter();
+
+        //act
+        final long entries = subject.export("ou=groups,dc=scribble", writer);
+
+        //assert
+        assertEquals(2, entries);
+        assertFalse(writer.toString().contains("ou=users"));
+    }
+
+    @Test
+    public void testExport_objectClassFirstAndValuesSorted() throws Exception {
+        //prepare
+        final StringWriter writer = new StringWriter();
+
+        //act
+        subject.export("cn=testgroup,ou=groups,dc=scribble", writer);
+
+        //assert
+        final String[] lines = writer.toString().split("\n");
+        assertEquals("dn: cn=testgroup,ou=groups,dc=scribble", lines[0]);
+        assertEquals("objectClass: groupOfUniqueNames", lines[1]);
+        assertEquals("objectClass: top", lines[2]);
+    }
+
+    @Test
+    public void testExport_deterministic() throws Exception {
+        //prepare
+        addPerson("b");
+        addPerson("a");
+        final StringWriter first = new StringWriter();
+        final StringWriter second = new StringWriter();
+
+        //act
+        subject.export("dc=scribble", first);
+        subject.export("dc=scribble", second);
+
+        //assert
+        assertEquals(first.toString(), second.toString());
+        assertTrue(first.toString().indexOf("dn: cn=a,") < first.toString().indexOf("dn: cn=b,"));
+    }
+
+    @Test
+    public void testEntries() throws Exception {
+        //prepare
+
+        //act
+        final Iterator<Entry> entries = subject.entries("ou=users,dc=scribble");
+
+        //assert
+        assertTrue(entries.hasNext());
+        assertEquals("ou=users,dc=scribble", entries.next().getDn().getName());
+        final Entry user = entries.next();
+        assertNotNull(user.get("mail"));
+        assertFalse(entries.hasNext());
+    }
+
+    @Test(expected = IOException.class)
+    public void testExport_nonExistingBaseDn() throws Exception {
+
+        subject.export("ou=unknown,dc=scribble", new StringWriter());
+    }
+
+    private void addPerson(final String cn) throws Exception {
+
+        directory.getDirectoryService()
+                 .getAdminSession()
+                 .add(new DefaultEntry(directory.getDirectoryService().getSchemaManager(),
+                                       "cn=" + cn + ",ou=users,dc=scribble",
+                                       "objectClass: top",
+                                       "objectClass: person",
+                                       "cn: " + cn,
+                                       "sn: user"));
+    }
+}
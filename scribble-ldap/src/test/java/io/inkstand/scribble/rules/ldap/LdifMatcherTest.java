@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap;
+
+import static io.inkstand.scribble.rules.ldap.LdifMatcher.matchesLdif;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.file.Files;
+import org.apache.commons.io.Charsets;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.hamcrest.Description;
+import org.hamcrest.StringDescription;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+
+import io.inkstand.scribble.rules.ldap.builder.DirectoryBuilder;
+
+public class LdifMatcherTest {
+
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public Directory directory = new DirectoryBuilder(folder).withPartition("scribble", "dc=scribble")
+                                                             .importLdif(LdifMatcherTest.class.getResource(
+                                                                     "DirectoryExample.ldif"))
+                                                             .build();
+
+    @Rule
+    public RuleChain chain = RuleChain.outerRule(folder).around(directory);
+
+    @Rule
+    public TemporaryFolder files = new TemporaryFolder();
+
+    private URL expected;
+
+    private CoreSession session;
+
+    @Before
+    public void setUp() throws Exception {
+
+        final File file = files.newFile("expected.ldif");
+        try (Writer writer = new OutputStreamWriter(Files.newOutputStream(file.toPath()), Charsets.UTF_8)) {
+            directory.exportLdif("dc=scribble", writer);
+        }
+        expected = file.toURI().toURL();
+        session = directory.getDirectoryService().getAdminSession();
+    }
+
+    @Test
+    public void testMatches_exportedLdif() throws Exception {
+
+        assertThat(directory, matchesLdif("dc=scribble", expected));
+    }
+
+    @Test
+    public void testMatches_modifiedAttribute() throws Exception {
+        //prepare
+        session.modify(new Dn("uid=testuser,ou=users,dc=scribble"),
+                       new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "mail", "other@inkstand.io"));
+        final LdifMatcher subject = matchesLdif("dc=scribble", expected);
+
+        //act
+        final boolean result = subject.matches(directory);
+
+        //assert
+        assertFalse(result);
+        final String mismatch = describeMismatch(subject);
+        assertTrue(mismatch, mismatch.contains("1 differences"));
+        assertTrue(mismatch, mismatch.contains("uid=testuser,ou=users,dc=scribble: mail"));
+        assertTrue(mismatch, mismatch.contains("other@inkstand.io"));
+    }
+
+    @Test
+    public void testMatches_ignoredAttribute() throws Exception {
+        //prepare
+        session.modify(new Dn("uid=testuser,ou=users,dc=scribble"),
+                       new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "mail", "other@inkstand.io"));
+
+        //act
+        final boolean result = matchesLdif("dc=scribble", expected).ignoring("mail").matches(directory);
+
+        //assert
+        assertTrue(result);
+    }
+
+    @Test
+    public void testMatches_missingEntry() throws Exception {
+        //prepare
+        session.delete(new Dn("cn=testgroup,ou=groups,dc=scribble"));
+        final LdifMatcher subject = matchesLdif("dc=scribble", expected);
+
+        //act
+        final boolean result = subject.matches(directory);
+
+        //assert
+        assertFalse(result);
+        final String mismatch = describeMismatch(subject);
+        assertTrue(mismatch, mismatch.contains("missing entry cn=testgroup,ou=groups,dc=scribble"));
+    }
+
+    @Test
+    public void testMatches_unexpectedEntry() throws Exception {
+        //prepare
+        session.add(new DefaultEntry(directory.getDirectoryService().getSchemaManager(),
+                                     "cn=other,ou=users,dc=scribble",
+                                     "objectClass: top",
+                                     "objectClass: person",
+                                     "cn: other",
+                                     "sn: user"));
+        final LdifMatcher subject = matchesLdif("dc=scribble", expected);
+
+        //act
+        final boolean result = subject.matches(directory);
+
+        //assert
+        assertFalse(result);
+        final String mismatch = describeMismatch(subject);
+        assertTrue(mismatch, mismatch.contains("unexpected entry cn=other,ou=users,dc=scribble"));
+    }
+
+    @Test(expected = AssertionError.class)
+    public void testMatches_unorderedLdif() throws Exception {
+        //prepare
+        final File file = files.newFile("unordered.ldif");
+        Files.write(file.toPath(),
+                    ("dn: ou=users,dc=scribble\nobjectClass: organizationalUnit\nou: users\n\n"
+                     + "dn: ou=groups,dc=scribble\nobjectClass: organizationalUnit\nou: groups\n").getBytes("UTF-8"));
+
+        //act
+        matchesLdif("dc=scribble", file.toURI().toURL()).matches(directory);
+    }
+
+    @Test
+    public void testMatches_noDirectory() throws Exception {
+
+        assertFalse(matchesLdif("dc=scribble", expected).matches("dc=scribble"));
+    }
+
+    @Test
+    public void testDescribeTo() throws Exception {
+        //prepare
+        final Description description = new StringDescription();
+
+        //act
+        matchesLdif("dc=scribble", expected).describeTo(description);
+
+        //assert
+        assertTrue(description.toString().contains("dc=scribble"));
+    }
+
+    private String describeMismatch(final LdifMatcher subject) {
+
+        final Description description = new StringDescription();
+        subject.describeMismatch(directory, description);
+        return description.toString();
+    }
+}
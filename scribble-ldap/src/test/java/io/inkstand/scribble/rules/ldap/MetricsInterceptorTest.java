@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.directory.api.ldap.model.cursor.EntryCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+
+import io.inkstand.scribble.rules.ldap.MetricsInterceptor.Operation;
+import io.inkstand.scribble.rules.ldap.MetricsInterceptor.SlowOperation;
+import io.inkstand.scribble.rules.ldap.builder.DirectoryBuilder;
+
+public class MetricsInterceptorTest {
+
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public DirectoryServer ldap = new DirectoryBuilder(folder).withPartition("scribble", "dc=scribble")
+                                                              .importLdif(MetricsInterceptorTest.class.getResource(
+                                                                      "DirectoryExample.ldif"))
+                                                              .aroundDirectoryServer()
+                                                              .onAvailablePort()
+                                                              .withMetrics(2)
+                                                              .build();
+
+    @Rule
+    public RuleChain chain = RuleChain.outerRule(folder).around(ldap);
+
+    private LdapConnection connection;
+
+    /**
+     * The class under test
+     */
+    private MetricsInterceptor subject;
+
+    @Before
+    public void setUp() throws Exception {
+
+        subject = ldap.getMetrics();
+        connection = new LdapNetworkConnection("localhost", ldap.getTcpPort());
+        connection.connect();
+        connection.bind("uid=testuser,ou=users,dc=scribble", "Password1");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+
+        connection.close();
+    }
+
+    @Test
+    public void testBindAndSearch() throws Exception {
+        //prepare
+
+        //act
+        int entries = 0;
+        final EntryCursor result = connection.search("ou=users,dc=scribble", "(objectClass=*)", SearchScope.SUBTREE);
+        while (result.next()) {
+            entries++;
+        }
+        result.close();
+
+        //assert
+        assertEquals(2, entries);
+        assertEquals(1, subject.getCount(Operation.BIND));
+        assertEquals(1, subject.getCount(Operation.SEARCH));
+        assertEquals(1.0, subject.getCountPerBind(Operation.SEARCH), 0.0);
+        assertEquals(2, subject.getEntriesReturned());
+        final SortedMap<Long, Long> entriesHistogram = subject.getSearchEntriesHistogram();
+        assertEquals(1, entriesHistogram.size());
+        assertEquals(Long.valueOf(1), entriesHistogram.get(4L));
+    }
+
+    @Test
+    public void testAddModifyDelete() throws Exception {
+        //prepare
+
+        //act
+        connection.add(new DefaultEntry("ou=tmp,dc=scribble", "objectClass: organizationalUnit", "ou: tmp"));
+        connection.modify("ou=tmp,dc=scribble",
+                          new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "description", "temp"));
+        connection.delete("ou=tmp,dc=scribble");
+
+        //assert
+        assertEquals(1, subject.getCount(Operation.ADD));
+        assertEquals(1, subject.getCount(Operation.MODIFY));
+        assertEquals(1, subject.getCount(Operation.DELETE));
+        assertEquals(1, sum(subject.getLatencyHistogram(Operation.ADD)));
+        assertTrue(subject.getMaxLatency(Operation.ADD, TimeUnit.NANOSECONDS) > 0);
+        assertTrue(subject.getLatencyPercentile(Operation.ADD, 99, TimeUnit.NANOSECONDS)
+                           >= subject.getMaxLatency(Operation.ADD, TimeUnit.NANOSECONDS));
+        assertTrue(subject.getAverageLatency(Operation.ADD, TimeUnit.NANOSECONDS)
+                           <= subject.getMaxLatency(Operation.ADD, TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testGetSlowestOperations() throws Exception {
+        //prepare
+        connection.search("ou=users,dc=scribble", "(uid=tu1)", SearchScope.SUBTREE).close();
+        connection.search("ou=groups,dc=scribble", "(cn=*)", SearchScope.SUBTREE).close();
+
+        //act
+        List<SlowOperation> slowest = subject.getSlowestOperations();
+
+        //assert
+        assertEquals(2, slowest.size());
+        assertTrue(slowest.get(0).getDuration(TimeUnit.NANOSECONDS)
+                           >= slowest.get(1).getDuration(TimeUnit.NANOSECONDS));
+        for (SlowOperation operation : slowest) {
+            if (operation.getOperation() == Operation.SEARCH) {
+                assertTrue(operation.getFilter().contains("="));
+            } else {
+                assertNull(operation.getFilter());
+            }
+        }
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        //prepare
+        final EntryCursor result = connection.search("ou=users,dc=scribble", "(objectClass=*)", SearchScope.SUBTREE);
+        while (result.next()) {
+            result.get();
+        }
+        result.close();
+
+        //act
+        subject.reset();
+
+        //assert
+        for (Operation operation : Operation.values()) {
+            assertEquals(0, subject.getCount(operation));
+            assertTrue(subject.getLatencyHistogram(operation).isEmpty());
+        }
+        assertEquals(0, subject.getEntriesReturned());
+        assertTrue(subject.getSlowestOperations().isEmpty());
+        assertEquals(0, subject.getLatencyPercentile(Operation.SEARCH, 50, TimeUnit.NANOSECONDS));
+    }
+
+    private static long sum(final SortedMap<Long, Long> histogram) {
+
+        long sum = 0;
+        for (Long count : histogram.values()) {
+            sum += count;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.RuleChain;
+import org.junit.rules.TemporaryFolder;
+
+import io.inkstand.scribble.rules.ldap.PopulationGenerator.MembershipDistribution;
+import io.inkstand.scribble.rules.ldap.builder.DirectoryBuilder;
+
+public class PopulationGeneratorTest {
+
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public Directory directory = new DirectoryBuilder(folder).withPartition("scribble", "dc=scribble")
+                                                             .importLdif(PopulationGeneratorTest.class.getResource(
+                                                                     "DirectoryExample.ldif"))
+                                                             .build();
+
+    @Rule
+    public RuleChain chain = RuleChain.outerRule(folder).around(directory);
+
+    /**
+     * The class under test
+     */
+    private PopulationGenerator subject;
+
+    @Before
+    public void setUp() throws Exception {
+
+        subject = new PopulationGenerator("dc=scribble");
+        subject.setUserCount(100);
+        subject.setGroupCount(10);
+        subject.setBatchSize(7);
+    }
+
+    @Test
+    public void testGenerate() throws Exception {
+        //prepare
+        subject.setGroupsPerUser(3);
+        subject.addUserAttribute("description", 20);
+        final DirectoryService service = directory.getDirectoryService();
+
+        //act
+        subject.generate(service);
+
+        //assert
+        //the organizational units exist in the ldif
+        assertEquals(110, subject.getEntryCount());
+        assertEquals(300, subject.getMembershipCount());
+        assertTrue(subject.getDuration(TimeUnit.NANOSECONDS) > 0);
+        assertTrue(subject.getEntriesPerSecond() > 0);
+
+        final CoreSession session = service.getAdminSession();
+        final Entry user = session.lookup(new Dn(subject.getUserDn(99)));
+        assertNotNull(user);
+        assertEquals("user99", user.get("uid").getString());
+        assertEquals(20, user.get("description").getString().length());
+        assertNotNull(user.get("entryUUID"));
+        int members = 0;
+        for (int i = 0; i < 10; i++) {
+            members += session.lookup(new Dn(subject.getGroupDn(i))).get("uniqueMember").size();
+        }
+        assertEquals(300, members);
+    }
+
+    @Test
+    public void testGenerate_twice_countsOfLastGeneration() throws Exception {
+        //prepare
+        subject.setGroupsPerUser(3);
+        final DirectoryService service = directory.getDirectoryService();
+        subject.generate(service);
+        subject.setOrganizationalUnits("people", "roles");
+
+        //act
+        subject.generate(service);
+
+        //assert
+        assertEquals(112, subject.getEntryCount());
+        assertEquals(300, subject.getMembershipCount());
+    }
+
+    @Test
+    public void testGenerate_userCanBind() throws Exception {
+        //prepare
+        subject.setUserPassword("secret");
+        final DirectoryService service = directory.getDirectoryService();
+
+        //act
+        subject.generate(service);
+
+        //assert
+        final CoreSession session = service.getSession(new Dn(subject.getUserDn(42)), "secret".getBytes("UTF-8"));
+        assertEquals(subject.getUserDn(42), session.getEffectivePrincipal().getName());
+    }
+
+    @Test
+    public void testGenerate_zipfDistribution() throws Exception {
+        //prepare
+        subject.setUserCount(1000);
+        subject.setMembershipDistribution(MembershipDistribution.ZIPF);
+        final DirectoryService service = directory.getDirectoryService();
+
+        //act
+        subject.generate(service);
+
+        //assert
+        final CoreSession session = service.getAdminSession();
+        final int first = session.lookup(new Dn(subject.getGroupDn(0))).get("uniqueMember").size();
+        final int last = session.lookup(new Dn(subject.getGroupDn(9))).get("uniqueMember").size();
+        assertTrue("first group " + first + " should be larger than last group " + last, first > 2 * last);
+    }
+
+    @Test
+    public void testGenerate_sameSeedSamePopulation() throws Exception {
+        //prepare
+        subject.setSeed(42);
+        subject.setOrganizationalUnits("people", "roles");
+        final PopulationGenerator other = new PopulationGenerator("dc=scribble");
+        other.setUserCount(100);
+        other.setGroupCount(10);
+        other.setSeed(42);
+        other.setOrganizationalUnits("people2", "roles2");
+        final DirectoryService service = directory.getDirectoryService();
+
+        //act
+        subject.generate(service);
+        other.generate(service);
+
+        //assert
+        //the organizational units are created
+        assertEquals(112, subject.getEntryCount());
+        final CoreSession session = service.getAdminSession();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(session.lookup(new Dn(subject.getGroupDn(i))).get("uniqueMember").size(),
+                         session.lookup(new Dn(other.getGroupDn(i))).get("uniqueMember").size());
+        }
+    }
+
+    @Test
+    public void testGenerate_sameSeedSameEntryUuids() throws Exception {
+        //prepare
+        subject.setSeed(42);
+        final DirectoryService service = directory.getDirectoryService();
+        subject.generate(service);
+        final CoreSession session = service.getAdminSession();
+        final String entryUuid = session.lookup(new Dn(subject.getUserDn(0)), "entryUUID").get("entryUUID").getString();
+        session.delete(new Dn(subject.getUserDn(0)));
+
+        //act
+        final PopulationGenerator other = new PopulationGenerator("dc=scribble");
+        other.setSeed(42);
+        other.setUserCount(1);
+        other.setGroupCount(1);
+        other.setOrganizationalUnits("users", "groups2");
+        other.generate(service);
+
+        //assert
+        assertEquals(entryUuid,
+                     session.lookup(new Dn(other.getUserDn(0)), "entryUUID").get("entryUUID").getString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetBatchSize_zero() throws Exception {
+
+        subject.setBatchSize(0);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.junit.After;
+import org.junit.Test;
+
+public class SchemaCachingDirectoryServiceFactoryTest {
+
+    /**
+     * The class under test
+     */
+    private final SchemaCachingDirectoryServiceFactory subject = new SchemaCachingDirectoryServiceFactory();
+
+    @After
+    public void tearDown() throws Exception {
+
+        final DirectoryService service = subject.getDirectoryService();
+        if (service.isStarted()) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void testInit_schemaLoaded() throws Exception {
+        //act
+        subject.init("schema-caching-test");
+
+        //assert
+        final DirectoryService service = subject.getDirectoryService();
+        assertTrue(service.isStarted());
+        assertNotNull(service.getSchemaManager().lookupAttributeTypeRegistry("uid"));
+        assertTrue(new File(service.getInstanceLayout().getPartitionsDirectory(), "schema").isDirectory());
+    }
+
+    @Test
+    public void testGetSchemaCache_extractedOnce() throws Exception {
+        //prepare
+        final File schemaCache = SchemaCachingDirectoryServiceFactory.getSchemaCache();
+        final long extracted = schemaCache.lastModified();
+
+        //act
+        final File cached = SchemaCachingDirectoryServiceFactory.getSchemaCache();
+
+        //assert
+        assertEquals(schemaCache, cached);
+        assertEquals(extracted, cached.lastModified());
+        assertTrue(new File(cached, "ou=schema.ldif").isFile());
+    }
+}
@@ -16,6 +16,7 @@
 
 package io.inkstand.scribble.rules.ldap.builder;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
@@ -25,8 +26,10 @@ import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -39,6 +42,7 @@ import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
 import io.inkstand.scribble.rules.ldap.Directory;
+import io.inkstand.scribble.rules.ldap.PopulationGenerator.MembershipDistribution;
 
 /**
  * Created by Gerald on 29.05.2015.
@@ -118,6 +122,32 @@ public class DirectoryBuilderTest {
         return partitionIds;
     }
 
+    @Test
+    public void testWithPartition_cacheSizeSyncAndIndices() throws Throwable {
+        //prepare
+
+        //act
+        DirectoryBuilder builder = subject.withPartition("test", "ou=test", 5000, false, "uid", "mail");
+
+        //assert
+        assertSame(builder, subject);
+        this.dir = subject.build();
+        this.dir.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                final AvlPartition partition = (AvlPartition) getPartitions(dir).get("test");
+                final SchemaManager schemaManager = dir.getDirectoryService().getSchemaManager();
+                assertEquals(5000, partition.getCacheSize());
+                assertFalse(partition.isSyncOnWrite());
+                assertTrue(partition.hasIndexOn(schemaManager.lookupAttributeTypeRegistry("uid")));
+                assertTrue(partition.hasIndexOn(schemaManager.lookupAttributeTypeRegistry("mail")));
+                assertTrue(partition.hasIndexOn(schemaManager.lookupAttributeTypeRegistry("objectClass")));
+            }
+        }, description).evaluate();
+    }
+
     @Test
     public void testImportLdif() throws Throwable {
         //prepare
@@ -145,6 +175,65 @@ public class DirectoryBuilderTest {
         }, description).evaluate();
     }
 
+    @Test
+    public void testImportLdif_withImportProgressInterval() throws Throwable {
+        //prepare
+        URL ldif = getClass().getResource("DirectoryBuilderTest_testUsers.ldif");
+
+        //act
+        dir = subject.withPartition("scribble", "dc=scribble").importLdif(ldif).withImportProgressInterval(2).build();
+
+        //assert
+        dir.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                assertTrue(dir.getDirectoryService().getSession().exists("uid=testuser,ou=users,dc=scribble"));
+                assertTrue(dir.getImportedEntries() > 0);
+            }
+        }, description).evaluate();
+    }
+
+    @Test
+    public void testWithPopulation() throws Throwable {
+        //prepare
+        URL ldif = getClass().getResource("DirectoryBuilderTest_testUsers.ldif");
+
+        //act
+        DirectoryBuilder builder = subject.withPartition("scribble", "dc=scribble")
+                                          .importLdif(ldif)
+                                          .withPopulation("dc=scribble", 50, 5)
+                                          .withMemberships(2, MembershipDistribution.ZIPF)
+                                          .withUserAttribute("description", 10)
+                                          .withGroupAttribute("description", 10)
+                                          .withPopulationSeed(1);
+
+        //assert
+        assertSame(subject, builder);
+        dir = builder.build();
+        assertNotNull(dir.getPopulationGenerator());
+        dir.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                final CoreSession session = dir.getDirectoryService().getAdminSession();
+                assertTrue(session.exists("uid=testuser,ou=users,dc=scribble"));
+                assertTrue(session.exists("uid=user49,ou=users,dc=scribble"));
+                assertTrue(session.exists("cn=group4,ou=groups,dc=scribble"));
+                assertEquals(100, dir.getPopulationGenerator().getMembershipCount());
+            }
+        }, description).evaluate();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWithUserAttribute_noPopulation() throws Exception {
+        //prepare
+
+        //act
+        subject.withUserAttribute("description", 10);
+    }
 
     @Test
     public void testAccessControlEnabled() throws Throwable {
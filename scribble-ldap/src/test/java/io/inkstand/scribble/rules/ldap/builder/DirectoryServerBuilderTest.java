@@ -24,8 +24,14 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.ResultCodeEnum;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -40,6 +46,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 import io.inkstand.scribble.net.NetworkUtils;
 import io.inkstand.scribble.rules.ldap.Directory;
 import io.inkstand.scribble.rules.ldap.DirectoryServer;
+import io.inkstand.scribble.rules.ldap.MetricsInterceptor;
 
 /**
  * Created by Gerald on 29.05.2015.
@@ -150,7 +157,7 @@ public class DirectoryServerBuilderTest {
     @Test
     public void testOnListenAddress() throws Throwable {
         //prepare
-        String address = "myhost";
+        String address = "localhost";
         final int port = NetworkUtils.findAvailablePort();
         subject.onPort(port);
 
@@ -160,7 +167,7 @@ public class DirectoryServerBuilderTest {
         //assert
         assertSame(builder, subject);
         DirectoryServer ds = subject.build();
-        assertEquals("myhost", ds.getListenAddress());
+        assertEquals("localhost", ds.getListenAddress());
 
         ds.apply(new Statement() {
 
@@ -173,4 +180,137 @@ public class DirectoryServerBuilderTest {
         }, description).evaluate();
     }
 
+    @Test
+    public void testWithTransportSettings() throws Throwable {
+        //prepare
+        final int port = NetworkUtils.findAvailablePort();
+        subject.onPort(port);
+
+        //act
+        DirectoryServerBuilder builder = subject.withBacklog(1000)
+                                               .withIoThreads(16)
+                                               .withMaxSizeLimit(5000)
+                                               .withMaxTimeLimit(60);
+
+        //assert
+        assertSame(builder, subject);
+        final DirectoryServer ds = subject.build();
+        assertEquals(1000, ds.getBacklog());
+        assertEquals(16, ds.getNbThreads());
+        assertEquals(5000, ds.getMaxSizeLimit());
+        assertEquals(60, ds.getMaxTimeLimit());
+
+        ds.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                assertThat(remotePort("localhost", port), isReachable());
+                assertEquals(5000, ds.getLdapServer().getMaxSizeLimit());
+                assertEquals(60, ds.getLdapServer().getMaxTimeLimit());
+            }
+        }, description).evaluate();
+    }
+
+    @Test
+    public void testWithLdaps() throws Throwable {
+        //prepare
+        final int ldapsPort = NetworkUtils.findAvailablePort();
+        subject.onPort(NetworkUtils.findAvailablePort());
+
+        //act
+        DirectoryServerBuilder builder = subject.withLdaps(ldapsPort);
+
+        //assert
+        assertSame(builder, subject);
+        DirectoryServer ds = subject.build();
+        assertTrue(ds.isLdapsEnabled());
+        assertEquals(ldapsPort, ds.getLdapsPort());
+
+        ds.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                assertThat(remotePort("localhost", ldapsPort), isReachable());
+            }
+        }, description).evaluate();
+    }
+
+    @Test
+    public void testWithLdaps_onAvailablePort() throws Throwable {
+        //prepare
+        subject.onAvailablePort();
+
+        //act
+        final DirectoryServer ds = subject.withLdaps().build();
+
+        //assert
+        ds.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                assertNotEquals(10636, ds.getLdapsPort());
+                assertThat(remotePort("localhost", ds.getLdapsPort()), isReachable());
+            }
+        }, description).evaluate();
+    }
+
+    @Test
+    public void testWithMetrics() throws Throwable {
+        //prepare
+        subject.onAvailablePort();
+
+        //act
+        DirectoryServerBuilder builder = subject.withMetrics();
+
+        //assert
+        assertSame(builder, subject);
+        final DirectoryServer ds = subject.build();
+        assertTrue(ds.isMetricsEnabled());
+
+        ds.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                assertNotNull(ds.getMetrics());
+                assertEquals(0, ds.getMetrics().getCount(MetricsInterceptor.Operation.SEARCH));
+            }
+        }, description).evaluate();
+    }
+
+    @Test
+    public void testWithFaultInjection() throws Throwable {
+        //prepare
+        subject.onAvailablePort();
+
+        //act
+        DirectoryServerBuilder builder = subject.withFaultInjection();
+
+        //assert
+        assertSame(builder, subject);
+        final DirectoryServer ds = subject.build();
+        assertTrue(ds.isFaultInjectionEnabled());
+
+        ds.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                ds.getFaultInjector().fail(MetricsInterceptor.Operation.BIND, ResultCodeEnum.UNAVAILABLE, 1.0);
+                final LdapConnection connection = new LdapNetworkConnection("localhost", ds.getTcpPort());
+                try {
+                    connection.bind("uid=admin,ou=system", "secret");
+                    fail("Bind should be answered with UNAVAILABLE");
+                } catch (LdapException e) { //NOSONAR
+                    assertEquals(1, ds.getFaultInjector().getFailedRequests());
+                } finally {
+                    connection.close();
+                }
+            }
+        }, description).evaluate();
+    }
+
 }
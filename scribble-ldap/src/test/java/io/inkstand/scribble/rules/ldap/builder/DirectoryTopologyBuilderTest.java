@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015-2016 DevCon5 GmbH, info@devcon5.ch
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.inkstand.scribble.rules.ldap.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import io.inkstand.scribble.rules.ldap.DirectoryTopology;
+
+public class DirectoryTopologyBuilderTest {
+
+    /**
+     * The class under test
+     */
+    private DirectoryTopologyBuilder subject;
+
+    @Before
+    public void setUp() throws Exception {
+
+        subject = new DirectoryTopologyBuilder("dc=scribble");
+    }
+
+    @Test
+    public void testBuild() throws Throwable {
+        //prepare
+        subject.withNode(newNode().importLdif(DirectoryTopologyBuilderTest.class.getResource(
+                "/io/inkstand/scribble/rules/ldap/DirectoryExample.ldif")).aroundDirectoryServer().onAvailablePort());
+
+        //act
+        DirectoryTopologyBuilder builder = subject.withNode(newNode().aroundDirectoryServer().onAvailablePort());
+
+        //assert
+        assertSame(builder, subject);
+        final DirectoryTopology topology = subject.build();
+        assertNotNull(topology);
+        assertEquals(2, topology.getNodes().size());
+        assertTrue(topology.getProvider().isReplicationProvider());
+        assertSame(topology.getProvider(), topology.getNode(1).getReplicationSource());
+
+        topology.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                topology.awaitReplication("uid=testuser,ou=users,dc=scribble", 10, TimeUnit.SECONDS);
+            }
+        }, Description.createTestDescription(DirectoryTopologyBuilderTest.class, "testBuild")).evaluate();
+    }
+
+    @Test
+    public void testWithReplicationLag() throws Throwable {
+        //prepare
+        subject.withNode(newNode().importLdif(DirectoryTopologyBuilderTest.class.getResource(
+                "/io/inkstand/scribble/rules/ldap/DirectoryExample.ldif")).aroundDirectoryServer().onAvailablePort());
+        subject.withNode(newNode().aroundDirectoryServer().onAvailablePort());
+
+        //act
+        DirectoryTopologyBuilder builder = subject.withReplicationLag(1, TimeUnit.SECONDS);
+
+        //assert
+        assertSame(builder, subject);
+        final DirectoryTopology topology = subject.build();
+
+        topology.apply(new Statement() {
+
+            @Override
+            public void evaluate() throws Throwable {
+
+                topology.awaitReplication("uid=testuser,ou=users,dc=scribble", 10, TimeUnit.SECONDS);
+                assertTrue(topology.getLastReplicationLag(TimeUnit.MILLISECONDS) >= 0);
+            }
+        }, Description.createTestDescription(DirectoryTopologyBuilderTest.class, "testWithReplicationLag")).evaluate();
+    }
+
+    private DirectoryBuilder newNode() {
+
+        return new DirectoryBuilder(new TemporaryFolder()).withPartition("scribble", "dc=scribble");
+    }
+}